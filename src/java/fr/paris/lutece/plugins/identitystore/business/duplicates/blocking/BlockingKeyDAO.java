@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.business.duplicates.blocking;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+public class BlockingKeyDAO implements IBlockingKeyDAO
+{
+    private static final int INSERT_MAX_ROWS = 1000;
+
+    private static final String SQL_QUERY_INSERT = "INSERT INTO identitystore_identity_blocking_key ( id_identity, key_type, key_value ) VALUES ";
+    private static final String SQL_QUERY_DELETE = "DELETE FROM identitystore_identity_blocking_key WHERE id_identity = ? ";
+    private static final String SQL_QUERY_DELETE_RANGE = "DELETE FROM identitystore_identity_blocking_key WHERE id_identity > ? AND id_identity <= ? ";
+    private static final String SQL_QUERY_SELECT_SHARED_KEY_VALUES = "SELECT key_value FROM identitystore_identity_blocking_key WHERE key_type = ? AND key_value > ? GROUP BY key_value HAVING COUNT(*) > 1 ORDER BY key_value LIMIT ? ";
+    private static final String SQL_QUERY_SELECT_GROUPS = "SELECT k.key_value, i.customer_id, CASE WHEN ${searchable} THEN 1 ELSE 0 END"
+            + " FROM identitystore_identity_blocking_key k JOIN identitystore_identity i ON i.id_identity = k.id_identity"
+            + " WHERE k.key_type = ? AND k.key_value IN ( ${key_values} ) AND i.is_merged = 0 AND i.is_deleted = 0 ORDER BY k.key_value, i.customer_id";
+    private static final String SQL_QUERY_FILTER_NOT_SUSPICIOUS = "NOT EXISTS (SELECT c.id_suspicious_identity FROM identitystore_quality_suspicious_identity c WHERE c.customer_id = i.customer_id)";
+    private static final String SQL_QUERY_FILTER_LOWER_SUSPICIOUS = "NOT EXISTS (SELECT c.id_suspicious_identity FROM identitystore_quality_suspicious_identity c JOIN identitystore_duplicate_rule r on c.id_duplicate_rule = r.id_rule WHERE c.customer_id = i.customer_id AND r.priority <= ?)";
+
+    @Override
+    public void insert( final Map<Integer, Map<BlockingKeyType, String>> keys, final Plugin plugin )
+    {
+        final List<Object[]> rows = new ArrayList<>( );
+        keys.forEach( ( nIdIdentity, identityKeys ) -> identityKeys.forEach( ( keyType, strKeyValue ) -> {
+            if ( strKeyValue != null )
+            {
+                rows.add( new Object[ ] {
+                        nIdIdentity, keyType, strKeyValue
+                } );
+            }
+        } ) );
+
+        for ( int nStart = 0; nStart < rows.size( ); nStart += INSERT_MAX_ROWS )
+        {
+            final List<Object[]> chunk = rows.subList( nStart, Math.min( nStart + INSERT_MAX_ROWS, rows.size( ) ) );
+            final String query = SQL_QUERY_INSERT + String.join( ", ", Collections.nCopies( chunk.size( ), "( ?, ?, ? )" ) );
+            try ( final DAOUtil daoUtil = new DAOUtil( query, plugin ) )
+            {
+                int nIndex = 1;
+                for ( final Object[] row : chunk )
+                {
+                    daoUtil.setInt( nIndex++, (Integer) row[0] );
+                    daoUtil.setString( nIndex++, ( (BlockingKeyType) row[1] ).name( ) );
+                    daoUtil.setString( nIndex++, (String) row[2] );
+                }
+                daoUtil.executeUpdate( );
+            }
+        }
+    }
+
+    @Override
+    public void delete( final int nIdIdentity, final Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdIdentity );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void deleteRange( final int nAfterIdentityId, final int nUpToIdentityId, final Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE_RANGE, plugin ) )
+        {
+            daoUtil.setInt( 1, nAfterIdentityId );
+            daoUtil.setInt( 2, nUpToIdentityId );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public List<String> selectSharedKeyValues( final BlockingKeyType keyType, final String strAfterKeyValue, final int nLimit, final Plugin plugin )
+    {
+        final List<String> keyValues = new ArrayList<>( );
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_SHARED_KEY_VALUES, plugin ) )
+        {
+            daoUtil.setString( 1, keyType.name( ) );
+            daoUtil.setString( 2, strAfterKeyValue );
+            daoUtil.setInt( 3, nLimit );
+            daoUtil.executeQuery( );
+            while ( daoUtil.next( ) )
+            {
+                keyValues.add( daoUtil.getString( 1 ) );
+            }
+        }
+        return keyValues;
+    }
+
+    @Override
+    public List<BlockingKeyGroup> selectGroups( final BlockingKeyType keyType, final List<String> keyValues, final boolean notSuspicious,
+            final int rulePriority, final Plugin plugin )
+    {
+        final List<BlockingKeyGroup> groups = new ArrayList<>( );
+        if ( keyValues.isEmpty( ) )
+        {
+            return groups;
+        }
+        final String query = SQL_QUERY_SELECT_GROUPS.replace( "${searchable}", notSuspicious ? SQL_QUERY_FILTER_NOT_SUSPICIOUS : SQL_QUERY_FILTER_LOWER_SUSPICIOUS )
+                .replace( "${key_values}", String.join( ", ", Collections.nCopies( keyValues.size( ), "?" ) ) );
+        try ( final DAOUtil daoUtil = new DAOUtil( query, plugin ) )
+        {
+            int nIndex = 1;
+            if ( !notSuspicious )
+            {
+                daoUtil.setInt( nIndex++, rulePriority );
+            }
+            daoUtil.setString( nIndex++, keyType.name( ) );
+            for ( final String strKeyValue : keyValues )
+            {
+                daoUtil.setString( nIndex++, strKeyValue );
+            }
+            daoUtil.executeQuery( );
+
+            BlockingKeyGroup group = null;
+            while ( daoUtil.next( ) )
+            {
+                final String strKeyValue = daoUtil.getString( 1 );
+                if ( group == null || !Objects.equals( group.getKeyValue( ), strKeyValue ) )
+                {
+                    group = new BlockingKeyGroup( keyType, strKeyValue );
+                    groups.add( group );
+                }
+                final String strCustomerId = daoUtil.getString( 2 );
+                group.getCustomerIds( ).add( strCustomerId );
+                if ( daoUtil.getInt( 3 ) == 1 )
+                {
+                    group.getSearchableCustomerIds( ).add( strCustomerId );
+                }
+            }
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.business.duplicates.blocking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The identities sharing the value of a blocking key
+ */
+public class BlockingKeyGroup
+{
+    private final BlockingKeyType _keyType;
+    private final String _strKeyValue;
+    private final List<String> _listCustomerIds = new ArrayList<>( );
+    private final List<String> _listSearchableCustomerIds = new ArrayList<>( );
+
+    public BlockingKeyGroup( final BlockingKeyType keyType, final String strKeyValue )
+    {
+        _keyType = keyType;
+        _strKeyValue = strKeyValue;
+    }
+
+    public BlockingKeyType getKeyType( )
+    {
+        return _keyType;
+    }
+
+    public String getKeyValue( )
+    {
+        return _strKeyValue;
+    }
+
+    /**
+     * @return the customer ids of all the identities of the group
+     */
+    public List<String> getCustomerIds( )
+    {
+        return _listCustomerIds;
+    }
+
+    /**
+     * @return the customer ids of the identities of the group from which duplicates can be searched, that is not already suspicious
+     */
+    public List<String> getSearchableCustomerIds( )
+    {
+        return _listSearchableCustomerIds;
+    }
+}
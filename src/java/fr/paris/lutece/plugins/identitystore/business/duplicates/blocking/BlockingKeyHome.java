@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.business.duplicates.blocking;
+
+import fr.paris.lutece.plugins.identitystore.service.IdentityStorePlugin;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.plugin.PluginService;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class BlockingKeyHome
+{
+    private static final IBlockingKeyDAO _dao = SpringContextService.getBean( IBlockingKeyDAO.BEAN_NAME );
+    private static final Plugin _plugin = PluginService.getPlugin( IdentityStorePlugin.PLUGIN_NAME );
+
+    private BlockingKeyHome( )
+    {
+    }
+
+    /**
+     * Replaces the blocking keys of an identity
+     */
+    public static void store( final int nIdIdentity, final Map<BlockingKeyType, String> keys )
+    {
+        _dao.delete( nIdIdentity, _plugin );
+        _dao.insert( Collections.singletonMap( nIdIdentity, keys ), _plugin );
+    }
+
+    /**
+     * Replaces the blocking keys of all the identities whose id is in the range ]nAfterIdentityId, nUpToIdentityId]: the keys of the identities that are not
+     * in the given map are removed.
+     */
+    public static void storeRange( final int nAfterIdentityId, final int nUpToIdentityId, final Map<Integer, Map<BlockingKeyType, String>> keys )
+    {
+        _dao.deleteRange( nAfterIdentityId, nUpToIdentityId, _plugin );
+        _dao.insert( keys, _plugin );
+    }
+
+    public static void remove( final int nIdIdentity )
+    {
+        _dao.delete( nIdIdentity, _plugin );
+    }
+
+    public static List<String> selectSharedKeyValues( final BlockingKeyType keyType, final String strAfterKeyValue, final int nLimit )
+    {
+        return _dao.selectSharedKeyValues( keyType, strAfterKeyValue, nLimit, _plugin );
+    }
+
+    public static List<BlockingKeyGroup> selectGroups( final BlockingKeyType keyType, final List<String> keyValues, final boolean notSuspicious,
+            final int rulePriority )
+    {
+        return _dao.selectGroups( keyType, keyValues, notSuspicious, rulePriority, _plugin );
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.business.duplicates.blocking;
+
+import fr.paris.lutece.plugins.identitystore.utils.Names;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Blocking keys computed for each identity. Two identities sharing the value of a blocking key are candidate duplicates, and only those candidates need
+ * to be verified by the duplicate rules during a sweep of the whole base.<br/>
+ * Each key is made of an encoding of two attributes, so that a typo in one attribute is still caught by another key.
+ */
+public enum BlockingKeyType
+{
+    BIRTHDATE_FAMILY_NAME( "birthdate", BlockingKeyType::date, "family_name", BlockingKeyType::initial ),
+    BIRTHDATE_FIRST_NAME( "birthdate", BlockingKeyType::date, "first_name", BlockingKeyType::initial ),
+    FAMILY_NAME_FIRST_NAME( "family_name", BlockingKeyType::skeleton, "first_name", BlockingKeyType::initial );
+
+    private static final int SKELETON_MAX_LENGTH = 20;
+
+    private final String _strFirstAttributeKey;
+    private final Function<String, String> _firstEncoder;
+    private final String _strSecondAttributeKey;
+    private final Function<String, String> _secondEncoder;
+
+    BlockingKeyType( final String strFirstAttributeKey, final Function<String, String> firstEncoder, final String strSecondAttributeKey,
+            final Function<String, String> secondEncoder )
+    {
+        _strFirstAttributeKey = strFirstAttributeKey;
+        _firstEncoder = firstEncoder;
+        _strSecondAttributeKey = strSecondAttributeKey;
+        _secondEncoder = secondEncoder;
+    }
+
+    /**
+     * @return the key names of the attributes the key is computed from
+     */
+    public List<String> getAttributeKeys( )
+    {
+        return Arrays.asList( _strFirstAttributeKey, _strSecondAttributeKey );
+    }
+
+    /**
+     * Computes the value of the key
+     *
+     * @param attributeValues
+     *            the attribute values of the identity, by attribute key name
+     * @return the value of the key, <code>null</code> if one of the attributes is missing
+     */
+    public String compute( final Map<String, String> attributeValues )
+    {
+        final String strFirst = encode( attributeValues.get( _strFirstAttributeKey ), _firstEncoder );
+        final String strSecond = encode( attributeValues.get( _strSecondAttributeKey ), _secondEncoder );
+        if ( strFirst == null || strSecond == null )
+        {
+            return null;
+        }
+        return strFirst + "|" + strSecond;
+    }
+
+    private static String encode( final String strValue, final Function<String, String> encoder )
+    {
+        if ( StringUtils.isBlank( strValue ) )
+        {
+            return null;
+        }
+        final String strEncoded = encoder.apply( strValue );
+        return StringUtils.isEmpty( strEncoded ) ? null : strEncoded;
+    }
+
+    private static String date( final String strValue )
+    {
+        return strValue.trim( );
+    }
+
+    /**
+     * @return the first letter of the value, without accent
+     */
+    private static String initial( final String strValue )
+    {
+        return StringUtils.left( Names.letters( strValue ), 1 );
+    }
+
+    /**
+     * @return the first letter of the value followed by its consonants, without accent nor repeated letter, so that the usual spelling variants of a
+     *         name share the same skeleton
+     */
+    private static String skeleton( final String strValue )
+    {
+        final String strLetters = Names.letters( strValue );
+        if ( strLetters.isEmpty( ) )
+        {
+            return strLetters;
+        }
+        final StringBuilder sbSkeleton = new StringBuilder( ).append( strLetters.charAt( 0 ) );
+        for ( int i = 1; i < strLetters.length( ) && sbSkeleton.length( ) < SKELETON_MAX_LENGTH; i++ )
+        {
+            final char c = strLetters.charAt( i );
+            if ( "AEIOUYHW".indexOf( c ) < 0 && c != sbSkeleton.charAt( sbSkeleton.length( ) - 1 ) )
+            {
+                sbSkeleton.append( c );
+            }
+        }
+        return sbSkeleton.toString( );
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.business.duplicates.blocking;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+
+import java.util.List;
+import java.util.Map;
+
+public interface IBlockingKeyDAO
+{
+    String BEAN_NAME = "identitystore.blockingKeyDAO";
+
+    /**
+     * Inserts the blocking keys of identities
+     *
+     * @param keys
+     *            the key values of each key type, by identity id
+     * @param plugin
+     *            the Plugin
+     */
+    void insert( final Map<Integer, Map<BlockingKeyType, String>> keys, final Plugin plugin );
+
+    /**
+     * Deletes the blocking keys of an identity
+     */
+    void delete( final int nIdIdentity, final Plugin plugin );
+
+    /**
+     * Deletes the blocking keys of the identities whose id is in the range ]nAfterIdentityId, nUpToIdentityId]
+     */
+    void deleteRange( final int nAfterIdentityId, final int nUpToIdentityId, final Plugin plugin );
+
+    /**
+     * Selects a page of the key values shared by several identities, using the key value as keyset cursor
+     *
+     * @param keyType
+     *            the key type
+     * @param strAfterKeyValue
+     *            the key value after which the page starts (the last value of the previous page, empty for the first page)
+     * @param nLimit
+     *            the maximum number of key values
+     * @param plugin
+     *            the Plugin
+     * @return the key values, in ascending order
+     */
+    List<String> selectSharedKeyValues( final BlockingKeyType keyType, final String strAfterKeyValue, final int nLimit, final Plugin plugin );
+
+    /**
+     * Loads, in one query, the groups of the not merged nor deleted identities sharing the given key values
+     *
+     * @param keyType
+     *            the key type
+     * @param keyValues
+     *            the key values
+     * @param notSuspicious
+     *            if the suspicious identities are not searchable, whatever the rule of their suspicion
+     * @param rulePriority
+     *            when <code>notSuspicious</code> is false, identities suspicious for a rule of this priority or a higher one are not searchable
+     * @param plugin
+     *            the Plugin
+     * @return the groups, in ascending key value order
+     */
+    List<BlockingKeyGroup> selectGroups( final BlockingKeyType keyType, final List<String> keyValues, final boolean notSuspicious, final int rulePriority,
+            final Plugin plugin );
+}
@@ -40,6 +40,7 @@ import fr.paris.lutece.util.ReferenceList;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * ISuspiciousIdentityDAO Interface
@@ -103,15 +104,28 @@ public interface ISuspiciousIdentityDAO
     boolean checkIfExcluded( String firstCuid, String secondCuid, Plugin plugin );
 
     /**
-     * Verify if suspicious identities are already marked as excluded
+     * Load, in one query, the customer ids of all the identities marked as excluded with the given identity
      *
-     * @param firstCuid
-     *            cuid of the firstCuid identity
-     * @param cuids
-     *            cuids of the potential secondCuid identity
+     * @param customerId
+     *            cuid of the identity
+     * @param plugin
+     *            the Plugin
+     * @return the excluded customer ids
+     */
+    Set<String> selectExcludedCustomerIds( String customerId, Plugin plugin );
+
+    /**
+     * Load, in one query, the customer ids among the candidates that are marked as excluded with the given identity
+     *
+     * @param customerId
+     *            cuid of the identity
+     * @param candidateCustomerIds
+     *            cuids of the candidates
      * @param plugin
+     *            the Plugin
+     * @return the excluded customer ids among the candidates
      */
-    boolean checkIfExcluded( String firstCuid, List<String> cuids, Plugin plugin );
+    Set<String> selectExcludedCustomerIds( String customerId, List<String> candidateCustomerIds, Plugin plugin );
 
     /**
      * Verify if at least one customer ID within a list is identified as suspicious
@@ -50,9 +50,12 @@ import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -71,7 +74,8 @@ public final class SuspiciousIdentityDAO implements ISuspiciousIdentityDAO
     private static final String SQL_QUERY_REMOVE_LOCK_WITH_ID_SUSPICIOUS = "DELETE FROM identitystore_quality_suspicious_identity_lock WHERE customer_id IN ( SELECT customer_id FROM identitystore_quality_suspicious_identity WHERE id_suspicious_identity = ? ) ";
     private static final String SQL_QUERY_PURGE_LOCKS = "DELETE FROM identitystore_quality_suspicious_identity_lock WHERE date_lock_end < NOW()";
     private static final String SQL_QUERY_CHECK_EXCLUDED = "SELECT COUNT(*) FROM identitystore_quality_suspicious_identity_excluded WHERE (first_customer_id = ? AND second_customer_id = ?) OR (first_customer_id = ? AND second_customer_id = ?)";
-    private static final String SQL_QUERY_CHECK_LIST_EXCLUDED = "SELECT COUNT(*) FROM identitystore_quality_suspicious_identity_excluded WHERE ";
+    private static final String SQL_QUERY_SELECT_EXCLUDED_CUIDS = "SELECT first_customer_id, second_customer_id FROM identitystore_quality_suspicious_identity_excluded WHERE first_customer_id = ? OR second_customer_id = ?";
+    private static final String SQL_QUERY_SELECT_EXCLUDED_CUIDS_AMONG = "SELECT first_customer_id, second_customer_id FROM identitystore_quality_suspicious_identity_excluded WHERE (first_customer_id = ? AND second_customer_id IN ( ${cuids} )) OR (second_customer_id = ? AND first_customer_id IN ( ${cuids} ))";
     private static final String SQL_QUERY_CHECK_SUSPICIOUS = "SELECT COUNT(*) FROM identitystore_quality_suspicious_identity WHERE customer_id IN (";
     private static final String SQL_QUERY_INSERT_EXCLUDED = "INSERT INTO identitystore_quality_suspicious_identity_excluded ( first_customer_id, second_customer_id, author_type, author_name, date_create ) VALUES ( ?, ?, ?, ?, NOW())";
     private static final String SQL_QUERY_DELETE = "DELETE FROM identitystore_quality_suspicious_identity WHERE id_suspicious_identity = ? ";
@@ -637,28 +641,59 @@ public final class SuspiciousIdentityDAO implements ISuspiciousIdentityDAO
     }
 
     @Override
-    public boolean checkIfExcluded( String firstCuid, List<String> cuids, Plugin plugin )
+    public Set<String> selectExcludedCustomerIds( final String customerId, final Plugin plugin )
     {
-        if ( CollectionUtils.isEmpty( cuids ) )
+        final Set<String> excludedCustomerIds = new HashSet<>( );
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_EXCLUDED_CUIDS, plugin ) )
         {
-            return false;
+            daoUtil.setString( 1, customerId );
+            daoUtil.setString( 2, customerId );
+            daoUtil.executeQuery( );
+
+            while ( daoUtil.next( ) )
+            {
+                excludedCustomerIds.add( otherCustomerId( customerId, daoUtil.getString( 1 ), daoUtil.getString( 2 ) ) );
+            }
         }
-        final String critaeria = String.join( "', '", cuids );
-        String query = SQL_QUERY_CHECK_LIST_EXCLUDED;
-        query += "(first_customer_id = '" + firstCuid + "' AND second_customer_id IN ( '" + critaeria + "' )) OR (first_customer_id IN ('" + critaeria
-                + "') AND second_customer_id = '" + firstCuid + "')";
+        return excludedCustomerIds;
+    }
 
+    @Override
+    public Set<String> selectExcludedCustomerIds( final String customerId, final List<String> candidateCustomerIds, final Plugin plugin )
+    {
+        final Set<String> excludedCustomerIds = new HashSet<>( );
+        if ( CollectionUtils.isEmpty( candidateCustomerIds ) )
+        {
+            return excludedCustomerIds;
+        }
+        final String query = SQL_QUERY_SELECT_EXCLUDED_CUIDS_AMONG.replace( "${cuids}",
+                String.join( ", ", Collections.nCopies( candidateCustomerIds.size( ), "?" ) ) );
         try ( final DAOUtil daoUtil = new DAOUtil( query, plugin ) )
         {
+            int nIndex = 1;
+            daoUtil.setString( nIndex++, customerId );
+            for ( final String candidateCustomerId : candidateCustomerIds )
+            {
+                daoUtil.setString( nIndex++, candidateCustomerId );
+            }
+            daoUtil.setString( nIndex++, customerId );
+            for ( final String candidateCustomerId : candidateCustomerIds )
+            {
+                daoUtil.setString( nIndex++, candidateCustomerId );
+            }
             daoUtil.executeQuery( );
 
-            if ( daoUtil.next( ) )
+            while ( daoUtil.next( ) )
             {
-                return daoUtil.getInt( 1 ) > 0;
+                excludedCustomerIds.add( otherCustomerId( customerId, daoUtil.getString( 1 ), daoUtil.getString( 2 ) ) );
             }
-
-            return false;
         }
+        return excludedCustomerIds;
+    }
+
+    private static String otherCustomerId( final String customerId, final String firstCustomerId, final String secondCustomerId )
+    {
+        return Objects.equals( firstCustomerId, customerId ) ? secondCustomerId : firstCustomerId;
     }
 
     @Override
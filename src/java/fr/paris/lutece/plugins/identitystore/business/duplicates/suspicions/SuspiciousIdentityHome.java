@@ -34,6 +34,7 @@
 package fr.paris.lutece.plugins.identitystore.business.duplicates.suspicions;
 
 import fr.paris.lutece.plugins.identitystore.business.identity.Identity;
+import fr.paris.lutece.plugins.identitystore.cache.ExcludedIdentitiesCache;
 import fr.paris.lutece.plugins.identitystore.business.identity.IdentityHome;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.search.SearchAttribute;
 import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
@@ -47,6 +48,7 @@ import org.apache.commons.collections.CollectionUtils;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * This class provides instances management methods (create, find, ...) for SuspiciousIdentity objects
@@ -56,6 +58,7 @@ public final class SuspiciousIdentityHome
     // Static variable pointed at the DAO instance
     private static final ISuspiciousIdentityDAO _dao = SpringContextService.getBean( "identitystore-quality.suspiciousIdentityDAO" );
     private static final Plugin _plugin = PluginService.getPlugin( "identitystore-quality" );
+    private static final ExcludedIdentitiesCache _excludedIdentitiesCache = SpringContextService.getBean( "identitystore.excludedIdentitiesCache" );
 
     /**
      * Private constructor - this class need not be instantiated
@@ -106,6 +109,8 @@ public final class SuspiciousIdentityHome
         if ( !excluded( firstCuid, secondCuid ) ) // TODO handle response with author if already excluded ?
         {
             _dao.insertExcluded( firstCuid, secondCuid, authorType, authorName, _plugin );
+            _excludedIdentitiesCache.remove( firstCuid );
+            _excludedIdentitiesCache.remove( secondCuid );
         }
     }
 
@@ -134,7 +139,33 @@ public final class SuspiciousIdentityHome
      */
     public static boolean excluded( String firstCuid, List<String> cuids )
     {
-        return _dao.checkIfExcluded( firstCuid, cuids, _plugin );
+        return !getExcludedCustomerIds( firstCuid, cuids ).isEmpty( );
+    }
+
+    /**
+     * Load the customer ids of all the identities marked as excluded with the given identity
+     *
+     * @param customerId
+     *            The CUID of the identity
+     * @return the excluded CUIDs
+     */
+    public static Set<String> getExcludedCustomerIds( final String customerId )
+    {
+        return _dao.selectExcludedCustomerIds( customerId, _plugin );
+    }
+
+    /**
+     * Load the customer ids, among the candidates, of the identities marked as excluded with the given identity
+     *
+     * @param customerId
+     *            The CUID of the identity
+     * @param candidateCustomerIds
+     *            The CUIDs of the candidates
+     * @return the excluded CUIDs among the candidates
+     */
+    public static Set<String> getExcludedCustomerIds( final String customerId, final List<String> candidateCustomerIds )
+    {
+        return _dao.selectExcludedCustomerIds( customerId, candidateCustomerIds, _plugin );
     }
 
     /**
@@ -234,11 +265,16 @@ public final class SuspiciousIdentityHome
     public static void removeExcludedIdentities( final String firstCuid, final String secondCuid )
     {
         _dao.removeExcludedIdentities( firstCuid, secondCuid, _plugin );
+        _excludedIdentitiesCache.remove( firstCuid );
+        _excludedIdentitiesCache.remove( secondCuid );
     }
 
     public static void removeExcludedIdentities( final String cuid )
     {
+        final Set<String> excludedCustomerIds = _dao.selectExcludedCustomerIds( cuid, _plugin );
         _dao.removeExcludedIdentities( cuid, _plugin );
+        _excludedIdentitiesCache.remove( cuid );
+        excludedCustomerIds.forEach( _excludedIdentitiesCache::remove );
     }
 
     /**
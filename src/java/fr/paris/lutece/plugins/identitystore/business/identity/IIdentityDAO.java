@@ -300,6 +300,18 @@ public interface IIdentityDAO
      */
     List<Identity> selectMergedIdentities( int identityId, Plugin plugin );
 
+    /**
+     * Load, in a single query, the identities of the provided customer IDs together with the identities that are merged to them.<br>
+     * Attributes are not loaded.
+     *
+     * @param customerIds
+     *            the list of customer IDs
+     * @param plugin
+     *            the plugin
+     * @return a list of {@link Identity}, containing both the requested identities and their merged identities
+     */
+    List<Identity> selectWithMergedIdentitiesByCustomerIds( List<String> customerIds, Plugin plugin );
+
     /**
      * Delete all attribute history of the identity's provided id.
      *
@@ -137,6 +137,11 @@ public final class IdentityDAO implements IIdentityDAO
             + " FROM identitystore_identity a WHERE a.expiration_date < NOW() AND a.is_merged = 0 AND a.is_mon_paris_active = 0 LIMIT ?";
     private static final String SQL_QUERY_SELECT_MERGED_TO = "SELECT " + COLUMNS
             + " FROM identitystore_identity a WHERE a.is_merged = 1 AND a.id_master_identity = ?";
+    // a union of two indexed lookups (by customer id, and by master identity), the merged identities also requested directly being returned once
+    private static final String SQL_QUERY_SELECT_WITH_MERGED_BY_CUSTOMER_IDS = "SELECT " + COLUMNS + " FROM identitystore_identity a"
+            + " WHERE a.customer_id IN (${customer_id_list})"
+            + " UNION ALL SELECT " + COLUMNS + " FROM identitystore_identity m JOIN identitystore_identity a ON a.id_master_identity = m.id_identity"
+            + " WHERE m.customer_id IN (${customer_id_list}) AND a.is_merged = 1 AND a.customer_id NOT IN (${customer_id_list})";
     private static final String SQL_QUERY_DELETE_ALL_ATTRIBUTE_HISTORY = "DELETE from identitystore_identity_attribute_history WHERE id_identity = ?";
     private static final String SQL_QUERY_SELECT_LAST_UPDATE_DATE_FROM_CUID = "SELECT last_update_date FROM identitystore_identity WHERE customer_id = ?";
     private static final String SQL_QUERY_SELECT_COUNT_IDENTITIES = "SELECT COUNT(*) FROM identitystore_identity";
@@ -938,6 +943,38 @@ public final class IdentityDAO implements IIdentityDAO
         return listIdentities;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Identity> selectWithMergedIdentitiesByCustomerIds( final List<String> customerIds, final Plugin plugin )
+    {
+        final List<Identity> listIdentities = new ArrayList<>( );
+        if ( customerIds.isEmpty( ) )
+        {
+            return listIdentities;
+        }
+        final String strSQL = SQL_QUERY_SELECT_WITH_MERGED_BY_CUSTOMER_IDS.replace( "${customer_id_list}",
+                String.join( ", ", Collections.nCopies( customerIds.size( ), "?" ) ) );
+        try ( final DAOUtil daoUtil = new DAOUtil( strSQL, plugin ) )
+        {
+            int nIndex = 1;
+            for ( int i = 0; i < 3; i++ )
+            {
+                for ( final String customerId : customerIds )
+                {
+                    daoUtil.setString( nIndex++, customerId );
+                }
+            }
+            daoUtil.executeQuery( );
+            while ( daoUtil.next( ) )
+            {
+                listIdentities.add( getIdentityFromQuery( daoUtil ) );
+            }
+        }
+        return listIdentities;
+    }
+
     /**
      * {@inheritDoc}
      */
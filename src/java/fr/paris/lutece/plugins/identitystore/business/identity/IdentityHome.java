@@ -427,6 +427,19 @@ public final class IdentityHome
         return _dao.selectMergedIdentities( identityId, _plugin );
     }
 
+    /**
+     * Load, in a single query, the identities of the provided customer IDs together with the identities that are merged to them.<br>
+     * Attributes are not loaded.
+     *
+     * @param customerIds
+     *            the list of customer IDs
+     * @return a list of {@link Identity}, containing both the requested identities and their merged identities
+     */
+    public static List<Identity> findWithMergedIdentitiesByCustomerIds( final List<String> customerIds )
+    {
+        return _dao.selectWithMergedIdentitiesByCustomerIds( customerIds, _plugin );
+    }
+
     /**
      * Delete all attribute history of the identity's provided id.
      * 
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.cache;
+
+import fr.paris.lutece.plugins.identitystore.business.attribute.AttributeKey;
+import fr.paris.lutece.plugins.identitystore.business.rules.duplicate.DuplicateRule;
+import fr.paris.lutece.plugins.identitystore.business.rules.duplicate.DuplicateRuleAttributeTreatment;
+import fr.paris.lutece.portal.service.cache.AbstractCacheableService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the candidates found by a duplicate rule for a set of attribute values.<br/>
+ * The key combines the rule code and a SHA-256 fingerprint of the trimmed values of the attributes checked by the rule, so that no personal data is kept in
+ * the keys. The value is the list of the customer ids returned by the search, before any filtering depending on the searching identity.<br/>
+ * Any index write may change the result of any search (an exact, fuzzy or phonetic match, or a missing attribute), so the writes are only counted by a global
+ * write sequence: an entry is dropped when:
+ * <ul>
+ * <li>it is older than the time to live;</li>
+ * <li>an identity has been written to the index since the search (write sequence);</li>
+ * <li>the duplicate rules changed (configuration version).</li>
+ * </ul>
+ * A write made shortly before a search is not necessarily visible to it yet: Elasticsearch only exposes the written documents at its next refresh. The
+ * result of a search started within the refresh interval after a write is therefore not cached.<br/>
+ * The cache is local to the node: the changes indexed by another node are only seen once the entries expire.
+ */
+public class DuplicateSearchCache extends AbstractCacheableService
+{
+    public static final String SERVICE_NAME = "DuplicateSearchCache";
+    private static final long TTL_MILLIS = AppPropertiesService.getPropertyInt( "identitystore.duplicate.cache.ttl", 60 ) * 1000L;
+    private static final long REFRESH_INTERVAL_MILLIS = AppPropertiesService.getPropertyInt( "identitystore.duplicate.cache.refresh.interval", 1000 );
+
+    private final AtomicLong _lWriteSequence = new AtomicLong( );
+    private final AtomicLong _lLastWriteTime = new AtomicLong( );
+    private final AtomicLong _lConfigurationVersion = new AtomicLong( );
+
+    public DuplicateSearchCache( )
+    {
+        this.initCache( );
+    }
+
+    public void refresh( )
+    {
+        AppLogService.debug( "Init duplicate search cache" );
+        _lConfigurationVersion.incrementAndGet( );
+        this.resetCache( );
+    }
+
+    /**
+     * @return the state to give to {@link #put(DuplicateRule, Map, List, Snapshot)}, taken before the search so that the writes made during the search
+     *         invalidate its result
+     */
+    public Snapshot snapshot( )
+    {
+        return new Snapshot( _lWriteSequence.get( ), _lConfigurationVersion.get( ), System.currentTimeMillis( ) );
+    }
+
+    public void put( final DuplicateRule rule, final Map<String, String> attributeValues, final List<String> customerIds, final Snapshot snapshot )
+    {
+        // writes made during the search, or not yet refreshed by Elasticsearch when it started, may have been missed by it
+        if ( snapshot._lWriteSequence != _lWriteSequence.get( ) || _lLastWriteTime.get( ) > snapshot._lTime - REFRESH_INTERVAL_MILLIS )
+        {
+            return;
+        }
+        final String cacheKey = computeCacheKey( rule, attributeValues );
+        this.putInCache( cacheKey, new Entry( new ArrayList<>( customerIds ), snapshot, System.currentTimeMillis( ) ) );
+        AppLogService.debug( "Duplicate search added to cache: " + cacheKey );
+    }
+
+    /**
+     * @return the customer ids of the candidates, <code>null</code> if the search must be performed
+     */
+    public List<String> get( final DuplicateRule rule, final Map<String, String> attributeValues )
+    {
+        final String cacheKey = computeCacheKey( rule, attributeValues );
+        final Entry entry = (Entry) this.getFromCache( cacheKey );
+        if ( entry == null )
+        {
+            return null;
+        }
+        if ( !this.isValid( entry ) )
+        {
+            this.removeKey( cacheKey );
+            return null;
+        }
+        return new ArrayList<>( entry._customerIds );
+    }
+
+    private boolean isValid( final Entry entry )
+    {
+        return entry._snapshot._lConfigurationVersion == _lConfigurationVersion.get( ) && entry._snapshot._lWriteSequence == _lWriteSequence.get( )
+                && System.currentTimeMillis( ) - entry._lCreationTime <= TTL_MILLIS;
+    }
+
+    /**
+     * Records that an identity has been written to (or removed from) the index: every search made before is invalidated. The entries are dropped when read,
+     * or evicted by the cache.
+     */
+    public void onIndexWrite( )
+    {
+        _lLastWriteTime.set( System.currentTimeMillis( ) );
+        _lWriteSequence.incrementAndGet( );
+    }
+
+    private static String computeCacheKey( final DuplicateRule rule, final Map<String, String> attributeValues )
+    {
+        final Map<String, String> checkedValues = new TreeMap<>( );
+        final List<AttributeKey> checkedAttributes = new ArrayList<>( rule.getCheckedAttributes( ) );
+        for ( final DuplicateRuleAttributeTreatment treatment : rule.getAttributeTreatments( ) )
+        {
+            checkedAttributes.addAll( treatment.getAttributes( ) );
+        }
+        for ( final AttributeKey key : checkedAttributes )
+        {
+            final String value = attributeValues.get( key.getKeyName( ) );
+            if ( value != null )
+            {
+                checkedValues.put( key.getKeyName( ), StringUtils.trim( value ) );
+            }
+        }
+        return rule.getCode( ) + "|" + sha256( checkedValues.toString( ) );
+    }
+
+    private static String sha256( final String value )
+    {
+        try
+        {
+            final byte [ ] digest = MessageDigest.getInstance( "SHA-256" ).digest( value.getBytes( StandardCharsets.UTF_8 ) );
+            final StringBuilder hex = new StringBuilder( );
+            for ( final byte b : digest )
+            {
+                hex.append( String.format( "%02x", b ) );
+            }
+            return hex.toString( );
+        }
+        catch( final NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    @Override
+    public String getName( )
+    {
+        return SERVICE_NAME;
+    }
+
+    /**
+     * Write sequence, configuration version and time at the start of a search
+     */
+    public static final class Snapshot implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        private final long _lWriteSequence;
+        private final long _lConfigurationVersion;
+        private final long _lTime;
+
+        private Snapshot( final long lWriteSequence, final long lConfigurationVersion, final long lTime )
+        {
+            _lWriteSequence = lWriteSequence;
+            _lConfigurationVersion = lConfigurationVersion;
+            _lTime = lTime;
+        }
+    }
+
+    private static final class Entry implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        private final ArrayList<String> _customerIds;
+        private final Snapshot _snapshot;
+        private final long _lCreationTime;
+
+        private Entry( final ArrayList<String> customerIds, final Snapshot snapshot, final long lCreationTime )
+        {
+            _customerIds = customerIds;
+            _snapshot = snapshot;
+            _lCreationTime = lCreationTime;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.cache;
+
+import fr.paris.lutece.plugins.identitystore.business.duplicates.suspicions.SuspiciousIdentityHome;
+import fr.paris.lutece.portal.service.cache.AbstractCacheableService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Cache of the customer ids marked as excluded with an identity, by customer id.<br/>
+ * The entries of both identities are removed when an exclusion is added or removed on this node; the time to live configured for the cache bounds the
+ * changes made on other nodes.
+ */
+public class ExcludedIdentitiesCache extends AbstractCacheableService
+{
+    public static final String SERVICE_NAME = "ExcludedIdentitiesCache";
+
+    public ExcludedIdentitiesCache( )
+    {
+        this.initCache( );
+    }
+
+    /**
+     * Gets the customer ids excluded with the given identity, loading them in one query when they are not cached.
+     *
+     * @param customerId
+     *            the customer id of the identity
+     * @return the excluded customer ids, never null
+     */
+    @SuppressWarnings( "unchecked" )
+    public Set<String> get( final String customerId )
+    {
+        if ( StringUtils.isBlank( customerId ) )
+        {
+            return Collections.emptySet( );
+        }
+        HashSet<String> excludedCustomerIds = (HashSet<String>) this.getFromCache( customerId );
+        if ( excludedCustomerIds == null )
+        {
+            excludedCustomerIds = new HashSet<>( SuspiciousIdentityHome.getExcludedCustomerIds( customerId ) );
+            this.putInCache( customerId, excludedCustomerIds );
+        }
+        return Collections.unmodifiableSet( excludedCustomerIds );
+    }
+
+    public void remove( final String customerId )
+    {
+        if ( this.getKeys( ).contains( customerId ) )
+        {
+            this.removeKey( customerId );
+        }
+        AppLogService.debug( "Excluded identities removed from cache: " + customerId );
+    }
+
+    @Override
+    public String getName( )
+    {
+        return SERVICE_NAME;
+    }
+}
@@ -33,6 +33,10 @@
  */
 package fr.paris.lutece.plugins.identitystore.service;
 
+import fr.paris.lutece.plugins.identitystore.service.duplicate.DuplicateService;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.client.ElasticHttpClientPool;
+import fr.paris.lutece.portal.service.init.ShutdownService;
+import fr.paris.lutece.portal.service.init.ShutdownServiceManager;
 import fr.paris.lutece.portal.service.plugin.PluginDefaultImplementation;
 
 /**
@@ -48,5 +52,33 @@ public class IdentityStorePlugin extends PluginDefaultImplementation
     @Override
     public void init( )
     {
+        ShutdownServiceManager.registerShutdownService( new ShutdownService( )
+        {
+            @Override
+            public String getName( )
+            {
+                return "Identitystore Elasticsearch HTTP connection pool";
+            }
+
+            @Override
+            public void process( )
+            {
+                ElasticHttpClientPool.shutdown( );
+            }
+        } );
+        ShutdownServiceManager.registerShutdownService( new ShutdownService( )
+        {
+            @Override
+            public String getName( )
+            {
+                return "Identitystore duplicate rules executor";
+            }
+
+            @Override
+            public void process( )
+            {
+                DuplicateService.shutdown( );
+            }
+        } );
     }
 }
@@ -41,6 +41,8 @@ import fr.paris.lutece.plugins.identitystore.business.identity.IdentityHome;
 import fr.paris.lutece.plugins.identitystore.cache.DemandTypeCacheService;
 import fr.paris.lutece.plugins.identitystore.service.contract.ServiceContractService;
 import fr.paris.lutece.plugins.identitystore.service.identity.IdentityService;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexActionType;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IndexOutboxService;
 import fr.paris.lutece.plugins.identitystore.service.listeners.IdentityStoreNotifyListenerService;
 import fr.paris.lutece.plugins.identitystore.service.user.InternalUserService;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.RequestAuthor;
@@ -149,6 +151,7 @@ public final class PurgeIdentityService
                     // => update the expiration date of expiredIdentity : it will be deleted later
                     expiredIdentity.setExpirationDate( demandExpirationDateMAX );
                     IdentityHome.update( expiredIdentity );
+                    IndexOutboxService.instance( ).record( IndexActionType.UPDATE, expiredIdentity.getCustomerId( ) );
 
                     // re-index and add history
                     IdentityStoreNotifyListenerService.instance( ).notifyListenersIdentityChange( IdentityChangeType.UPDATE, expiredIdentity,
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.daemon;
+
+import fr.paris.lutece.plugins.identitystore.business.duplicates.blocking.BlockingKeyHome;
+import fr.paris.lutece.plugins.identitystore.business.duplicates.blocking.BlockingKeyType;
+import fr.paris.lutece.plugins.identitystore.service.duplicate.BlockingKeyService;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.AttributeObject;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.IdentityObject;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IdentityObjectHome;
+import fr.paris.lutece.portal.service.datastore.DatastoreService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.util.sql.TransactionManager;
+import org.apache.commons.lang3.time.DurationFormatUtils;
+import org.apache.commons.lang3.time.StopWatch;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * This daemon computes the blocking keys of the whole base, walking the identities by id.<br/>
+ * The keys of each page of identities are replaced in one transaction, and the keys of the identities that are deleted, merged or purged are removed. An
+ * interrupted rebuild is resumed by the next run. Once a first rebuild is complete, the duplicate sweeps use the blocking keys, kept up to date by the
+ * blocking keys listener.
+ */
+public class BlockingKeyDaemon extends LoggingDaemon
+{
+    private static final String DATASTORE_KEY_LAST_IDENTITY_ID = "identitystore.blockingkeys.rebuild.identityId";
+
+    private final int BATCH_SIZE = AppPropertiesService.getPropertyInt( "identitystore.duplicates.blocking.rebuild.batch.size", 1000 );
+
+    @Override
+    public void doTask( )
+    {
+        final StopWatch stopWatch = new StopWatch( );
+        stopWatch.start( );
+
+        final int maxIdentityId = IdentityObjectHome.getMaxIdentityId( );
+        int lastIdentityId = Integer.parseInt( DatastoreService.getDataValue( DATASTORE_KEY_LAST_IDENTITY_ID, "0" ) );
+        if ( lastIdentityId > 0 )
+        {
+            this.info( "Resuming the blocking keys rebuild after identity id " + lastIdentityId );
+        }
+
+        int nbIdentities = 0;
+        Map<Integer, IdentityObject> page;
+        do
+        {
+            page = IdentityObjectHome.loadEligibleIdentitiesForIndex( lastIdentityId, maxIdentityId, BATCH_SIZE );
+            final int upToIdentityId = page.size( ) < BATCH_SIZE ? maxIdentityId : page.keySet( ).stream( ).max( Integer::compare ).orElse( maxIdentityId );
+
+            final Map<Integer, Map<BlockingKeyType, String>> keys = new HashMap<>( );
+            page.forEach( ( nIdIdentity, identity ) -> keys.put( nIdIdentity, BlockingKeyService.instance( ).computeKeys( this.attributeValues( identity ) ) ) );
+            TransactionManager.beginTransaction( null );
+            try
+            {
+                BlockingKeyHome.storeRange( lastIdentityId, upToIdentityId, keys );
+                TransactionManager.commitTransaction( null );
+            }
+            catch( final Exception e )
+            {
+                TransactionManager.rollBack( null );
+                this.error( "Could not store the blocking keys of the identities after id " + lastIdentityId + ", rebuild stopped : " + e.getMessage( ) );
+                return;
+            }
+
+            nbIdentities += page.size( );
+            lastIdentityId = upToIdentityId;
+            DatastoreService.setDataValue( DATASTORE_KEY_LAST_IDENTITY_ID, String.valueOf( lastIdentityId ) );
+        }
+        while ( lastIdentityId < maxIdentityId );
+
+        DatastoreService.setDataValue( DATASTORE_KEY_LAST_IDENTITY_ID, "0" );
+        DatastoreService.setDataValue( BlockingKeyService.DATASTORE_KEY_BUILT, "true" );
+
+        stopWatch.stop( );
+        final String duration = DurationFormatUtils.formatDurationWords( stopWatch.getTime( ), true, true );
+        this.info( "Blocking keys rebuilt for " + nbIdentities + " identities in " + duration );
+    }
+
+    private Map<String, String> attributeValues( final IdentityObject identity )
+    {
+        return identity.getAttributes( ).values( ).stream( ).filter( attribute -> Objects.nonNull( attribute.getValue( ) ) )
+                .collect( Collectors.toMap( AttributeObject::getKey, AttributeObject::getValue, ( a, b ) -> a ) );
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.duplicate;
+
+import fr.paris.lutece.plugins.identitystore.business.attribute.AttributeKey;
+import fr.paris.lutece.plugins.identitystore.business.duplicates.blocking.BlockingKeyGroup;
+import fr.paris.lutece.plugins.identitystore.business.duplicates.blocking.BlockingKeyHome;
+import fr.paris.lutece.plugins.identitystore.business.duplicates.blocking.BlockingKeyType;
+import fr.paris.lutece.plugins.identitystore.business.identity.Identity;
+import fr.paris.lutece.plugins.identitystore.business.rules.duplicate.DuplicateRule;
+import fr.paris.lutece.plugins.identitystore.business.rules.duplicate.DuplicateRuleAttributeTreatment;
+import fr.paris.lutece.plugins.identitystore.utils.Combinations;
+import fr.paris.lutece.portal.service.datastore.DatastoreService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Service of the blocking keys of the identities, used to restrict a sweep of the whole base for duplicates to the identities that share a blocking key
+ * with at least one other identity.
+ *
+ * @see BlockingKeyType
+ */
+public class BlockingKeyService
+{
+    /**
+     * Datastore key set once the blocking keys have been computed for the whole base
+     */
+    public static final String DATASTORE_KEY_BUILT = "identitystore.blockingkeys.built";
+
+    private static final boolean ENABLED = AppPropertiesService.getPropertyBoolean( "identitystore.duplicates.blocking.enabled", true );
+    private static final int PAGE_SIZE = AppPropertiesService.getPropertyInt( "identitystore.duplicates.blocking.page.size", 1000 );
+    private static final int GROUP_MAX_SIZE = AppPropertiesService.getPropertyInt( "identitystore.duplicates.blocking.group.max.size", 500 );
+
+    private static BlockingKeyService _instance;
+
+    public static BlockingKeyService instance( )
+    {
+        if ( _instance == null )
+        {
+            _instance = new BlockingKeyService( );
+        }
+        return _instance;
+    }
+
+    private BlockingKeyService( )
+    {
+    }
+
+    /**
+     * Computes the blocking keys of an identity
+     *
+     * @param attributeValues
+     *            the attribute values of the identity, by attribute key name
+     * @return the value of each key type that can be computed from the attributes of the identity
+     */
+    public Map<BlockingKeyType, String> computeKeys( final Map<String, String> attributeValues )
+    {
+        final Map<BlockingKeyType, String> keys = new EnumMap<>( BlockingKeyType.class );
+        for ( final BlockingKeyType keyType : BlockingKeyType.values( ) )
+        {
+            final String strKeyValue = keyType.compute( attributeValues );
+            if ( strKeyValue != null )
+            {
+                keys.put( keyType, strKeyValue );
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Replaces the blocking keys of an identity by the keys of its current attributes. Merged and deleted identities lose their keys.
+     *
+     * @param identity
+     *            the identity
+     */
+    public void refresh( final Identity identity )
+    {
+        if ( identity.isMerged( ) || identity.isDeleted( ) )
+        {
+            BlockingKeyHome.remove( identity.getId( ) );
+            return;
+        }
+        final Map<String, String> attributeValues = identity.getAttributes( ).values( ).stream( )
+                .filter( attribute -> attribute.getValue( ) != null )
+                .collect( Collectors.toMap( attribute -> attribute.getAttributeKey( ).getKeyName( ), attribute -> attribute.getValue( ), ( a, b ) -> a ) );
+        BlockingKeyHome.store( identity.getId( ), this.computeKeys( attributeValues ) );
+    }
+
+    public void remove( final Identity identity )
+    {
+        BlockingKeyHome.remove( identity.getId( ) );
+    }
+
+    /**
+     * @return the key types computed only from attributes checked by the rule
+     */
+    public List<BlockingKeyType> getKeyTypes( final DuplicateRule rule )
+    {
+        final Set<String> checkedAttributeKeys = rule.getCheckedAttributes( ).stream( ).map( AttributeKey::getKeyName ).collect( Collectors.toSet( ) );
+        final List<BlockingKeyType> keyTypes = new ArrayList<>( );
+        for ( final BlockingKeyType keyType : BlockingKeyType.values( ) )
+        {
+            if ( checkedAttributeKeys.containsAll( keyType.getAttributeKeys( ) ) )
+            {
+                keyTypes.add( keyType );
+            }
+        }
+        return keyTypes;
+    }
+
+    /**
+     * @return <code>true</code> if the blocking keys are enabled, computed for the whole base, and cover the rule
+     * @see #isCovered(DuplicateRule, List)
+     */
+    public boolean canSweep( final DuplicateRule rule )
+    {
+        return ENABLED && Boolean.parseBoolean( DatastoreService.getDataValue( DATASTORE_KEY_BUILT, "false" ) )
+                && this.isCovered( rule, this.getKeyTypes( rule ) );
+    }
+
+    /**
+     * Tells if two identities matched by the rule always share the value of at least one of the key types.<br/>
+     * A rule matches the identities that are strictly equal on <i>nbEqualAttributes</i> of the checked attributes that are not in the special treatment of
+     * the combination, the other attributes being missing, different, or approximated. The keys cover the rule only if every such set of strictly equal
+     * attributes contains the attributes of one of the key types; otherwise, a pair of duplicates could share no key, and the sweep must not rely on them.
+     *
+     * @param rule
+     *            the duplicate rule
+     * @param keyTypes
+     *            the key types
+     * @return <code>true</code> if the key types cover the rule
+     */
+    public boolean isCovered( final DuplicateRule rule, final List<BlockingKeyType> keyTypes )
+    {
+        if ( keyTypes.isEmpty( ) )
+        {
+            return false;
+        }
+        final int nbEqualAttributes = rule.getNbEqualAttributes( );
+        final List<String> checkedAttributeKeys = rule.getCheckedAttributes( ).stream( ).map( AttributeKey::getKeyName ).distinct( ).sorted( )
+                .collect( Collectors.toList( ) );
+        final List<Set<String>> nuples = new ArrayList<>( );
+        for ( final DuplicateRuleAttributeTreatment treatment : rule.getAttributeTreatments( ) )
+        {
+            nuples.add( treatment.getAttributes( ).stream( ).map( AttributeKey::getKeyName ).collect( Collectors.toSet( ) ) );
+        }
+        if ( nuples.isEmpty( ) )
+        {
+            nuples.add( Collections.emptySet( ) );
+        }
+
+        for ( final Set<String> nuple : nuples )
+        {
+            final List<String> others = checkedAttributeKeys.stream( ).filter( key -> !nuple.contains( key ) ).collect( Collectors.toList( ) );
+            if ( others.size( ) < nbEqualAttributes )
+            {
+                // no combination is searched for this special treatment
+                continue;
+            }
+            if ( nbEqualAttributes <= 0 )
+            {
+                return false;
+            }
+            for ( final List<String> equalAttributeKeys : Combinations.combinations( others, nbEqualAttributes ) )
+            {
+                if ( keyTypes.stream( ).noneMatch( keyType -> equalAttributeKeys.containsAll( keyType.getAttributeKeys( ) ) ) )
+                {
+                    AppLogService.debug( "Blocking keys do not cover rule " + rule.getCode( ) + " when only " + equalAttributeKeys + " are equal" );
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Walks, in one pass per key type usable by the rule, the groups of identities sharing a blocking key, and returns the customer ids from which
+     * duplicates must be searched.<br/>
+     * Groups larger than the configured maximum size are reported, the key not being selective enough for them, but their members are searched as well: a
+     * duplicate pair could share no other key.
+     *
+     * @param rule
+     *            the duplicate rule
+     * @param includeSuspicions
+     *            if the identities already suspicious for a rule of lower priority are returned
+     * @return the customer ids, each one once
+     */
+    public List<String> getCandidateCustomerIds( final DuplicateRule rule, final boolean includeSuspicions )
+    {
+        final Set<String> customerIds = new LinkedHashSet<>( );
+        for ( final BlockingKeyType keyType : this.getKeyTypes( rule ) )
+        {
+            int nbGroups = 0;
+            int nbLargeGroups = 0;
+            List<String> keyValues;
+            String strAfterKeyValue = "";
+            do
+            {
+                keyValues = BlockingKeyHome.selectSharedKeyValues( keyType, strAfterKeyValue, PAGE_SIZE );
+                if ( keyValues.isEmpty( ) )
+                {
+                    break;
+                }
+                for ( final BlockingKeyGroup group : BlockingKeyHome.selectGroups( keyType, keyValues, !includeSuspicions, rule.getPriority( ) ) )
+                {
+                    if ( group.getCustomerIds( ).size( ) < 2 )
+                    {
+                        continue;
+                    }
+                    if ( group.getCustomerIds( ).size( ) > GROUP_MAX_SIZE )
+                    {
+                        nbLargeGroups++;
+                    }
+                    nbGroups++;
+                    customerIds.addAll( group.getSearchableCustomerIds( ) );
+                }
+                strAfterKeyValue = keyValues.get( keyValues.size( ) - 1 );
+            }
+            while ( keyValues.size( ) == PAGE_SIZE );
+
+            AppLogService.info( "Blocking keys " + keyType.name( ) + " of rule " + rule.getCode( ) + " : " + nbGroups + " groups, " + nbLargeGroups
+                    + " groups larger than " + GROUP_MAX_SIZE );
+        }
+        return new ArrayList<>( customerIds );
+    }
+}
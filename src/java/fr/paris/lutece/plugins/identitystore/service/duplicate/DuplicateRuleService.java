@@ -37,6 +37,7 @@ import fr.paris.lutece.plugins.identitystore.business.duplicates.suspicions.Susp
 import fr.paris.lutece.plugins.identitystore.business.rules.duplicate.DuplicateRule;
 import fr.paris.lutece.plugins.identitystore.business.rules.duplicate.DuplicateRuleHome;
 import fr.paris.lutece.plugins.identitystore.cache.DuplicateRulesCache;
+import fr.paris.lutece.plugins.identitystore.cache.DuplicateSearchCache;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.duplicate.DuplicateRuleSummaryDto;
 import fr.paris.lutece.plugins.identitystore.web.exception.ResourceNotFoundException;
 import fr.paris.lutece.portal.service.spring.SpringContextService;
@@ -50,6 +51,7 @@ public class DuplicateRuleService
 {
 
     private final DuplicateRulesCache _cache = SpringContextService.getBean( "identitystore.duplicateRulesCache" );
+    private final DuplicateSearchCache _searchCache = SpringContextService.getBean( "identitystore.duplicateSearchCache" );
     private static DuplicateRuleService _instance;
 
     public static DuplicateRuleService instance( )
@@ -151,6 +153,7 @@ public class DuplicateRuleService
     {
         DuplicateRuleHome.create( duplicateRule );
         _cache.put( duplicateRule );
+        _searchCache.refresh( );
         return duplicateRule;
     }
 
@@ -164,6 +167,7 @@ public class DuplicateRuleService
     {
         DuplicateRuleHome.update( duplicateRule );
         _cache.put( duplicateRule );
+        _searchCache.refresh( );
         return duplicateRule;
     }
 
@@ -176,6 +180,7 @@ public class DuplicateRuleService
     {
         DuplicateRuleHome.delete( id );
         _cache.remove( id );
+        _searchCache.refresh( );
     }
 
 }
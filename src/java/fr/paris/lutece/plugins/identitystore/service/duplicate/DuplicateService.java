@@ -34,8 +34,9 @@
 package fr.paris.lutece.plugins.identitystore.service.duplicate;
 
 import fr.paris.lutece.plugins.identitystore.business.attribute.AttributeKey;
+import fr.paris.lutece.plugins.identitystore.cache.DuplicateSearchCache;
+import fr.paris.lutece.plugins.identitystore.cache.ExcludedIdentitiesCache;
 import fr.paris.lutece.plugins.identitystore.business.attribute.AttributeKeyHome;
-import fr.paris.lutece.plugins.identitystore.business.duplicates.suspicions.SuspiciousIdentityHome;
 import fr.paris.lutece.plugins.identitystore.business.identity.Identity;
 import fr.paris.lutece.plugins.identitystore.business.rules.duplicate.DuplicateRule;
 import fr.paris.lutece.plugins.identitystore.business.rules.duplicate.DuplicateRuleAttributeTreatment;
@@ -52,29 +53,79 @@ import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.search.SearchAttribut
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.util.Constants;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.util.ResponseStatusFactory;
 import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class DuplicateService implements IDuplicateService {
+    private static final int EXECUTOR_THREADS = AppPropertiesService.getPropertyInt("identitystore.identity.duplicates.executor.threads", 8);
+    private static final int EXECUTOR_QUEUE_SIZE = AppPropertiesService.getPropertyInt("identitystore.identity.duplicates.executor.queue.size", 100);
+    private static final int EXECUTOR_SHUTDOWN_TIMEOUT = AppPropertiesService.getPropertyInt("identitystore.identity.duplicates.executor.shutdown.timeout", 10);
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    /**
+     * Executor shared by the duplicate services to evaluate the rules of a check concurrently. When it is saturated, or shut down, the rules are evaluated by
+     * the calling thread.
+     */
+    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(EXECUTOR_THREADS, EXECUTOR_THREADS, 0L, TimeUnit.MILLISECONDS,
+                                                                           new ArrayBlockingQueue<>(EXECUTOR_QUEUE_SIZE), runnable -> {
+        final Thread thread = new Thread(runnable, "identitystore-duplicate-rule-" + THREAD_COUNTER.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }, (runnable, executor) -> runnable.run());
+
+    /**
+     * Stops the threads evaluating the duplicate rules, once the running evaluations are done.
+     */
+    public static void shutdown() {
+        EXECUTOR.shutdown();
+        try {
+            if (!EXECUTOR.awaitTermination(EXECUTOR_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                EXECUTOR.shutdownNow();
+            }
+        } catch (final InterruptedException e) {
+            EXECUTOR.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Identity Search service
      */
     protected final ISearchIdentityService _searchIdentityService;
 
+    /**
+     * Cache of the candidates found by each rule, null if the searches are not cached
+     */
+    protected final DuplicateSearchCache _duplicateSearchCache;
+
     public DuplicateService(final ISearchIdentityService _searchIdentityService) {
+        this(_searchIdentityService, null);
+    }
+
+    public DuplicateService(final ISearchIdentityService _searchIdentityService, final DuplicateSearchCache _duplicateSearchCache) {
         this._searchIdentityService = _searchIdentityService;
+        this._duplicateSearchCache = _duplicateSearchCache;
     }
 
     /**
@@ -90,24 +141,76 @@ public class DuplicateService implements IDuplicateService {
     public Map<String, QualifiedIdentitySearchResult> findDuplicates(final Map<String, String> attributeValues, final String customerId,
                                                                      final List<DuplicateRule> duplicateRules,
                                                                      final List<String> attributesFilter) throws IdentityStoreException {
+        return this.findDuplicates(attributeValues, customerId, duplicateRules, attributesFilter, false);
+    }
+
+    /**
+     * Applies the given {@link DuplicateRule} concurrently on the duplicate rule executor. The results are assembled by rule priority.<br/>
+     * When <code>stopAtFirstMatch</code> is set, the result stops at the first rule, by priority, that finds at least one duplicate: the searches of the
+     * lower priority rules are cancelled and those rules are absent from the result.
+     *
+     * @param attributeValues  a {@link Map} of attribute key and attribute value of the base {@link Identity}
+     * @param customerId       the customerId of the base {@link Identity}
+     * @param duplicateRules   the list of {@link DuplicateRule} to be applied
+     * @param stopAtFirstMatch true if only the first rule finding duplicates is needed
+     * @return a {@link Map} that contains the result of each search request by duplicate rule code, in priority order.
+     */
+    @Override
+    public Map<String, QualifiedIdentitySearchResult> findDuplicates(final Map<String, String> attributeValues, final String customerId,
+                                                                     final List<DuplicateRule> duplicateRules, final List<String> attributesFilter,
+                                                                     final boolean stopAtFirstMatch) throws IdentityStoreException {
         duplicateRules.sort(Comparator.comparingInt(DuplicateRule::getPriority));
-        final Map<String, QualifiedIdentitySearchResult> result = new HashMap<>();
-        for (final DuplicateRule duplicateRule : duplicateRules) {
-            result.put(duplicateRule.getCode(), this.findDuplicates(attributeValues, customerId, duplicateRule, attributesFilter));
+        final Map<String, QualifiedIdentitySearchResult> result = new LinkedHashMap<>();
+        final ExcludedIdentitiesCache excludedIdentitiesCache = SpringContextService.getBean("identitystore.excludedIdentitiesCache");
+        final Set<String> excludedCustomerIds = excludedIdentitiesCache.get(customerId);
+        if (duplicateRules.size() <= 1) {
+            for (final DuplicateRule duplicateRule : duplicateRules) {
+                result.put(duplicateRule.getCode(), this.findDuplicates(attributeValues, customerId, duplicateRule, attributesFilter, excludedCustomerIds));
+            }
+            return result;
+        }
+
+        final List<Future<QualifiedIdentitySearchResult>> searches = new ArrayList<>();
+        try {
+            for (final DuplicateRule duplicateRule : duplicateRules) {
+                searches.add(EXECUTOR.submit(() -> this.findDuplicates(attributeValues, customerId, duplicateRule, attributesFilter, excludedCustomerIds)));
+            }
+            for (int i = 0; i < duplicateRules.size(); i++) {
+                final QualifiedIdentitySearchResult ruleResult = this.waitFor(searches.get(i));
+                result.put(duplicateRules.get(i).getCode(), ruleResult);
+                if (stopAtFirstMatch && !ruleResult.getQualifiedIdentities().isEmpty()) {
+                    break;
+                }
+            }
+        } finally {
+            searches.forEach(search -> search.cancel(true));
         }
         return result;
     }
 
+    private QualifiedIdentitySearchResult waitFor(final Future<QualifiedIdentitySearchResult> search) throws IdentityStoreException {
+        try {
+            return search.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdentityStoreException("Interrupted while searching for duplicates", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IdentityStoreException) {
+                throw (IdentityStoreException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IdentityStoreException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
     private QualifiedIdentitySearchResult findDuplicates(final Map<String, String> attributeValues, final String customerId, final DuplicateRule duplicateRule,
-                                                         final List<String> attributesFilter) throws IdentityStoreException {
+                                                         final List<String> attributesFilter, final Set<String> excludedCustomerIds)
+            throws IdentityStoreException {
         if (CollectionUtils.isNotEmpty(duplicateRule.getCheckedAttributes()) && this.canApplyRule(attributeValues, duplicateRule)) {
-            final List<SearchAttribute> searchAttributes = this.mapBaseAttributes(attributeValues, duplicateRule);
-            final List<List<SearchAttribute>> specialTreatmentAttributes = this.mapSpecialTreatmentAttributes(attributeValues, duplicateRule);
-            final QualifiedIdentitySearchResult result = _searchIdentityService.getQualifiedIdentities(searchAttributes, specialTreatmentAttributes,
-                                                                                                       duplicateRule.getNbEqualAttributes(),
-                                                                                                       duplicateRule.getNbMissingAttributes(), 0, false,
-                                                                                                       attributesFilter);
-            result.getQualifiedIdentities().removeIf(qualifiedIdentity -> SuspiciousIdentityHome.excluded(qualifiedIdentity.getCustomerId(), customerId));
+            final QualifiedIdentitySearchResult result = this.search(attributeValues, duplicateRule, attributesFilter);
+            result.getQualifiedIdentities().removeIf(qualifiedIdentity -> excludedCustomerIds.contains(qualifiedIdentity.getCustomerId()));
             result.getQualifiedIdentities().removeIf(identity -> (identity.getMerge() != null && identity.getMerge().isMerged())
                                                                  || Objects.equals(identity.getCustomerId(), customerId));
             result.getQualifiedIdentities().forEach(qualifiedIdentity -> {
@@ -124,6 +227,34 @@ public class DuplicateService implements IDuplicateService {
         return new QualifiedIdentitySearchResult();
     }
 
+    /**
+     * Searches the candidates of a rule. When the searches are cached, the customer ids of the candidates found by a previous search with the same values are
+     * reused: the candidates are then loaded by customer id, and a search without candidate costs no request at all.
+     */
+    private QualifiedIdentitySearchResult search(final Map<String, String> attributeValues, final DuplicateRule duplicateRule,
+                                                 final List<String> attributesFilter) throws IdentityStoreException {
+        if (_duplicateSearchCache != null) {
+            final List<String> cachedCustomerIds = _duplicateSearchCache.get(duplicateRule, attributeValues);
+            if (cachedCustomerIds != null) {
+                return cachedCustomerIds.isEmpty() ? new QualifiedIdentitySearchResult()
+                                                   : _searchIdentityService.getQualifiedIdentities(cachedCustomerIds, attributesFilter);
+            }
+        }
+
+        final DuplicateSearchCache.Snapshot snapshot = _duplicateSearchCache != null ? _duplicateSearchCache.snapshot() : null;
+        final List<SearchAttribute> searchAttributes = this.mapBaseAttributes(attributeValues, duplicateRule);
+        final List<List<SearchAttribute>> specialTreatmentAttributes = this.mapSpecialTreatmentAttributes(attributeValues, duplicateRule);
+        final QualifiedIdentitySearchResult result = _searchIdentityService.getQualifiedIdentities(searchAttributes, specialTreatmentAttributes,
+                                                                                                   duplicateRule.getNbEqualAttributes(),
+                                                                                                   duplicateRule.getNbMissingAttributes(), 0, false,
+                                                                                                   attributesFilter);
+        if (_duplicateSearchCache != null) {
+            _duplicateSearchCache.put(duplicateRule, attributeValues,
+                                      result.getQualifiedIdentities().stream().map(IdentityDto::getCustomerId).collect(Collectors.toList()), snapshot);
+        }
+        return result;
+    }
+
     /**
      * A rule can be applying on a set of Attributes only when it contains nbFilledAttributes among checkedAttributes ({@link DuplicateRule} definition).
      *
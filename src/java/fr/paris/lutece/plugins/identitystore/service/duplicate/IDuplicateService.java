@@ -46,4 +46,7 @@ public interface IDuplicateService
 {
     Map<String, QualifiedIdentitySearchResult> findDuplicates(final Map<String, String> attributeValues, final String customerId, final List<DuplicateRule> duplicateRules,
                                                               final List<String> attributesFilter) throws IdentityStoreException;
+
+    Map<String, QualifiedIdentitySearchResult> findDuplicates(final Map<String, String> attributeValues, final String customerId, final List<DuplicateRule> duplicateRules,
+                                                              final List<String> attributesFilter, final boolean stopAtFirstMatch) throws IdentityStoreException;
 }
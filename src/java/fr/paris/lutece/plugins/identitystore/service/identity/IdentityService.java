@@ -47,6 +47,9 @@ import fr.paris.lutece.plugins.identitystore.business.rules.duplicate.DuplicateR
 import fr.paris.lutece.plugins.identitystore.cache.IdentityDtoCache;
 import fr.paris.lutece.plugins.identitystore.service.attribute.IdentityAttributeService;
 import fr.paris.lutece.plugins.identitystore.service.contract.AttributeCertificationDefinitionService;
+import fr.paris.lutece.plugins.identitystore.service.duplicate.BlockingKeyService;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexActionType;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IndexOutboxService;
 import fr.paris.lutece.plugins.identitystore.service.listeners.IdentityStoreNotifyListenerService;
 import fr.paris.lutece.plugins.identitystore.service.search.ISearchIdentityService;
 import fr.paris.lutece.plugins.identitystore.service.user.InternalUserService;
@@ -114,6 +117,7 @@ public class IdentityService
     private final IdentityStoreNotifyListenerService _identityStoreNotifyListenerService = IdentityStoreNotifyListenerService.instance( );
     private final IdentityAttributeService _identityAttributeService = IdentityAttributeService.instance( );
     private final InternalUserService _internalUserService = InternalUserService.getInstance( );
+    private final IndexOutboxService _indexOutboxService = IndexOutboxService.instance( );
     private final ISearchIdentityService _elasticSearchIdentityService = SpringContextService.getBean( "identitystore.searchIdentityService.elasticsearch" );
 
     // CACHE
@@ -167,6 +171,7 @@ public class IdentityService
                 attrStatusList.add( attributeStatus );
             }
 
+            _indexOutboxService.record( IndexActionType.CREATE, identity.getCustomerId( ) );
             TransactionManager.commitTransaction( null );
 
             /* Historique des modifications */
@@ -251,6 +256,7 @@ public class IdentityService
             // => process update :
             final List<AttributeStatus> attrStatusList = this.updateIdentity( identity, request.getIdentity( ), clientCode, metadata );
 
+            _indexOutboxService.record( IndexActionType.UPDATE, identity.getCustomerId( ) );
             TransactionManager.commitTransaction( null );
 
             /* Historique des modifications */
@@ -329,6 +335,8 @@ public class IdentityService
             IdentityHome.merge( secondaryIdentity );
             IdentityAttributeHome.removeAllAttributes( secondaryIdentity.getId( ) );
 
+            _indexOutboxService.record( IndexActionType.UPDATE, primaryIdentity.getCustomerId( ) );
+            _indexOutboxService.record( IndexActionType.DELETE, secondaryIdentity.getCustomerId( ) );
             TransactionManager.commitTransaction( null );
 
             /* Historique des modifications */
@@ -397,6 +405,7 @@ public class IdentityService
             /* Tag de l'identité secondaire */
             IdentityHome.cancelMerge( secondaryIdentity );
 
+            _indexOutboxService.record( IndexActionType.CREATE, secondaryIdentity.getCustomerId( ) );
             TransactionManager.commitTransaction( null );
 
             /* Indexation */
@@ -652,7 +661,9 @@ public class IdentityService
     /**
      * Gets a list of qualified identities on which to search potential duplicates.<br/>
      * Returned identities must have all attributes checked by the provided rule, and must also not be already merged nor be tagged as suspicious.<br/>
-     * The list is sorted by quality (higher quality identities first).
+     * The list is sorted by quality (higher quality identities first).<br/>
+     * When the blocking keys cover the rule, only the identities sharing a blocking key with another identity are returned; otherwise the identities having
+     * enough of the checked attributes are.
      *
      * @param rule
      *            the rule used to get matching identities
@@ -662,8 +673,16 @@ public class IdentityService
      */
     public Batch<String> getCUIDsBatchForPotentialDuplicate(final DuplicateRule rule, final int batchSize, final boolean includeSuspicions )
     {
-        final List<Integer> attributes = rule.getCheckedAttributes( ).stream( ).map( AttributeKey::getId ).collect( Collectors.toList( ) );
-        final List<String> customerIdsList = IdentityHome.findByAttributeExisting( attributes, rule.getNbFilledAttributes( ), true, !includeSuspicions, rule.getPriority() );
+        final List<String> customerIdsList;
+        if ( BlockingKeyService.instance( ).canSweep( rule ) )
+        {
+            customerIdsList = BlockingKeyService.instance( ).getCandidateCustomerIds( rule, includeSuspicions );
+        }
+        else
+        {
+            final List<Integer> attributes = rule.getCheckedAttributes( ).stream( ).map( AttributeKey::getId ).collect( Collectors.toList( ) );
+            customerIdsList = IdentityHome.findByAttributeExisting( attributes, rule.getNbFilledAttributes( ), true, !includeSuspicions, rule.getPriority() );
+        }
         if ( customerIdsList.isEmpty( ) )
         {
             return Batch.ofSize( Collections.emptyList( ), 0 );
@@ -688,6 +707,7 @@ public class IdentityService
         try {
             // expire identity (the deletion is managed by the dedicated Daemon)
             IdentityHome.softRemove(customerId);
+            _indexOutboxService.record( IndexActionType.DELETE, customerId );
             TransactionManager.commitTransaction(null);
 
             /* Notify listeners for indexation, history, ... */
@@ -750,6 +770,7 @@ public class IdentityService
 
             // update identity to set lastupdate_date
             IdentityHome.update( identity );
+            _indexOutboxService.record( IndexActionType.UPDATE, identity.getCustomerId( ) );
             TransactionManager.commitTransaction( null );
 
             /* Historique des modifications */
@@ -810,12 +831,14 @@ public class IdentityService
                     SuspiciousIdentityHome.removeExcludedIdentities( mergedIdentity.getCustomerId( ) );
                     IdentityHome.deleteAttributeHistory( mergedIdentity.getId( ) );
                     IdentityHome.hardRemove( mergedIdentity.getId( ) );
+                    _indexOutboxService.record( IndexActionType.DELETE, mergedIdentity.getCustomerId( ) );
                 }
                 // Delete the actual identity
                 SuspiciousIdentityHome.remove( customerId );
                 SuspiciousIdentityHome.removeExcludedIdentities( customerId );
                 IdentityHome.deleteAttributeHistory( identityId );
                 IdentityHome.hardRemove( identityId );
+                _indexOutboxService.record( IndexActionType.DELETE, customerId );
 
                 TransactionManager.commitTransaction( null );
             }
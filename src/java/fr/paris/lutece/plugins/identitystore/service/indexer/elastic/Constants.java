@@ -42,6 +42,9 @@ public final class Constants
     public static final String PATH_QUERY_UPDATE = "_update";
     public static final String PATH_QUERY_COUNT = "_count";
     public static final String PATH_QUERY_DELETE_BY_QUERY = "_delete_by_query";
+    public static final String PATH_QUERY_POINT_IN_TIME = "_pit";
+    public static final String PATH_QUERY_REFRESH = "_refresh";
+    public static final String PATH_QUERY_FORCE_MERGE = "_forcemerge";
 
     public static final String URL_PATH_SEPARATOR = "/";
     public static final String ELK_ACTION_INDEX = "index";
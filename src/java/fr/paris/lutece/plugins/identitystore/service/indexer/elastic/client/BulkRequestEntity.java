@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.client;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkAction;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A _bulk request body written straight to the connection output stream.<br>
+ * Each action line and document is generated by a shared {@link ObjectWriter} into the (optionally gzipped) stream, so the NDJSON payload is never
+ * materialized as a String nor copied into a byte array. The generator is only flushed once the whole body is written, so that the gzip stream is not
+ * forced to a sync point after each document.
+ */
+final class BulkRequestEntity extends AbstractHttpEntity
+{
+    private static final ContentType CONTENT_TYPE_NDJSON = ContentType.create( "application/x-ndjson" );
+    private static final String CONTENT_ENCODING_GZIP = "gzip";
+    private static final char LINE_SEPARATOR = '\n';
+    private static final String VERSION_TYPE_EXTERNAL = "external";
+
+    private final String _strIndex;
+    private final List<BulkAction> _bulkActions;
+    private final ObjectWriter _writer;
+    private final boolean _bGzip;
+
+    /**
+     * Constructor
+     *
+     * @param strIndex
+     *            the index
+     * @param bulkActions
+     *            the actions
+     * @param writer
+     *            the writer used for action lines and documents, used without flushing after each document
+     * @param bGzip
+     *            true to gzip the body
+     */
+    BulkRequestEntity( final String strIndex, final List<BulkAction> bulkActions, final ObjectWriter writer, final boolean bGzip )
+    {
+        super( CONTENT_TYPE_NDJSON, bGzip ? CONTENT_ENCODING_GZIP : null, true );
+        _strIndex = strIndex;
+        _bulkActions = bulkActions;
+        _writer = writer.without( SerializationFeature.FLUSH_AFTER_WRITE_VALUE );
+        _bGzip = bGzip;
+    }
+
+    @Override
+    public void writeTo( final OutputStream outStream ) throws IOException
+    {
+        final OutputStream out = _bGzip ? new GZIPOutputStream( outStream ) : outStream;
+        try ( final JsonGenerator generator = _writer.getFactory( ).createGenerator( out ) )
+        {
+            generator.disable( JsonGenerator.Feature.AUTO_CLOSE_TARGET );
+            generator.setRootValueSeparator( null );
+            for ( final BulkAction action : _bulkActions )
+            {
+                generator.writeStartObject( );
+                generator.writeObjectFieldStart( action.getType( ).getCode( ) );
+                generator.writeStringField( "_index", _strIndex );
+                generator.writeStringField( "_id", action.getKey( ) );
+                if ( action.getVersion( ) != null )
+                {
+                    generator.writeNumberField( "version", action.getVersion( ) );
+                    generator.writeStringField( "version_type", VERSION_TYPE_EXTERNAL );
+                }
+                generator.writeEndObject( );
+                generator.writeEndObject( );
+                generator.writeRaw( LINE_SEPARATOR );
+                if ( action.getType( ).hasDocument( ) && action.getDocument( ) != null )
+                {
+                    if ( action.getDocument( ) instanceof String )
+                    {
+                        generator.writeRaw( (String) action.getDocument( ) );
+                    }
+                    else
+                    {
+                        _writer.writeValue( generator, action.getDocument( ) );
+                    }
+                    generator.writeRaw( LINE_SEPARATOR );
+                }
+            }
+        }
+        if ( _bGzip )
+        {
+            ( (GZIPOutputStream) out ).finish( );
+        }
+        out.flush( );
+    }
+
+    /**
+     * Only meant for debugging: the body is meant to be streamed with {@link #writeTo(OutputStream)}
+     */
+    @Override
+    public InputStream getContent( ) throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream( );
+        this.writeTo( buffer );
+        return new ByteArrayInputStream( buffer.toByteArray( ) );
+    }
+
+    @Override
+    public long getContentLength( )
+    {
+        return -1;
+    }
+
+    @Override
+    public boolean isRepeatable( )
+    {
+        return true;
+    }
+
+    @Override
+    public boolean isStreaming( )
+    {
+        return false;
+    }
+
+    @Override
+    public void close( )
+    {
+        // nothing to release, the actions are owned by the caller
+    }
+}
@@ -37,21 +37,32 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.Constants;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkAction;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkResponse;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.alias.AliasActions;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.request.MultiSearchAction;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.HitCollector;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Response;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Responses;
 import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class ElasticClient
 {
     private static final ObjectMapper _mapper = new ObjectMapper( ).disable( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES );
+    private static final ObjectWriter _documentWriter = _mapper.writer( );
+    private static final String VERSION_TYPE_EXTERNAL = "external";
+    private static final int STATUS_CONFLICT = 409;
+    private static final int STATUS_NOT_FOUND = 404;
+    private static final boolean BULK_GZIP = AppPropertiesService.getPropertyBoolean( "identitystore.elastic.client.bulk.gzip", false );
     private static final String SETTINGS_PATH = "_settings";
     private final ElasticConnexion _connexion;
     private final String _strServerUrl;
@@ -65,7 +76,7 @@ public class ElasticClient
     public ElasticClient( final String strServerUrl )
     {
         _strServerUrl = strServerUrl;
-        _connexion = new ElasticConnexion( );
+        _connexion = new ElasticConnexion( strServerUrl );
     }
 
     /**
@@ -81,7 +92,7 @@ public class ElasticClient
     public ElasticClient( final String strServerUrl, final String strServerLogin, final String strServerPwd )
     {
         _strServerUrl = strServerUrl;
-        _connexion = new ElasticConnexion( strServerLogin, strServerPwd );
+        _connexion = new ElasticConnexion( strServerUrl, strServerLogin, strServerPwd );
     }
 
     /**
@@ -98,6 +109,48 @@ public class ElasticClient
      *             If a problem occurs connecting Elastic
      */
     public void create( final String strIndex, final String strId, final Object object ) throws ElasticClientException
+    {
+        this.create( strIndex, strId, object, null );
+    }
+
+    /**
+     * Create a document of given id in given index, with an external version. A write older than the indexed document is rejected, see
+     * {@link #isConflict(ElasticClientException)}.
+     *
+     * @param strIndex
+     *            The index
+     * @param strId
+     *            The document id
+     * @param object
+     *            The document
+     * @param lVersion
+     *            The external version of the document, null for an unversioned write
+     * @throws ElasticClientException
+     *             If a problem occurs connecting Elastic
+     */
+    public void create( final String strIndex, final String strId, final Object object, final Long lVersion ) throws ElasticClientException
+    {
+        this.create( strIndex, strId, object, lVersion, false );
+    }
+
+    /**
+     * Create a document of given id in given index, with an external version.
+     *
+     * @param strIndex
+     *            The index
+     * @param strId
+     *            The document id
+     * @param object
+     *            The document
+     * @param lVersion
+     *            The external version of the document, null for an unversioned write
+     * @param bRequireAlias
+     *            true if strIndex is an alias that must exist: Elastic Search answers 404 instead of creating an index without mappings
+     * @throws ElasticClientException
+     *             If a problem occurs connecting Elastic
+     */
+    public void create( final String strIndex, final String strId, final Object object, final Long lVersion, final boolean bRequireAlias )
+            throws ElasticClientException
     {
         try
         {
@@ -112,10 +165,14 @@ public class ElasticClient
                 strJSON = _mapper.writeValueAsString( object );
             }
 
-            final String strURI = getURI( strIndex ) + "_doc" + Constants.URL_PATH_SEPARATOR + strId;
+            final String strURI = getURI( strIndex ) + "_doc" + Constants.URL_PATH_SEPARATOR + strId + getWriteParameters( lVersion, bRequireAlias );
             _connexion.POST( strURI, strJSON );
         }
-        catch( final ElasticConnexionException | JsonProcessingException ex )
+        catch( final ElasticConnexionException ex )
+        {
+            throw new ElasticClientException( "ElasticLibrary : Error creating object : " + ex.getMessage( ), ex );
+        }
+        catch( final JsonProcessingException ex )
         {
             throw new ElasticClientException( "ElasticLibrary : Error creating object : " + ex.getMessage( ), ex );
         }
@@ -128,39 +185,17 @@ public class ElasticClient
      *            the elk index name
      * @param bulkActions
      *            the actions
-     * @return the reponse of Elk server
+     * @return the reponse of Elk server, holding the result of each action in the same order as the actions
      * @throws ElasticClientException
      */
-    public void indexByBulk( final String strIndex, final List<BulkAction> bulkActions ) throws ElasticClientException
+    public BulkResponse indexByBulk( final String strIndex, final List<BulkAction> bulkActions ) throws ElasticClientException
     {
         try
         {
             final String strURI = getURI( strIndex ) + Constants.PATH_QUERY_BULK;
-            final StringBuilder requestBuilder = new StringBuilder( );
-            for ( final BulkAction action : bulkActions )
-            {
-                requestBuilder.append( "{ \"" ).append( action.getType( ).getCode( ) ).append( "\" : { \"_index\" : \"" ).append( strIndex )
-                        .append( "\", \"_id\" : \"" ).append( action.getKey( ) ).append( "\" } }" );
-                requestBuilder.append( "\n" );
-                if ( action.getType( ).hasDocument( ) && action.getDocument( ) != null )
-                {
-                    final Object object = action.getDocument( );
-                    String strJSON;
-                    if ( object instanceof String )
-                    {
-                        strJSON = (String) object;
-                    }
-                    else
-                    {
-                        strJSON = _mapper.writeValueAsString( object );
-                    }
-                    requestBuilder.append( strJSON );
-                    requestBuilder.append( "\n" );
-                }
-            }
-            this._connexion.POST( strURI, requestBuilder.toString( ) );
+            return this._connexion.BULK( strURI, new BulkRequestEntity( strIndex, bulkActions, _documentWriter, BULK_GZIP ) );
         }
-        catch( final ElasticConnexionException | JsonProcessingException ex )
+        catch( final ElasticConnexionException ex )
         {
             throw new ElasticClientException( "ElasticLibrary : Error processing bulking request : " + ex.getMessage( ), ex );
         }
@@ -200,10 +235,28 @@ public class ElasticClient
      *             If a problem occurs connecting Elastic
      */
     public void deleteDocument( final String strIndex, final String strId ) throws ElasticClientException
+    {
+        this.deleteDocument( strIndex, strId, null );
+    }
+
+    /**
+     * Delete a document based on its id in the index, with an external version. A delete older than the indexed document is rejected, see
+     * {@link #isConflict(ElasticClientException)}.
+     *
+     * @param strIndex
+     *            The index
+     * @param strId
+     *            The id
+     * @param lVersion
+     *            The external version of the delete, null for an unversioned delete
+     * @throws ElasticClientException
+     *             If a problem occurs connecting Elastic
+     */
+    public void deleteDocument( final String strIndex, final String strId, final Long lVersion ) throws ElasticClientException
     {
         try
         {
-            final String strURI = getURI( strIndex ) + "_doc" + Constants.URL_PATH_SEPARATOR + strId;
+            final String strURI = getURI( strIndex ) + "_doc" + Constants.URL_PATH_SEPARATOR + strId + getWriteParameters( lVersion, false );
             this._connexion.DELETE( strURI );
         }
         catch( final ElasticConnexionException ex )
@@ -227,6 +280,48 @@ public class ElasticClient
      */
 
     public void update( final String strIndex, final String strId, final Object object ) throws ElasticClientException
+    {
+        this.update( strIndex, strId, object, null );
+    }
+
+    /**
+     * Replace a document of given id in given index, with an external version. A write older than the indexed document is rejected, see
+     * {@link #isConflict(ElasticClientException)}.
+     *
+     * @param strIndex
+     *            The index
+     * @param strId
+     *            The document id
+     * @param object
+     *            The document
+     * @param lVersion
+     *            The external version of the document, null for an unversioned write
+     * @throws ElasticClientException
+     *             If a problem occurs connecting Elastic
+     */
+    public void update( final String strIndex, final String strId, final Object object, final Long lVersion ) throws ElasticClientException
+    {
+        this.update( strIndex, strId, object, lVersion, false );
+    }
+
+    /**
+     * Replace a document of given id in given index, with an external version.
+     *
+     * @param strIndex
+     *            The index
+     * @param strId
+     *            The document id
+     * @param object
+     *            The document
+     * @param lVersion
+     *            The external version of the document, null for an unversioned write
+     * @param bRequireAlias
+     *            true if strIndex is an alias that must exist: Elastic Search answers 404 instead of creating an index without mappings
+     * @throws ElasticClientException
+     *             If a problem occurs connecting Elastic
+     */
+    public void update( final String strIndex, final String strId, final Object object, final Long lVersion, final boolean bRequireAlias )
+            throws ElasticClientException
     {
         try
         {
@@ -240,15 +335,54 @@ public class ElasticClient
                 strJSON = _mapper.writeValueAsString( object );
             }
 
-            final String strURI = getURI( strIndex ) + "_doc" + Constants.URL_PATH_SEPARATOR + strId;
+            final String strURI = getURI( strIndex ) + "_doc" + Constants.URL_PATH_SEPARATOR + strId + getWriteParameters( lVersion, bRequireAlias );
             this._connexion.POST( strURI, strJSON );
         }
-        catch( final ElasticConnexionException | JsonProcessingException ex )
+        catch( final ElasticConnexionException ex )
+        {
+            throw new ElasticClientException( "ElasticLibrary : Error updating: " + ex.getMessage( ), ex );
+        }
+        catch( final JsonProcessingException ex )
         {
             throw new ElasticClientException( "ElasticLibrary : Error updating: " + ex.getMessage( ), ex );
         }
     }
 
+    private static String getWriteParameters( final Long lVersion, final boolean bRequireAlias )
+    {
+        final List<String> parameters = new ArrayList<>( );
+        if ( lVersion != null )
+        {
+            parameters.add( "version=" + lVersion );
+            parameters.add( "version_type=" + VERSION_TYPE_EXTERNAL );
+        }
+        if ( bRequireAlias )
+        {
+            parameters.add( "require_alias=true" );
+        }
+        return parameters.isEmpty( ) ? "" : "?" + String.join( "&", parameters );
+    }
+
+    /**
+     * @param ex
+     *            an exception thrown by this client
+     * @return true if Elastic Search answered that the index or the alias does not exist
+     */
+    public static boolean isNotFound( final ElasticClientException ex )
+    {
+        return ex.getCause( ) instanceof ElasticConnexionException && ( (ElasticConnexionException) ex.getCause( ) ).getStatusCode( ) == STATUS_NOT_FOUND;
+    }
+
+    /**
+     * @param ex
+     *            an exception thrown by this client
+     * @return true if Elastic Search answered with a conflict: with external versioning, the index already holds the same or a newer version of the document
+     */
+    public static boolean isConflict( final ElasticClientException ex )
+    {
+        return ex.getCause( ) instanceof ElasticConnexionException && ( (ElasticConnexionException) ex.getCause( ) ).getStatusCode( ) == STATUS_CONFLICT;
+    }
+
     /**
      * @param strIndex
      *            the index of the document
@@ -330,7 +464,7 @@ public class ElasticClient
      * Search a document of given type into a given index
      *
      * @param strIndex
-     *            The index
+     *            The index, or null when the search targets a point in time
      * @param search
      *            search request
      * @return The JSON response from Elastic
@@ -351,6 +485,78 @@ public class ElasticClient
         }
     }
 
+    /**
+     * Search into a given index, streaming the hits of the response to a collector instead of mapping the whole response
+     *
+     * @param strIndex
+     *            The index, or null when the search targets a point in time
+     * @param search
+     *            search request
+     * @param collector
+     *            the collector of the hits
+     * @return The response, without hits
+     * @throws ElasticClientException
+     *             If a problem occurs connecting Elastic
+     */
+    public Response search( final String strIndex, final Object search, final HitCollector collector ) throws ElasticClientException
+    {
+        try
+        {
+            final String strJSON = _mapper.writeValueAsString( search );
+            final String strURI = getURI( strIndex ) + Constants.PATH_QUERY_SEARCH;
+            return _connexion.SEARCH( strURI, strJSON, collector );
+        }
+        catch( final IOException | ElasticConnexionException ex )
+        {
+            throw new ElasticClientException( "ElasticLibrary : Error searching object : " + ex.getMessage( ), ex );
+        }
+    }
+
+    /**
+     * Open a point in time on a given index, so that consecutive searches see the same snapshot of the index
+     *
+     * @param strIndex
+     *            The index (or alias)
+     * @param strKeepAlive
+     *            how long the point in time must be kept between two searches (ex: 1m)
+     * @return the id of the point in time
+     * @throws ElasticClientException
+     *             If a problem occurs connecting Elastic
+     */
+    public String openPointInTime( final String strIndex, final String strKeepAlive ) throws ElasticClientException
+    {
+        try
+        {
+            final String strURI = getURI( strIndex ) + Constants.PATH_QUERY_POINT_IN_TIME + "?keep_alive=" + strKeepAlive;
+            return _mapper.readTree( this._connexion.POST( strURI ) ).path( "id" ).asText( );
+        }
+        catch( final IOException | ElasticConnexionException ex )
+        {
+            throw new ElasticClientException( "ElasticLibrary : Error opening point in time : " + ex.getMessage( ), ex );
+        }
+    }
+
+    /**
+     * Close a point in time
+     *
+     * @param strPointInTimeId
+     *            the id of the point in time
+     * @throws ElasticClientException
+     *             If a problem occurs connecting Elastic
+     */
+    public void closePointInTime( final String strPointInTimeId ) throws ElasticClientException
+    {
+        try
+        {
+            final String strURI = getURI( null ) + Constants.PATH_QUERY_POINT_IN_TIME;
+            this._connexion.DELETE( strURI, _mapper.writeValueAsString( Collections.singletonMap( "id", strPointInTimeId ) ) );
+        }
+        catch( final IOException | ElasticConnexionException ex )
+        {
+            throw new ElasticClientException( "ElasticLibrary : Error closing point in time : " + ex.getMessage( ), ex );
+        }
+    }
+
     /**
      * perform a multi search of documents : used to perform several query with a single http call
      *
@@ -366,24 +572,33 @@ public class ElasticClient
         try
         {
             final String strURI = getURI( strIndex ) + Constants.PATH_QUERY_MULTI_SEARCH;
-            final StringBuilder requestBuilder = new StringBuilder( );
-            for ( final MultiSearchAction action : searchActions )
-            {
-                switch( action.getType( ) )
-                {
-                    case INDEX:
-                        requestBuilder.append( "{ \"" ).append( action.getType( ).getCode( ) ).append( "\" : " ).append( action.getIndex( ) ).append( "\" }" );
-                        requestBuilder.append( "\n" );
-                        break;
-                    case QUERY:
-                        final String strJSON = _mapper.writeValueAsString( action.getQuery( ) );
-                        requestBuilder.append( "{}" ).append( "\n" ).append( strJSON ).append( "\n" );
-                        break;
-                    default:
-                        break;
-                }
-            }
-            return this._connexion.MSEARCH( strURI, requestBuilder.toString( ) );
+            return this._connexion.MSEARCH( strURI, this.buildMultiSearchBody( searchActions ) );
+        }
+        catch( final IOException | ElasticConnexionException ex )
+        {
+            throw new ElasticClientException( "ElasticLibrary : Error processing multi search request : " + ex.getMessage( ), ex );
+        }
+    }
+
+    /**
+     * perform a multi search of documents, streaming the hits of all the responses to a collector
+     *
+     * @param strIndex
+     *            the elk index name
+     * @param searchActions
+     *            the actions
+     * @param collector
+     *            the collector of the hits
+     * @return the reponses of Elk server, without hits
+     * @throws ElasticClientException
+     */
+    public Responses multiSearch( final String strIndex, final List<MultiSearchAction> searchActions, final HitCollector collector )
+            throws ElasticClientException
+    {
+        try
+        {
+            final String strURI = getURI( strIndex ) + Constants.PATH_QUERY_MULTI_SEARCH;
+            return this._connexion.MSEARCH( strURI, this.buildMultiSearchBody( searchActions ), collector );
         }
         catch( final IOException | ElasticConnexionException ex )
         {
@@ -391,6 +606,28 @@ public class ElasticClient
         }
     }
 
+    private String buildMultiSearchBody( final List<MultiSearchAction> searchActions ) throws IOException
+    {
+        final StringBuilder requestBuilder = new StringBuilder( );
+        for ( final MultiSearchAction action : searchActions )
+        {
+            switch( action.getType( ) )
+            {
+                case INDEX:
+                    requestBuilder.append( "{ \"" ).append( action.getType( ).getCode( ) ).append( "\" : " ).append( action.getIndex( ) ).append( "\" }" );
+                    requestBuilder.append( "\n" );
+                    break;
+                case QUERY:
+                    final String strJSON = _mapper.writeValueAsString( action.getQuery( ) );
+                    requestBuilder.append( "{}" ).append( "\n" ).append( strJSON ).append( "\n" );
+                    break;
+                default:
+                    break;
+            }
+        }
+        return requestBuilder.toString( );
+    }
+
     /**
      * @param strIndex
      * @param strJsonMappings
@@ -430,6 +667,50 @@ public class ElasticClient
 
     }
 
+    /**
+     * Refresh an index, making all the operations performed since the last refresh available for search
+     *
+     * @param strIndex
+     *            the index
+     * @throws ElasticClientException
+     *             If a problem occurs connecting Elastic
+     */
+    public void refresh( final String strIndex ) throws ElasticClientException
+    {
+        try
+        {
+            final String strURI = getURI( strIndex ) + Constants.PATH_QUERY_REFRESH;
+            this._connexion.POST( strURI );
+        }
+        catch( final ElasticConnexionException ex )
+        {
+            throw new ElasticClientException( "ElasticLibrary : Error refreshing index : " + ex.getMessage( ), ex );
+        }
+    }
+
+    /**
+     * Force merge the segments of an index. The call returns when the merge is done.
+     *
+     * @param strIndex
+     *            the index
+     * @param nMaxNumSegments
+     *            the number of segments the index is merged into
+     * @throws ElasticClientException
+     *             If a problem occurs connecting Elastic
+     */
+    public void forceMerge( final String strIndex, final int nMaxNumSegments ) throws ElasticClientException
+    {
+        try
+        {
+            final String strURI = getURI( strIndex ) + Constants.PATH_QUERY_FORCE_MERGE + "?max_num_segments=" + nMaxNumSegments;
+            this._connexion.POST( strURI );
+        }
+        catch( final ElasticConnexionException ex )
+        {
+            throw new ElasticClientException( "ElasticLibrary : Error force merging index : " + ex.getMessage( ), ex );
+        }
+    }
+
     /**
      * @param strIndex
      * @param alias
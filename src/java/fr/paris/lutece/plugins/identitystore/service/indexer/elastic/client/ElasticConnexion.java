@@ -35,36 +35,26 @@ package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.client;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkResponse;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.HitCollector;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Response;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Responses;
-import fr.paris.lutece.portal.service.util.AppPropertiesService;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.hc.client5.http.ClientProtocolException;
 import org.apache.hc.client5.http.classic.methods.HttpDelete;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.apache.hc.client5.http.classic.methods.HttpHead;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.client5.http.classic.methods.HttpPut;
-import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.impl.classic.AbstractHttpClientResponseHandler;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.core5.http.ContentType;
-import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.HttpEntity;
-import org.apache.hc.core5.http.HttpHeaders;
 import org.apache.hc.core5.http.HttpResponse;
 import org.apache.hc.core5.http.ParseException;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.http.io.entity.StringEntity;
-import org.apache.hc.core5.http.message.BasicHeader;
-import org.apache.hc.core5.util.Timeout;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Base64;
-import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -72,35 +62,51 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public final class ElasticConnexion
 {
-    private static final long RESPONSE_TIMEOUT = AppPropertiesService.getPropertyInt( "identitystore.elastic.client.response.timeout", 30 );
-    private static final long CONNECT_TIMEOUT = AppPropertiesService.getPropertyInt( "identitystore.elastic.client.connect.timeout", 30 );
     private static final ObjectMapper _mapper = new ObjectMapper( ).disable( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES );
     private static final int ERROR_CODE_START = 300;
     private final AbstractHttpClientResponseHandler<String> _simpleResponseHandler = buildSimpleResponseHandler( );
     private final AbstractHttpClientResponseHandler<Response> _searchResponseHandler = buildSearchResponseHandler( );
     private final AbstractHttpClientResponseHandler<Responses> _mSearchResponseHandler = buildSearchesResponseHandler( );
-    private String _userLogin;
-    private String _userPassword;
+    private final AbstractHttpClientResponseHandler<BulkResponse> _bulkResponseHandler = buildBulkResponseHandler( );
+    private final String _strServerUrl;
+    private final String _strLogin;
+    private final String _strPassword;
 
     /**
      * Basic Authentification constructor
      *
+     * @param strServerUrl
+     *            The Elastic server URL
      * @param userLogin
      *            Login
      * @param userPassword
      *            Password
      */
-    public ElasticConnexion( final String userLogin, final String userPassword )
+    public ElasticConnexion( final String strServerUrl, final String userLogin, final String userPassword )
     {
-        _userLogin = userLogin;
-        _userPassword = userPassword;
+        _strServerUrl = strServerUrl;
+        _strLogin = userLogin;
+        _strPassword = userPassword;
     }
 
     /**
      * Constructor
+     *
+     * @param strServerUrl
+     *            The Elastic server URL
+     */
+    public ElasticConnexion( final String strServerUrl )
+    {
+        this( strServerUrl, null, null );
+    }
+
+    /**
+     * @return the pooled HTTP client of the cluster, fetched for every request so that a client closed by {@link ElasticHttpClientPool#shutdown()} is
+     *         rebuilt
      */
-    public ElasticConnexion( )
+    private CloseableHttpClient getHttpClient( )
     {
+        return ElasticHttpClientPool.getClient( _strServerUrl, _strLogin, _strPassword );
     }
 
     /**
@@ -112,9 +118,9 @@ public final class ElasticConnexion
      */
     public String GET( final String strURI ) throws ElasticConnexionException
     {
-        try ( final CloseableHttpClient _httpClient = this.buildHttpClient( ) )
+        try
         {
-            return _httpClient.execute( new HttpGet( strURI ), _simpleResponseHandler );
+            return this.getHttpClient( ).execute( new HttpGet( strURI ), _simpleResponseHandler );
         }
         catch( final IOException e )
         {
@@ -131,9 +137,9 @@ public final class ElasticConnexion
      */
     public String HEAD( final String strURI ) throws ElasticConnexionException
     {
-        try ( final CloseableHttpClient _httpClient = this.buildHttpClient( ) )
+        try
         {
-            return _httpClient.execute( new HttpHead( strURI ), _simpleResponseHandler );
+            return this.getHttpClient( ).execute( new HttpHead( strURI ), _simpleResponseHandler );
         }
         catch( final IOException e )
         {
@@ -152,11 +158,11 @@ public final class ElasticConnexion
      */
     public void PUT( final String strURI, final String strJSON ) throws ElasticConnexionException
     {
-        try ( final CloseableHttpClient _httpClient = this.buildHttpClient( ) )
+        try
         {
             final HttpPut request = new HttpPut( strURI );
             request.setEntity( new StringEntity( strJSON, ContentType.APPLICATION_JSON, null, false ) );
-            final Integer code = _httpClient.execute( request, HttpResponse::getCode );
+            final Integer code = this.getHttpClient( ).execute( request, HttpResponse::getCode );
             if ( code >= ERROR_CODE_START )
             {
                 throw new ElasticConnexionException( "An error occurred during PUT call to Elastic Search with status code: " + code );
@@ -179,14 +185,14 @@ public final class ElasticConnexion
      */
     public void POST( final String strURI, final String strJSON ) throws ElasticConnexionException
     {
-        try ( final CloseableHttpClient _httpClient = this.buildHttpClient( ) )
+        try
         {
             final HttpPost request = new HttpPost( strURI );
             request.setEntity( new StringEntity( strJSON, ContentType.APPLICATION_JSON, null, false ) );
-            final Integer code = _httpClient.execute( request, HttpResponse::getCode );
+            final Integer code = this.getHttpClient( ).execute( request, HttpResponse::getCode );
             if ( code >= ERROR_CODE_START )
             {
-                throw new ElasticConnexionException( "An error occurred during POST call to Elastic Search with status code: " + code );
+                throw new ElasticConnexionException( "An error occurred during POST call to Elastic Search with status code: " + code, code );
             }
         }
         catch( final IOException e )
@@ -195,6 +201,48 @@ public final class ElasticConnexion
         }
     }
 
+    /**
+     * Send a _bulk request to Elastic Search server
+     *
+     * @param strURI
+     *            the uri
+     * @param entity
+     *            the request body
+     * @return the bulk response, holding the result of each action
+     */
+    public BulkResponse BULK( final String strURI, final HttpEntity entity ) throws ElasticConnexionException
+    {
+        try
+        {
+            final HttpPost request = new HttpPost( strURI );
+            request.setEntity( entity );
+            return this.getHttpClient( ).execute( request, _bulkResponseHandler );
+        }
+        catch( final IOException e )
+        {
+            throw new ElasticConnexionException( "An error occurred during BULK call to Elastic Search: ", e );
+        }
+    }
+
+    /**
+     * Send a POST request without body to Elastic Search server
+     *
+     * @param strURI
+     *            the uri
+     * @return the response
+     */
+    public String POST( final String strURI ) throws ElasticConnexionException
+    {
+        try
+        {
+            return this.getHttpClient( ).execute( new HttpPost( strURI ), _simpleResponseHandler );
+        }
+        catch( final IOException e )
+        {
+            throw new ElasticConnexionException( "An error occurred during POST call to Elastic Search: ", e );
+        }
+    }
+
     /**
      * Send a POST request to Elastic Search server
      *
@@ -206,11 +254,41 @@ public final class ElasticConnexion
      */
     public Response SEARCH( final String strURI, final String strJSON ) throws ElasticConnexionException
     {
-        try ( final CloseableHttpClient _httpClient = this.buildHttpClient( ) )
+        try
+        {
+            final HttpGet request = new HttpGet( strURI );
+            request.setEntity( new StringEntity( strJSON, ContentType.APPLICATION_JSON, null, false ) );
+            final Response execute = this.getHttpClient( ).execute( request, _searchResponseHandler );
+            if ( execute.getStatus( ) != null && execute.getStatus( ) >= ERROR_CODE_START )
+            {
+                throw new ElasticConnexionException( "An error occurred during SEARCH call to Elastic Search with status code: " + execute.getStatus( ) );
+            }
+            return execute;
+        }
+        catch( final IOException e )
+        {
+            throw new ElasticConnexionException( "An error occurred during SEARCH call to Elastic Search: ", e );
+        }
+    }
+
+    /**
+     * Send a search request to Elastic Search server, streaming the hits of the response to a collector
+     *
+     * @param strURI
+     *            the uri
+     * @param strJSON
+     *            the json
+     * @param collector
+     *            the collector of the hits
+     * @return the response, without hits
+     */
+    public Response SEARCH( final String strURI, final String strJSON, final HitCollector collector ) throws ElasticConnexionException
+    {
+        try
         {
             final HttpGet request = new HttpGet( strURI );
             request.setEntity( new StringEntity( strJSON, ContentType.APPLICATION_JSON, null, false ) );
-            final Response execute = _httpClient.execute( request, _searchResponseHandler );
+            final Response execute = this.getHttpClient( ).execute( request, buildStreamingSearchResponseHandler( collector ) );
             if ( execute.getStatus( ) != null && execute.getStatus( ) >= ERROR_CODE_START )
             {
                 throw new ElasticConnexionException( "An error occurred during SEARCH call to Elastic Search with status code: " + execute.getStatus( ) );
@@ -234,11 +312,11 @@ public final class ElasticConnexion
      */
     public Responses MSEARCH( final String strURI, final String strJSON ) throws ElasticConnexionException
     {
-        try ( final CloseableHttpClient _httpClient = this.buildHttpClient( ) )
+        try
         {
             final HttpGet request = new HttpGet( strURI );
             request.setEntity( new StringEntity( strJSON, ContentType.APPLICATION_JSON, null, false ) );
-            final Responses execute = _httpClient.execute( request, _mSearchResponseHandler );
+            final Responses execute = this.getHttpClient( ).execute( request, _mSearchResponseHandler );
             final AtomicBoolean failOccurred = new AtomicBoolean( false );
             execute.getResponses( ).removeIf( response -> {
                 final boolean failed = response.getStatus( ) >= ERROR_CODE_START;
@@ -260,6 +338,36 @@ public final class ElasticConnexion
         }
     }
 
+    /**
+     * Send a multi search request to Elastic Search server, streaming the hits of all the responses to a collector
+     *
+     * @param strURI
+     *            the uri
+     * @param strJSON
+     *            the json
+     * @param collector
+     *            the collector of the hits
+     * @return the responses, without hits
+     */
+    public Responses MSEARCH( final String strURI, final String strJSON, final HitCollector collector ) throws ElasticConnexionException
+    {
+        try
+        {
+            final HttpGet request = new HttpGet( strURI );
+            request.setEntity( new StringEntity( strJSON, ContentType.APPLICATION_JSON, null, false ) );
+            final Responses execute = this.getHttpClient( ).execute( request, buildStreamingSearchesResponseHandler( collector ) );
+            if ( execute.getResponses( ).stream( ).anyMatch( response -> response.getStatus( ) != null && response.getStatus( ) >= ERROR_CODE_START ) )
+            {
+                throw new ElasticConnexionException( "An error occurred during MSEARCH call to Elastic Search. Could not get responses" );
+            }
+            return execute;
+        }
+        catch( final IOException e )
+        {
+            throw new ElasticConnexionException( "An error occurred during MSEARCH call to Elastic Search: ", e );
+        }
+    }
+
     /**
      * Send a DELETE request to Elastic Search server
      *
@@ -269,10 +377,36 @@ public final class ElasticConnexion
      */
     public void DELETE( final String strURI ) throws ElasticConnexionException
     {
-        try ( final CloseableHttpClient _httpClient = this.buildHttpClient( ) )
+        try
+        {
+            final HttpDelete request = new HttpDelete( strURI );
+            final Integer code = this.getHttpClient( ).execute( request, HttpResponse::getCode );
+            if ( code >= ERROR_CODE_START )
+            {
+                throw new ElasticConnexionException( "An error occurred during DELETE call to Elastic Search with status code: " + code );
+            }
+        }
+        catch( final IOException e )
+        {
+            throw new ElasticConnexionException( "An error occurred during DELETE call to Elastic Search: ", e );
+        }
+    }
+
+    /**
+     * Send a DELETE request with a body to Elastic Search server
+     *
+     * @param strURI
+     *            the uri
+     * @param strJSON
+     *            the json
+     */
+    public void DELETE( final String strURI, final String strJSON ) throws ElasticConnexionException
+    {
+        try
         {
             final HttpDelete request = new HttpDelete( strURI );
-            final Integer code = _httpClient.execute( request, HttpResponse::getCode );
+            request.setEntity( new StringEntity( strJSON, ContentType.APPLICATION_JSON, null, false ) );
+            final Integer code = this.getHttpClient( ).execute( request, HttpResponse::getCode );
             if ( code >= ERROR_CODE_START )
             {
                 throw new ElasticConnexionException( "An error occurred during DELETE call to Elastic Search with status code: " + code );
@@ -334,23 +468,45 @@ public final class ElasticConnexion
         };
     }
 
-    private CloseableHttpClient buildHttpClient( )
+    private static AbstractHttpClientResponseHandler<Response> buildStreamingSearchResponseHandler( final HitCollector collector )
     {
-        final RequestConfig requestConfig = RequestConfig.custom( ).setResponseTimeout( Timeout.ofSeconds( RESPONSE_TIMEOUT ) )
-                .setConnectTimeout( Timeout.ofSeconds( CONNECT_TIMEOUT ) ).setConnectionRequestTimeout( Timeout.ofSeconds( CONNECT_TIMEOUT ) ).build( );
-        return HttpClients.custom( ).setDefaultHeaders( this.buildDefaultHeaders( ) ).setDefaultRequestConfig( requestConfig ).build( );
+        return new AbstractHttpClientResponseHandler<Response>( )
+        {
+            @Override
+            public Response handleEntity( HttpEntity httpEntity ) throws IOException
+            {
+                final Response response = SearchResponseReader.readSearch( _mapper, httpEntity.getContent( ), collector );
+                EntityUtils.consume( httpEntity );
+                return response;
+            }
+        };
     }
 
-    private List<Header> buildDefaultHeaders( )
+    private static AbstractHttpClientResponseHandler<Responses> buildStreamingSearchesResponseHandler( final HitCollector collector )
     {
-        final List<Header> defaultHeaders = new ArrayList<>( );
-        if ( StringUtils.isNoneEmpty( _userLogin, _userPassword ) )
+        return new AbstractHttpClientResponseHandler<Responses>( )
         {
-            final String auth = _userLogin + ":" + _userPassword;
-            final byte [ ] encodedAuth = Base64.getEncoder( ).encode( auth.getBytes( StandardCharsets.ISO_8859_1 ) );
-            final String authHeader = "Basic " + new String( encodedAuth );
-            defaultHeaders.add( new BasicHeader( HttpHeaders.AUTHORIZATION, authHeader ) );
-        }
-        return defaultHeaders;
+            @Override
+            public Responses handleEntity( HttpEntity httpEntity ) throws IOException
+            {
+                final Responses responses = SearchResponseReader.readMultiSearch( _mapper, httpEntity.getContent( ), collector );
+                EntityUtils.consume( httpEntity );
+                return responses;
+            }
+        };
+    }
+
+    private static AbstractHttpClientResponseHandler<BulkResponse> buildBulkResponseHandler( )
+    {
+        return new AbstractHttpClientResponseHandler<BulkResponse>( )
+        {
+            @Override
+            public BulkResponse handleEntity( HttpEntity httpEntity ) throws IOException
+            {
+                final BulkResponse response = _mapper.readValue( httpEntity.getContent( ), BulkResponse.class );
+                EntityUtils.consume( httpEntity );
+                return response;
+            }
+        };
     }
 }
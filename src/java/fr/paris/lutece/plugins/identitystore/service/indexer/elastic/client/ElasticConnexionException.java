@@ -37,15 +37,32 @@ import fr.paris.lutece.portal.service.util.AppLogService;
 
 public class ElasticConnexionException extends Exception
 {
+    private final int _nStatusCode;
+
     public ElasticConnexionException( final String strMessage )
+    {
+        this( strMessage, 0 );
+    }
+
+    public ElasticConnexionException( final String strMessage, final int nStatusCode )
     {
         super( strMessage );
+        _nStatusCode = nStatusCode;
         AppLogService.error( strMessage );
     }
 
     public ElasticConnexionException( final String strMessage, final Throwable exception )
     {
         super( strMessage, exception );
+        _nStatusCode = 0;
         AppLogService.error( strMessage, exception );
     }
+
+    /**
+     * @return the HTTP status code returned by Elastic Search, 0 if the call did not get a response
+     */
+    public int getStatusCode( )
+    {
+        return _nStatusCode;
+    }
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.client;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the pooled HTTP clients used to reach Elasticsearch.<br>
+ * One long-lived {@link CloseableHttpClient} is kept per cluster URL and credentials (the password being only kept as a hash in the key), so that the search, indexing and daemon paths all reuse the same
+ * kept-alive connections instead of opening a new TCP (and TLS) connection for every call.<br>
+ * Properties:
+ * <ul>
+ * <li><i>identitystore.elastic.client.pool.max.total</i>: maximum number of connections in the pool (default 50)</li>
+ * <li><i>identitystore.elastic.client.pool.max.per.route</i>: maximum number of connections per route (default 20)</li>
+ * <li><i>identitystore.elastic.client.pool.lease.timeout</i>: maximum time in seconds to wait for a connection from the pool (default 30)</li>
+ * <li><i>identitystore.elastic.client.pool.connection.ttl</i>: time to live in seconds of a pooled connection (default 300)</li>
+ * <li><i>identitystore.elastic.client.pool.idle.eviction</i>: idle time in seconds after which a connection is evicted from the pool (default 60)</li>
+ * </ul>
+ */
+public final class ElasticHttpClientPool
+{
+    private static final long RESPONSE_TIMEOUT = AppPropertiesService.getPropertyInt( "identitystore.elastic.client.response.timeout", 30 );
+    private static final long CONNECT_TIMEOUT = AppPropertiesService.getPropertyInt( "identitystore.elastic.client.connect.timeout", 30 );
+    private static final int POOL_MAX_TOTAL = AppPropertiesService.getPropertyInt( "identitystore.elastic.client.pool.max.total", 50 );
+    private static final int POOL_MAX_PER_ROUTE = AppPropertiesService.getPropertyInt( "identitystore.elastic.client.pool.max.per.route", 20 );
+    private static final long POOL_LEASE_TIMEOUT = AppPropertiesService.getPropertyInt( "identitystore.elastic.client.pool.lease.timeout", 30 );
+    private static final long POOL_CONNECTION_TTL = AppPropertiesService.getPropertyInt( "identitystore.elastic.client.pool.connection.ttl", 300 );
+    private static final long POOL_IDLE_EVICTION = AppPropertiesService.getPropertyInt( "identitystore.elastic.client.pool.idle.eviction", 60 );
+    private static final String KEY_SEPARATOR = "|";
+
+    private static final Map<String, CloseableHttpClient> _clients = new ConcurrentHashMap<>( );
+
+    /** Private constructor */
+    private ElasticHttpClientPool( )
+    {
+    }
+
+    /**
+     * Get the shared HTTP client of the given Elasticsearch cluster, creating it on first use.
+     *
+     * @param strServerUrl
+     *            the Elasticsearch server URL
+     * @param strLogin
+     *            the login (can be empty)
+     * @param strPassword
+     *            the password (can be empty)
+     * @return the shared {@link CloseableHttpClient}
+     */
+    public static CloseableHttpClient getClient( final String strServerUrl, final String strLogin, final String strPassword )
+    {
+        final String key = StringUtils.defaultString( strServerUrl ) + KEY_SEPARATOR + StringUtils.defaultString( strLogin ) + KEY_SEPARATOR
+                + sha256( StringUtils.defaultString( strPassword ) );
+        return _clients.computeIfAbsent( key, k -> buildHttpClient( strLogin, strPassword ) );
+    }
+
+    /**
+     * Close every pooled client and release their connections. Clients are rebuilt on the next call to
+     * {@link #getClient(String, String, String)}, which {@link ElasticConnexion} makes for every request.
+     */
+    public static void shutdown( )
+    {
+        _clients.forEach( ( key, client ) -> {
+            AppLogService.info( "Closing Elasticsearch HTTP connection pool" );
+            client.close( CloseMode.GRACEFUL );
+        } );
+        _clients.clear( );
+    }
+
+    private static CloseableHttpClient buildHttpClient( final String strLogin, final String strPassword )
+    {
+        final PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create( ).setMaxConnTotal( POOL_MAX_TOTAL )
+                .setMaxConnPerRoute( POOL_MAX_PER_ROUTE ).setConnectionTimeToLive( TimeValue.ofSeconds( POOL_CONNECTION_TTL ) ).build( );
+        final RequestConfig requestConfig = RequestConfig.custom( ).setResponseTimeout( Timeout.ofSeconds( RESPONSE_TIMEOUT ) )
+                .setConnectTimeout( Timeout.ofSeconds( CONNECT_TIMEOUT ) ).setConnectionRequestTimeout( Timeout.ofSeconds( POOL_LEASE_TIMEOUT ) ).build( );
+        return HttpClients.custom( ).setConnectionManager( connectionManager ).setKeepAliveStrategy( DefaultConnectionKeepAliveStrategy.INSTANCE )
+                .evictExpiredConnections( ).evictIdleConnections( TimeValue.ofSeconds( POOL_IDLE_EVICTION ) )
+                .setDefaultHeaders( buildDefaultHeaders( strLogin, strPassword ) ).setDefaultRequestConfig( requestConfig ).build( );
+    }
+
+    private static String sha256( final String strValue )
+    {
+        try
+        {
+            final byte [ ] digest = MessageDigest.getInstance( "SHA-256" ).digest( strValue.getBytes( StandardCharsets.UTF_8 ) );
+            return Base64.getEncoder( ).encodeToString( digest );
+        }
+        catch( final NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static List<Header> buildDefaultHeaders( final String strLogin, final String strPassword )
+    {
+        final List<Header> defaultHeaders = new ArrayList<>( );
+        if ( StringUtils.isNoneEmpty( strLogin, strPassword ) )
+        {
+            final String auth = strLogin + ":" + strPassword;
+            final byte [ ] encodedAuth = Base64.getEncoder( ).encode( auth.getBytes( StandardCharsets.ISO_8859_1 ) );
+            final String authHeader = "Basic " + new String( encodedAuth );
+            defaultHeaders.add( new BasicHeader( HttpHeaders.AUTHORIZATION, authHeader ) );
+        }
+        return defaultHeaders;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.client;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Hit;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.HitCollector;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Response;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Responses;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Result;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Shard;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Total;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Streaming reader of _search and _msearch responses.<br>
+ * The hits are mapped one by one (with their _source mapped straight into an IdentityObject) and handed to a {@link HitCollector}, instead of
+ * materializing the whole response tree: the {@link Result} hits list stays empty and only the number of streamed hits is kept.
+ */
+final class SearchResponseReader
+{
+    private static final String FIELD_TOOK = "took";
+    private static final String FIELD_TIMED_OUT = "timed_out";
+    private static final String FIELD_SHARDS = "_shards";
+    private static final String FIELD_HITS = "hits";
+    private static final String FIELD_STATUS = "status";
+    private static final String FIELD_PIT_ID = "pit_id";
+    private static final String FIELD_TOTAL = "total";
+    private static final String FIELD_MAX_SCORE = "max_score";
+    private static final String FIELD_RESPONSES = "responses";
+
+    private SearchResponseReader( )
+    {
+    }
+
+    /**
+     * Reads a _search response
+     *
+     * @param mapper
+     *            the mapper used for the hits
+     * @param content
+     *            the response content
+     * @param collector
+     *            the collector of the hits
+     * @return the response, without hits
+     * @throws IOException
+     *             if the response can't be read
+     */
+    static Response readSearch( final ObjectMapper mapper, final InputStream content, final HitCollector collector ) throws IOException
+    {
+        try ( final JsonParser parser = mapper.getFactory( ).createParser( content ) )
+        {
+            expect( parser, parser.nextToken( ), JsonToken.START_OBJECT );
+            return readResponse( mapper, parser, collector );
+        }
+    }
+
+    /**
+     * Reads a _msearch response
+     *
+     * @param mapper
+     *            the mapper used for the hits
+     * @param content
+     *            the response content
+     * @param collector
+     *            the collector of the hits of all the responses
+     * @return the responses, without hits
+     * @throws IOException
+     *             if the response can't be read
+     */
+    static Responses readMultiSearch( final ObjectMapper mapper, final InputStream content, final HitCollector collector ) throws IOException
+    {
+        try ( final JsonParser parser = mapper.getFactory( ).createParser( content ) )
+        {
+            expect( parser, parser.nextToken( ), JsonToken.START_OBJECT );
+            final Responses responses = new Responses( );
+            responses.setResponses( new ArrayList<>( ) );
+            while ( parser.nextToken( ) == JsonToken.FIELD_NAME )
+            {
+                final String field = parser.getCurrentName( );
+                final JsonToken value = parser.nextToken( );
+                if ( FIELD_RESPONSES.equals( field ) )
+                {
+                    expect( parser, value, JsonToken.START_ARRAY );
+                    while ( parser.nextToken( ) == JsonToken.START_OBJECT )
+                    {
+                        responses.getResponses( ).add( readResponse( mapper, parser, collector ) );
+                    }
+                }
+                else if ( FIELD_TOOK.equals( field ) )
+                {
+                    responses.setTook( parser.getValueAsString( ) );
+                }
+                else
+                {
+                    parser.skipChildren( );
+                }
+            }
+            return responses;
+        }
+    }
+
+    /**
+     * Reads a response object, the parser being on its START_OBJECT token
+     */
+    private static Response readResponse( final ObjectMapper mapper, final JsonParser parser, final HitCollector collector ) throws IOException
+    {
+        final Response response = new Response( );
+        while ( parser.nextToken( ) == JsonToken.FIELD_NAME )
+        {
+            final String field = parser.getCurrentName( );
+            final JsonToken value = parser.nextToken( );
+            switch( field )
+            {
+                case FIELD_HITS:
+                    expect( parser, value, JsonToken.START_OBJECT );
+                    response.setResult( readResult( mapper, parser, collector ) );
+                    break;
+                case FIELD_TOOK:
+                    response.setTook( parser.getValueAsString( ) );
+                    break;
+                case FIELD_TIMED_OUT:
+                    response.setTimedOut( parser.getValueAsBoolean( ) );
+                    break;
+                case FIELD_SHARDS:
+                    response.setShards( mapper.readValue( parser, Shard.class ) );
+                    break;
+                case FIELD_STATUS:
+                    response.setStatus( parser.getValueAsInt( ) );
+                    break;
+                case FIELD_PIT_ID:
+                    response.setPointInTimeId( parser.getValueAsString( ) );
+                    break;
+                default:
+                    parser.skipChildren( );
+                    break;
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Reads the hits object of a response, the parser being on its START_OBJECT token
+     */
+    private static Result readResult( final ObjectMapper mapper, final JsonParser parser, final HitCollector collector ) throws IOException
+    {
+        final Result result = new Result( );
+        result.setHits( new ArrayList<>( ) );
+        while ( parser.nextToken( ) == JsonToken.FIELD_NAME )
+        {
+            final String field = parser.getCurrentName( );
+            final JsonToken value = parser.nextToken( );
+            switch( field )
+            {
+                case FIELD_TOTAL:
+                    result.setTotal( mapper.readValue( parser, Total.class ) );
+                    break;
+                case FIELD_MAX_SCORE:
+                    result.setMaxScore( value == JsonToken.VALUE_NULL ? null : parser.getDecimalValue( ) );
+                    break;
+                case FIELD_HITS:
+                    expect( parser, value, JsonToken.START_ARRAY );
+                    int nbHits = 0;
+                    while ( parser.nextToken( ) == JsonToken.START_OBJECT )
+                    {
+                        nbHits++;
+                        if ( collector.isFull( ) )
+                        {
+                            parser.skipChildren( );
+                        }
+                        else
+                        {
+                            collector.collect( mapper.readValue( parser, Hit.class ) );
+                        }
+                    }
+                    result.setStreamedHits( nbHits );
+                    break;
+                default:
+                    parser.skipChildren( );
+                    break;
+            }
+        }
+        return result;
+    }
+
+    private static void expect( final JsonParser parser, final JsonToken actual, final JsonToken expected ) throws IOException
+    {
+        if ( actual != expected )
+        {
+            throw new IOException( "Unexpected token " + actual + " instead of " + expected + " at " + parser.getCurrentLocation( ) );
+        }
+    }
+}
@@ -36,7 +36,10 @@ package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.busi
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.IdentityObject;
 import fr.paris.lutece.portal.service.plugin.Plugin;
 
+import java.sql.Timestamp;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * IIdentityDAO Interface
@@ -57,22 +60,90 @@ public interface IIdentityObjectDAO
     IdentityObject loadFull( String customerId, Plugin plugin );
 
     /**
-     * Get the list of identity ids that are eligible to indexing process
+     * Count the identities that are eligible to indexing process
      *
      * @param plugin
      *            the plugin
-     * @return the list of identity ids
+     * @return the number of identities
      */
-    List<Integer> getEligibleIdListForIndex( Plugin plugin );
+    int countEligibleIdentitiesForIndex( Plugin plugin );
 
     /**
-     * Load the identity objects that are eligible to indexing process and returns them as a list
+     * Get the highest identity id
      *
-     * @param idList
-     *            the list of identity ids to be loaded
+     * @param plugin
+     *            the plugin
+     * @return the highest identity id, 0 if there is no identity
+     */
+    int getMaxIdentityId( Plugin plugin );
+
+    /**
+     * Load a page of the identity objects that are eligible to indexing process, using the identity id as keyset cursor
+     *
+     * @param afterIdentityId
+     *            the identity id after which the page starts (the last id of the previous page)
+     * @param upToIdentityId
+     *            the highest identity id that can be loaded
+     * @param limit
+     *            the maximum number of identities to load
+     * @param plugin
+     *            the Plugin
+     * @return The identity objects of the page, by identity id, in ascending id order
+     */
+    Map<Integer, IdentityObject> loadEligibleIdentitiesForIndex( final int afterIdentityId, final int upToIdentityId, final int limit, final Plugin plugin );
+
+    /**
+     * Load the identity objects of the given customer ids that are eligible to indexing process, in one query. Deleted, merged and attribute-less identities
+     * are not returned.
+     *
+     * @param customerIds
+     *            the customer ids
+     * @param plugin
+     *            the Plugin
+     * @return The eligible identity objects, by customer id
+     */
+    Map<String, IdentityObject> loadEligibleIdentitiesByCustomerIds( final List<String> customerIds, final Plugin plugin );
+
+    /**
+     * Select a page of the last update dates of the identities eligible to indexing process, using the customer id as keyset cursor
+     *
+     * @param afterCustomerId
+     *            the customer id after which the page starts (the last customer id of the previous page, empty for the first page)
+     * @param limit
+     *            the maximum number of identities
+     * @param plugin
+     *            the Plugin
+     * @return the last update dates by customer id, in ascending customer id order
+     */
+    Map<String, Timestamp> selectEligibleLastUpdateDatesAfter( final String afterCustomerId, final int limit, final Plugin plugin );
+
+    /**
+     * Select, among the given customer ids, those of identities eligible to indexing process
+     *
+     * @param customerIds
+     *            the customer ids
+     * @param plugin
+     *            the Plugin
+     * @return the eligible customer ids
+     */
+    Set<String> selectEligibleCustomerIds( final List<String> customerIds, final Plugin plugin );
+
+    /**
+     * Load a page of the identities updated after a given (last update date, identity id) keyset, up to a given date, in ascending keyset order. Deleted,
+     * merged and attribute-less identities are returned as tombstones.
+     *
+     * @param afterDate
+     *            the last update date of the last identity of the previous page
+     * @param afterIdentityId
+     *            the id of the last identity of the previous page
+     * @param upToDate
+     *            the highest last update date that can be loaded
+     * @param limit
+     *            the maximum number of identities to load
      * @param plugin
      *            the Plugin
-     * @return The list which contains the identity objects
+     * @return the updated identities of the page
      */
-    List<IdentityObject> loadEligibleIdentitiesForIndex( final List<Integer> idList, final Plugin plugin );
+    List<UpdatedIdentity> loadIdentitiesUpdatedAfter( final Timestamp afterDate, final int afterIdentityId, final Timestamp upToDate, final int limit,
+            final Plugin plugin );
 }
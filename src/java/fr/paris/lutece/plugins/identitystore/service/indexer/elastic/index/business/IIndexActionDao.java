@@ -35,6 +35,8 @@ package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.busi
 
 import fr.paris.lutece.portal.service.plugin.Plugin;
 
+import java.sql.Timestamp;
+import java.util.Date;
 import java.util.List;
 
 public interface IIndexActionDao
@@ -48,4 +50,56 @@ public interface IIndexActionDao
     List<IndexAction> select( int limit, final Plugin plugin );
 
     List<IndexAction> selectAll( Plugin plugin );
+
+    /**
+     * Selects a page of actions by keyset, in insertion order
+     *
+     * @param afterId
+     *            the id of the last action of the previous page
+     * @param minAttempts
+     *            the min number of attempts of the actions (0 for all the actions)
+     * @param limit
+     *            the max number of actions
+     */
+    List<IndexAction> selectAfter( final int afterId, final int minAttempts, final int limit, final Plugin plugin );
+
+    /**
+     * Deletes the actions of the given identities followed by a more recent action of the same identity: the current state of the identity is indexed by
+     * the most recent one.
+     *
+     * @param customerIds
+     *            the customer ids of the identities, not empty
+     * @return the number of deleted actions
+     */
+    int deleteSuperseded( final List<String> customerIds, final Plugin plugin );
+
+    /**
+     * Selects the oldest actions that have not reached the max number of attempts and are not leased, and locks them until the end of the current
+     * transaction. Rows already locked by another transaction are skipped, so that several relays can share the work.
+     *
+     * @param now
+     *            the current time, the leases expired before it are ignored
+     */
+    List<IndexAction> selectAndLockPending( final int limit, final int maxAttempts, final Timestamp now, final Plugin plugin );
+
+    /**
+     * Leases actions to a relay until the given expiration, so that they are not selected by the other relays while they are sent
+     */
+    void claim( final List<Integer> ids, final String strLeaseOwner, final Timestamp leaseExpiration, final Plugin plugin );
+
+    /**
+     * Releases the lease of actions, if still owned by the given relay, so that they are selected again
+     */
+    void release( final List<Integer> ids, final String strLeaseOwner, final Plugin plugin );
+
+    /**
+     * Increments the number of attempts of actions and releases their lease, if still owned by the given relay
+     */
+    void incrementAttempts( final List<Integer> ids, final String strLeaseOwner, final Plugin plugin );
+
+    Date selectOldestPendingDate( final int maxAttempts, final Plugin plugin );
+
+    int countPending( final int maxAttempts, final Plugin plugin );
+
+    int countDeadLetters( final int maxAttempts, final Plugin plugin );
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+
+import java.sql.Timestamp;
+
+public interface IIndexCheckpointDao
+{
+    String BEAN_NAME = "identitystore.indexCheckpointDAO";
+
+    void insert( final IndexCheckpoint checkpoint, final Plugin plugin );
+
+    void updateProgress( final IndexCheckpoint checkpoint, final Plugin plugin );
+
+    void delete( final int nId, final Plugin plugin );
+
+    /**
+     * Takes the lease of a checkpoint, if it is not held by another owner or has expired
+     *
+     * @return <code>true</code> if the lease is now held by the owner
+     */
+    boolean claim( final int nId, final String strOwner, final Timestamp leaseExpiration, final Timestamp now, final Plugin plugin );
+
+    /**
+     * @return <code>true</code> if the lease was still held by the owner and has been extended
+     */
+    boolean renewLease( final int nId, final String strOwner, final Timestamp leaseExpiration, final Plugin plugin );
+
+    /**
+     * @return the checkpoint of the last unfinished full reindex, <code>null</code> if there is none
+     */
+    IndexCheckpoint selectLast( final Plugin plugin );
+}
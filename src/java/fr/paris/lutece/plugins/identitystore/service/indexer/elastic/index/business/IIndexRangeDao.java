@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+
+import java.sql.Timestamp;
+
+public interface IIndexRangeDao
+{
+    String BEAN_NAME = "identitystore.indexRangeDAO";
+
+    void insert( final IndexRange range, final Plugin plugin );
+
+    /**
+     * Selects and locks, until the end of the current transaction, the first range of a reindex that can be claimed: pending, or claimed with an expired
+     * lease. Ranges locked by another transaction are skipped.
+     *
+     * @param nIdCheckpoint
+     *            the id of the reindex checkpoint
+     * @param now
+     *            the current date, to find expired leases
+     * @param nMaxAttempts
+     *            ranges claimed this number of times are not claimed again
+     * @return the range, <code>null</code> if there is none
+     */
+    IndexRange selectAndLockClaimable( final int nIdCheckpoint, final Timestamp now, final int nMaxAttempts, final Plugin plugin );
+
+    /**
+     * Marks a range as claimed by its lease owner until its lease expiration, and counts the attempt
+     */
+    void claim( final IndexRange range, final Plugin plugin );
+
+    /**
+     * @return <code>true</code> if the lease was still held by the owner and has been extended
+     */
+    boolean renewLease( final int nId, final String strOwner, final Timestamp leaseExpiration, final Plugin plugin );
+
+    /**
+     * @return <code>true</code> if the lease was still held by the owner and the range is now done
+     */
+    boolean complete( final int nId, final String strOwner, final int nNbIndexedIdentities, final Plugin plugin );
+
+    /**
+     * Gives a range back, so that it can be claimed again
+     */
+    void release( final int nId, final String strOwner, final Plugin plugin );
+
+    int countByCheckpoint( final int nIdCheckpoint, final Plugin plugin );
+
+    int countUnfinished( final int nIdCheckpoint, final Plugin plugin );
+
+    /**
+     * Counts the ranges that are not done and will never be claimed again: all their attempts are spent and they are not held by a live lease
+     */
+    int countAbandoned( final int nIdCheckpoint, final Timestamp now, final int nMaxAttempts, final Plugin plugin );
+
+    int sumIndexedIdentities( final int nIdCheckpoint, final Plugin plugin );
+
+    void deleteByCheckpoint( final int nIdCheckpoint, final Plugin plugin );
+}
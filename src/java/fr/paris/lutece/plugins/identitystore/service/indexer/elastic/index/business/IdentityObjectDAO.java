@@ -38,9 +38,14 @@ import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model
 import fr.paris.lutece.portal.service.plugin.Plugin;
 import fr.paris.lutece.util.sql.DAOUtil;
 
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -49,8 +54,24 @@ import java.util.stream.Collectors;
 public final class IdentityObjectDAO implements IIdentityObjectDAO
 {
     // Constants
-    private static final String LIST_IDS = "%{list_ids}";
-    private static final String SQL_QUERY_GET_ELIGIBLE_ID_FOR_INDEX = "SELECT i.id_identity FROM identitystore_identity i WHERE is_deleted = 0 AND is_merged = 0 AND exists(SELECT a.id_attribute FROM identitystore_identity_attribute a WHERE i.id_identity = a.id_identity)";
+    private static final String SQL_QUERY_COUNT_ELIGIBLE_FOR_INDEX = "SELECT count(*) FROM identitystore_identity i WHERE is_deleted = 0 AND is_merged = 0 AND exists(SELECT a.id_attribute FROM identitystore_identity_attribute a WHERE i.id_identity = a.id_identity)";
+    private static final String SQL_QUERY_SELECT_IDENTITIES_UPDATED_AFTER = "SELECT "
+            + "    identity.id_identity as id_identity, identity.connection_id as connection_id, identity.customer_id as customer_id, identity.date_create as date_create, identity.last_update_date as last_update_date, identity.expiration_date as expiration_date, identity.is_mon_paris_active as is_mon_paris_active, "
+            + "    identity.is_deleted as is_deleted, identity.is_merged as is_merged, "
+            + "    attribute_key.name as  attribute_key_name,  attribute_key.key_name as  attribute_key_key_name,  attribute_key.key_type as  attribute_key_key_type,  attribute_key.description as  attribute_key_description,  attribute_key.pivot as  attribute_key_pivot, "
+            + "    attribute.attribute_value as  attribute_attribute_value,  attribute.lastupdate_client as  attribute_lastupdate_client, "
+            + "    certificate.certifier_code as  certificate_certifier_code,  certificate.certifier_code as  certificate_certifier_code,  certificate.certificate_date as  certificate_certificate_date,  certificate.expiration_date as  certificate_expiration_date "
+            + "FROM ( SELECT i.id_identity, i.connection_id, i.customer_id, i.date_create, i.last_update_date, i.expiration_date, i.is_mon_paris_active, i.is_deleted, i.is_merged "
+            + "         FROM identitystore_identity i "
+            + "         WHERE ( i.last_update_date, i.id_identity ) > ( ?, ? ) AND i.last_update_date <= ? "
+            + "         ORDER BY i.last_update_date, i.id_identity LIMIT ? ) identity "
+            + "         LEFT JOIN identitystore_identity_attribute attribute ON identity.id_identity = attribute.id_identity "
+            + "         LEFT JOIN identitystore_ref_attribute attribute_key ON attribute.id_attribute = attribute_key.id_attribute "
+            + "         LEFT JOIN identitystore_identity_attribute_certificate certificate on attribute.id_certification = certificate.id_attribute_certificate "
+            + "ORDER BY identity.last_update_date, identity.id_identity";
+    private static final String SQL_QUERY_SELECT_ELIGIBLE_LAST_UPDATE_DATES_AFTER_CUSTOMER_ID = "SELECT i.customer_id, i.last_update_date FROM identitystore_identity i WHERE i.customer_id > ? AND i.is_deleted = 0 AND i.is_merged = 0 AND exists(SELECT a.id_attribute FROM identitystore_identity_attribute a WHERE i.id_identity = a.id_identity) ORDER BY i.customer_id LIMIT ?";
+    private static final String SQL_QUERY_SELECT_ELIGIBLE_CUSTOMER_IDS = "SELECT i.customer_id FROM identitystore_identity i WHERE i.customer_id IN ( ${customer_ids} ) AND i.is_deleted = 0 AND i.is_merged = 0 AND exists(SELECT a.id_attribute FROM identitystore_identity_attribute a WHERE i.id_identity = a.id_identity)";
+    private static final String SQL_QUERY_SELECT_MAX_IDENTITY_ID = "SELECT max(id_identity) FROM identitystore_identity";
     private static final String SQL_QUERY_LOAD_IDENTITY_BY_CUSTOMER_ID = "SELECT "
             + "    identity.connection_id, identity.customer_id, identity.date_create, identity.last_update_date, identity.expiration_date, identity.is_mon_paris_active,"
             + "    attributeKey.name, attributeKey.key_name, attributeKey.key_type, attributeKey.description, attributeKey.pivot, "
@@ -61,16 +82,31 @@ public final class IdentityObjectDAO implements IIdentityObjectDAO
             + "    LEFT JOIN identitystore_ref_attribute attributeKey ON attribute.id_attribute = attributeKey.id_attribute "
             + "    LEFT JOIN identitystore_identity_attribute_certificate certificate on attribute.id_certification = certificate.id_attribute_certificate "
             + " WHERE identity.customer_id = ? ";
-    private static final String SQL_QUERY_SELECT_IDENTITIES_BY_IDS = "SELECT "
-            + "    identity.connection_id as connection_id, identity.customer_id as customer_id, identity.date_create as date_create, identity.last_update_date as last_update_date, identity.expiration_date as expiration_date, identity.is_mon_paris_active as is_mon_paris_active, "
+    private static final String SQL_QUERY_SELECT_ELIGIBLE_IDENTITIES_BY_CUSTOMER_IDS = "SELECT "
+            + "    identity.id_identity as id_identity, identity.connection_id as connection_id, identity.customer_id as customer_id, identity.date_create as date_create, identity.last_update_date as last_update_date, identity.expiration_date as expiration_date, identity.is_mon_paris_active as is_mon_paris_active, "
             + "    attribute_key.name as  attribute_key_name,  attribute_key.key_name as  attribute_key_key_name,  attribute_key.key_type as  attribute_key_key_type,  attribute_key.description as  attribute_key_description,  attribute_key.pivot as  attribute_key_pivot, "
             + "    attribute.attribute_value as  attribute_attribute_value,  attribute.lastupdate_client as  attribute_lastupdate_client, "
             + "    certificate.certifier_code as  certificate_certifier_code,  certificate.certifier_code as  certificate_certifier_code,  certificate.certificate_date as  certificate_certificate_date,  certificate.expiration_date as  certificate_expiration_date "
             + "FROM identitystore_identity identity "
+            + "    JOIN identitystore_identity_attribute attribute ON identity.id_identity = attribute.id_identity "
+            + "    JOIN identitystore_ref_attribute attribute_key ON attribute.id_attribute = attribute_key.id_attribute "
+            + "    LEFT JOIN identitystore_identity_attribute_certificate certificate on attribute.id_certification = certificate.id_attribute_certificate "
+            + "WHERE identity.is_deleted = 0 AND identity.is_merged = 0 AND identity.customer_id IN ( ${customer_ids} ) "
+            + "ORDER BY identity.id_identity";
+    private static final String SQL_QUERY_SELECT_ELIGIBLE_IDENTITIES_AFTER_ID = "SELECT "
+            + "    identity.id_identity as id_identity, identity.connection_id as connection_id, identity.customer_id as customer_id, identity.date_create as date_create, identity.last_update_date as last_update_date, identity.expiration_date as expiration_date, identity.is_mon_paris_active as is_mon_paris_active, "
+            + "    attribute_key.name as  attribute_key_name,  attribute_key.key_name as  attribute_key_key_name,  attribute_key.key_type as  attribute_key_key_type,  attribute_key.description as  attribute_key_description,  attribute_key.pivot as  attribute_key_pivot, "
+            + "    attribute.attribute_value as  attribute_attribute_value,  attribute.lastupdate_client as  attribute_lastupdate_client, "
+            + "    certificate.certifier_code as  certificate_certifier_code,  certificate.certifier_code as  certificate_certifier_code,  certificate.certificate_date as  certificate_certificate_date,  certificate.expiration_date as  certificate_expiration_date "
+            + "FROM ( SELECT i.id_identity, i.connection_id, i.customer_id, i.date_create, i.last_update_date, i.expiration_date, i.is_mon_paris_active "
+            + "         FROM identitystore_identity i "
+            + "         WHERE i.id_identity > ? AND i.id_identity <= ? AND i.is_deleted = 0 AND i.is_merged = 0 "
+            + "           AND exists(SELECT a.id_attribute FROM identitystore_identity_attribute a WHERE i.id_identity = a.id_identity) "
+            + "         ORDER BY i.id_identity LIMIT ? ) identity "
             + "         LEFT JOIN identitystore_identity_attribute attribute ON identity.id_identity = attribute.id_identity "
             + "         LEFT JOIN identitystore_ref_attribute attribute_key ON attribute.id_attribute = attribute_key.id_attribute "
             + "         LEFT JOIN identitystore_identity_attribute_certificate certificate on attribute.id_certification = certificate.id_attribute_certificate "
-            + "WHERE identity.id_identity IN ( " + LIST_IDS + " );";
+            + "ORDER BY identity.id_identity";
 
     /**
      * {@inheritDoc }
@@ -134,72 +170,238 @@ public final class IdentityObjectDAO implements IIdentityObjectDAO
      * {@inheritDoc }
      */
     @Override
-    public List<Integer> getEligibleIdListForIndex( Plugin plugin )
+    public int countEligibleIdentitiesForIndex( Plugin plugin )
     {
-        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_GET_ELIGIBLE_ID_FOR_INDEX, plugin ) )
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_COUNT_ELIGIBLE_FOR_INDEX, plugin ) )
         {
-            final List<Integer> eligibleIdListForIndex = new ArrayList<>( );
             daoUtil.executeQuery( );
+            return daoUtil.next( ) ? daoUtil.getInt( 1 ) : 0;
+        }
+    }
 
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public int getMaxIdentityId( Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_MAX_IDENTITY_ID, plugin ) )
+        {
+            daoUtil.executeQuery( );
+            return daoUtil.next( ) ? daoUtil.getInt( 1 ) : 0;
+        }
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public Map<Integer, IdentityObject> loadEligibleIdentitiesForIndex( final int afterIdentityId, final int upToIdentityId, final int limit,
+            final Plugin plugin )
+    {
+        final Map<Integer, IdentityObject> identityObjects = new LinkedHashMap<>( );
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_ELIGIBLE_IDENTITIES_AFTER_ID, plugin ) )
+        {
+            daoUtil.setInt( 1, afterIdentityId );
+            daoUtil.setInt( 2, upToIdentityId );
+            daoUtil.setInt( 3, limit );
+            daoUtil.executeQuery( );
+
+            // rows are ordered by identity, so each identity is complete once the next one starts
+            int currentIdentityId = -1;
+            IdentityObject identity = null;
             while ( daoUtil.next( ) )
             {
-                eligibleIdListForIndex.add( daoUtil.getInt( 1 ) );
-            }
+                final int identityId = daoUtil.getInt( "id_identity" );
+                if ( identity == null || identityId != currentIdentityId )
+                {
+                    currentIdentityId = identityId;
+                    identity = new IdentityObject( );
+                    identity.setConnectionId( daoUtil.getString( "connection_id" ) );
+                    identity.setCustomerId( daoUtil.getString( "customer_id" ) );
+                    identity.setCreationDate( daoUtil.getTimestamp( "date_create" ) );
+                    identity.setLastUpdateDate( daoUtil.getTimestamp( "last_update_date" ) );
+                    identity.setExpirationDate( daoUtil.getTimestamp( "expiration_date" ) );
+                    identity.setMonParisActive( daoUtil.getBoolean( "is_mon_paris_active" ) );
+                    identityObjects.put( identityId, identity );
+                }
 
-            return eligibleIdListForIndex;
+                final AttributeObject attribute = this.readAliasedAttribute( daoUtil );
+                identity.getAttributes( ).put( attribute.getKey( ), attribute );
+            }
         }
+        return identityObjects;
     }
 
     /**
      * {@inheritDoc }
      */
     @Override
-    public List<IdentityObject> loadEligibleIdentitiesForIndex( final List<Integer> idList, Plugin plugin )
+    public Map<String, IdentityObject> loadEligibleIdentitiesByCustomerIds( final List<String> customerIds, final Plugin plugin )
     {
-        final List<IdentityObject> identityObjects = new ArrayList<>( );
-        final String query = SQL_QUERY_SELECT_IDENTITIES_BY_IDS.replace( LIST_IDS,
-                idList.stream( ).map( String::valueOf ).collect( Collectors.joining( "," ) ) );
-        try ( final DAOUtil daoUtil = new DAOUtil( query, plugin ) )
+        final Map<String, IdentityObject> identityObjects = new HashMap<>( );
+        if ( customerIds.isEmpty( ) )
         {
+            return identityObjects;
+        }
+
+        final String strQuery = SQL_QUERY_SELECT_ELIGIBLE_IDENTITIES_BY_CUSTOMER_IDS.replace( "${customer_ids}",
+                customerIds.stream( ).map( customerId -> "?" ).collect( Collectors.joining( ", " ) ) );
+        try ( final DAOUtil daoUtil = new DAOUtil( strQuery, plugin ) )
+        {
+            int nIndex = 1;
+            for ( final String customerId : customerIds )
+            {
+                daoUtil.setString( nIndex++, customerId );
+            }
             daoUtil.executeQuery( );
+
+            // rows are ordered by identity, so each identity is complete once the next one starts
+            int currentIdentityId = -1;
+            IdentityObject identity = null;
             while ( daoUtil.next( ) )
             {
-                final String customerId = daoUtil.getString( "customer_id" );
-                final Optional<IdentityObject> first = identityObjects.stream( )
-                        .filter( identityObject -> identityObject.getCustomerId( ).equals( customerId ) ).findFirst( );
-
-                IdentityObject identity;
-                if ( first.isPresent( ) )
-                {
-                    identity = first.get( );
-                }
-                else
+                final int identityId = daoUtil.getInt( "id_identity" );
+                if ( identity == null || identityId != currentIdentityId )
                 {
+                    currentIdentityId = identityId;
                     identity = new IdentityObject( );
                     identity.setConnectionId( daoUtil.getString( "connection_id" ) );
-                    identity.setCustomerId( customerId );
+                    identity.setCustomerId( daoUtil.getString( "customer_id" ) );
                     identity.setCreationDate( daoUtil.getTimestamp( "date_create" ) );
                     identity.setLastUpdateDate( daoUtil.getTimestamp( "last_update_date" ) );
                     identity.setExpirationDate( daoUtil.getTimestamp( "expiration_date" ) );
                     identity.setMonParisActive( daoUtil.getBoolean( "is_mon_paris_active" ) );
-                    identityObjects.add( identity );
+                    identityObjects.put( identity.getCustomerId( ), identity );
                 }
 
-                final AttributeObject attribute = new AttributeObject( );
-                attribute.setName( daoUtil.getString( "attribute_key_name" ) );
-                attribute.setKey( daoUtil.getString( "attribute_key_key_name" ) );
-                attribute.setType( daoUtil.getString( "attribute_key_key_type" ) );
-                attribute.setDescription( daoUtil.getString( "attribute_key_description" ) );
-                attribute.setPivot( daoUtil.getBoolean( "attribute_key_pivot" ) );
-                attribute.setValue( daoUtil.getString( "attribute_attribute_value" ) );
-                attribute.setLastUpdateClientCode( daoUtil.getString( "attribute_lastupdate_client" ) );
-                attribute.setCertifierCode( daoUtil.getString( "certificate_certifier_code" ) );
-                attribute.setCertifierName( daoUtil.getString( "certificate_certifier_code" ) );
-                attribute.setCertificateDate( daoUtil.getTimestamp( "certificate_certificate_date" ) );
-                attribute.setCertificateExpirationDate( daoUtil.getTimestamp( "certificate_expiration_date" ) );
+                final AttributeObject attribute = this.readAliasedAttribute( daoUtil );
                 identity.getAttributes( ).put( attribute.getKey( ), attribute );
             }
         }
         return identityObjects;
     }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public Map<String, Timestamp> selectEligibleLastUpdateDatesAfter( final String afterCustomerId, final int limit, final Plugin plugin )
+    {
+        final Map<String, Timestamp> lastUpdateDates = new LinkedHashMap<>( );
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_ELIGIBLE_LAST_UPDATE_DATES_AFTER_CUSTOMER_ID, plugin ) )
+        {
+            daoUtil.setString( 1, afterCustomerId );
+            daoUtil.setInt( 2, limit );
+            daoUtil.executeQuery( );
+            while ( daoUtil.next( ) )
+            {
+                lastUpdateDates.put( daoUtil.getString( 1 ), daoUtil.getTimestamp( 2 ) );
+            }
+        }
+        return lastUpdateDates;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public Set<String> selectEligibleCustomerIds( final List<String> customerIds, final Plugin plugin )
+    {
+        final Set<String> eligibleCustomerIds = new HashSet<>( );
+        if ( customerIds.isEmpty( ) )
+        {
+            return eligibleCustomerIds;
+        }
+
+        final String strQuery = SQL_QUERY_SELECT_ELIGIBLE_CUSTOMER_IDS.replace( "${customer_ids}",
+                customerIds.stream( ).map( customerId -> "?" ).collect( Collectors.joining( ", " ) ) );
+        try ( final DAOUtil daoUtil = new DAOUtil( strQuery, plugin ) )
+        {
+            int nIndex = 1;
+            for ( final String customerId : customerIds )
+            {
+                daoUtil.setString( nIndex++, customerId );
+            }
+            daoUtil.executeQuery( );
+            while ( daoUtil.next( ) )
+            {
+                eligibleCustomerIds.add( daoUtil.getString( 1 ) );
+            }
+        }
+        return eligibleCustomerIds;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public List<UpdatedIdentity> loadIdentitiesUpdatedAfter( final Timestamp afterDate, final int afterIdentityId, final Timestamp upToDate, final int limit,
+            final Plugin plugin )
+    {
+        final List<UpdatedIdentity> updatedIdentities = new ArrayList<>( );
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_IDENTITIES_UPDATED_AFTER, plugin ) )
+        {
+            daoUtil.setTimestamp( 1, afterDate );
+            daoUtil.setInt( 2, afterIdentityId );
+            daoUtil.setTimestamp( 3, upToDate );
+            daoUtil.setInt( 4, limit );
+            daoUtil.executeQuery( );
+
+            UpdatedIdentity updatedIdentity = null;
+            while ( daoUtil.next( ) )
+            {
+                final int identityId = daoUtil.getInt( "id_identity" );
+                if ( updatedIdentity == null || identityId != updatedIdentity.getIdentityId( ) )
+                {
+                    updatedIdentity = new UpdatedIdentity( identityId, daoUtil.getString( "customer_id" ), daoUtil.getTimestamp( "last_update_date" ) );
+                    updatedIdentities.add( updatedIdentity );
+                    if ( daoUtil.getInt( "is_deleted" ) == 0 && daoUtil.getInt( "is_merged" ) == 0 )
+                    {
+                        final IdentityObject identity = new IdentityObject( );
+                        identity.setConnectionId( daoUtil.getString( "connection_id" ) );
+                        identity.setCustomerId( updatedIdentity.getCustomerId( ) );
+                        identity.setCreationDate( daoUtil.getTimestamp( "date_create" ) );
+                        identity.setLastUpdateDate( updatedIdentity.getLastUpdateDate( ) );
+                        identity.setExpirationDate( daoUtil.getTimestamp( "expiration_date" ) );
+                        identity.setMonParisActive( daoUtil.getBoolean( "is_mon_paris_active" ) );
+                        updatedIdentity.setIdentityObject( identity );
+                    }
+                }
+
+                // an identity without attribute is not eligible to indexing: it stays a tombstone
+                if ( !updatedIdentity.isTombstone( ) && daoUtil.getString( "attribute_key_key_name" ) != null )
+                {
+                    final AttributeObject attribute = this.readAliasedAttribute( daoUtil );
+                    updatedIdentity.getIdentityObject( ).getAttributes( ).put( attribute.getKey( ), attribute );
+                }
+            }
+        }
+
+        for ( final UpdatedIdentity updatedIdentity : updatedIdentities )
+        {
+            if ( !updatedIdentity.isTombstone( ) && updatedIdentity.getIdentityObject( ).getAttributes( ).isEmpty( ) )
+            {
+                updatedIdentity.setIdentityObject( null );
+            }
+        }
+        return updatedIdentities;
+    }
+
+    private AttributeObject readAliasedAttribute( final DAOUtil daoUtil )
+    {
+        final AttributeObject attribute = new AttributeObject( );
+        attribute.setName( daoUtil.getString( "attribute_key_name" ) );
+        attribute.setKey( daoUtil.getString( "attribute_key_key_name" ) );
+        attribute.setType( daoUtil.getString( "attribute_key_key_type" ) );
+        attribute.setDescription( daoUtil.getString( "attribute_key_description" ) );
+        attribute.setPivot( daoUtil.getBoolean( "attribute_key_pivot" ) );
+        attribute.setValue( daoUtil.getString( "attribute_attribute_value" ) );
+        attribute.setLastUpdateClientCode( daoUtil.getString( "attribute_lastupdate_client" ) );
+        attribute.setCertifierCode( daoUtil.getString( "certificate_certifier_code" ) );
+        attribute.setCertifierName( daoUtil.getString( "certificate_certifier_code" ) );
+        attribute.setCertificateDate( daoUtil.getTimestamp( "certificate_certificate_date" ) );
+        attribute.setCertificateExpirationDate( daoUtil.getTimestamp( "certificate_expiration_date" ) );
+        return attribute;
+    }
 }
@@ -42,6 +42,7 @@ public class IndexAction
     private IndexActionType _enumActionType;
     private String _strCustomerId;
     private Date _dateIndex;
+    private int _nNbAttempts;
 
     public IndexAction( )
     {
@@ -93,4 +94,14 @@ public class IndexAction
     {
         this._dateIndex = _dateIndex;
     }
+
+    public int getNbAttempts( )
+    {
+        return _nNbAttempts;
+    }
+
+    public void setNbAttempts( int nNbAttempts )
+    {
+        _nNbAttempts = nNbAttempts;
+    }
 }
@@ -38,6 +38,7 @@ import fr.paris.lutece.util.sql.DAOUtil;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
@@ -50,6 +51,15 @@ public class IndexActionDao implements IIndexActionDao
     private static final String SQL_QUERY_DELETE = "DELETE FROM identitystore_index_action WHERE id_index_action IN ";
     private static final String SQL_QUERY_SELECTALL = "SELECT id_index_action, customer_id, action_type, date_index FROM identitystore_index_action ORDER BY date_index asc";
     private static final String SQL_QUERY_SELECTALL_WITH_LIMIT = SQL_QUERY_SELECTALL + " LIMIT ?";
+    private static final String SQL_QUERY_SELECT_AND_LOCK_PENDING = "SELECT id_index_action, customer_id, action_type, date_index, nb_attempts FROM identitystore_index_action WHERE nb_attempts < ? AND ( lease_expiration IS NULL OR lease_expiration < ? ) ORDER BY id_index_action LIMIT ? FOR UPDATE SKIP LOCKED";
+    private static final String SQL_QUERY_CLAIM = "UPDATE identitystore_index_action SET lease_owner = ?, lease_expiration = ? WHERE id_index_action IN ";
+    private static final String SQL_QUERY_RELEASE = "UPDATE identitystore_index_action SET lease_owner = NULL, lease_expiration = NULL WHERE lease_owner = ? AND id_index_action IN ";
+    private static final String SQL_QUERY_SELECT_AFTER_ID = "SELECT id_index_action, customer_id, action_type, date_index, nb_attempts FROM identitystore_index_action WHERE id_index_action > ? AND nb_attempts >= ? ORDER BY id_index_action LIMIT ?";
+    private static final String SQL_QUERY_DELETE_SUPERSEDED = "DELETE FROM identitystore_index_action a WHERE a.customer_id IN (${customer_id_list}) AND EXISTS ( SELECT 1 FROM identitystore_index_action b WHERE b.customer_id = a.customer_id AND b.id_index_action > a.id_index_action )";
+    private static final String SQL_QUERY_INCREMENT_ATTEMPTS = "UPDATE identitystore_index_action SET nb_attempts = nb_attempts + 1, lease_owner = NULL, lease_expiration = NULL WHERE lease_owner = ? AND id_index_action IN ";
+    private static final String SQL_QUERY_SELECT_OLDEST_PENDING_DATE = "SELECT min(date_index) FROM identitystore_index_action WHERE nb_attempts < ?";
+    private static final String SQL_QUERY_COUNT_PENDING = "SELECT count(*) FROM identitystore_index_action WHERE nb_attempts < ?";
+    private static final String SQL_QUERY_COUNT_DEAD_LETTERS = "SELECT count(*) FROM identitystore_index_action WHERE nb_attempts >= ?";
 
     @Override
     public void insert( IndexAction indexAction, Plugin plugin )
@@ -122,4 +132,142 @@ public class IndexActionDao implements IIndexActionDao
             return actions;
         }
     }
+
+    @Override
+    public List<IndexAction> selectAfter( final int afterId, final int minAttempts, final int limit, final Plugin plugin )
+    {
+        final List<IndexAction> actions = new ArrayList<>( );
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_AFTER_ID, plugin ) )
+        {
+            daoUtil.setInt( 1, afterId );
+            daoUtil.setInt( 2, minAttempts );
+            daoUtil.setInt( 3, limit );
+            daoUtil.executeQuery( );
+
+            while ( daoUtil.next( ) )
+            {
+                final IndexAction indexAction = new IndexAction( );
+                int nIndex = 1;
+
+                indexAction.setId( daoUtil.getInt( nIndex++ ) );
+                indexAction.setCustomerId( daoUtil.getString( nIndex++ ) );
+                indexAction.setActionType( IndexActionType.valueOf( daoUtil.getString( nIndex++ ) ) );
+                indexAction.setDateIndex( daoUtil.getTimestamp( nIndex++ ) );
+                indexAction.setNbAttempts( daoUtil.getInt( nIndex ) );
+                actions.add( indexAction );
+            }
+
+            return actions;
+        }
+    }
+
+    @Override
+    public int deleteSuperseded( final List<String> customerIds, final Plugin plugin )
+    {
+        final String strSQL = SQL_QUERY_DELETE_SUPERSEDED.replace( "${customer_id_list}", String.join( ", ", Collections.nCopies( customerIds.size( ), "?" ) ) );
+        try ( final DAOUtil daoUtil = new DAOUtil( strSQL, plugin ) )
+        {
+            int nIndex = 1;
+            for ( final String customerId : customerIds )
+            {
+                daoUtil.setString( nIndex++, customerId );
+            }
+            return daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public List<IndexAction> selectAndLockPending( final int limit, final int maxAttempts, final Timestamp now, final Plugin plugin )
+    {
+        final List<IndexAction> actions = new ArrayList<>( );
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_AND_LOCK_PENDING, plugin ) )
+        {
+            daoUtil.setInt( 1, maxAttempts );
+            daoUtil.setTimestamp( 2, now );
+            daoUtil.setInt( 3, limit );
+            daoUtil.executeQuery( );
+
+            while ( daoUtil.next( ) )
+            {
+                final IndexAction indexAction = new IndexAction( );
+                int nIndex = 1;
+
+                indexAction.setId( daoUtil.getInt( nIndex++ ) );
+                indexAction.setCustomerId( daoUtil.getString( nIndex++ ) );
+                indexAction.setActionType( IndexActionType.valueOf( daoUtil.getString( nIndex++ ) ) );
+                indexAction.setDateIndex( daoUtil.getTimestamp( nIndex++ ) );
+                indexAction.setNbAttempts( daoUtil.getInt( nIndex ) );
+                actions.add( indexAction );
+            }
+
+            return actions;
+        }
+    }
+
+    @Override
+    public void claim( final List<Integer> ids, final String strLeaseOwner, final Timestamp leaseExpiration, final Plugin plugin )
+    {
+        final String sqlQueryUpdate = SQL_QUERY_CLAIM + " (" + ids.stream( ).filter( Objects::nonNull ).map( Object::toString ).collect( Collectors.joining( "," ) ) + ")";
+        try ( final DAOUtil daoUtil = new DAOUtil( sqlQueryUpdate, plugin ) )
+        {
+            daoUtil.setString( 1, strLeaseOwner );
+            daoUtil.setTimestamp( 2, leaseExpiration );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void release( final List<Integer> ids, final String strLeaseOwner, final Plugin plugin )
+    {
+        this.updateLeased( SQL_QUERY_RELEASE, ids, strLeaseOwner, plugin );
+    }
+
+    @Override
+    public void incrementAttempts( final List<Integer> ids, final String strLeaseOwner, final Plugin plugin )
+    {
+        this.updateLeased( SQL_QUERY_INCREMENT_ATTEMPTS, ids, strLeaseOwner, plugin );
+    }
+
+    private void updateLeased( final String strQuery, final List<Integer> ids, final String strLeaseOwner, final Plugin plugin )
+    {
+        final String sqlQueryUpdate = strQuery + " (" + ids.stream( ).filter( Objects::nonNull ).map( Object::toString ).collect( Collectors.joining( "," ) ) + ")";
+        try ( final DAOUtil daoUtil = new DAOUtil( sqlQueryUpdate, plugin ) )
+        {
+            daoUtil.setString( 1, strLeaseOwner );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public Date selectOldestPendingDate( final int maxAttempts, final Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_OLDEST_PENDING_DATE, plugin ) )
+        {
+            daoUtil.setInt( 1, maxAttempts );
+            daoUtil.executeQuery( );
+            return daoUtil.next( ) ? daoUtil.getTimestamp( 1 ) : null;
+        }
+    }
+
+    @Override
+    public int countPending( final int maxAttempts, final Plugin plugin )
+    {
+        return this.count( SQL_QUERY_COUNT_PENDING, maxAttempts, plugin );
+    }
+
+    @Override
+    public int countDeadLetters( final int maxAttempts, final Plugin plugin )
+    {
+        return this.count( SQL_QUERY_COUNT_DEAD_LETTERS, maxAttempts, plugin );
+    }
+
+    private int count( final String strQuery, final int maxAttempts, final Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( strQuery, plugin ) )
+        {
+            daoUtil.setInt( 1, maxAttempts );
+            daoUtil.executeQuery( );
+            return daoUtil.next( ) ? daoUtil.getInt( 1 ) : 0;
+        }
+    }
 }
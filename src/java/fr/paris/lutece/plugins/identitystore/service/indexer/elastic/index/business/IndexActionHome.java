@@ -38,6 +38,8 @@ import fr.paris.lutece.portal.service.plugin.Plugin;
 import fr.paris.lutece.portal.service.plugin.PluginService;
 import fr.paris.lutece.portal.service.spring.SpringContextService;
 
+import java.sql.Timestamp;
+import java.util.Date;
 import java.util.List;
 
 public class IndexActionHome
@@ -70,4 +72,49 @@ public class IndexActionHome
     {
         return _dao.selectAll( _plugin );
     }
+
+    public static List<IndexAction> selectAfter( final int afterId, final int minAttempts, final int limit )
+    {
+        return _dao.selectAfter( afterId, minAttempts, limit, _plugin );
+    }
+
+    public static int deleteSuperseded( final List<String> customerIds )
+    {
+        return _dao.deleteSuperseded( customerIds, _plugin );
+    }
+
+    public static List<IndexAction> selectAndLockPending( final int limit, final int maxAttempts, final Timestamp now )
+    {
+        return _dao.selectAndLockPending( limit, maxAttempts, now, _plugin );
+    }
+
+    public static void claim( final List<Integer> ids, final String strLeaseOwner, final Timestamp leaseExpiration )
+    {
+        _dao.claim( ids, strLeaseOwner, leaseExpiration, _plugin );
+    }
+
+    public static void release( final List<Integer> ids, final String strLeaseOwner )
+    {
+        _dao.release( ids, strLeaseOwner, _plugin );
+    }
+
+    public static void incrementAttempts( final List<Integer> ids, final String strLeaseOwner )
+    {
+        _dao.incrementAttempts( ids, strLeaseOwner, _plugin );
+    }
+
+    public static Date selectOldestPendingDate( final int maxAttempts )
+    {
+        return _dao.selectOldestPendingDate( maxAttempts, _plugin );
+    }
+
+    public static int countPending( final int maxAttempts )
+    {
+        return _dao.countPending( maxAttempts, _plugin );
+    }
+
+    public static int countDeadLetters( final int maxAttempts )
+    {
+        return _dao.countDeadLetters( maxAttempts, _plugin );
+    }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business;
+
+import java.sql.Timestamp;
+
+/**
+ * Progress of an unfinished full reindex: the index being built, the index it will replace, and the identity id below which every eligible identity has
+ * been sent to the new index. The node coordinating the reindex holds a lease on it, so that another node only resumes it once the lease has expired.
+ */
+public class IndexCheckpoint
+{
+    private int _nId;
+    private String _strIndexName;
+    private String _strOldIndexName;
+    private int _nLastIdentityId;
+    private int _nNbIndexedIdentities;
+    private Timestamp _dateStart;
+    private Timestamp _dateUpdate;
+    private String _strLeaseOwner;
+    private Timestamp _leaseExpiration;
+
+    public int getId( )
+    {
+        return _nId;
+    }
+
+    public void setId( int nId )
+    {
+        _nId = nId;
+    }
+
+    public String getIndexName( )
+    {
+        return _strIndexName;
+    }
+
+    public void setIndexName( String strIndexName )
+    {
+        _strIndexName = strIndexName;
+    }
+
+    public String getOldIndexName( )
+    {
+        return _strOldIndexName;
+    }
+
+    public void setOldIndexName( String strOldIndexName )
+    {
+        _strOldIndexName = strOldIndexName;
+    }
+
+    public int getLastIdentityId( )
+    {
+        return _nLastIdentityId;
+    }
+
+    public void setLastIdentityId( int nLastIdentityId )
+    {
+        _nLastIdentityId = nLastIdentityId;
+    }
+
+    public int getNbIndexedIdentities( )
+    {
+        return _nNbIndexedIdentities;
+    }
+
+    public void setNbIndexedIdentities( int nNbIndexedIdentities )
+    {
+        _nNbIndexedIdentities = nNbIndexedIdentities;
+    }
+
+    public Timestamp getDateStart( )
+    {
+        return _dateStart;
+    }
+
+    public void setDateStart( Timestamp dateStart )
+    {
+        _dateStart = dateStart;
+    }
+
+    public Timestamp getDateUpdate( )
+    {
+        return _dateUpdate;
+    }
+
+    public void setDateUpdate( Timestamp dateUpdate )
+    {
+        _dateUpdate = dateUpdate;
+    }
+
+    public String getLeaseOwner( )
+    {
+        return _strLeaseOwner;
+    }
+
+    public void setLeaseOwner( String strLeaseOwner )
+    {
+        _strLeaseOwner = strLeaseOwner;
+    }
+
+    public Timestamp getLeaseExpiration( )
+    {
+        return _leaseExpiration;
+    }
+
+    public void setLeaseExpiration( Timestamp leaseExpiration )
+    {
+        _leaseExpiration = leaseExpiration;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+public class IndexCheckpointDao implements IIndexCheckpointDao
+{
+    private static final String SQL_QUERY_INSERT = "INSERT INTO identitystore_index_checkpoint ( index_name, old_index_name, last_identity_id, nb_indexed_identities, date_start, date_update, lease_owner, lease_expiration ) VALUES ( ?, ?, ?, ?, ?, ?, ?, ? ) ";
+    private static final String SQL_QUERY_UPDATE_PROGRESS = "UPDATE identitystore_index_checkpoint SET last_identity_id = ?, nb_indexed_identities = ?, date_update = ? WHERE id_index_checkpoint = ? ";
+    private static final String SQL_QUERY_DELETE = "DELETE FROM identitystore_index_checkpoint WHERE id_index_checkpoint = ? ";
+    private static final String SQL_QUERY_SELECT_LAST = "SELECT id_index_checkpoint, index_name, old_index_name, last_identity_id, nb_indexed_identities, date_start, date_update, lease_owner, lease_expiration FROM identitystore_index_checkpoint ORDER BY date_start DESC LIMIT 1";
+    private static final String SQL_QUERY_CLAIM = "UPDATE identitystore_index_checkpoint SET lease_owner = ?, lease_expiration = ? WHERE id_index_checkpoint = ? AND ( lease_owner IS NULL OR lease_owner = ? OR lease_expiration < ? ) ";
+    private static final String SQL_QUERY_RENEW_LEASE = "UPDATE identitystore_index_checkpoint SET lease_expiration = ? WHERE id_index_checkpoint = ? AND lease_owner = ? ";
+
+    @Override
+    public void insert( IndexCheckpoint checkpoint, Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INSERT, Statement.RETURN_GENERATED_KEYS, plugin ) )
+        {
+            final Timestamp now = new Timestamp( System.currentTimeMillis( ) );
+            checkpoint.setDateStart( now );
+            checkpoint.setDateUpdate( now );
+            int nIndex = 1;
+            daoUtil.setString( nIndex++, checkpoint.getIndexName( ) );
+            daoUtil.setString( nIndex++, checkpoint.getOldIndexName( ) );
+            daoUtil.setInt( nIndex++, checkpoint.getLastIdentityId( ) );
+            daoUtil.setInt( nIndex++, checkpoint.getNbIndexedIdentities( ) );
+            daoUtil.setTimestamp( nIndex++, checkpoint.getDateStart( ) );
+            daoUtil.setTimestamp( nIndex++, checkpoint.getDateUpdate( ) );
+            daoUtil.setString( nIndex++, checkpoint.getLeaseOwner( ) );
+            daoUtil.setTimestamp( nIndex, checkpoint.getLeaseExpiration( ) );
+            daoUtil.executeUpdate( );
+            if ( daoUtil.nextGeneratedKey( ) )
+            {
+                checkpoint.setId( daoUtil.getGeneratedKeyInt( 1 ) );
+            }
+        }
+    }
+
+    @Override
+    public void updateProgress( IndexCheckpoint checkpoint, Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_UPDATE_PROGRESS, plugin ) )
+        {
+            checkpoint.setDateUpdate( new Timestamp( System.currentTimeMillis( ) ) );
+            int nIndex = 1;
+            daoUtil.setInt( nIndex++, checkpoint.getLastIdentityId( ) );
+            daoUtil.setInt( nIndex++, checkpoint.getNbIndexedIdentities( ) );
+            daoUtil.setTimestamp( nIndex++, checkpoint.getDateUpdate( ) );
+            daoUtil.setInt( nIndex, checkpoint.getId( ) );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void delete( int nId, Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE, plugin ) )
+        {
+            daoUtil.setInt( 1, nId );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public boolean claim( int nId, String strOwner, Timestamp leaseExpiration, Timestamp now, Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_CLAIM, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setString( nIndex++, strOwner );
+            daoUtil.setTimestamp( nIndex++, leaseExpiration );
+            daoUtil.setInt( nIndex++, nId );
+            daoUtil.setString( nIndex++, strOwner );
+            daoUtil.setTimestamp( nIndex, now );
+            return daoUtil.executeUpdate( ) > 0;
+        }
+    }
+
+    @Override
+    public boolean renewLease( int nId, String strOwner, Timestamp leaseExpiration, Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_RENEW_LEASE, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setTimestamp( nIndex++, leaseExpiration );
+            daoUtil.setInt( nIndex++, nId );
+            daoUtil.setString( nIndex, strOwner );
+            return daoUtil.executeUpdate( ) > 0;
+        }
+    }
+
+    @Override
+    public IndexCheckpoint selectLast( Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_LAST, plugin ) )
+        {
+            daoUtil.executeQuery( );
+            if ( !daoUtil.next( ) )
+            {
+                return null;
+            }
+
+            final IndexCheckpoint checkpoint = new IndexCheckpoint( );
+            int nIndex = 1;
+            checkpoint.setId( daoUtil.getInt( nIndex++ ) );
+            checkpoint.setIndexName( daoUtil.getString( nIndex++ ) );
+            checkpoint.setOldIndexName( daoUtil.getString( nIndex++ ) );
+            checkpoint.setLastIdentityId( daoUtil.getInt( nIndex++ ) );
+            checkpoint.setNbIndexedIdentities( daoUtil.getInt( nIndex++ ) );
+            checkpoint.setDateStart( daoUtil.getTimestamp( nIndex++ ) );
+            checkpoint.setDateUpdate( daoUtil.getTimestamp( nIndex++ ) );
+            checkpoint.setLeaseOwner( daoUtil.getString( nIndex++ ) );
+            checkpoint.setLeaseExpiration( daoUtil.getTimestamp( nIndex ) );
+            return checkpoint;
+        }
+    }
+}
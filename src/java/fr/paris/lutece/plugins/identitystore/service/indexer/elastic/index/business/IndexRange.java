@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business;
+
+import java.sql.Timestamp;
+
+/**
+ * Identity ids ]start, end] of a partitioned full reindex. A node indexes a range while it holds its lease; a range whose lease expired can be claimed again
+ * by any node.
+ */
+public class IndexRange
+{
+    private int _nId;
+    private int _nIdCheckpoint;
+    private int _nRangeStart;
+    private int _nRangeEnd;
+    private IndexRangeStatus _status;
+    private String _strLeaseOwner;
+    private Timestamp _leaseExpiration;
+    private int _nNbAttempts;
+    private int _nNbIndexedIdentities;
+
+    public int getId( )
+    {
+        return _nId;
+    }
+
+    public void setId( int nId )
+    {
+        _nId = nId;
+    }
+
+    public int getIdCheckpoint( )
+    {
+        return _nIdCheckpoint;
+    }
+
+    public void setIdCheckpoint( int nIdCheckpoint )
+    {
+        _nIdCheckpoint = nIdCheckpoint;
+    }
+
+    public int getRangeStart( )
+    {
+        return _nRangeStart;
+    }
+
+    public void setRangeStart( int nRangeStart )
+    {
+        _nRangeStart = nRangeStart;
+    }
+
+    public int getRangeEnd( )
+    {
+        return _nRangeEnd;
+    }
+
+    public void setRangeEnd( int nRangeEnd )
+    {
+        _nRangeEnd = nRangeEnd;
+    }
+
+    public IndexRangeStatus getStatus( )
+    {
+        return _status;
+    }
+
+    public void setStatus( IndexRangeStatus status )
+    {
+        _status = status;
+    }
+
+    public String getLeaseOwner( )
+    {
+        return _strLeaseOwner;
+    }
+
+    public void setLeaseOwner( String strLeaseOwner )
+    {
+        _strLeaseOwner = strLeaseOwner;
+    }
+
+    public Timestamp getLeaseExpiration( )
+    {
+        return _leaseExpiration;
+    }
+
+    public void setLeaseExpiration( Timestamp leaseExpiration )
+    {
+        _leaseExpiration = leaseExpiration;
+    }
+
+    public int getNbAttempts( )
+    {
+        return _nNbAttempts;
+    }
+
+    public void setNbAttempts( int nNbAttempts )
+    {
+        _nNbAttempts = nNbAttempts;
+    }
+
+    public int getNbIndexedIdentities( )
+    {
+        return _nNbIndexedIdentities;
+    }
+
+    public void setNbIndexedIdentities( int nNbIndexedIdentities )
+    {
+        _nNbIndexedIdentities = nNbIndexedIdentities;
+    }
+}
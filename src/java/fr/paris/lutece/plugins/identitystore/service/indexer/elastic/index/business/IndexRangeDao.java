@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+public class IndexRangeDao implements IIndexRangeDao
+{
+    private static final String SQL_QUERY_INSERT = "INSERT INTO identitystore_index_range ( id_index_checkpoint, range_start, range_end, status ) VALUES ( ?, ?, ?, ? ) ";
+    private static final String SQL_QUERY_SELECT_AND_LOCK_CLAIMABLE = "SELECT id_index_range, id_index_checkpoint, range_start, range_end, status, lease_owner, lease_expiration, nb_attempts, nb_indexed_identities FROM identitystore_index_range WHERE id_index_checkpoint = ? AND nb_attempts < ? AND ( status = ? OR ( status = ? AND lease_expiration < ? ) ) ORDER BY range_start LIMIT 1 FOR UPDATE SKIP LOCKED";
+    private static final String SQL_QUERY_CLAIM = "UPDATE identitystore_index_range SET status = ?, lease_owner = ?, lease_expiration = ?, nb_attempts = nb_attempts + 1 WHERE id_index_range = ? ";
+    private static final String SQL_QUERY_RENEW_LEASE = "UPDATE identitystore_index_range SET lease_expiration = ? WHERE id_index_range = ? AND lease_owner = ? AND status = ? ";
+    private static final String SQL_QUERY_COMPLETE = "UPDATE identitystore_index_range SET status = ?, nb_indexed_identities = ?, lease_expiration = NULL WHERE id_index_range = ? AND lease_owner = ? AND status = ? ";
+    private static final String SQL_QUERY_RELEASE = "UPDATE identitystore_index_range SET status = ?, lease_owner = NULL, lease_expiration = NULL WHERE id_index_range = ? AND lease_owner = ? AND status = ? ";
+    private static final String SQL_QUERY_COUNT = "SELECT count(*) FROM identitystore_index_range WHERE id_index_checkpoint = ? ";
+    private static final String SQL_QUERY_COUNT_UNFINISHED = "SELECT count(*) FROM identitystore_index_range WHERE id_index_checkpoint = ? AND status <> ? ";
+    private static final String SQL_QUERY_COUNT_ABANDONED = "SELECT count(*) FROM identitystore_index_range WHERE id_index_checkpoint = ? AND status <> ? AND nb_attempts >= ? AND ( status = ? OR lease_expiration < ? ) ";
+    private static final String SQL_QUERY_SUM_INDEXED_IDENTITIES = "SELECT COALESCE( sum( nb_indexed_identities ), 0 ) FROM identitystore_index_range WHERE id_index_checkpoint = ? AND status = ? ";
+    private static final String SQL_QUERY_DELETE_BY_CHECKPOINT = "DELETE FROM identitystore_index_range WHERE id_index_checkpoint = ? ";
+
+    @Override
+    public void insert( IndexRange range, Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INSERT, Statement.RETURN_GENERATED_KEYS, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setInt( nIndex++, range.getIdCheckpoint( ) );
+            daoUtil.setInt( nIndex++, range.getRangeStart( ) );
+            daoUtil.setInt( nIndex++, range.getRangeEnd( ) );
+            daoUtil.setString( nIndex, range.getStatus( ).name( ) );
+            daoUtil.executeUpdate( );
+            if ( daoUtil.nextGeneratedKey( ) )
+            {
+                range.setId( daoUtil.getGeneratedKeyInt( 1 ) );
+            }
+        }
+    }
+
+    @Override
+    public IndexRange selectAndLockClaimable( int nIdCheckpoint, Timestamp now, int nMaxAttempts, Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_AND_LOCK_CLAIMABLE, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setInt( nIndex++, nIdCheckpoint );
+            daoUtil.setInt( nIndex++, nMaxAttempts );
+            daoUtil.setString( nIndex++, IndexRangeStatus.PENDING.name( ) );
+            daoUtil.setString( nIndex++, IndexRangeStatus.CLAIMED.name( ) );
+            daoUtil.setTimestamp( nIndex, now );
+            daoUtil.executeQuery( );
+            if ( !daoUtil.next( ) )
+            {
+                return null;
+            }
+
+            final IndexRange range = new IndexRange( );
+            nIndex = 1;
+            range.setId( daoUtil.getInt( nIndex++ ) );
+            range.setIdCheckpoint( daoUtil.getInt( nIndex++ ) );
+            range.setRangeStart( daoUtil.getInt( nIndex++ ) );
+            range.setRangeEnd( daoUtil.getInt( nIndex++ ) );
+            range.setStatus( IndexRangeStatus.valueOf( daoUtil.getString( nIndex++ ) ) );
+            range.setLeaseOwner( daoUtil.getString( nIndex++ ) );
+            range.setLeaseExpiration( daoUtil.getTimestamp( nIndex++ ) );
+            range.setNbAttempts( daoUtil.getInt( nIndex++ ) );
+            range.setNbIndexedIdentities( daoUtil.getInt( nIndex ) );
+            return range;
+        }
+    }
+
+    @Override
+    public void claim( IndexRange range, Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_CLAIM, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setString( nIndex++, IndexRangeStatus.CLAIMED.name( ) );
+            daoUtil.setString( nIndex++, range.getLeaseOwner( ) );
+            daoUtil.setTimestamp( nIndex++, range.getLeaseExpiration( ) );
+            daoUtil.setInt( nIndex, range.getId( ) );
+            daoUtil.executeUpdate( );
+            range.setStatus( IndexRangeStatus.CLAIMED );
+            range.setNbAttempts( range.getNbAttempts( ) + 1 );
+        }
+    }
+
+    @Override
+    public boolean renewLease( int nId, String strOwner, Timestamp leaseExpiration, Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_RENEW_LEASE, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setTimestamp( nIndex++, leaseExpiration );
+            daoUtil.setInt( nIndex++, nId );
+            daoUtil.setString( nIndex++, strOwner );
+            daoUtil.setString( nIndex, IndexRangeStatus.CLAIMED.name( ) );
+            return daoUtil.executeUpdate( ) > 0;
+        }
+    }
+
+    @Override
+    public boolean complete( int nId, String strOwner, int nNbIndexedIdentities, Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_COMPLETE, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setString( nIndex++, IndexRangeStatus.DONE.name( ) );
+            daoUtil.setInt( nIndex++, nNbIndexedIdentities );
+            daoUtil.setInt( nIndex++, nId );
+            daoUtil.setString( nIndex++, strOwner );
+            daoUtil.setString( nIndex, IndexRangeStatus.CLAIMED.name( ) );
+            return daoUtil.executeUpdate( ) > 0;
+        }
+    }
+
+    @Override
+    public void release( int nId, String strOwner, Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_RELEASE, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setString( nIndex++, IndexRangeStatus.PENDING.name( ) );
+            daoUtil.setInt( nIndex++, nId );
+            daoUtil.setString( nIndex++, strOwner );
+            daoUtil.setString( nIndex, IndexRangeStatus.CLAIMED.name( ) );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public int countByCheckpoint( int nIdCheckpoint, Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_COUNT, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdCheckpoint );
+            daoUtil.executeQuery( );
+            return daoUtil.next( ) ? daoUtil.getInt( 1 ) : 0;
+        }
+    }
+
+    @Override
+    public int countUnfinished( int nIdCheckpoint, Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_COUNT_UNFINISHED, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdCheckpoint );
+            daoUtil.setString( 2, IndexRangeStatus.DONE.name( ) );
+            daoUtil.executeQuery( );
+            return daoUtil.next( ) ? daoUtil.getInt( 1 ) : 0;
+        }
+    }
+
+    @Override
+    public int countAbandoned( int nIdCheckpoint, Timestamp now, int nMaxAttempts, Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_COUNT_ABANDONED, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setInt( nIndex++, nIdCheckpoint );
+            daoUtil.setString( nIndex++, IndexRangeStatus.DONE.name( ) );
+            daoUtil.setInt( nIndex++, nMaxAttempts );
+            daoUtil.setString( nIndex++, IndexRangeStatus.PENDING.name( ) );
+            daoUtil.setTimestamp( nIndex, now );
+            daoUtil.executeQuery( );
+            return daoUtil.next( ) ? daoUtil.getInt( 1 ) : 0;
+        }
+    }
+
+    @Override
+    public int sumIndexedIdentities( int nIdCheckpoint, Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SUM_INDEXED_IDENTITIES, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdCheckpoint );
+            daoUtil.setString( 2, IndexRangeStatus.DONE.name( ) );
+            daoUtil.executeQuery( );
+            return daoUtil.next( ) ? daoUtil.getInt( 1 ) : 0;
+        }
+    }
+
+    @Override
+    public void deleteByCheckpoint( int nIdCheckpoint, Plugin plugin )
+    {
+        try ( final DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE_BY_CHECKPOINT, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdCheckpoint );
+            daoUtil.executeUpdate( );
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business;
+
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.IdentityObject;
+
+import java.sql.Timestamp;
+
+/**
+ * An identity updated since a given date, as seen by the delta reindex: either the document to index, or a tombstone when the identity is deleted, merged or
+ * has no attribute anymore.
+ */
+public class UpdatedIdentity
+{
+    private final int _nIdentityId;
+    private final String _strCustomerId;
+    private final Timestamp _lastUpdateDate;
+    private IdentityObject _identityObject;
+
+    public UpdatedIdentity( final int nIdentityId, final String strCustomerId, final Timestamp lastUpdateDate )
+    {
+        _nIdentityId = nIdentityId;
+        _strCustomerId = strCustomerId;
+        _lastUpdateDate = lastUpdateDate;
+    }
+
+    public int getIdentityId( )
+    {
+        return _nIdentityId;
+    }
+
+    public String getCustomerId( )
+    {
+        return _strCustomerId;
+    }
+
+    public Timestamp getLastUpdateDate( )
+    {
+        return _lastUpdateDate;
+    }
+
+    /**
+     * @return the document to index, <code>null</code> for a tombstone
+     */
+    public IdentityObject getIdentityObject( )
+    {
+        return _identityObject;
+    }
+
+    public void setIdentityObject( final IdentityObject identityObject )
+    {
+        _identityObject = identityObject;
+    }
+
+    public boolean isTombstone( )
+    {
+        return _identityObject == null;
+    }
+}
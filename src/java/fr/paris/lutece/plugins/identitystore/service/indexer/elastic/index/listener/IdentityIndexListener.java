@@ -43,6 +43,7 @@ import fr.paris.lutece.plugins.identitystore.service.duplicate.IDuplicateService
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.AttributeObject;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.IdentityObject;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IIdentityIndexer;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IndexOutboxService;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.DtoConverter;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.AttributeDto;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.RequestAuthor;
@@ -64,16 +65,33 @@ public class IdentityIndexListener implements IdentityChangeListener
 
     private final IIdentityIndexer _identityIndexer;
     private final IDuplicateService _duplicateServiceElasticSearch;
+    private final IdentityIndexQueue _identityIndexQueue;
 
-    public IdentityIndexListener( final IIdentityIndexer _identityIndexer, final IDuplicateService _duplicateServiceElasticSearch )
+    public IdentityIndexListener( final IIdentityIndexer _identityIndexer, final IDuplicateService _duplicateServiceElasticSearch,
+            final IdentityIndexQueue _identityIndexQueue )
     {
         this._identityIndexer = _identityIndexer;
         this._duplicateServiceElasticSearch = _duplicateServiceElasticSearch;
+        this._identityIndexQueue = _identityIndexQueue;
     }
 
     @Override
     public void processIdentityChange( IdentityChangeType identityChangeType, Identity identity, String statusCode, String statusMessage, RequestAuthor author,
             String clientCode, Map<String, String> metadata )
+    {
+        if ( !IndexOutboxService.instance( ).isEnabled( ) )
+        {
+            this.index( identityChangeType, identity );
+        }
+
+        // Ensure that the identity is a valid suspicion
+        this.checkSuspicion( identity );
+    }
+
+    /**
+     * Indexes the change right after the commit. Only used when the index updates do not go through the outbox.
+     */
+    private void index( final IdentityChangeType identityChangeType, final Identity identity )
     {
         final Map<String, AttributeObject> attributeObjects = this.mapToIndexObject( identity );
         final IdentityObject identityObject = new IdentityObject( identity.getConnectionId( ), identity.getCustomerId( ), identity.getCreationDate( ),
@@ -84,17 +102,38 @@ public class IdentityIndexListener implements IdentityChangeListener
             case CREATE:
             case MERGE_CANCELLED:
                 AppLogService.debug( "Indexing identity change (" + identityChangeType.name( ) + ") with customerId = " + identity.getCustomerId( ) );
-                this._identityIndexer.create( identityObject, CURRENT_INDEX_ALIAS );
+                if ( this._identityIndexQueue.isEnabled( ) )
+                {
+                    this._identityIndexQueue.index( identityObject );
+                }
+                else
+                {
+                    this._identityIndexer.create( identityObject, CURRENT_INDEX_ALIAS );
+                }
                 break;
             case UPDATE:
             case CONSOLIDATED:
                 AppLogService.debug( "Indexing identity change (" + identityChangeType.name( ) + ") with customerId = " + identity.getCustomerId( ) );
-                this._identityIndexer.update( identityObject, CURRENT_INDEX_ALIAS );
+                if ( this._identityIndexQueue.isEnabled( ) )
+                {
+                    this._identityIndexQueue.index( identityObject );
+                }
+                else
+                {
+                    this._identityIndexer.update( identityObject, CURRENT_INDEX_ALIAS );
+                }
                 break;
             case DELETE:
             case MERGED:
                 AppLogService.debug( "Indexing identity change (" + identityChangeType.name( ) + ") with customerId = " + identity.getCustomerId( ) );
-                this._identityIndexer.delete( identityObject.getCustomerId( ), CURRENT_INDEX_ALIAS );
+                if ( this._identityIndexQueue.isEnabled( ) )
+                {
+                    this._identityIndexQueue.delete( identityObject.getCustomerId( ) );
+                }
+                else
+                {
+                    this._identityIndexer.delete( identityObject, CURRENT_INDEX_ALIAS );
+                }
                 break;
             case READ:
             case EXCLUDED:
@@ -104,9 +143,6 @@ public class IdentityIndexListener implements IdentityChangeListener
             default:
                 break;
         }
-
-        // Ensure that the identity is a valid suspicion
-        this.checkSuspicion( identity );
     }
 
     @Override
@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.listener;
+
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.client.ElasticClientException;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexAction;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexActionHome;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexActionType;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.IdentityObject;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkAction;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkActionType;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkResult;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IIdentityIndexer;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IndexOutboxService;
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Near real time indexing queue of the identity changes.<br>
+ * Changes are coalesced per customer id: only the last state of an identity is kept until the next flush. A single thread flushes the queue through the _bulk
+ * API every flush interval, or as soon as a batch is full. When the cluster cannot be reached, or an item fails, the change is written as an index action for
+ * the missing index daemon.<br>
+ * The queue is only used when the index updates do not go through the outbox: its flusher thread is not started otherwise.
+ */
+public class IdentityIndexQueue
+{
+    private static final String CURRENT_INDEX_ALIAS = AppPropertiesService.getProperty( "identitystore.elastic.client.identities.alias", "identities-alias" );
+    private static final int FLUSH_INTERVAL = AppPropertiesService.getPropertyInt( "identitystore.index.queue.flush.interval", 200 );
+    private static final int FLUSH_SIZE = AppPropertiesService.getPropertyInt( "identitystore.index.queue.flush.size", 500 );
+    private static final int MAX_PENDING = AppPropertiesService.getPropertyInt( "identitystore.index.queue.max.pending", 50000 );
+    private static final boolean QUEUE_ENABLED = AppPropertiesService.getPropertyBoolean( "identitystore.index.queue.enabled", true );
+
+    private final IIdentityIndexer _identityIndexer;
+    private final Map<String, PendingChange> _pendingChanges = new ConcurrentHashMap<>( );
+    private ScheduledExecutorService _flusher;
+    private final AtomicBoolean _bFlushRequested = new AtomicBoolean( );
+
+    // Metrics
+    private final LongAdder _nNbEvents = new LongAdder( );
+    private final LongAdder _nNbIndexedChanges = new LongAdder( );
+    private final LongAdder _nNbFallbackChanges = new LongAdder( );
+    private final LongAdder _nNbBulkCalls = new LongAdder( );
+    private final AtomicLong _lLastFlushLatency = new AtomicLong( );
+    private final AtomicLong _lMaxFlushLatency = new AtomicLong( );
+
+    public IdentityIndexQueue( final IIdentityIndexer identityIndexer )
+    {
+        _identityIndexer = identityIndexer;
+    }
+
+    /**
+     * Starts the flusher thread, if the queue is in use. Called when the application context is initialized.
+     */
+    public void start( )
+    {
+        if ( !this.isEnabled( ) )
+        {
+            return;
+        }
+        _flusher = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            final Thread thread = new Thread( runnable, "identitystore-index-queue" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        _flusher.scheduleWithFixedDelay( this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS );
+        AppLogService.info( "Index queue started, flushed every " + FLUSH_INTERVAL + " ms" );
+    }
+
+    /**
+     * @return true if the identity changes are indexed through this queue: the queue is enabled and the outbox is not
+     */
+    public boolean isEnabled( )
+    {
+        return QUEUE_ENABLED && !IndexOutboxService.instance( ).isEnabled( );
+    }
+
+    /**
+     * Queues an identity to be indexed, replacing any change of the same identity not flushed yet
+     *
+     * @param identity
+     *            the identity document
+     */
+    public void index( final IdentityObject identity )
+    {
+        this.enqueue( identity.getCustomerId( ), identity, BulkActionType.INDEX );
+    }
+
+    /**
+     * Queues the removal of an identity from the index, replacing any change of the same identity not flushed yet
+     *
+     * @param strCustomerId
+     *            the customer id of the identity
+     */
+    public void delete( final String strCustomerId )
+    {
+        this.enqueue( strCustomerId, null, BulkActionType.DELETE );
+    }
+
+    private void enqueue( final String strCustomerId, final IdentityObject identity, final BulkActionType type )
+    {
+        _nNbEvents.increment( );
+        if ( _pendingChanges.size( ) >= MAX_PENDING && !_pendingChanges.containsKey( strCustomerId ) )
+        {
+            // the cluster does not keep up: leave the change to the missing index daemon rather than growing the queue
+            this.fallback( strCustomerId, type );
+            return;
+        }
+        _pendingChanges.merge( strCustomerId, new PendingChange( strCustomerId, identity, type ),
+                ( previous, next ) -> next.since( previous._lEnqueueTime ) );
+        if ( _pendingChanges.size( ) >= FLUSH_SIZE && _bFlushRequested.compareAndSet( false, true ) )
+        {
+            _flusher.execute( this::flush );
+        }
+    }
+
+    /**
+     * Sends all the pending changes to the index, by batches of flush size. Only called from the flusher thread.
+     */
+    private void flush( )
+    {
+        _bFlushRequested.set( false );
+        try
+        {
+            while ( !_pendingChanges.isEmpty( ) )
+            {
+                final List<PendingChange> batch = new ArrayList<>( );
+                final Iterator<String> keys = _pendingChanges.keySet( ).iterator( );
+                while ( keys.hasNext( ) && batch.size( ) < FLUSH_SIZE )
+                {
+                    final PendingChange change = _pendingChanges.remove( keys.next( ) );
+                    if ( change != null )
+                    {
+                        batch.add( change );
+                    }
+                }
+                this.send( batch );
+            }
+        }
+        catch( final RuntimeException e )
+        {
+            AppLogService.error( "Index queue : unexpected error while flushing", e );
+        }
+    }
+
+    private void send( final List<PendingChange> batch )
+    {
+        if ( batch.isEmpty( ) )
+        {
+            return;
+        }
+        final List<BulkAction> actions = new ArrayList<>( batch.size( ) );
+        for ( final PendingChange change : batch )
+        {
+            actions.add( new BulkAction( change._strCustomerId, change._identity, change._type ) );
+        }
+
+        try
+        {
+            this.ensureIndexExists( );
+            _nNbBulkCalls.increment( );
+            final BulkResult result = _identityIndexer.bulk( actions, CURRENT_INDEX_ALIAS );
+            _nNbIndexedChanges.add( result.getSucceeded( ).size( ) );
+            result.getFailed( ).forEach( ( action, reason ) -> {
+                AppLogService.error( "Index queue : could not index " + action.getKey( ) + " : " + reason );
+                this.fallback( action.getKey( ), action.getType( ) );
+            } );
+        }
+        catch( final IdentityStoreException | ElasticClientException | RuntimeException e )
+        {
+            AppLogService.error( "Index queue : could not bulk " + actions.size( ) + " changes, saved as index actions : " + e.getMessage( ) );
+            actions.forEach( action -> this.fallback( action.getKey( ), action.getType( ) ) );
+        }
+
+        final long now = System.currentTimeMillis( );
+        final long latency = batch.stream( ).mapToLong( change -> now - change._lEnqueueTime ).max( ).orElse( 0 );
+        _lLastFlushLatency.set( latency );
+        _lMaxFlushLatency.accumulateAndGet( latency, Math::max );
+    }
+
+    private void ensureIndexExists( ) throws ElasticClientException
+    {
+        if ( !_identityIndexer.indexExists( CURRENT_INDEX_ALIAS ) )
+        {
+            final String newIndex = "identities-" + UUID.randomUUID( );
+            _identityIndexer.initIndex( newIndex );
+            _identityIndexer.addAliasOnIndex( newIndex, CURRENT_INDEX_ALIAS );
+        }
+    }
+
+    private void fallback( final String strCustomerId, final BulkActionType type )
+    {
+        _nNbFallbackChanges.increment( );
+        try
+        {
+            IndexActionHome.create( new IndexAction( type == BulkActionType.DELETE ? IndexActionType.DELETE : IndexActionType.UPDATE, strCustomerId ) );
+        }
+        catch( final RuntimeException e )
+        {
+            AppLogService.error( "Index queue : could not save index action for " + strCustomerId + " : " + e.getMessage( ) );
+        }
+    }
+
+    /**
+     * Flushes the pending changes and stops the flusher. Called when the application context is closed.
+     */
+    public void shutdown( )
+    {
+        if ( _flusher == null )
+        {
+            return;
+        }
+        _flusher.shutdown( );
+        try
+        {
+            if ( !_flusher.awaitTermination( 30, TimeUnit.SECONDS ) )
+            {
+                _flusher.shutdownNow( );
+            }
+        }
+        catch( final InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+        }
+        // whatever could not be sent is kept for the missing index daemon
+        _pendingChanges.values( ).forEach( change -> this.fallback( change._strCustomerId, change._type ) );
+        _pendingChanges.clear( );
+    }
+
+    public int getQueueDepth( )
+    {
+        return _pendingChanges.size( );
+    }
+
+    public long getNbEvents( )
+    {
+        return _nNbEvents.sum( );
+    }
+
+    public long getNbIndexedChanges( )
+    {
+        return _nNbIndexedChanges.sum( );
+    }
+
+    public long getNbFallbackChanges( )
+    {
+        return _nNbFallbackChanges.sum( );
+    }
+
+    public long getNbBulkCalls( )
+    {
+        return _nNbBulkCalls.sum( );
+    }
+
+    /**
+     * @return the time, in ms, between the oldest change of the last flushed batch and the end of its flush
+     */
+    public long getLastFlushLatency( )
+    {
+        return _lLastFlushLatency.get( );
+    }
+
+    public long getMaxFlushLatency( )
+    {
+        return _lMaxFlushLatency.get( );
+    }
+
+    /**
+     * Last known state of an identity waiting to be flushed
+     */
+    private static final class PendingChange
+    {
+        private final String _strCustomerId;
+        private final IdentityObject _identity;
+        private final BulkActionType _type;
+        private final long _lEnqueueTime;
+
+        private PendingChange( final String strCustomerId, final IdentityObject identity, final BulkActionType type )
+        {
+            this( strCustomerId, identity, type, System.currentTimeMillis( ) );
+        }
+
+        private PendingChange( final String strCustomerId, final IdentityObject identity, final BulkActionType type, final long lEnqueueTime )
+        {
+            _strCustomerId = strCustomerId;
+            _identity = identity;
+            _type = type;
+            _lEnqueueTime = lEnqueueTime;
+        }
+
+        /**
+         * @return this change, waiting since the first coalesced change
+         */
+        private PendingChange since( final long lEnqueueTime )
+        {
+            return new PendingChange( _strCustomerId, _identity, _type, Math.min( lEnqueueTime, _lEnqueueTime ) );
+        }
+    }
+}
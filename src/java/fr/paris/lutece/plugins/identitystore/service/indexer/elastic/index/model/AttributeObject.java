@@ -34,6 +34,7 @@
 package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model;
 
 import java.sql.Timestamp;
+import java.util.List;
 
 public class AttributeObject
 {
@@ -48,6 +49,8 @@ public class AttributeObject
     private Timestamp certificateDate;
     private Timestamp certificateExpirationDate;
     private String lastUpdateClientCode;
+    private String phoneticValue;
+    private List<String> phoneticTokens;
 
     public AttributeObject( String name, String key, String type, String value, String description, boolean pivot, String certifierCode, String certifierName,
             Timestamp certificateDate, Timestamp certificateExpirationDate, String lastUpdateClientCode )
@@ -55,7 +58,7 @@ public class AttributeObject
         this.name = name;
         this.key = key;
         this.type = type;
-        this.value = value;
+        this.setValue( value );
         this.description = description;
         this.pivot = pivot;
         this.certifierCode = certifierCode;
@@ -88,6 +91,7 @@ public class AttributeObject
     public void setKey( String key )
     {
         this.key = key;
+        this.encodePhonetic( );
     }
 
     public String getType( )
@@ -105,9 +109,23 @@ public class AttributeObject
         return value;
     }
 
+    /**
+     * Sets the value, and computes its phonetic keys if the attribute is a name
+     *
+     * @param value
+     *            the value
+     */
     public void setValue( String value )
     {
         this.value = value;
+        this.encodePhonetic( );
+    }
+
+    private void encodePhonetic( )
+    {
+        final boolean encoded = PhoneticEncoder.isEncoded( key );
+        this.phoneticValue = encoded ? PhoneticEncoder.encode( value ) : null;
+        this.phoneticTokens = encoded ? PhoneticEncoder.encodeTokens( value ) : null;
     }
 
     public String getDescription( )
@@ -179,4 +197,24 @@ public class AttributeObject
     {
         this.lastUpdateClientCode = lastUpdateClientCode;
     }
+
+    public String getPhoneticValue( )
+    {
+        return phoneticValue;
+    }
+
+    public void setPhoneticValue( String phoneticValue )
+    {
+        this.phoneticValue = phoneticValue;
+    }
+
+    public List<String> getPhoneticTokens( )
+    {
+        return phoneticTokens;
+    }
+
+    public void setPhoneticTokens( List<String> phoneticTokens )
+    {
+        this.phoneticTokens = phoneticTokens;
+    }
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model;
+
+import fr.paris.lutece.plugins.identitystore.utils.Names;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.util.Constants;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Phonetic encoding of the attribute values, computed once when an identity document is built and once per searched value, so that approximated
+ * searches are resolved by exact <i>term</i> lookups instead of fuzzy queries.<br/>
+ * The encoding is a Soundex adapted to french names: the value is upper cased and accent-folded, its first letter is kept and each following consonant
+ * is replaced by the digit of its sound group, vowels being dropped and consecutive identical digits merged. The code is not truncated so that long
+ * names remain discriminating.<br/>
+ * Only the name attributes, searched with the approximated treatment, are encoded.
+ */
+public final class PhoneticEncoder
+{
+    /**
+     * Sound group of each letter, <code>0</code> for the letters that are dropped.
+     */
+    private static final String CODES = "01230970072455012683090808";
+    private static final String TOKEN_SEPARATORS = "[\\s,'-]+";
+    private static final List<String> ENCODED_ATTRIBUTE_KEYS = Arrays.asList( Constants.PARAM_FAMILY_NAME, Constants.PARAM_PREFERRED_USERNAME,
+            Constants.PARAM_FIRST_NAME );
+
+    private PhoneticEncoder( )
+    {
+    }
+
+    /**
+     * @param strAttributeKey
+     *            the attribute key name
+     * @return <code>true</code> if the phonetic keys of the attribute are computed and indexed
+     */
+    public static boolean isEncoded( final String strAttributeKey )
+    {
+        return ENCODED_ATTRIBUTE_KEYS.contains( strAttributeKey );
+    }
+
+    /**
+     * Encodes the whole value.
+     *
+     * @param strValue
+     *            the value
+     * @return the phonetic code of the value, <code>null</code> if the value has no letter
+     */
+    public static String encode( final String strValue )
+    {
+        if ( StringUtils.isBlank( strValue ) )
+        {
+            return null;
+        }
+        final String strLetters = Names.letters( strValue );
+        if ( strLetters.isEmpty( ) )
+        {
+            return null;
+        }
+        final StringBuilder sbCode = new StringBuilder( ).append( strLetters.charAt( 0 ) );
+        char cLast = code( strLetters.charAt( 0 ) );
+        for ( int i = 1; i < strLetters.length( ); i++ )
+        {
+            final char c = code( strLetters.charAt( i ) );
+            if ( c != '0' && c != cLast )
+            {
+                sbCode.append( c );
+            }
+            if ( c != '0' )
+            {
+                cLast = c;
+            }
+        }
+        return sbCode.toString( );
+    }
+
+    /**
+     * Encodes each token of a multi token value (as first names), the tokens being separated by blanks, comas, hyphens or apostrophes, so that the
+     * compound names match whatever their separator (Jean-Pierre, Jean Pierre).
+     *
+     * @param strValue
+     *            the value
+     * @return the distinct phonetic codes of the tokens, <code>null</code> if the value has no letter
+     */
+    public static List<String> encodeTokens( final String strValue )
+    {
+        if ( StringUtils.isBlank( strValue ) )
+        {
+            return null;
+        }
+        final List<String> codes = Arrays.stream( strValue.trim( ).split( TOKEN_SEPARATORS ) ).map( PhoneticEncoder::encode ).filter( Objects::nonNull )
+                .distinct( ).collect( Collectors.toList( ) );
+        return codes.isEmpty( ) ? null : codes;
+    }
+
+    private static char code( final char cLetter )
+    {
+        return CODES.charAt( cLetter - 'A' );
+    }
+}
@@ -42,6 +42,8 @@ public class BulkAction
     protected BulkActionType type;
     @JsonIgnore
     protected Integer internalId;
+    @JsonIgnore
+    protected Long version;
 
     public BulkAction( final Integer internalId, String key, Object document, BulkActionType type )
     {
@@ -95,4 +97,17 @@ public class BulkAction
     public void setInternalId(Integer internalId) {
         this.internalId = internalId;
     }
+
+    /**
+     * @return the external version of the document, null for an unversioned write
+     */
+    public Long getVersion( )
+    {
+        return version;
+    }
+
+    public void setVersion( Long version )
+    {
+        this.version = version;
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The response of a _bulk request. The items are in the same order as the {@link BulkAction} of the request.
+ */
+public class BulkResponse
+{
+    @JsonProperty( "took" )
+    protected Long took;
+
+    @JsonProperty( "errors" )
+    protected boolean errors;
+
+    @JsonProperty( "items" )
+    protected List<Map<String, BulkResponseItem>> items = new ArrayList<>( );
+
+    public Long getTook( )
+    {
+        return took;
+    }
+
+    public void setTook( Long took )
+    {
+        this.took = took;
+    }
+
+    public boolean isErrors( )
+    {
+        return errors;
+    }
+
+    public void setErrors( boolean errors )
+    {
+        this.errors = errors;
+    }
+
+    public List<Map<String, BulkResponseItem>> getItems( )
+    {
+        return items;
+    }
+
+    public void setItems( List<Map<String, BulkResponseItem>> items )
+    {
+        this.items = items;
+    }
+
+    /**
+     * Each item is wrapped in an object keyed by the action type
+     *
+     * @param index
+     *            the index of the item, same as the index of the action in the request
+     * @return the item, or null if the response holds no such item
+     */
+    @JsonIgnore
+    public BulkResponseItem getItem( final int index )
+    {
+        if ( index >= items.size( ) || items.get( index ) == null || items.get( index ).isEmpty( ) )
+        {
+            return null;
+        }
+        return items.get( index ).values( ).iterator( ).next( );
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The result of one action of a _bulk request
+ */
+public class BulkResponseItem
+{
+    private static final int STATUS_NOT_FOUND = 404;
+    private static final int STATUS_CONFLICT = 409;
+    private static final String ERROR_VERSION_CONFLICT = "version_conflict_engine_exception";
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
+    private static final int ERROR_CODE_START = 300;
+
+    @JsonProperty( "_index" )
+    protected String index;
+
+    @JsonProperty( "_id" )
+    protected String id;
+
+    @JsonProperty( "status" )
+    protected int status;
+
+    @JsonProperty( "result" )
+    protected String result;
+
+    @JsonProperty( "error" )
+    protected BulkResponseError error;
+
+    public String getIndex( )
+    {
+        return index;
+    }
+
+    public void setIndex( String index )
+    {
+        this.index = index;
+    }
+
+    public String getId( )
+    {
+        return id;
+    }
+
+    public void setId( String id )
+    {
+        this.id = id;
+    }
+
+    public int getStatus( )
+    {
+        return status;
+    }
+
+    public void setStatus( int status )
+    {
+        this.status = status;
+    }
+
+    public String getResult( )
+    {
+        return result;
+    }
+
+    public void setResult( String result )
+    {
+        this.result = result;
+    }
+
+    public BulkResponseError getError( )
+    {
+        return error;
+    }
+
+    public void setError( BulkResponseError error )
+    {
+        this.error = error;
+    }
+
+    /**
+     * A delete of a document that is not in the index is considered successful, as well as a stale write (see {@link #isStale()})
+     *
+     * @param type
+     *            the type of the action
+     * @return true if the action succeeded
+     */
+    @JsonIgnore
+    public boolean isSuccess( final BulkActionType type )
+    {
+        return this.isStale( ) || error == null && ( status < ERROR_CODE_START || ( type == BulkActionType.DELETE && status == STATUS_NOT_FOUND ) );
+    }
+
+    /**
+     * @return true if the document was not written because the index already holds the same or a newer version of it (external versioning)
+     */
+    @JsonIgnore
+    public boolean isStale( )
+    {
+        return status == STATUS_CONFLICT && error != null && ERROR_VERSION_CONFLICT.equals( error.getType( ) );
+    }
+
+    /**
+     * @return true if the action was rejected because the cluster is overloaded (es_rejected_execution_exception), and can be retried as is
+     */
+    @JsonIgnore
+    public boolean isRejected( )
+    {
+        return status == STATUS_TOO_MANY_REQUESTS;
+    }
+
+    @JsonIgnore
+    public String getErrorReason( )
+    {
+        if ( error == null )
+        {
+            return "status " + status;
+        }
+        return "status " + status + " - " + error.getType( ) + " : " + error.getReason( );
+    }
+}
@@ -36,9 +36,12 @@ package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.serv
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.client.ElasticClientException;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.IdentityObject;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkAction;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkResult;
 import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 
 public interface IIdentityIndexer
 {
@@ -46,12 +49,29 @@ public interface IIdentityIndexer
     /* Documents API */
     void create( final IdentityObject identity, final String index );
 
-    boolean bulk( final List<BulkAction> bulkActions, final String index ) throws IdentityStoreException;
+    /**
+     * Applies the actions to the index through the _bulk API.<br>
+     * Actions rejected by an overloaded cluster are retried with backoff, the other failures are reported per action.
+     *
+     * @param bulkActions
+     *            the actions
+     * @param index
+     *            the index
+     * @return the outcome of each action
+     * @throws IdentityStoreException
+     *             if the _bulk request itself failed
+     */
+    BulkResult bulk( final List<BulkAction> bulkActions, final String index ) throws IdentityStoreException;
 
     void update( final IdentityObject identity, final String index );
 
     void delete( final String documentId, final String index );
 
+    /**
+     * Deletes the document of an identity, versioned after the last update date of the identity, so that an older write arriving later is rejected
+     */
+    void delete( final IdentityObject identity, final String index );
+
     void addAliasOnIndex( String newIndex, String alias );
 
     String getIndexBehindAlias( String alias );
@@ -74,5 +94,53 @@ public interface IIdentityIndexer
 
     void removeIndexReadOnly( final String index ) throws ElasticClientException;
 
+    /**
+     * Switches a new index to bulk-load mode before it is filled: no refresh, no replica and optionally an asynchronous translog.
+     *
+     * @param index
+     *            the index
+     * @throws ElasticClientException
+     *             if the settings could not be updated
+     */
+    void startBulkLoad( final String index ) throws ElasticClientException;
+
+    /**
+     * Ends the bulk-load mode of an index: restores the settings configured in the mappings, refreshes the index and optionally force-merges it, so that it
+     * is ready to be published.
+     *
+     * @param index
+     *            the index
+     * @throws ElasticClientException
+     *             if the index could not be restored
+     */
+    void endBulkLoad( final String index ) throws ElasticClientException;
+
     String getIndexedIdentitiesNumber( final String index ) throws ElasticClientException;
+
+    /**
+     * Gets the last update date of the indexed documents of the given customer ids, in one request
+     *
+     * @param customerIds
+     *            the customer ids
+     * @param index
+     *            the index
+     * @return the last update dates in ms (null if the document has none), by customer id. The documents that are not in the index are absent.
+     * @throws ElasticClientException
+     *             if the request failed
+     */
+    Map<String, Long> getIndexedLastUpdateDates( final List<String> customerIds, final String index ) throws ElasticClientException;
+
+    /**
+     * Walks the ids of all the documents of an index, by pages, on a point in time so that the walk is not disturbed by the writes
+     *
+     * @param index
+     *            the index
+     * @param pageSize
+     *            the number of ids per page
+     * @param pageConsumer
+     *            the consumer of each page of ids, returning false to stop the walk
+     * @throws ElasticClientException
+     *             if a request failed
+     */
+    void scanDocumentIds( final String index, final int pageSize, final Predicate<List<String>> pageConsumer ) throws ElasticClientException;
 }
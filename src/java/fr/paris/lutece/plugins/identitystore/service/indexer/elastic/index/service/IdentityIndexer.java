@@ -37,8 +37,12 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import fr.paris.lutece.plugins.identitystore.cache.DuplicateSearchCache;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.client.ElasticClient;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.client.ElasticClientException;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexAction;
@@ -46,28 +50,60 @@ import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.busin
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexActionType;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.IdentityObject;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkAction;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkActionType;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkResponse;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkResponseItem;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkResult;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.alias.AliasAction;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.alias.AliasActions;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Hit;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Response;
 import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
 import fr.paris.lutece.portal.service.util.AppException;
 import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
 
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class IdentityIndexer implements IIdentityIndexer
 {
     private final String CURRENT_INDEX_ALIAS = AppPropertiesService.getProperty( "identitystore.elastic.client.identities.alias", "identities-alias" );
     private final String PROPERTY_COUNT = "count";
+    private static final int BULK_RETRY_MAX = AppPropertiesService.getPropertyInt( "identitystore.elastic.client.bulk.retry.max", 5 );
+    private static final int BULK_RETRY_BACKOFF = AppPropertiesService.getPropertyInt( "identitystore.elastic.client.bulk.retry.backoff", 200 );
+    private static final boolean BULK_LOAD_ASYNC_TRANSLOG = AppPropertiesService.getPropertyBoolean( "identitystore.elastic.client.bulkload.translog.async", true );
+    private static final int BULK_LOAD_FORCE_MERGE_SEGMENTS = AppPropertiesService.getPropertyInt( "identitystore.elastic.client.bulkload.forcemerge.segments", 0 );
+    private static final String MAPPINGS_PATH = "fr/paris/lutece/plugins/identitystore/service/indexer/elastic/index/model/internal/mappings.json";
+    private static final String SETTING_REFRESH_INTERVAL = "refresh_interval";
+    private static final String SETTING_NUMBER_OF_REPLICAS = "number_of_replicas";
+    private static final String SETTING_TRANSLOG_DURABILITY = "translog.durability";
+    private static final String FIELD_LAST_UPDATE_DATE = "lastUpdateDate";
+    private static final String SCAN_KEEP_ALIVE = "5m";
 
     private final static ObjectMapper _mapper = new ObjectMapper( ).disable( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES );
+
+    /**
+     * Indices and aliases known to exist, shared by the indexers of the webapp so that the alias switch of a full reindex is seen by all of them. Only positive
+     * answers are kept: an entry is dropped when an index is deleted or when Elastic Search answers 404 for it.
+     */
+    private static final Set<String> _existingIndices = ConcurrentHashMap.newKeySet( );
+    private static volatile String _strMappings;
+    private static volatile JsonNode _configuredSettings;
     private final ElasticClient _elasticClient;
 
     public IdentityIndexer( final String strServerUrl, final String strLogin, final String strPassword )
@@ -85,56 +121,172 @@ public class IdentityIndexer implements IIdentityIndexer
     {
         try
         {
-            if ( !this._elasticClient.isExists( CURRENT_INDEX_ALIAS ) )
-            {
-                final String newIndex = "identities-" + UUID.randomUUID( );
-                this.initIndex( newIndex );
-                this.addAliasOnIndex( newIndex, CURRENT_INDEX_ALIAS );
-            }
-
-            this._elasticClient.create( CURRENT_INDEX_ALIAS, identity.getCustomerId( ), identity );
+            this.writeOnAlias( ( ) -> this._elasticClient.create( CURRENT_INDEX_ALIAS, identity.getCustomerId( ), identity, getVersion( identity ), true ) );
+            this.notifyIndexWrite( );
             AppLogService.debug( "Indexed document: " + identity.getCustomerId( ) );
         }
         catch( final ElasticClientException e )
         {
-            this.handleError( identity.getCustomerId( ), IndexActionType.CREATE );
-            AppLogService.error( "Failed to index (creation) identity " + identity.getCustomerId( ), e );
+            if ( !this.handleConflict( identity.getCustomerId( ), getVersion( identity ), e ) )
+            {
+                this.handleError( identity.getCustomerId( ), IndexActionType.CREATE );
+                AppLogService.error( "Failed to index (creation) identity " + identity.getCustomerId( ), e );
+            }
         }
     }
 
     @Override
-    public boolean bulk( final List<BulkAction> bulkActions, final String index ) throws IdentityStoreException
+    public BulkResult bulk( final List<BulkAction> bulkActions, final String index ) throws IdentityStoreException
     {
+        final BulkResult result = new BulkResult( );
+        for ( final BulkAction action : bulkActions )
+        {
+            if ( action.getVersion( ) == null && action.getType( ) == BulkActionType.INDEX && action.getDocument( ) instanceof IdentityObject )
+            {
+                action.setVersion( getVersion( (IdentityObject) action.getDocument( ) ) );
+            }
+        }
+        List<BulkAction> pendingActions = bulkActions;
+        int nbRetry = 0;
         try
         {
-            this._elasticClient.indexByBulk( index, bulkActions );
-            return true;
+            while ( !pendingActions.isEmpty( ) )
+            {
+                final BulkResponse response = this._elasticClient.indexByBulk( index, pendingActions );
+                if ( !response.isErrors( ) )
+                {
+                    pendingActions.forEach( result::addSuccess );
+                    break;
+                }
+
+                final List<BulkAction> rejectedActions = new ArrayList<>( );
+                for ( int i = 0; i < pendingActions.size( ); i++ )
+                {
+                    final BulkAction action = pendingActions.get( i );
+                    final BulkResponseItem item = response.getItem( i );
+                    if ( item == null )
+                    {
+                        result.addFailure( action, "No result in bulk response" );
+                    }
+                    else if ( item.isSuccess( action.getType( ) ) )
+                    {
+                        result.addSuccess( action );
+                    }
+                    else if ( item.isRejected( ) && nbRetry < BULK_RETRY_MAX )
+                    {
+                        rejectedActions.add( action );
+                    }
+                    else
+                    {
+                        result.addFailure( action, item.getErrorReason( ) );
+                    }
+                }
+
+                pendingActions = rejectedActions;
+                if ( !pendingActions.isEmpty( ) )
+                {
+                    final long delay = BULK_RETRY_BACKOFF * ( 1L << nbRetry++ );
+                    AppLogService.info( pendingActions.size( ) + " bulk actions rejected by Elasticsearch, retry " + nbRetry + "/" + BULK_RETRY_MAX + " in "
+                            + delay + " ms" );
+                    Thread.sleep( delay );
+                }
+            }
         }
         catch( final ElasticClientException e )
         {
             throw new IdentityStoreException( e.getMessage( ), e );
         }
+        catch( final InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            pendingActions.forEach( action -> result.addFailure( action, "Interrupted while waiting for retry" ) );
+        }
+        if ( CURRENT_INDEX_ALIAS.equals( index ) && !result.getSucceeded( ).isEmpty( ) )
+        {
+            this.notifyIndexWrite( );
+        }
+        return result;
     }
 
-    @Override
-    public void update( final IdentityObject identity, final String index )
+    /**
+     * Invalidates the cached duplicate searches, that any write may change. The writes to a new index during a full reindex are not notified: the documents are the
+     * same as in the published index.
+     */
+    private void notifyIndexWrite( )
+    {
+        final DuplicateSearchCache duplicateSearchCache = SpringContextService.getBean( "identitystore.duplicateSearchCache" );
+        duplicateSearchCache.onIndexWrite( );
+    }
+
+    /**
+     * Writes a document on the current alias in a single request, the existence of the alias being known from memory. If the alias was removed behind our
+     * back, Elastic Search answers 404 (the write requires an alias): the alias is created again and the write retried once.
+     */
+    private void writeOnAlias( final AliasWrite write ) throws ElasticClientException
     {
+        this.ensureAliasExists( );
         try
         {
-            if ( !this._elasticClient.isExists( CURRENT_INDEX_ALIAS ) )
+            write.execute( );
+        }
+        catch( final ElasticClientException e )
+        {
+            if ( !ElasticClient.isNotFound( e ) )
             {
-                final String newIndex = "identities-" + UUID.randomUUID( );
-                this.initIndex( newIndex );
-                this.addAliasOnIndex( newIndex, CURRENT_INDEX_ALIAS );
+                throw e;
             }
+            AppLogService.info( "Alias " + CURRENT_INDEX_ALIAS + " not found, creating it" );
+            _existingIndices.remove( CURRENT_INDEX_ALIAS );
+            this.ensureAliasExists( );
+            write.execute( );
+        }
+    }
 
-            this._elasticClient.update( CURRENT_INDEX_ALIAS, identity.getCustomerId( ), identity );
+    private void ensureAliasExists( ) throws ElasticClientException
+    {
+        if ( !this.indexExists( CURRENT_INDEX_ALIAS ) )
+        {
+            final String newIndex = "identities-" + UUID.randomUUID( );
+            this.initIndex( newIndex );
+            this.addAliasOnIndex( newIndex, CURRENT_INDEX_ALIAS );
+        }
+    }
+
+    @FunctionalInterface
+    private interface AliasWrite
+    {
+        void execute( ) throws ElasticClientException;
+    }
+
+    /**
+     * The external version of an identity document is its last update date: Elastic Search drops the writes of a snapshot older than the indexed one, so
+     * that replays and concurrent updates cannot overwrite a newer state.
+     *
+     * @param identity
+     *            the identity document
+     * @return the version, null if the identity has no last update date
+     */
+    private static Long getVersion( final IdentityObject identity )
+    {
+        return identity.getLastUpdateDate( ) != null ? identity.getLastUpdateDate( ).getTime( ) : null;
+    }
+
+    @Override
+    public void update( final IdentityObject identity, final String index )
+    {
+        try
+        {
+            this.writeOnAlias( ( ) -> this._elasticClient.update( CURRENT_INDEX_ALIAS, identity.getCustomerId( ), identity, getVersion( identity ), true ) );
+            this.notifyIndexWrite( );
             AppLogService.debug( "Indexed document: " + identity.getCustomerId( ) );
         }
         catch( final ElasticClientException e )
         {
-            this.handleError( identity.getCustomerId( ), IndexActionType.UPDATE );
-            AppLogService.error( "Failed to index (update) identity " + identity.getCustomerId( ), e );
+            if ( !this.handleConflict( identity.getCustomerId( ), getVersion( identity ), e ) )
+            {
+                this.handleError( identity.getCustomerId( ), IndexActionType.UPDATE );
+                AppLogService.error( "Failed to index (update) identity " + identity.getCustomerId( ), e );
+            }
         }
     }
 
@@ -144,6 +296,7 @@ public class IdentityIndexer implements IIdentityIndexer
         try
         {
             this._elasticClient.deleteDocument( CURRENT_INDEX_ALIAS, documentId );
+            this.notifyIndexWrite( );
             AppLogService.debug( "Removed identity : " + documentId );
         }
         catch( final ElasticClientException e )
@@ -153,20 +306,143 @@ public class IdentityIndexer implements IIdentityIndexer
         }
     }
 
+    @Override
+    public void delete( final IdentityObject identity, final String index )
+    {
+        // the identity holds its state read before the deletion, which is strictly newer
+        final Long version = getVersion( identity ) != null ? getVersion( identity ) + 1 : null;
+        try
+        {
+            this._elasticClient.deleteDocument( CURRENT_INDEX_ALIAS, identity.getCustomerId( ), version );
+            this.notifyIndexWrite( );
+            AppLogService.debug( "Removed identity : " + identity.getCustomerId( ) );
+        }
+        catch( final ElasticClientException e )
+        {
+            if ( !this.handleConflict( identity.getCustomerId( ), version, e ) )
+            {
+                this.handleError( identity.getCustomerId( ), IndexActionType.DELETE );
+                AppLogService.error( "Failed to remove identity " + identity.getCustomerId( ), e );
+            }
+        }
+    }
+
+    /**
+     * A versioned write rejected with a conflict means that the index holds a newer version of the document than the write, written by a concurrent
+     * indexing. The write is not retried as is: an index action is created so that the current state of the identity is read again from the database.
+     *
+     * @return true if the exception is a conflict
+     */
+    private boolean handleConflict( final String customerId, final Long version, final ElasticClientException e )
+    {
+        if ( version == null || !ElasticClient.isConflict( e ) )
+        {
+            return false;
+        }
+        AppLogService.warn( "Index write of identity " + customerId + " (version " + version
+                + ") rejected, the index holds a newer version: its current state will be indexed again" );
+        this.handleError( customerId, IndexActionType.UPDATE );
+        return true;
+    }
+
     @Override
     public void initIndex( final String index ) throws ElasticClientException
     {
-        final InputStream inputStream = this.getClass( ).getClassLoader( )
-                .getResourceAsStream( "fr/paris/lutece/plugins/identitystore/service/indexer/elastic/index/model/internal/mappings.json" );
-        final String mappings = new BufferedReader( new InputStreamReader( inputStream, StandardCharsets.UTF_8 ) ).lines( )
-                .collect( Collectors.joining( "\n" ) );
-        this._elasticClient.createMappings( index, mappings );
+        this._elasticClient.createMappings( index, this.loadMappings( ) );
+        _existingIndices.add( index );
+    }
+
+    @Override
+    public void startBulkLoad( final String index ) throws ElasticClientException
+    {
+        final ObjectNode settings = _mapper.createObjectNode( );
+        settings.put( "index." + SETTING_REFRESH_INTERVAL, "-1" );
+        settings.put( "index." + SETTING_NUMBER_OF_REPLICAS, 0 );
+        if ( BULK_LOAD_ASYNC_TRANSLOG )
+        {
+            settings.put( "index." + SETTING_TRANSLOG_DURABILITY, "async" );
+        }
+        this._elasticClient.updateSettings( index, settings.toString( ) );
+    }
+
+    @Override
+    public void endBulkLoad( final String index ) throws ElasticClientException
+    {
+        // Settings absent from the mappings are reset to the cluster defaults with a null value
+        final JsonNode configuredSettings = this.loadConfiguredSettings( );
+        final ObjectNode settings = _mapper.createObjectNode( );
+        settings.set( "index." + SETTING_REFRESH_INTERVAL, this.getConfiguredSetting( configuredSettings, SETTING_REFRESH_INTERVAL ) );
+        settings.set( "index." + SETTING_NUMBER_OF_REPLICAS, this.getConfiguredSetting( configuredSettings, SETTING_NUMBER_OF_REPLICAS ) );
+        if ( BULK_LOAD_ASYNC_TRANSLOG )
+        {
+            settings.set( "index." + SETTING_TRANSLOG_DURABILITY, this.getConfiguredSetting( configuredSettings, SETTING_TRANSLOG_DURABILITY ) );
+        }
+        this._elasticClient.updateSettings( index, settings.toString( ) );
+        this._elasticClient.refresh( index );
+        if ( BULK_LOAD_FORCE_MERGE_SEGMENTS > 0 )
+        {
+            this._elasticClient.forceMerge( index, BULK_LOAD_FORCE_MERGE_SEGMENTS );
+        }
+    }
+
+    /**
+     * The mappings are read once from the classpath
+     */
+    private String loadMappings( )
+    {
+        if ( _strMappings == null )
+        {
+            final InputStream inputStream = this.getClass( ).getClassLoader( ).getResourceAsStream( MAPPINGS_PATH );
+            _strMappings = new BufferedReader( new InputStreamReader( inputStream, StandardCharsets.UTF_8 ) ).lines( ).collect( Collectors.joining( "\n" ) );
+        }
+        return _strMappings;
+    }
+
+    private JsonNode loadConfiguredSettings( ) throws ElasticClientException
+    {
+        if ( _configuredSettings == null )
+        {
+            _configuredSettings = this.readTree( this.loadMappings( ) ).path( "settings" );
+        }
+        return _configuredSettings;
+    }
+
+    private JsonNode readTree( final String json ) throws ElasticClientException
+    {
+        try
+        {
+            return _mapper.readTree( json );
+        }
+        catch( final JsonProcessingException e )
+        {
+            throw new ElasticClientException( "Could not read the index mappings", e );
+        }
+    }
+
+    /**
+     * Looks up a setting in the "settings" of the mappings, in nested (index.translog.durability as objects) or flat form.
+     */
+    private JsonNode getConfiguredSetting( final JsonNode settings, final String name )
+    {
+        final String nestedPath = "/" + name.replace( '.', '/' );
+        JsonNode value = settings.at( "/index" + nestedPath );
+        if ( value.isMissingNode( ) )
+        {
+            value = settings.path( "index." + name );
+        }
+        if ( value.isMissingNode( ) )
+        {
+            value = settings.at( nestedPath );
+        }
+        return value.isMissingNode( ) ? NullNode.getInstance( ) : value;
     }
 
     @Override
     public void deleteIndex( final String index ) throws ElasticClientException
     {
         this._elasticClient.deleteIndex( index );
+        // The aliases of the deleted index are gone too
+        _existingIndices.clear( );
     }
 
     @Override
@@ -200,6 +476,77 @@ public class IdentityIndexer implements IIdentityIndexer
         }
     }
 
+    @Override
+    public Map<String, Long> getIndexedLastUpdateDates( final List<String> customerIds, final String index ) throws ElasticClientException
+    {
+        final Map<String, Long> lastUpdateDates = new HashMap<>( );
+        if ( customerIds.isEmpty( ) )
+        {
+            return lastUpdateDates;
+        }
+
+        final ObjectNode request = _mapper.createObjectNode( );
+        request.put( "size", customerIds.size( ) );
+        request.putArray( "_source" ).add( FIELD_LAST_UPDATE_DATE );
+        final ArrayNode ids = request.putObject( "query" ).putObject( "ids" ).putArray( "values" );
+        customerIds.forEach( ids::add );
+
+        final Response response = this._elasticClient.search( index, request );
+        if ( response.getResult( ) != null && response.getResult( ).getHits( ) != null )
+        {
+            for ( final Hit hit : response.getResult( ).getHits( ) )
+            {
+                final Timestamp lastUpdateDate = hit.getSource( ) != null ? hit.getSource( ).getLastUpdateDate( ) : null;
+                lastUpdateDates.put( hit.getId( ), lastUpdateDate != null ? lastUpdateDate.getTime( ) : null );
+            }
+        }
+        return lastUpdateDates;
+    }
+
+    @Override
+    public void scanDocumentIds( final String index, final int pageSize, final Predicate<List<String>> pageConsumer ) throws ElasticClientException
+    {
+        String pointInTimeId = this._elasticClient.openPointInTime( index, SCAN_KEEP_ALIVE );
+        try
+        {
+            // _shard_doc is the cheapest sort to walk a whole point in time
+            final ObjectNode request = _mapper.createObjectNode( );
+            request.put( "size", pageSize );
+            request.put( "_source", false );
+            request.putArray( "sort" ).addObject( ).put( "_shard_doc", "asc" );
+            while ( true )
+            {
+                request.putObject( "pit" ).put( "id", pointInTimeId ).put( "keep_alive", SCAN_KEEP_ALIVE );
+                final Response page = this._elasticClient.search( null, request );
+                if ( page.getPointInTimeId( ) != null )
+                {
+                    pointInTimeId = page.getPointInTimeId( );
+                }
+                final List<Hit> hits = page.getResult( ) != null && page.getResult( ).getHits( ) != null ? page.getResult( ).getHits( ) : new ArrayList<>( );
+                if ( !hits.isEmpty( ) && !pageConsumer.test( hits.stream( ).map( Hit::getId ).collect( Collectors.toList( ) ) ) )
+                {
+                    break;
+                }
+                if ( hits.size( ) < pageSize )
+                {
+                    break;
+                }
+                request.set( "search_after", _mapper.valueToTree( hits.get( hits.size( ) - 1 ).getSort( ) ) );
+            }
+        }
+        finally
+        {
+            try
+            {
+                this._elasticClient.closePointInTime( pointInTimeId );
+            }
+            catch( final ElasticClientException e )
+            {
+                AppLogService.error( "Could not close point in time, it will expire after " + SCAN_KEEP_ALIVE, e );
+            }
+        }
+    }
+
     @Override
     public void addAliasOnIndex( final String newIndex, final String alias )
     {
@@ -219,6 +566,8 @@ public class IdentityIndexer implements IIdentityIndexer
             actions.addAction( add );
 
             this._elasticClient.addAliasOnIndex( actions );
+            _existingIndices.add( newIndex );
+            _existingIndices.add( alias );
         }
         catch( final ElasticClientException e )
         {
@@ -261,9 +610,15 @@ public class IdentityIndexer implements IIdentityIndexer
     @Override
     public boolean indexExists( final String index )
     {
+        if ( _existingIndices.contains( index ) )
+        {
+            return true;
+        }
         try
         {
-            return _elasticClient.isExists( index );
+            _elasticClient.isExists( index );
+            _existingIndices.add( index );
+            return true;
         }
         catch( final ElasticClientException e )
         {
@@ -281,6 +636,15 @@ public class IdentityIndexer implements IIdentityIndexer
     @Override
     public boolean aliasExists( String index )
     {
+        if ( _existingIndices.contains( index ) )
+        {
+            return true;
+        }
+        if ( _elasticClient.aliasExists( index ) )
+        {
+            _existingIndices.add( index );
+            return true;
+        }
         return false;
     }
 
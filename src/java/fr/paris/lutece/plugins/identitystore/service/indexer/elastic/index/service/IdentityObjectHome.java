@@ -35,12 +35,16 @@ package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.serv
 
 import fr.paris.lutece.plugins.identitystore.service.IdentityStorePlugin;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IIdentityObjectDAO;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.UpdatedIdentity;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.IdentityObject;
 import fr.paris.lutece.portal.service.plugin.Plugin;
 import fr.paris.lutece.portal.service.plugin.PluginService;
 import fr.paris.lutece.portal.service.spring.SpringContextService;
 
+import java.sql.Timestamp;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class IdentityObjectHome
 {
@@ -49,13 +53,13 @@ public class IdentityObjectHome
     private static final Plugin _plugin = PluginService.getPlugin( IdentityStorePlugin.PLUGIN_NAME );
 
     /**
-     * Get the list of identity ids that are eligible to indexing process
-     * 
-     * @return the list of identity ids
+     * Count the identities that are eligible to indexing process
+     *
+     * @return the number of identities
      */
-    public static List<Integer> getEligibleIdListForIndex( )
+    public static int countEligibleIdentitiesForIndex( )
     {
-        return _dao.getEligibleIdListForIndex( _plugin );
+        return _dao.countEligibleIdentitiesForIndex( _plugin );
     }
 
     /**
@@ -71,16 +75,87 @@ public class IdentityObjectHome
     }
 
     /**
-     * Load the identity objects that are eligible to indexing process and returns them as a list
+     * Get the highest identity id
+     *
+     * @return the highest identity id, 0 if there is no identity
+     */
+    public static int getMaxIdentityId( )
+    {
+        return _dao.getMaxIdentityId( _plugin );
+    }
+
+    /**
+     * Load a page of the identity objects that are eligible to indexing process, using the identity id as keyset cursor
+     * 
+     * @param afterIdentityId
+     *            the identity id after which the page starts (the last id of the previous page)
+     * @param upToIdentityId
+     *            the highest identity id that can be loaded
+     * @param limit
+     *            the maximum number of identities to load
+     * @return The identity objects of the page, by identity id, in ascending id order
+     */
+    public static Map<Integer, IdentityObject> loadEligibleIdentitiesForIndex( final int afterIdentityId, final int upToIdentityId, final int limit )
+    {
+        return _dao.loadEligibleIdentitiesForIndex( afterIdentityId, upToIdentityId, limit, _plugin );
+    }
+
+    /**
+     * Load the identity objects of the given customer ids that are eligible to indexing process, in one query. Deleted, merged and attribute-less identities
+     * are not returned.
+     *
+     * @param customerIds
+     *            the customer ids
+     * @return The eligible identity objects, by customer id
+     */
+    public static Map<String, IdentityObject> loadEligibleIdentitiesByCustomerIds( final List<String> customerIds )
+    {
+        return _dao.loadEligibleIdentitiesByCustomerIds( customerIds, _plugin );
+    }
+
+    /**
+     * Select a page of the last update dates of the identities eligible to indexing process, using the customer id as keyset cursor
+     *
+     * @param afterCustomerId
+     *            the customer id after which the page starts (the last customer id of the previous page, empty for the first page)
+     * @param limit
+     *            the maximum number of identities
+     * @return the last update dates by customer id, in ascending customer id order
+     */
+    public static Map<String, Timestamp> selectEligibleLastUpdateDatesAfter( final String afterCustomerId, final int limit )
+    {
+        return _dao.selectEligibleLastUpdateDatesAfter( afterCustomerId, limit, _plugin );
+    }
+
+    /**
+     * Select, among the given customer ids, those of identities eligible to indexing process
+     *
+     * @param customerIds
+     *            the customer ids
+     * @return the eligible customer ids
+     */
+    public static Set<String> selectEligibleCustomerIds( final List<String> customerIds )
+    {
+        return _dao.selectEligibleCustomerIds( customerIds, _plugin );
+    }
+
+    /**
+     * Load a page of the identities updated after a given (last update date, identity id) keyset, up to a given date. Deleted, merged and attribute-less
+     * identities are returned as tombstones.
      * 
+     * @param afterDate
+     *            the last update date of the last identity of the previous page
+     * @param afterIdentityId
+     *            the id of the last identity of the previous page
+     * @param upToDate
+     *            the highest last update date that can be loaded
      * @param limit
-     *            the limit size of the stream
-     * @param offset
-     *            the offset of the stream
-     * @return The list which contains the identity objects
+     *            the maximum number of identities to load
+     * @return the updated identities of the page, in ascending keyset order
      */
-    public static List<IdentityObject> loadEligibleIdentitiesForIndex( final List<Integer> idList )
+    public static List<UpdatedIdentity> loadIdentitiesUpdatedAfter( final Timestamp afterDate, final int afterIdentityId, final Timestamp upToDate,
+            final int limit )
     {
-        return _dao.loadEligibleIdentitiesForIndex( idList, _plugin );
+        return _dao.loadIdentitiesUpdatedAfter( afterDate, afterIdentityId, upToDate, limit, _plugin );
     }
 }
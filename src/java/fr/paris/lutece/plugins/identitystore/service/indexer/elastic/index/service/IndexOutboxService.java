@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service;
+
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexAction;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexActionHome;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexActionType;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.IdentityObject;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkAction;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkActionType;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Transactional outbox of the index updates.<br>
+ * Identity writes record an index action in the same transaction as the change itself, so that the change cannot be committed without its index update.
+ * The actions are then sent to Elasticsearch by the {@link fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.task.IndexOutboxRelay}.<br>
+ * Disabled by default: the changes are then indexed after the commit through the
+ * {@link fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.listener.IdentityIndexQueue}.
+ */
+public final class IndexOutboxService
+{
+    private static final boolean OUTBOX_ENABLED = AppPropertiesService.getPropertyBoolean( "identitystore.index.outbox.enabled", false );
+    private static final int MAX_ATTEMPTS = AppPropertiesService.getPropertyInt( "identitystore.index.outbox.relay.max.attempts", 5 );
+
+    private static IndexOutboxService _instance;
+
+    public static IndexOutboxService instance( )
+    {
+        if ( _instance == null )
+        {
+            _instance = new IndexOutboxService( );
+        }
+        return _instance;
+    }
+
+    private IndexOutboxService( )
+    {
+    }
+
+    /**
+     * @return true if the index updates go through the outbox, false if they are sent by the index listener after the commit
+     */
+    public boolean isEnabled( )
+    {
+        return OUTBOX_ENABLED;
+    }
+
+    /**
+     * @return the number of failed attempts after which an action is left to the missing index daemon (dead letter)
+     */
+    public int getMaxAttempts( )
+    {
+        return MAX_ATTEMPTS;
+    }
+
+    /**
+     * Records an index update of the identity. Must be called within the transaction that writes the identity.
+     *
+     * @param actionType
+     *            the type of update
+     * @param strCustomerId
+     *            the customer id of the identity
+     */
+    public void record( final IndexActionType actionType, final String strCustomerId )
+    {
+        if ( OUTBOX_ENABLED )
+        {
+            IndexActionHome.create( new IndexAction( actionType, strCustomerId ) );
+        }
+    }
+
+    /**
+     * Converts index actions into bulk actions. The current state of the identities is loaded in one query: an identity that is no longer eligible to
+     * indexing (deleted, merged, without attribute) is removed from the index, whatever the type of the action.
+     *
+     * @param indexActions
+     *            the index actions, at most one per customer id
+     * @return the bulk actions, the internal id of each one being the id of its index action
+     */
+    public List<BulkAction> toBulkActions( final List<IndexAction> indexActions )
+    {
+        final List<String> customerIdsToIndex = indexActions.stream( ).filter( action -> action.getActionType( ) != IndexActionType.DELETE )
+                .map( IndexAction::getCustomerId ).collect( Collectors.toList( ) );
+        final Map<String, IdentityObject> identityObjects = IdentityObjectHome.loadEligibleIdentitiesByCustomerIds( customerIdsToIndex );
+
+        return indexActions.stream( ).map( action -> {
+            final IdentityObject identityObject = action.getActionType( ) != IndexActionType.DELETE ? identityObjects.get( action.getCustomerId( ) ) : null;
+            return identityObject != null ? new BulkAction( action.getId( ), action.getCustomerId( ), identityObject, BulkActionType.INDEX )
+                    : new BulkAction( action.getId( ), action.getCustomerId( ), null, BulkActionType.DELETE );
+        } ).collect( Collectors.toList( ) );
+    }
+}
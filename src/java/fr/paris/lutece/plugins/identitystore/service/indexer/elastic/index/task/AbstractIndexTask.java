@@ -46,9 +46,8 @@ public abstract class AbstractIndexTask implements LoggingTask
         {
             this.status = new IndexStatus( );
         }
-        this.status.setCurrentNbIndexedIdentities( 0 );
-        this.status.setNbTotalIdentities( 0 );
-        this.status._sbLogs = new StringBuilder( );
+        this.status.start( );
+        this.status.resetLogs( );
         this.status.setRunning( true );
     }
 
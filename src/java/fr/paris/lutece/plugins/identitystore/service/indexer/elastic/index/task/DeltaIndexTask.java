@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.task;
+
+import fr.paris.lutece.plugins.identitystore.service.daemon.LoggingDaemon;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexAction;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexActionHome;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexActionType;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.UpdatedIdentity;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkAction;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkActionType;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkResult;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IIdentityIndexer;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IdentityObjectHome;
+import fr.paris.lutece.plugins.identitystore.service.network.DelayedNetworkService;
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+import fr.paris.lutece.portal.service.datastore.DatastoreService;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.DurationFormatUtils;
+import org.apache.commons.lang3.time.StopWatch;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Daemon keeping the index in sync with the identities updated since its last run.<br>
+ * It keeps a high-water mark on (last_update_date, id_identity) and walks the identities updated after it with a keyset cursor. Live identities are indexed,
+ * deleted, merged and attribute-less ones are removed from the index. The mark only moves forward once a page has been bulked, and the items that failed are
+ * written back as index actions for the missing index daemon.
+ */
+public class DeltaIndexTask extends LoggingDaemon implements UsingElasticConnection
+{
+    private static final String DATASTORE_KEY_LAST_UPDATE_DATE = "identitystore.deltaindex.highWaterMark.lastUpdateDate";
+    private static final String DATASTORE_KEY_LAST_IDENTITY_ID = "identitystore.deltaindex.highWaterMark.identityId";
+
+    private final String CURRENT_INDEX_ALIAS = AppPropertiesService.getProperty( "identitystore.elastic.client.identities.alias", "identities-alias" );
+    private final int BATCH_SIZE = AppPropertiesService.getPropertyInt( "identitystore.task.deltaindex.batch.size", 1000 );
+    private final int SAFETY_LAG_SECONDS = AppPropertiesService.getPropertyInt( "identitystore.task.deltaindex.lag", 60 );
+    private final IIdentityIndexer _identityIndexer = SpringContextService.getBean( "identitystore.elasticsearch.identityIndexer" );
+    private final DelayedNetworkService<BulkResult> bulkDelayedNetworkService = new DelayedNetworkService<>( );
+
+    @Override
+    public void doTask( )
+    {
+        final StopWatch stopWatch = new StopWatch( );
+        stopWatch.start( );
+
+        // updates still in flight when the daemon runs are left to the next run
+        final Timestamp upToDate = new Timestamp( System.currentTimeMillis( ) - SAFETY_LAG_SECONDS * 1000L );
+        final String strLastUpdateDate = DatastoreService.getDataValue( DATASTORE_KEY_LAST_UPDATE_DATE, null );
+        if ( StringUtils.isBlank( strLastUpdateDate ) )
+        {
+            this.info( "No delta reindex high-water mark, starting from " + upToDate + " (older updates are covered by the full reindex)" );
+            this.saveHighWaterMark( upToDate, 0 );
+            return;
+        }
+        if ( !_identityIndexer.isIndexWriteable( CURRENT_INDEX_ALIAS ) )
+        {
+            this.info( "Index " + CURRENT_INDEX_ALIAS + " is not writeable (full reindex in progress ?), delta reindex skipped" );
+            return;
+        }
+
+        Timestamp lastUpdateDate = new Timestamp( Long.parseLong( strLastUpdateDate ) );
+        int lastIdentityId = Integer.parseInt( DatastoreService.getDataValue( DATASTORE_KEY_LAST_IDENTITY_ID, "0" ) );
+        this.debug( "Delta reindex of the identities updated after " + lastUpdateDate + " (id " + lastIdentityId + ") up to " + upToDate );
+
+        int nbIndexed = 0;
+        int nbDeleted = 0;
+        List<UpdatedIdentity> page;
+        do
+        {
+            page = IdentityObjectHome.loadIdentitiesUpdatedAfter( lastUpdateDate, lastIdentityId, upToDate, BATCH_SIZE );
+            if ( page.isEmpty( ) )
+            {
+                break;
+            }
+
+            final List<BulkAction> actions = page.stream( )
+                    .map( updated -> updated.isTombstone( ) ? new BulkAction( updated.getCustomerId( ), null, BulkActionType.DELETE )
+                            : new BulkAction( updated.getCustomerId( ), updated.getIdentityObject( ), BulkActionType.INDEX ) )
+                    .collect( Collectors.toList( ) );
+            BulkResult bulked = null;
+            try
+            {
+                bulked = this.bulkDelayedNetworkService.call( ( ) -> _identityIndexer.bulk( actions, CURRENT_INDEX_ALIAS ), "Delta reindex by bulk", this );
+            }
+            catch( final IdentityStoreException e )
+            {
+                this.error( "An error occurred while bulking: " + e.getMessage( ) );
+            }
+            if ( bulked == null )
+            {
+                // the mark stays before this page, which is retried by the next run
+                this.error( "Could not bulk, delta reindex stopped" );
+                break;
+            }
+
+            bulked.getFailed( ).forEach( ( action, reason ) -> {
+                this.error( "Could not index " + action.getKey( ) + " : " + reason );
+                IndexActionHome.create( new IndexAction( action.getType( ) == BulkActionType.DELETE ? IndexActionType.DELETE : IndexActionType.UPDATE,
+                        action.getKey( ) ) );
+            } );
+            for ( final BulkAction action : bulked.getSucceeded( ) )
+            {
+                if ( action.getType( ) == BulkActionType.DELETE )
+                {
+                    nbDeleted++;
+                }
+                else
+                {
+                    nbIndexed++;
+                }
+            }
+
+            final UpdatedIdentity last = page.get( page.size( ) - 1 );
+            lastUpdateDate = last.getLastUpdateDate( );
+            lastIdentityId = last.getIdentityId( );
+            this.saveHighWaterMark( lastUpdateDate, lastIdentityId );
+        }
+        while ( page.size( ) == BATCH_SIZE );
+
+        stopWatch.stop( );
+        final String duration = DurationFormatUtils.formatDurationWords( stopWatch.getTime( ), true, true );
+        this.info( "Delta reindex : " + nbIndexed + " identities indexed, " + nbDeleted + " removed in " + duration );
+    }
+
+    private void saveHighWaterMark( final Timestamp lastUpdateDate, final int lastIdentityId )
+    {
+        DatastoreService.setDataValue( DATASTORE_KEY_LAST_UPDATE_DATE, String.valueOf( lastUpdateDate.getTime( ) ) );
+        DatastoreService.setDataValue( DATASTORE_KEY_LAST_IDENTITY_ID, String.valueOf( lastIdentityId ) );
+    }
+}
@@ -34,31 +34,63 @@
 package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.task;
 
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.client.ElasticClientException;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexAction;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexActionHome;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexActionType;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexCheckpoint;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexCheckpointHome;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexRange;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexRangeHome;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexRangeStatus;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.IdentityObject;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkAction;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkActionType;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkResult;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IIdentityIndexer;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IdentityObjectHome;
 import fr.paris.lutece.plugins.identitystore.service.network.DelayedNetworkService;
-import fr.paris.lutece.plugins.identitystore.utils.Batch;
 import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
 import fr.paris.lutece.portal.service.util.AppLogService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.util.sql.TransactionManager;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.DateFormatUtils;
 import org.apache.commons.lang3.time.DurationFormatUtils;
 import org.apache.commons.lang3.time.StopWatch;
 
-import java.util.ArrayList;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Timestamp;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class FullIndexTask extends AbstractIndexTask implements UsingElasticConnection
 {
     private final String CURRENT_INDEX_ALIAS = AppPropertiesService.getProperty( "identitystore.elastic.client.identities.alias", "identities-alias" );
     private final int BATCH_SIZE = AppPropertiesService.getPropertyInt( "identitystore.task.reindex.batch.size", 1000 );
+    private final int READER_THREADS = AppPropertiesService.getPropertyInt( "identitystore.task.reindex.reader.threads", 2 );
+    private final int READER_RANGE_SIZE = AppPropertiesService.getPropertyInt( "identitystore.task.reindex.reader.range.size", 10000 );
+    private final int SENDER_THREADS = AppPropertiesService.getPropertyInt( "identitystore.task.reindex.sender.threads", 4 );
+    private final int QUEUE_CAPACITY = AppPropertiesService.getPropertyInt( "identitystore.task.reindex.queue.capacity", 8 );
     private final boolean ACTIVE = AppPropertiesService.getPropertyBoolean( "identitystore.task.reindex.active", false );
+    private final boolean PARTITIONED = AppPropertiesService.getPropertyBoolean( "identitystore.task.reindex.partition.enabled", true );
+    private final int PARTITION_SIZE = AppPropertiesService.getPropertyInt( "identitystore.task.reindex.partition.size", 100000 );
+    private final int PARTITION_LEASE_SECONDS = AppPropertiesService.getPropertyInt( "identitystore.task.reindex.partition.lease", 300 );
+    private final int PARTITION_MAX_ATTEMPTS = AppPropertiesService.getPropertyInt( "identitystore.task.reindex.partition.max.attempts", 3 );
+    private final int PARTITION_POLL_INTERVAL = AppPropertiesService.getPropertyInt( "identitystore.task.reindex.partition.poll.interval", 5000 );
+    private final int CHECKPOINT_LEASE_SECONDS = AppPropertiesService.getPropertyInt( "identitystore.task.reindex.lease", 300 );
+
+    /** Owner of the checkpoint and range leases taken by this webapp node */
+    private static final String NODE_ID = getHostName( ) + "-" + UUID.randomUUID( ).toString( ).substring( 0, 8 );
+
+    /** Held by the full reindex or the join of a partitioned reindex running on this node, as both share the status of the task */
+    private final AtomicBoolean _bBusy = new AtomicBoolean( );
 
     public FullIndexTask( )
     {
@@ -77,70 +109,122 @@ public class FullIndexTask extends AbstractIndexTask implements UsingElasticConn
         }
     }
 
+    /**
+     * Runs the full reindex, unless a full reindex or the join of a partitioned reindex is already running on this node
+     */
     public void doJob( )
+    {
+        if ( !_bBusy.compareAndSet( false, true ) )
+        {
+            AppLogService.info( "Full index task already running on this node, skipped." );
+            return;
+        }
+        try
+        {
+            this.reindex( );
+        }
+        finally
+        {
+            _bBusy.set( false );
+        }
+    }
+
+    private void reindex( )
     {
         final StopWatch stopWatch = new StopWatch( );
         stopWatch.start( );
         this.init( );
         String countIndexedIdentities = "0";
-        final List<Integer> identityIdsList = new ArrayList<>( IdentityObjectHome.getEligibleIdListForIndex( ) );
-        if ( !identityIdsList.isEmpty( ) )
+        final int nbEligibleIdentities = IdentityObjectHome.countEligibleIdentitiesForIndex( );
+        if ( nbEligibleIdentities > 0 )
         {
             this.info( "Starting identities full reindex at " + DateFormatUtils.format( stopWatch.getStartTime( ), "dd-MM-yyyy'T'HH:mm:ss" ) );
             final IIdentityIndexer identityIndexer = this.createIdentityIndexer( );
-            if ( identityIndexer.isAlive( ) )
+            final IndexCheckpoint unfinished = IndexCheckpointHome.findLast( );
+            if ( !identityIndexer.isAlive( ) )
+            {
+                this.info( "[ERROR] ES not available" );
+            }
+            else if ( unfinished != null && !IndexCheckpointHome.claim( unfinished.getId( ), NODE_ID, this.getCheckpointLeaseExpiration( ) ) )
+            {
+                // the coordinator of the reindex is alive: this node only lends a hand through the range daemon
+                this.info( "Reindex of " + unfinished.getIndexName( ) + " coordinated by node " + unfinished.getLeaseOwner( ) + " (lease until "
+                        + unfinished.getLeaseExpiration( ) + "), skipped" );
+            }
+            else
             {
-                final String newIndex = "identities-" + UUID.randomUUID( );
                 this.info( "ES available :: indexing" );
+                IndexCheckpoint checkpoint = null;
+                boolean published = false;
+                final AtomicBoolean leaseLost = new AtomicBoolean( );
+                ScheduledExecutorService leaseRenewal = null;
                 try
                 {
-                    this.info( "Creating new index : " + newIndex );
-                    identityIndexer.initIndex( newIndex );
-
-                    if ( identityIndexer.indexExists( CURRENT_INDEX_ALIAS ) )
-                    {
-                        this.info( "Set current index READ-ONLY" );
-                        identityIndexer.makeIndexReadOnly( CURRENT_INDEX_ALIAS );
-                    }
-                    else
-                    {
-                        this.info( "Create alias" );
-                        identityIndexer.addAliasOnIndex( newIndex, CURRENT_INDEX_ALIAS );
-                    }
+                    checkpoint = this.resumeOrCreateCheckpoint( unfinished, identityIndexer );
+                    leaseRenewal = this.startLeaseRenewal( checkpoint, leaseLost );
+                    final String newIndex = checkpoint.getIndexName( );
 
-                    this.getStatus( ).setNbTotalIdentities( identityIdsList.size( ) );
+                    this.getStatus( ).setNbTotalIdentities( nbEligibleIdentities );
+                    this.getStatus( ).setCurrentNbIndexedIdentities( checkpoint.getNbIndexedIdentities( ) );
                     this.info( "NB identities to be indexed : " + this.getStatus( ).getNbTotalIdentities( ) );
                     this.info( "Size of indexing batches : " + BATCH_SIZE );
-                    final Batch<Integer> batch = Batch.ofSize( identityIdsList, BATCH_SIZE );
-                    this.info( "NB of indexing batches : " + batch.size( ) );
-                    batch.stream( ).parallel( ).forEach( identityIdList -> {
-                        this.process( identityIdList, newIndex );
-                    } );
+                    this.info( "Reindex pipeline : " + READER_THREADS + " reader(s), " + SENDER_THREADS + " sender(s), queue of " + QUEUE_CAPACITY + " batches" );
+                    final boolean complete = PARTITIONED ? this.indexPartitions( checkpoint, identityIndexer, leaseLost )
+                            : this.indexSequentially( checkpoint, identityIndexer, leaseLost );
+                    if ( !complete )
+                    {
+                        // an incomplete index must not be published, roll it back like any indexing failure
+                        throw new ElasticClientException( "Reindex pipeline did not read every identity", null );
+                    }
+                    this.info( "End bulk-load mode : restore index settings and refresh new index" );
+                    identityIndexer.endBulkLoad( newIndex );
                     countIndexedIdentities = identityIndexer.getIndexedIdentitiesNumber(CURRENT_INDEX_ALIAS);
                     this.info( "All batches processed, indexing " + countIndexedIdentities +  " identities, now switch alias to publish new index.." );
+                    if ( leaseLost.get( ) || !IndexCheckpointHome.renewLease( checkpoint.getId( ), NODE_ID, this.getCheckpointLeaseExpiration( ) ) )
+                    {
+                        // another node resumed the reindex meanwhile: the publication is left to it
+                        leaseLost.set( true );
+                        throw new IllegalStateException( "Lease of the reindex of " + newIndex + " lost, left to its new coordinator" );
+                    }
                     final String oldIndex = identityIndexer.getIndexBehindAlias( CURRENT_INDEX_ALIAS );
-                    if ( !StringUtils.equals( oldIndex, newIndex ) )
+                    final boolean switchAlias = !StringUtils.equals( oldIndex, newIndex );
+                    if ( switchAlias )
                     {
                         this.info( "Old index id: " + oldIndex );
                         identityIndexer.addAliasOnIndex( newIndex, CURRENT_INDEX_ALIAS );
-                        if ( oldIndex != null )
-                        {
-                            this.info( "Delete old index : " + oldIndex );
-                            identityIndexer.removeIndexReadOnly( oldIndex );
-                            identityIndexer.deleteIndex( oldIndex );
-                        }
+                    }
+                    published = true;
+                    if ( switchAlias && oldIndex != null )
+                    {
+                        this.info( "Delete old index : " + oldIndex );
+                        identityIndexer.removeIndexReadOnly( oldIndex );
+                        identityIndexer.deleteIndex( oldIndex );
                     }
                 }
-                catch( final ElasticClientException e )
+                catch( final ElasticClientException | RuntimeException e )
                 {
+                    AppLogService.error( "Failed to reindex", e );
                     this.info( "Failed to reindex " + e.getMessage( ) );
-                    final String oldIndex = identityIndexer.getIndexBehindAlias( CURRENT_INDEX_ALIAS );
-                    this.rollbackIndexCreation( oldIndex, newIndex, identityIndexer );
                 }
-            }
-            else
-            {
-                this.info( "[ERROR] ES not available" );
+                finally
+                {
+                    if ( leaseRenewal != null )
+                    {
+                        leaseRenewal.shutdownNow( );
+                    }
+                    // once the lease is lost, the new index, the checkpoint and the ranges belong to the new coordinator
+                    if ( checkpoint != null && ( published || !leaseLost.get( ) ) )
+                    {
+                        // ranges are deleted first, so that the other nodes stop claiming them
+                        IndexRangeHome.deleteByCheckpoint( checkpoint.getId( ) );
+                        if ( !published )
+                        {
+                            // whatever the failure, an index that is not behind the alias is rolled back
+                            this.rollbackIndexCreation( checkpoint.getOldIndexName( ), checkpoint.getIndexName( ), identityIndexer );
+                        }
+                        IndexCheckpointHome.delete( checkpoint.getId( ) );
+                    }
+                }
             }
             stopWatch.stop( );
             final String duration = DurationFormatUtils.formatDurationWords( stopWatch.getTime( ), true, true );
@@ -154,30 +238,402 @@ public class FullIndexTask extends AbstractIndexTask implements UsingElasticConn
         this.close( );
     }
 
-    private void process( final List<Integer> identityIdList, final String newIndex )
+    /**
+     * Renews the lease of the checkpoint in the background for the whole run, the bulk load end and the alias switch included
+     *
+     * @param leaseLost
+     *            set once the lease could not be renewed: another node has resumed the reindex
+     * @return the executor renewing the lease, to shut down at the end of the run
+     */
+    private ScheduledExecutorService startLeaseRenewal( final IndexCheckpoint checkpoint, final AtomicBoolean leaseLost )
+    {
+        final ScheduledExecutorService leaseRenewal = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            final Thread thread = new Thread( runnable, "identitystore-reindex-lease" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        final long period = CHECKPOINT_LEASE_SECONDS * 1000L / 3;
+        leaseRenewal.scheduleAtFixedRate( ( ) -> {
+            try
+            {
+                if ( !leaseLost.get( ) && !IndexCheckpointHome.renewLease( checkpoint.getId( ), NODE_ID, this.getCheckpointLeaseExpiration( ) ) )
+                {
+                    leaseLost.set( true );
+                    this.error( "Lease of the reindex of " + checkpoint.getIndexName( ) + " lost, left to its new coordinator" );
+                }
+            }
+            catch( final RuntimeException e )
+            {
+                // retried at the next period, before the lease expires
+                AppLogService.error( "Could not renew the lease of the reindex of " + checkpoint.getIndexName( ), e );
+            }
+        }, period, period, TimeUnit.MILLISECONDS );
+        return leaseRenewal;
+    }
+
+    private Timestamp getCheckpointLeaseExpiration( )
+    {
+        return new Timestamp( System.currentTimeMillis( ) + CHECKPOINT_LEASE_SECONDS * 1000L );
+    }
+
+    /**
+     * Reads every remaining identity on this node, saving the progress in the checkpoint until its lease is lost
+     */
+    private boolean indexSequentially( final IndexCheckpoint checkpoint, final IIdentityIndexer identityIndexer, final AtomicBoolean leaseLost )
+    {
+        final ReindexPipeline pipeline = new ReindexPipeline( READER_THREADS, SENDER_THREADS, QUEUE_CAPACITY, BATCH_SIZE, READER_RANGE_SIZE, this.getStatus( ),
+                this );
+        final int nbAlreadyIndexed = checkpoint.getNbIndexedIdentities( );
+        return pipeline.run( checkpoint.getLastIdentityId( ), IdentityObjectHome.getMaxIdentityId( ),
+                identityObjects -> {
+                    if ( !leaseLost.get( ) )
+                    {
+                        this.process( identityObjects, checkpoint.getIndexName( ), identityIndexer );
+                    }
+                }, ( lastIdentityId, nbIndexed ) -> {
+                    if ( !leaseLost.get( ) )
+                    {
+                        checkpoint.setLastIdentityId( lastIdentityId );
+                        checkpoint.setNbIndexedIdentities( nbAlreadyIndexed + nbIndexed );
+                        IndexCheckpointHome.updateProgress( checkpoint );
+                    }
+                } );
+    }
+
+    /**
+     * Splits the identity ids in ranges leased through the database, so that every node of the cluster running the range daemon indexes some of them in the
+     * new index. This node indexes ranges too, then waits until every range is done.
+     *
+     * @return <code>true</code> if every range is done, <code>false</code> if a range could not be indexed after all its attempts or if the lease of the
+     *         checkpoint was lost
+     */
+    private boolean indexPartitions( final IndexCheckpoint checkpoint, final IIdentityIndexer identityIndexer, final AtomicBoolean leaseLost )
+    {
+        if ( IndexRangeHome.countByCheckpoint( checkpoint.getId( ) ) == 0 )
+        {
+            this.createRanges( checkpoint, IdentityObjectHome.getMaxIdentityId( ) );
+        }
+        else
+        {
+            this.info( "Resuming the ranges of the partitioned reindex, " + IndexRangeHome.countUnfinished( checkpoint.getId( ) ) + " range(s) left" );
+        }
+
+        while ( !leaseLost.get( ) )
+        {
+            this.indexClaimableRanges( checkpoint, identityIndexer );
+
+            this.getStatus( ).setCurrentNbIndexedIdentities( IndexRangeHome.sumIndexedIdentities( checkpoint.getId( ) ) );
+            final int nbUnfinished = IndexRangeHome.countUnfinished( checkpoint.getId( ) );
+            if ( nbUnfinished == 0 )
+            {
+                return true;
+            }
+            final Timestamp now = new Timestamp( System.currentTimeMillis( ) );
+            if ( IndexRangeHome.countAbandoned( checkpoint.getId( ), now, PARTITION_MAX_ATTEMPTS ) > 0 )
+            {
+                this.error( "ERROR: some ranges could not be indexed after " + PARTITION_MAX_ATTEMPTS + " attempts" );
+                return false;
+            }
+            this.debug( "Waiting for " + nbUnfinished + " range(s) indexed by other nodes" );
+            try
+            {
+                Thread.sleep( PARTITION_POLL_INTERVAL );
+            }
+            catch( final InterruptedException e )
+            {
+                Thread.currentThread( ).interrupt( );
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private void createRanges( final IndexCheckpoint checkpoint, final int nMaxIdentityId )
+    {
+        int nbRanges = 0;
+        for ( long start = checkpoint.getLastIdentityId( ); start < nMaxIdentityId; start += PARTITION_SIZE )
+        {
+            final IndexRange range = new IndexRange( );
+            range.setIdCheckpoint( checkpoint.getId( ) );
+            range.setRangeStart( (int) start );
+            range.setRangeEnd( (int) Math.min( start + PARTITION_SIZE, nMaxIdentityId ) );
+            range.setStatus( IndexRangeStatus.PENDING );
+            IndexRangeHome.create( range );
+            nbRanges++;
+        }
+        this.info( "Identity ids split in " + nbRanges + " range(s) of " + PARTITION_SIZE + " ids, leased to the nodes for " + PARTITION_LEASE_SECONDS
+                + " seconds" );
+    }
+
+    /**
+     * Lends this node to the partitioned full reindex started by another node, if any: claims and indexes its ranges until none is left. Called by the range
+     * daemon of every node; the alias switch stays with the node that started the reindex.
+     */
+    public void joinPartitionedReindex( )
+    {
+        if ( !PARTITIONED || !_bBusy.compareAndSet( false, true ) )
+        {
+            return;
+        }
+        try
+        {
+            this.join( );
+        }
+        finally
+        {
+            _bBusy.set( false );
+        }
+    }
+
+    private void join( )
+    {
+        final IndexCheckpoint checkpoint = IndexCheckpointHome.findLast( );
+        if ( checkpoint == null || IndexRangeHome.countUnfinished( checkpoint.getId( ) ) == 0 )
+        {
+            return;
+        }
+        final IIdentityIndexer identityIndexer = this.createIdentityIndexer( );
+        if ( !identityIndexer.isAlive( ) || !identityIndexer.indexExists( checkpoint.getIndexName( ) ) )
+        {
+            return;
+        }
+
+        this.init( );
+        try
+        {
+            this.info( "Joining the partitioned reindex of " + checkpoint.getIndexName( ) + " as node " + NODE_ID );
+            final int nbRanges = this.indexClaimableRanges( checkpoint, identityIndexer );
+            this.info( nbRanges + " range(s) indexed by node " + NODE_ID );
+        }
+        finally
+        {
+            this.close( );
+        }
+    }
+
+    /**
+     * Claims and indexes ranges until none can be claimed
+     *
+     * @return the number of ranges claimed by this node
+     */
+    private int indexClaimableRanges( final IndexCheckpoint checkpoint, final IIdentityIndexer identityIndexer )
     {
-        final List<IdentityObject> identityObjects = IdentityObjectHome.loadEligibleIdentitiesForIndex( identityIdList );
+        int nbRanges = 0;
+        IndexRange range;
+        while ( ( range = this.claimRange( checkpoint.getId( ) ) ) != null )
+        {
+            nbRanges++;
+            this.indexRange( range, checkpoint.getIndexName( ), identityIndexer );
+        }
+        return nbRanges;
+    }
+
+    private IndexRange claimRange( final int nIdCheckpoint )
+    {
+        TransactionManager.beginTransaction( null );
+        try
+        {
+            final IndexRange range = IndexRangeHome.selectAndLockClaimable( nIdCheckpoint, new Timestamp( System.currentTimeMillis( ) ), PARTITION_MAX_ATTEMPTS );
+            if ( range != null )
+            {
+                range.setLeaseOwner( NODE_ID );
+                range.setLeaseExpiration( this.getLeaseExpiration( ) );
+                IndexRangeHome.claim( range );
+            }
+            TransactionManager.commitTransaction( null );
+            return range;
+        }
+        catch( final RuntimeException e )
+        {
+            TransactionManager.rollBack( null );
+            throw e;
+        }
+    }
+
+    /**
+     * Indexes the identities of a claimed range. The lease is renewed each time the pipeline commits a part of the range; once it is lost (expired and claimed
+     * by another node, or reindex cancelled), the remaining pages are dropped. A range whose pipeline failed (a bulk call failed) is released, to be claimed
+     * again until it reaches the max number of attempts.
+     */
+    private void indexRange( final IndexRange range, final String newIndex, final IIdentityIndexer identityIndexer )
+    {
+        this.info( "Indexing identity ids ]" + range.getRangeStart( ) + ", " + range.getRangeEnd( ) + "] (attempt " + range.getNbAttempts( ) + ")" );
+        final AtomicBoolean leaseLost = new AtomicBoolean( );
+        final AtomicInteger nbIndexed = new AtomicInteger( );
+        final ReindexPipeline pipeline = new ReindexPipeline( READER_THREADS, SENDER_THREADS, QUEUE_CAPACITY, BATCH_SIZE, READER_RANGE_SIZE, this.getStatus( ),
+                this );
+        final boolean complete = pipeline.run( range.getRangeStart( ), range.getRangeEnd( ), identityObjects -> {
+            if ( !leaseLost.get( ) )
+            {
+                this.process( identityObjects, newIndex, identityIndexer );
+            }
+        }, ( lastIdentityId, nbCommitted ) -> {
+            nbIndexed.set( nbCommitted );
+            if ( !leaseLost.get( ) && !IndexRangeHome.renewLease( range.getId( ), NODE_ID, this.getLeaseExpiration( ) ) )
+            {
+                leaseLost.set( true );
+            }
+        } );
+
+        if ( !leaseLost.get( ) && !complete )
+        {
+            this.info( "Could not index identity ids ]" + range.getRangeStart( ) + ", " + range.getRangeEnd( ) + "], range released" );
+            IndexRangeHome.release( range.getId( ), NODE_ID );
+        }
+        else if ( !leaseLost.get( ) && IndexRangeHome.complete( range.getId( ), NODE_ID, nbIndexed.get( ) ) )
+        {
+            this.info( nbIndexed.get( ) + " identities of ids ]" + range.getRangeStart( ) + ", " + range.getRangeEnd( ) + "] indexed" );
+        }
+        else
+        {
+            this.info( "Lease of identity ids ]" + range.getRangeStart( ) + ", " + range.getRangeEnd( ) + "] lost, range left to its new owner" );
+        }
+    }
+
+    private Timestamp getLeaseExpiration( )
+    {
+        return new Timestamp( System.currentTimeMillis( ) + PARTITION_LEASE_SECONDS * 1000L );
+    }
+
+    private static String getHostName( )
+    {
+        try
+        {
+            return InetAddress.getLocalHost( ).getHostName( );
+        }
+        catch( final UnknownHostException e )
+        {
+            return "node";
+        }
+    }
+
+    /**
+     * Sends a page of identities to the new index. The identities rejected by Elasticsearch are written back as index actions; a bulk call that fails as a
+     * whole fails the pipeline, so that the run (or the range) is not considered complete.
+     *
+     * @throws IllegalStateException
+     *             if the bulk call failed
+     */
+    private void process( final List<IdentityObject> identityObjects, final String newIndex, final IIdentityIndexer identityIndexer )
+    {
+        final long prepareStart = System.nanoTime( );
         final List<BulkAction> actions = identityObjects.stream( )
                 .map( identityObject -> new BulkAction( identityObject.getCustomerId( ), identityObject, BulkActionType.INDEX ) )
                 .collect( Collectors.toList( ) );
+        this.getStatus( ).recordStage( IndexStatus.Stage.PREPARE, System.nanoTime( ) - prepareStart );
 
-        boolean bulked = false;
+        final BulkResult bulked;
+        final long bulkStart = System.nanoTime( );
         try
         {
-            bulked = new DelayedNetworkService<Boolean>().call( ( ) -> this.createIdentityIndexer( ).bulk( actions, newIndex ), "Index identities by bulk", this);
+            bulked = new DelayedNetworkService<BulkResult>().call( ( ) -> identityIndexer.bulk( actions, newIndex ), "Index identities by bulk", this);
         }
         catch ( final IdentityStoreException e )
         {
             AppLogService.error("An error occurred while bulking: " + e.getMessage( ) );
+            throw new IllegalStateException( "Could not bulk " + actions.size( ) + " identities", e );
+        }
+        finally
+        {
+            this.getStatus( ).recordStage( IndexStatus.Stage.BULK, System.nanoTime( ) - bulkStart );
+        }
+
+        if ( bulked == null )
+        {
+            throw new IllegalStateException( "Could not bulk " + actions.size( ) + " identities" );
+        }
+        this.getStatus( ).incrementCurrentNbIndexedIdentities( bulked.getSucceeded( ).size( ) );
+        // Failed identities are written back as index actions, to be processed by the missing index daemon
+        bulked.getFailed( ).forEach( ( action, reason ) -> {
+            this.info( "ERROR: Could not index " + action.getKey( ) + " : " + reason );
+            IndexActionHome.create( new IndexAction( IndexActionType.CREATE, action.getKey( ) ) );
+        } );
+    }
+
+    /**
+     * Resumes the unfinished reindex saved in database if its target index still exists, otherwise starts a new one: creates the checkpoint, leased to this
+     * node, the new index, and makes the current index read-only so that the updates made meanwhile are replayed by the missing index daemon once the new
+     * index is published.
+     *
+     * @param unfinished
+     *            the checkpoint of the unfinished reindex, whose lease is held by this node, null if there is none
+     * @param identityIndexer
+     *            the indexer
+     * @return the checkpoint of the run
+     * @throws ElasticClientException
+     *             if the new index could not be created
+     */
+    private IndexCheckpoint resumeOrCreateCheckpoint( final IndexCheckpoint unfinished, final IIdentityIndexer identityIndexer ) throws ElasticClientException
+    {
+        if ( unfinished != null )
+        {
+            if ( unfinished.getOldIndexName( ) != null && StringUtils.equals( unfinished.getIndexName( ), identityIndexer.getIndexBehindAlias( CURRENT_INDEX_ALIAS ) ) )
+            {
+                // the previous run stopped after the alias switch: its index is live and must not be rolled back by this run
+                // (without old index, the alias is put on the new index as soon as it is created)
+                this.info( "Target index " + unfinished.getIndexName( ) + " of unfinished reindex is already published, starting over" );
+                IndexRangeHome.deleteByCheckpoint( unfinished.getId( ) );
+                IndexCheckpointHome.delete( unfinished.getId( ) );
+            }
+            else if ( identityIndexer.indexExists( unfinished.getIndexName( ) ) )
+            {
+                this.info( "Resuming reindex of " + unfinished.getIndexName( ) + " after identity id " + unfinished.getLastIdentityId( ) + " ("
+                        + unfinished.getNbIndexedIdentities( ) + " identities already indexed)" );
+                identityIndexer.startBulkLoad( unfinished.getIndexName( ) );
+                return unfinished;
+            }
+            else
+            {
+                this.info( "Target index " + unfinished.getIndexName( ) + " of unfinished reindex no longer exists, starting over" );
+                this.restoreOldIndex( unfinished.getOldIndexName( ), identityIndexer );
+                IndexRangeHome.deleteByCheckpoint( unfinished.getId( ) );
+                IndexCheckpointHome.delete( unfinished.getId( ) );
+            }
+        }
+
+        final IndexCheckpoint checkpoint = new IndexCheckpoint( );
+        checkpoint.setIndexName( "identities-" + UUID.randomUUID( ) );
+        checkpoint.setLeaseOwner( NODE_ID );
+        checkpoint.setLeaseExpiration( this.getCheckpointLeaseExpiration( ) );
+        if ( identityIndexer.indexExists( CURRENT_INDEX_ALIAS ) )
+        {
+            checkpoint.setOldIndexName( identityIndexer.getIndexBehindAlias( CURRENT_INDEX_ALIAS ) );
         }
+        // saved before the index is created, so that a crash never leaves an index unknown to the next run
+        IndexCheckpointHome.create( checkpoint );
+
+        final String newIndex = checkpoint.getIndexName( );
+        this.info( "Creating new index : " + newIndex );
+        identityIndexer.initIndex( newIndex );
+        this.info( "Switch new index to bulk-load mode" );
+        identityIndexer.startBulkLoad( newIndex );
 
-        if ( bulked )
+        if ( checkpoint.getOldIndexName( ) != null )
         {
-            this.getStatus( ).incrementCurrentNbIndexedIdentities( identityObjects.size( ) );
+            this.info( "Set current index READ-ONLY" );
+            identityIndexer.makeIndexReadOnly( CURRENT_INDEX_ALIAS );
         }
         else
         {
-            this.info("ERROR: Could not bulk");
+            this.info( "Create alias" );
+            identityIndexer.addAliasOnIndex( newIndex, CURRENT_INDEX_ALIAS );
+        }
+        return checkpoint;
+    }
+
+    private void restoreOldIndex( final String oldIndex, final IIdentityIndexer identityIndexer )
+    {
+        if ( oldIndex != null && identityIndexer.indexExists( oldIndex ) )
+        {
+            try
+            {
+                this.info( "Restore write access on index " + oldIndex );
+                identityIndexer.removeIndexReadOnly( oldIndex );
+            }
+            catch( final ElasticClientException e )
+            {
+                this.info( "Failed to restore write access on index " + oldIndex + " : " + e.getMessage( ) );
+            }
         }
     }
 
@@ -186,7 +642,10 @@ public class FullIndexTask extends AbstractIndexTask implements UsingElasticConn
         try
         {
             identityIndexer.deleteIndex( newIndex );
-            identityIndexer.removeIndexReadOnly( oldIndex );
+            if ( oldIndex != null )
+            {
+                identityIndexer.removeIndexReadOnly( oldIndex );
+            }
         }
         catch( ElasticClientException e )
         {
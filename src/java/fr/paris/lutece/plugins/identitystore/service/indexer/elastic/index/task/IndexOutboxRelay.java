@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.task;
+
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexAction;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexActionHome;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkAction;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkResult;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IIdentityIndexer;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IndexOutboxService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.util.sql.TransactionManager;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Relay of the index updates outbox (identitystore_index_action).<br>
+ * Each relay thread claims a batch of the oldest pending actions in a short transaction: the rows are locked with <code>FOR UPDATE SKIP LOCKED</code>
+ * and leased to the thread, so that the relays of all the nodes share the outbox without processing the same actions twice. The actions of a batch are
+ * coalesced per customer id and the current state of the identities is sent with one _bulk request, outside of any transaction. The sent actions are then
+ * deleted in a second short transaction. An action whose bulk item fails is retried by the next batches, until it reaches the max number of attempts: it is
+ * then left in the table as a dead letter, for the missing index daemon.<br>
+ * When the cluster cannot be reached, or the index is not writeable (full reindex in progress), the lease of the batch is released and the relay backs off.
+ * The batch of a relay that dies before settling it is relayed again once its lease expires.
+ */
+public class IndexOutboxRelay
+{
+    private static final String CURRENT_INDEX_ALIAS = AppPropertiesService.getProperty( "identitystore.elastic.client.identities.alias", "identities-alias" );
+    private static final int RELAY_THREADS = AppPropertiesService.getPropertyInt( "identitystore.index.outbox.relay.threads", 2 );
+    private static final int BATCH_SIZE = AppPropertiesService.getPropertyInt( "identitystore.index.outbox.relay.batch.size", 500 );
+    private static final int POLL_INTERVAL = AppPropertiesService.getPropertyInt( "identitystore.index.outbox.relay.poll.interval", 500 );
+    private static final int MAX_BACKOFF = AppPropertiesService.getPropertyInt( "identitystore.index.outbox.relay.backoff.max", 30000 );
+    private static final int LEASE_SECONDS = AppPropertiesService.getPropertyInt( "identitystore.index.outbox.relay.lease", 120 );
+    private static final int MAX_ATTEMPTS = IndexOutboxService.instance( ).getMaxAttempts( );
+    private static final String NODE_ID = getHostName( ) + "-" + UUID.randomUUID( ).toString( ).substring( 0, 8 );
+
+    private final IIdentityIndexer _identityIndexer;
+    private final AtomicInteger _nThreadCounter = new AtomicInteger( );
+    private ExecutorService _relays;
+    private volatile boolean _bStopped;
+
+    // Metrics
+    private final LongAdder _nNbRelayedActions = new LongAdder( );
+    private final LongAdder _nNbFailedActions = new LongAdder( );
+    private final LongAdder _nNbBulkCalls = new LongAdder( );
+    private final AtomicLong _lLastBatchDuration = new AtomicLong( );
+
+    public IndexOutboxRelay( final IIdentityIndexer identityIndexer )
+    {
+        _identityIndexer = identityIndexer;
+    }
+
+    /**
+     * Starts the relay threads, if the outbox is enabled. Called when the application context is initialized.
+     */
+    public void start( )
+    {
+        if ( !IndexOutboxService.instance( ).isEnabled( ) )
+        {
+            return;
+        }
+        _relays = Executors.newFixedThreadPool( RELAY_THREADS, runnable -> {
+            final Thread thread = new Thread( runnable, "identitystore-outbox-relay-" + _nThreadCounter.incrementAndGet( ) );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        for ( int i = 0; i < RELAY_THREADS; i++ )
+        {
+            _relays.execute( this::relay );
+        }
+        AppLogService.info( "Index outbox relay started with " + RELAY_THREADS + " threads" );
+    }
+
+    /**
+     * Stops the relay threads. The actions of the batches in progress are relayed again once their lease expires.
+     */
+    public void shutdown( )
+    {
+        _bStopped = true;
+        if ( _relays != null )
+        {
+            _relays.shutdownNow( );
+            try
+            {
+                _relays.awaitTermination( 30, TimeUnit.SECONDS );
+            }
+            catch( final InterruptedException e )
+            {
+                Thread.currentThread( ).interrupt( );
+            }
+        }
+    }
+
+    private void relay( )
+    {
+        long delay = POLL_INTERVAL;
+        while ( !_bStopped )
+        {
+            int nbActions;
+            try
+            {
+                nbActions = this.relayBatch( );
+                delay = POLL_INTERVAL;
+            }
+            catch( final Exception e )
+            {
+                AppLogService.error( "Index outbox relay : batch not relayed, retry in " + delay + " ms : " + e.getMessage( ) );
+                nbActions = 0;
+                delay = Math.min( delay * 2, MAX_BACKOFF );
+            }
+
+            // a full batch means that the outbox is not drained yet
+            if ( nbActions < BATCH_SIZE )
+            {
+                try
+                {
+                    Thread.sleep( delay );
+                }
+                catch( final InterruptedException e )
+                {
+                    Thread.currentThread( ).interrupt( );
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Relays one batch of pending actions: the batch is claimed in a first transaction, sent, then settled in a second transaction
+     *
+     * @return the number of actions of the batch
+     * @throws Exception
+     *             if the batch could not be sent or settled, its lease is then released
+     */
+    private int relayBatch( ) throws Exception
+    {
+        final long start = System.currentTimeMillis( );
+        final String strLeaseOwner = NODE_ID + "-" + Thread.currentThread( ).getName( );
+        final List<IndexAction> indexActions = this.claimBatch( strLeaseOwner );
+        if ( indexActions.isEmpty( ) )
+        {
+            return 0;
+        }
+        try
+        {
+            if ( !_identityIndexer.isIndexWriteable( CURRENT_INDEX_ALIAS ) )
+            {
+                throw new IllegalStateException( "index " + CURRENT_INDEX_ALIAS + " is not writeable" );
+            }
+
+            // actions are read in insertion order: the last action of an identity wins
+            final Map<String, List<IndexAction>> actionsByCustomerId = indexActions.stream( )
+                    .collect( Collectors.groupingBy( IndexAction::getCustomerId, LinkedHashMap::new, Collectors.toList( ) ) );
+            final List<IndexAction> lastActions = actionsByCustomerId.values( ).stream( ).map( actions -> actions.get( actions.size( ) - 1 ) )
+                    .collect( Collectors.toList( ) );
+            final List<BulkAction> bulkActions = IndexOutboxService.instance( ).toBulkActions( lastActions );
+
+            _nNbBulkCalls.increment( );
+            final BulkResult result = _identityIndexer.bulk( bulkActions, CURRENT_INDEX_ALIAS );
+
+            final List<Integer> succeededIds = this.getActionIds( result.getSucceeded( ), actionsByCustomerId );
+            final List<Integer> failedIds = this.getActionIds( new ArrayList<>( result.getFailed( ).keySet( ) ), actionsByCustomerId );
+            result.getFailed( ).forEach( ( action, reason ) -> AppLogService.error( "Index outbox relay : could not index " + action.getKey( ) + " : " + reason ) );
+            this.settleBatch( succeededIds, failedIds, strLeaseOwner );
+
+            _nNbRelayedActions.add( succeededIds.size( ) );
+            _nNbFailedActions.add( failedIds.size( ) );
+            _lLastBatchDuration.set( System.currentTimeMillis( ) - start );
+            return indexActions.size( );
+        }
+        catch( final Exception e )
+        {
+            this.releaseBatch( indexActions, strLeaseOwner );
+            throw e;
+        }
+    }
+
+    /**
+     * Locks and leases a batch of pending actions, in a transaction that only lasts for these two statements
+     */
+    private List<IndexAction> claimBatch( final String strLeaseOwner )
+    {
+        TransactionManager.beginTransaction( null );
+        try
+        {
+            final List<IndexAction> indexActions = IndexActionHome.selectAndLockPending( BATCH_SIZE, MAX_ATTEMPTS,
+                    new Timestamp( System.currentTimeMillis( ) ) );
+            if ( !indexActions.isEmpty( ) )
+            {
+                IndexActionHome.claim( indexActions.stream( ).map( IndexAction::getId ).collect( Collectors.toList( ) ), strLeaseOwner,
+                        new Timestamp( System.currentTimeMillis( ) + LEASE_SECONDS * 1000L ) );
+            }
+            TransactionManager.commitTransaction( null );
+            return indexActions;
+        }
+        catch( final RuntimeException e )
+        {
+            TransactionManager.rollBack( null );
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes the sent actions and counts an attempt for the failed ones, in one transaction
+     */
+    private void settleBatch( final List<Integer> succeededIds, final List<Integer> failedIds, final String strLeaseOwner )
+    {
+        TransactionManager.beginTransaction( null );
+        try
+        {
+            if ( !succeededIds.isEmpty( ) )
+            {
+                IndexActionHome.delete( succeededIds );
+            }
+            if ( !failedIds.isEmpty( ) )
+            {
+                IndexActionHome.incrementAttempts( failedIds, strLeaseOwner );
+            }
+            TransactionManager.commitTransaction( null );
+        }
+        catch( final RuntimeException e )
+        {
+            TransactionManager.rollBack( null );
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the lease of a batch that could not be sent, so that it is relayed again after the backoff instead of after the lease expiration
+     */
+    private void releaseBatch( final List<IndexAction> indexActions, final String strLeaseOwner )
+    {
+        try
+        {
+            IndexActionHome.release( indexActions.stream( ).map( IndexAction::getId ).collect( Collectors.toList( ) ), strLeaseOwner );
+        }
+        catch( final RuntimeException e )
+        {
+            AppLogService.error( "Index outbox relay : could not release the lease of a batch, relayed again once expired : " + e.getMessage( ) );
+        }
+    }
+
+    private static String getHostName( )
+    {
+        try
+        {
+            return InetAddress.getLocalHost( ).getHostName( );
+        }
+        catch( final UnknownHostException e )
+        {
+            return "node";
+        }
+    }
+
+    private List<Integer> getActionIds( final List<BulkAction> bulkActions, final Map<String, List<IndexAction>> actionsByCustomerId )
+    {
+        return bulkActions.stream( ).flatMap( action -> actionsByCustomerId.get( action.getKey( ) ).stream( ) ).map( IndexAction::getId )
+                .collect( Collectors.toList( ) );
+    }
+
+    public long getNbRelayedActions( )
+    {
+        return _nNbRelayedActions.sum( );
+    }
+
+    public long getNbFailedActions( )
+    {
+        return _nNbFailedActions.sum( );
+    }
+
+    public long getNbBulkCalls( )
+    {
+        return _nNbBulkCalls.sum( );
+    }
+
+    public long getLastBatchDuration( )
+    {
+        return _lLastBatchDuration.get( );
+    }
+
+    public int getNbPendingActions( )
+    {
+        return IndexActionHome.countPending( MAX_ATTEMPTS );
+    }
+
+    public int getNbDeadLetters( )
+    {
+        return IndexActionHome.countDeadLetters( MAX_ATTEMPTS );
+    }
+
+    /**
+     * @return the age, in ms, of the oldest action waiting in the outbox (0 when the outbox is empty)
+     */
+    public long getLag( )
+    {
+        final Date oldest = IndexActionHome.selectOldestPendingDate( MAX_ATTEMPTS );
+        return oldest != null ? Math.max( 0, System.currentTimeMillis( ) - oldest.getTime( ) ) : 0;
+    }
+}
@@ -33,31 +33,108 @@
  */
 package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.task;
 
-import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
 
 import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Progress of an index task, polled by the admin page through the REST status endpoint.<br>
+ * Counters are updated without lock from the indexing threads, and every getter is cheap: the logs are kept in a bounded ring buffer whose rendering is
+ * cached until a new line is added.
+ */
 public class IndexStatus implements Serializable
 {
-    protected int _nCurrentNbIndexedIdentities = 0;
-    protected int _nNbTotalIdentities = 0;
-    protected StringBuilder _sbLogs;
+    private static final long serialVersionUID = 1L;
+    private static final int LOGS_SIZE = AppPropertiesService.getPropertyInt( "identitystore.task.reindex.logs.size", 1000 );
+    /** Weight of the last batch in the moving average of the batch latency */
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    /**
+     * Timed stages of the indexing of a batch. The serialization of the documents is streamed into the _bulk request, so it is part of the BULK stage.
+     */
+    public enum Stage
+    {
+        FETCH,
+        PREPARE,
+        BULK
+    }
+
+    protected final LongAdder _nCurrentNbIndexedIdentities = new LongAdder( );
+    protected volatile int _nNbTotalIdentities = 0;
     protected final AtomicBoolean _bIsRunning = new AtomicBoolean( );
+    protected volatile long _lStartTime = 0;
+    protected volatile long _lNbIndexedAtStart = 0;
+    protected final AtomicLong _lBatchLatencyBits = new AtomicLong( Double.doubleToLongBits( -1 ) );
+    protected final LongAdder [ ] _stageNanos = new LongAdder [ Stage.values( ).length];
+    protected final LongAdder [ ] _stageCounts = new LongAdder [ Stage.values( ).length];
+
+    // Logs ring buffer, guarded by the array
+    protected final String [ ] _logs = new String [ Math.max( 1, LOGS_SIZE )];
+    protected int _nNextLog = 0;
+    protected int _nNbLogs = 0;
+    protected volatile String _strRenderedLogs = "";
+    protected volatile boolean _bLogsChanged = false;
+
+    // Reindex pipeline
+    protected volatile int _nNbReaderThreads = 0;
+    protected volatile int _nNbSenderThreads = 0;
+    protected volatile int _nQueueCapacity = 0;
+    protected volatile long _lPipelineStartTime = 0;
+    protected final LongAdder _nNbReadIdentities = new LongAdder( );
+    protected final LongAdder _nNbSentIdentities = new LongAdder( );
+    protected final AtomicInteger _nQueueDepth = new AtomicInteger( );
+
+    public IndexStatus( )
+    {
+        for ( final Stage stage : Stage.values( ) )
+        {
+            _stageNanos [stage.ordinal( )] = new LongAdder( );
+            _stageCounts [stage.ordinal( )] = new LongAdder( );
+        }
+    }
+
+    /**
+     * Resets the counters and the timings, at the beginning of a run
+     */
+    public void start( )
+    {
+        _nCurrentNbIndexedIdentities.reset( );
+        _lNbIndexedAtStart = 0;
+        _nNbTotalIdentities = 0;
+        _lBatchLatencyBits.set( Double.doubleToLongBits( -1 ) );
+        for ( final Stage stage : Stage.values( ) )
+        {
+            _stageNanos [stage.ordinal( )].reset( );
+            _stageCounts [stage.ordinal( )].reset( );
+        }
+        _lStartTime = System.currentTimeMillis( );
+    }
 
     public int getCurrentNbIndexedIdentities( )
     {
-        return _nCurrentNbIndexedIdentities;
+        return _nCurrentNbIndexedIdentities.intValue( );
     }
 
-    public void setCurrentNbIndexedIdentities( int _nCurrentNbIndexedIdentities )
+    /**
+     * Sets the number of identities already indexed, when a run is resumed. They are not taken into account in the throughput.
+     */
+    public void setCurrentNbIndexedIdentities( int nCurrentNbIndexedIdentities )
     {
-        this._nCurrentNbIndexedIdentities = _nCurrentNbIndexedIdentities;
+        _nCurrentNbIndexedIdentities.reset( );
+        _nCurrentNbIndexedIdentities.add( nCurrentNbIndexedIdentities );
+        _lNbIndexedAtStart = nCurrentNbIndexedIdentities;
     }
 
     public void incrementCurrentNbIndexedIdentities( int increment )
     {
-        this._nCurrentNbIndexedIdentities += increment;
+        _nCurrentNbIndexedIdentities.add( increment );
     }
 
     public int getNbTotalIdentities( )
@@ -65,28 +142,211 @@ public class IndexStatus implements Serializable
         return _nNbTotalIdentities;
     }
 
-    public void setNbTotalIdentities( int _nNbTotalIdentities )
+    public void setNbTotalIdentities( int nNbTotalIdentities )
     {
-        this._nNbTotalIdentities = _nNbTotalIdentities;
+        _nNbTotalIdentities = nNbTotalIdentities;
     }
 
     public double getProgress( )
     {
-        if ( _nNbTotalIdentities == 0 )
+        final int nNbTotalIdentities = _nNbTotalIdentities;
+        if ( nNbTotalIdentities == 0 )
+        {
+            return 0;
+        }
+        return Math.round( ( _nCurrentNbIndexedIdentities.doubleValue( ) / (double) nNbTotalIdentities ) * 100.0 );
+    }
+
+    /**
+     * @return the number of identities indexed per second since the run started
+     */
+    public double getDocsPerSecond( )
+    {
+        return this.throughput( _nCurrentNbIndexedIdentities.sum( ) - _lNbIndexedAtStart, _lStartTime );
+    }
+
+    /**
+     * @return the estimated number of seconds before all the identities are indexed, -1 if it cannot be estimated yet
+     */
+    public long getEta( )
+    {
+        final double docsPerSecond = this.getDocsPerSecond( );
+        if ( !this.isRunning( ) || docsPerSecond <= 0 )
+        {
+            return -1;
+        }
+        final long remaining = Math.max( 0, _nNbTotalIdentities - _nCurrentNbIndexedIdentities.sum( ) );
+        return Math.round( remaining / docsPerSecond );
+    }
+
+    /**
+     * @return the exponential moving average of the time taken to bulk a batch, in milliseconds, -1 before the first batch
+     */
+    public double getAverageBatchLatency( )
+    {
+        final double latency = Double.longBitsToDouble( _lBatchLatencyBits.get( ) );
+        return latency < 0 ? -1 : Math.round( latency * 10.0 ) / 10.0;
+    }
+
+    /**
+     * Records the time spent by a batch in a stage
+     *
+     * @param stage
+     *            the stage
+     * @param nanos
+     *            the duration, in nanoseconds
+     */
+    public void recordStage( final Stage stage, final long nanos )
+    {
+        _stageNanos [stage.ordinal( )].add( nanos );
+        _stageCounts [stage.ordinal( )].increment( );
+        if ( stage == Stage.BULK )
+        {
+            final double latency = nanos / 1_000_000.0;
+            long current;
+            double next;
+            do
+            {
+                current = _lBatchLatencyBits.get( );
+                final double average = Double.longBitsToDouble( current );
+                next = average < 0 ? latency : average + LATENCY_SMOOTHING * ( latency - average );
+            }
+            while ( !_lBatchLatencyBits.compareAndSet( current, Double.doubleToLongBits( next ) ) );
+        }
+    }
+
+    /**
+     * @return for each stage, the total time spent (ms, summed over the threads) and the average time per batch (ms)
+     */
+    public Map<String, Map<String, Number>> getStageTimings( )
+    {
+        final Map<String, Map<String, Number>> timings = new LinkedHashMap<>( );
+        for ( final Stage stage : Stage.values( ) )
+        {
+            final long totalMillis = TimeUnit.NANOSECONDS.toMillis( _stageNanos [stage.ordinal( )].sum( ) );
+            final long count = _stageCounts [stage.ordinal( )].sum( );
+            final Map<String, Number> timing = new LinkedHashMap<>( );
+            timing.put( "batches", count );
+            timing.put( "totalMs", totalMillis );
+            timing.put( "averageMs", count == 0 ? 0 : Math.round( (double) totalMillis / count ) );
+            timings.put( stage.name( ), timing );
+        }
+        return timings;
+    }
+
+    public void startPipeline( final int nNbReaderThreads, final int nNbSenderThreads, final int nQueueCapacity )
+    {
+        _nNbReaderThreads = nNbReaderThreads;
+        _nNbSenderThreads = nNbSenderThreads;
+        _nQueueCapacity = nQueueCapacity;
+        _nNbReadIdentities.reset( );
+        _nNbSentIdentities.reset( );
+        _nQueueDepth.set( 0 );
+        _lPipelineStartTime = System.currentTimeMillis( );
+    }
+
+    public int getNbReaderThreads( )
+    {
+        return _nNbReaderThreads;
+    }
+
+    public int getNbSenderThreads( )
+    {
+        return _nNbSenderThreads;
+    }
+
+    public int getQueueCapacity( )
+    {
+        return _nQueueCapacity;
+    }
+
+    public int getQueueDepth( )
+    {
+        return _nQueueDepth.get( );
+    }
+
+    public void setQueueDepth( final int nQueueDepth )
+    {
+        _nQueueDepth.set( nQueueDepth );
+    }
+
+    public long getNbReadIdentities( )
+    {
+        return _nNbReadIdentities.sum( );
+    }
+
+    public void incrementNbReadIdentities( final int increment )
+    {
+        _nNbReadIdentities.add( increment );
+    }
+
+    public long getNbSentIdentities( )
+    {
+        return _nNbSentIdentities.sum( );
+    }
+
+    public void incrementNbSentIdentities( final int increment )
+    {
+        _nNbSentIdentities.add( increment );
+    }
+
+    /**
+     * @return the number of identities read from the database per second since the pipeline started
+     */
+    public double getReadThroughput( )
+    {
+        return this.throughput( _nNbReadIdentities.sum( ), _lPipelineStartTime );
+    }
+
+    /**
+     * @return the number of identities sent to Elasticsearch per second since the pipeline started
+     */
+    public double getSendThroughput( )
+    {
+        return this.throughput( _nNbSentIdentities.sum( ), _lPipelineStartTime );
+    }
+
+    private double throughput( final long nbIdentities, final long lStartTime )
+    {
+        final long elapsed = System.currentTimeMillis( ) - lStartTime;
+        if ( lStartTime == 0 || elapsed <= 0 )
         {
             return 0;
         }
-        return Math.round( ( (double) _nCurrentNbIndexedIdentities / (double) _nNbTotalIdentities ) * 100.0 );
+        return Math.round( nbIdentities * 1000.0 / elapsed );
     }
 
+    /**
+     * @return the last log lines, oldest first
+     */
     public String getLogs( )
     {
-        return _sbLogs != null ? _sbLogs.toString( ) : "";
+        if ( _bLogsChanged )
+        {
+            synchronized( _logs )
+            {
+                final StringBuilder sbLogs = new StringBuilder( );
+                final int nFirstLog = ( _nNextLog - _nNbLogs + _logs.length ) % _logs.length;
+                for ( int i = 0; i < _nNbLogs; i++ )
+                {
+                    sbLogs.append( _logs [( nFirstLog + i ) % _logs.length] ).append( "\n" );
+                }
+                _strRenderedLogs = sbLogs.toString( );
+                _bLogsChanged = false;
+            }
+        }
+        return _strRenderedLogs;
     }
 
     public void resetLogs( )
     {
-        this._sbLogs = new StringBuilder( );
+        synchronized( _logs )
+        {
+            _nNextLog = 0;
+            _nNbLogs = 0;
+            _strRenderedLogs = "";
+            _bLogsChanged = false;
+        }
     }
 
     public boolean isRunning( )
@@ -101,10 +361,12 @@ public class IndexStatus implements Serializable
 
     protected void log( final String message )
     {
-        if ( _sbLogs == null )
+        synchronized( _logs )
         {
-            _sbLogs = new StringBuilder( );
+            _logs [_nNextLog] = message;
+            _nNextLog = ( _nNextLog + 1 ) % _logs.length;
+            _nNbLogs = Math.min( _nNbLogs + 1, _logs.length );
+            _bLogsChanged = true;
         }
-        _sbLogs.append( message ).append( "\n" );
     }
 }
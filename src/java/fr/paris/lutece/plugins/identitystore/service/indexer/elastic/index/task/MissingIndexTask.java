@@ -36,29 +36,29 @@ package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.task
 import fr.paris.lutece.plugins.identitystore.service.daemon.LoggingDaemon;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexAction;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexActionHome;
-import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.IdentityObject;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkAction;
-import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkActionType;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkResult;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IIdentityIndexer;
-import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IdentityObjectHome;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IndexOutboxService;
 import fr.paris.lutece.plugins.identitystore.service.network.DelayedNetworkService;
-import fr.paris.lutece.plugins.identitystore.utils.Batch;
 import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
 import fr.paris.lutece.portal.service.spring.SpringContextService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
-import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.time.DurationFormatUtils;
 import org.apache.commons.lang3.time.StopWatch;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class MissingIndexTask extends LoggingDaemon implements UsingElasticConnection
 {
     private final String CURRENT_INDEX_ALIAS = AppPropertiesService.getProperty( "identitystore.elastic.client.identities.alias", "identities-alias" );
     private final IIdentityIndexer _identityIndexer = SpringContextService.getBean( "identitystore.elasticsearch.identityIndexer" );
-    private final DelayedNetworkService<Boolean> booleanDelayedNetworkService = new DelayedNetworkService<>();
+    private final DelayedNetworkService<BulkResult> bulkDelayedNetworkService = new DelayedNetworkService<>();
+    private final IndexOutboxService _indexOutboxService = IndexOutboxService.instance( );
 
     @Override
     public void doTask( )
@@ -66,51 +66,65 @@ public class MissingIndexTask extends LoggingDaemon implements UsingElasticConne
 
         final StopWatch stopWatch = new StopWatch( );
         stopWatch.start( );
-        final int batchSize = AppPropertiesService.getPropertyInt( "task.missingindex.batch.size", 1000 );
-        final List<BulkAction> bulkActions = new ArrayList<>( );
+        final int batchSize = AppPropertiesService.getPropertyInt( "identitystore.task.missingindex.batch.size", 1000 );
+        final long maxDuration = AppPropertiesService.getPropertyInt( "identitystore.task.missingindex.max.duration", 600 ) * 1000L;
+        // With the outbox, pending actions are sent by the relay: only the dead letters are left to the daemon
+        final int minAttempts = _indexOutboxService.isEnabled( ) ? _indexOutboxService.getMaxAttempts( ) : 0;
+        int nbIndexed = 0;
+        int nbFailed = 0;
         if ( _identityIndexer.isIndexWriteable( CURRENT_INDEX_ALIAS ) )
         {
             this.debug( "ES available :: indexing" );
-            final List<IndexAction> indexActions = IndexActionHome.selectAll( );
-            for ( final IndexAction indexAction : indexActions )
-            {
-                final IdentityObject identityObject = IdentityObjectHome.findByCustomerId( indexAction.getCustomerId( ) );
-                switch( indexAction.getActionType( ) )
-                {
-                    case CREATE:
-                    case UPDATE:
-                        bulkActions.add( new BulkAction( indexAction.getId(), identityObject.getCustomerId( ), identityObject, BulkActionType.INDEX ) );
-                        break;
-                    case DELETE:
-                        bulkActions.add( new BulkAction( indexAction.getId(), identityObject.getCustomerId( ), identityObject, BulkActionType.DELETE ) );
-                        break;
-                    default:
-                        break;
-                }
-            }
-            this.debug( "NB identies to be indexed : " + bulkActions.size( ) );
             this.debug( "Size of indexing batches : " + batchSize );
-            final Batch<BulkAction> batch = Batch.ofSize( bulkActions, batchSize );
-            this.debug( "NB of indexing batches : " + batch.size( ) );
+
+            int lastActionId = 0;
             int batchCounter = 0;
-            for ( final List<BulkAction> batchActions : batch )
+            List<IndexAction> indexActions;
+            do
             {
+                indexActions = IndexActionHome.selectAfter( lastActionId, minAttempts, batchSize );
+                if ( indexActions.isEmpty( ) )
+                {
+                    break;
+                }
+                lastActionId = indexActions.get( indexActions.size( ) - 1 ).getId( );
                 this.debug( "Processing batch : " + ++batchCounter );
-                boolean bulked = false;
-                try {
-                    bulked = this.booleanDelayedNetworkService.call(() -> this.createIdentityIndexer().bulk(batchActions, CURRENT_INDEX_ALIAS), "Process missing identities index by bulk", this);
-                } catch (final IdentityStoreException e) {
-                    this.error("An error occurred while bulking: " + e.getMessage( ) );
+
+                // Actions may supersede each other within the page: the last one wins, the older ones of the page identities are purged
+                final Map<String, IndexAction> lastActions = new LinkedHashMap<>( );
+                indexActions.forEach( indexAction -> lastActions.put( indexAction.getCustomerId( ), indexAction ) );
+                this.debug( "NB superseded actions removed : " + IndexActionHome.deleteSuperseded( new ArrayList<>( lastActions.keySet( ) ) ) );
+
+                final List<BulkAction> batchActions = _indexOutboxService.toBulkActions( new ArrayList<>( lastActions.values( ) ) );
+                final BulkResult bulked;
+                try
+                {
+                    bulked = this.bulkDelayedNetworkService.call( ( ) -> _identityIndexer.bulk( batchActions, CURRENT_INDEX_ALIAS ),
+                            "Process missing identities index by bulk", this );
+                }
+                catch( final IdentityStoreException e )
+                {
+                    // The cluster is not available anymore: the remaining actions are left to the next run
+                    this.error( "An error occurred while bulking: " + e.getMessage( ) );
+                    break;
                 }
 
-                if( bulked )
+                // Failed actions are kept in database, to be processed by the next run
+                bulked.getFailed( ).forEach( ( action, reason ) -> this.error( "Could not index " + action.getKey( ) + " : " + reason ) );
+                final List<Integer> processedIds = bulked.getSucceeded( ).stream( ).map( BulkAction::getInternalId ).collect( Collectors.toList( ) );
+                if ( !processedIds.isEmpty( ) )
                 {
-                    IndexActionHome.delete(batchActions.stream().map(BulkAction::getInternalId).collect(Collectors.toList()));
+                    IndexActionHome.delete( processedIds );
                 }
+                nbIndexed += bulked.getSucceeded( ).size( );
+                nbFailed += bulked.getFailed( ).size( );
             }
+            while ( indexActions.size( ) == batchSize && stopWatch.getTime( ) < maxDuration );
 
-            // Clean processed actions
-            this.debug( "Indexing over, clean processed actions in database " );
+            if ( indexActions.size( ) == batchSize && stopWatch.getTime( ) >= maxDuration )
+            {
+                this.info( "Max duration of the run reached, the remaining actions are left to the next run" );
+            }
         }
         else
         {
@@ -119,9 +133,9 @@ public class MissingIndexTask extends LoggingDaemon implements UsingElasticConne
         stopWatch.stop( );
         final String duration = DurationFormatUtils.formatDurationWords( stopWatch.getTime( ), true, true );
 
-        if ( CollectionUtils.isNotEmpty( bulkActions ) )
+        if ( nbIndexed > 0 || nbFailed > 0 )
         {
-            this.debug( "Indexed  " + bulkActions.size( ) + " identities in " + duration );
+            this.debug( "Indexed  " + nbIndexed + " identities in " + duration + " (" + nbFailed + " failures)" );
         }
         else
         {
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.task;
+
+import fr.paris.lutece.plugins.identitystore.service.daemon.LoggingDaemon;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.client.ElasticClientException;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexAction;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexActionHome;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.business.IndexActionType;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IIdentityIndexer;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IdentityObjectHome;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.DurationFormatUtils;
+import org.apache.commons.lang3.time.StopWatch;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Daemon looking for drift between the database and the index, without reindexing.<br>
+ * <ul>
+ * <li>The eligible identities are walked by customer id keyset pages. The last update date of each page is compared with the one of the indexed documents
+ * (which is also their external version, so any write of the identity changes it): missing and outdated documents are requeued as index updates.</li>
+ * <li>The documents of the index are walked on a point in time. The ones whose identity is no longer eligible (deleted, merged, purged) are requeued as index
+ * deletions.</li>
+ * </ul>
+ * Only the mismatched customer ids are written to the index action table, where the outbox relay or the missing index daemon process them. Identities updated
+ * during the last lag seconds are ignored, their update may still be on its way to the index. The daemon pauses between pages to spare the production.
+ */
+public class ReconciliationTask extends LoggingDaemon implements UsingElasticConnection
+{
+    private final String CURRENT_INDEX_ALIAS = AppPropertiesService.getProperty( "identitystore.elastic.client.identities.alias", "identities-alias" );
+    private final int BATCH_SIZE = AppPropertiesService.getPropertyInt( "identitystore.task.reconciliation.batch.size", 1000 );
+    private final int PAUSE = AppPropertiesService.getPropertyInt( "identitystore.task.reconciliation.pause", 50 );
+    private final int SAFETY_LAG_SECONDS = AppPropertiesService.getPropertyInt( "identitystore.task.reconciliation.lag", 60 );
+    private final int MAX_REPORTED_CUIDS = AppPropertiesService.getPropertyInt( "identitystore.task.reconciliation.report.size", 100 );
+    private final IIdentityIndexer _identityIndexer = SpringContextService.getBean( "identitystore.elasticsearch.identityIndexer" );
+
+    @Override
+    public void doTask( )
+    {
+        final StopWatch stopWatch = new StopWatch( );
+        stopWatch.start( );
+        if ( !_identityIndexer.isIndexWriteable( CURRENT_INDEX_ALIAS ) )
+        {
+            this.info( "Index " + CURRENT_INDEX_ALIAS + " is not writeable (full reindex in progress ?), reconciliation skipped" );
+            return;
+        }
+
+        final long upToDate = System.currentTimeMillis( ) - SAFETY_LAG_SECONDS * 1000L;
+        final Report report = new Report( );
+        try
+        {
+            this.reconcileIdentities( upToDate, report );
+            this.reconcileDocuments( report );
+        }
+        catch( final ElasticClientException | InterruptedException e )
+        {
+            this.error( "Reconciliation stopped : " + e.getMessage( ) );
+            if ( e instanceof InterruptedException )
+            {
+                Thread.currentThread( ).interrupt( );
+            }
+        }
+
+        stopWatch.stop( );
+        final String duration = DurationFormatUtils.formatDurationWords( stopWatch.getTime( ), true, true );
+        this.info( "Reconciliation : " + report._nbIdentities + " identities and " + report._nbDocuments + " documents compared in " + duration );
+        this.info( report._nbMissing + " missing, " + report._nbOutdated + " outdated and " + report._nbOrphans + " orphan documents requeued" );
+        if ( !report._sampleCustomerIds.isEmpty( ) )
+        {
+            this.info( "Requeued customer ids (first " + MAX_REPORTED_CUIDS + ") : " + String.join( ", ", report._sampleCustomerIds ) );
+        }
+    }
+
+    /**
+     * Compares the last update date of each eligible identity with the one of its document
+     */
+    private void reconcileIdentities( final long upToDate, final Report report ) throws ElasticClientException, InterruptedException
+    {
+        String lastCustomerId = StringUtils.EMPTY;
+        Map<String, Timestamp> page;
+        do
+        {
+            page = IdentityObjectHome.selectEligibleLastUpdateDatesAfter( lastCustomerId, BATCH_SIZE );
+            if ( page.isEmpty( ) )
+            {
+                break;
+            }
+            final List<String> customerIds = new ArrayList<>( page.keySet( ) );
+            lastCustomerId = customerIds.get( customerIds.size( ) - 1 );
+
+            final Map<String, Long> indexedDates = _identityIndexer.getIndexedLastUpdateDates( customerIds, CURRENT_INDEX_ALIAS );
+            for ( final Map.Entry<String, Timestamp> identity : page.entrySet( ) )
+            {
+                final Long lastUpdateDate = identity.getValue( ) != null ? identity.getValue( ).getTime( ) : null;
+                if ( lastUpdateDate != null && lastUpdateDate > upToDate )
+                {
+                    continue;
+                }
+                if ( !indexedDates.containsKey( identity.getKey( ) ) )
+                {
+                    report._nbMissing++;
+                    this.requeue( IndexActionType.CREATE, identity.getKey( ), report );
+                }
+                else if ( !Objects.equals( indexedDates.get( identity.getKey( ) ), lastUpdateDate ) )
+                {
+                    report._nbOutdated++;
+                    this.requeue( IndexActionType.UPDATE, identity.getKey( ), report );
+                }
+            }
+            report._nbIdentities += page.size( );
+            Thread.sleep( PAUSE );
+        }
+        while ( page.size( ) == BATCH_SIZE );
+    }
+
+    /**
+     * Looks for the documents of identities that are not eligible to indexing anymore
+     */
+    private void reconcileDocuments( final Report report ) throws ElasticClientException, InterruptedException
+    {
+        _identityIndexer.scanDocumentIds( CURRENT_INDEX_ALIAS, BATCH_SIZE, customerIds -> {
+            final Set<String> eligibleCustomerIds = IdentityObjectHome.selectEligibleCustomerIds( customerIds );
+            for ( final String customerId : customerIds )
+            {
+                if ( !eligibleCustomerIds.contains( customerId ) )
+                {
+                    report._nbOrphans++;
+                    this.requeue( IndexActionType.DELETE, customerId, report );
+                }
+            }
+            report._nbDocuments += customerIds.size( );
+            try
+            {
+                Thread.sleep( PAUSE );
+                return true;
+            }
+            catch( final InterruptedException e )
+            {
+                Thread.currentThread( ).interrupt( );
+                return false;
+            }
+        } );
+        if ( Thread.interrupted( ) )
+        {
+            throw new InterruptedException( "Interrupted while scanning the documents" );
+        }
+    }
+
+    private void requeue( final IndexActionType actionType, final String customerId, final Report report )
+    {
+        IndexActionHome.create( new IndexAction( actionType, customerId ) );
+        if ( report._sampleCustomerIds.size( ) < MAX_REPORTED_CUIDS )
+        {
+            report._sampleCustomerIds.add( customerId );
+        }
+    }
+
+    /**
+     * Counters of a reconciliation run
+     */
+    private static final class Report
+    {
+        private long _nbIdentities;
+        private long _nbDocuments;
+        private long _nbMissing;
+        private long _nbOutdated;
+        private long _nbOrphans;
+        private final List<String> _sampleCustomerIds = new ArrayList<>( );
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.task;
+
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.IdentityObject;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.service.IdentityObjectHome;
+import fr.paris.lutece.plugins.identitystore.utils.LoggingTask;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Bounded producer/consumer pipeline of the full reindex.<br>
+ * Reader threads claim ranges of identity ids, walk them with a keyset cursor and put pages of eligible identities in a bounded queue. Sender threads drain
+ * the queue towards Elasticsearch. A full queue blocks the readers, so the database is never read faster than Elasticsearch ingests.<br>
+ * A range is committed once it has been entirely read and all its pages sent. The pipeline reports the end of the contiguous committed ranges, so that the
+ * run can be resumed from there.<br>
+ * A page that cannot be sent fails the whole run: the readers stop, the senders drain the queue without sending it, and the run reports that it is
+ * incomplete so that the new index is never published with missing identities.
+ */
+public class ReindexPipeline
+{
+    /** Marker telling a sender that the readers are done */
+    private static final Page END_OF_STREAM = new Page( null, new ArrayList<>( ) );
+
+    private final int _nReaderThreads;
+    private final int _nSenderThreads;
+    private final int _nBatchSize;
+    private final int _nRangeSize;
+    private final BlockingQueue<Page> _queue;
+    private final IndexStatus _status;
+    private final LoggingTask _logger;
+    private final AtomicInteger _nNextRange = new AtomicInteger( );
+    private final AtomicBoolean _bFailed = new AtomicBoolean( );
+
+    // Commit tracking, guarded by this
+    private final Set<Integer> _completedRanges = new HashSet<>( );
+    private int _nNextRangeToCommit = 0;
+    private int _nNbCommittedIdentities = 0;
+
+    private int _nStartIdentityId;
+    private BiConsumer<Integer, Integer> _checkpoint;
+
+    /**
+     * Constructor
+     *
+     * @param nReaderThreads
+     *            the number of threads reading the database
+     * @param nSenderThreads
+     *            the number of threads sending the bulks to Elasticsearch
+     * @param nQueueCapacity
+     *            the maximum number of pages waiting between the two stages
+     * @param nBatchSize
+     *            the number of identities per page
+     * @param nRangeSize
+     *            the width of the identity id ranges claimed by the readers
+     * @param status
+     *            the status updated with the throughput of the stages and the queue depth
+     * @param logger
+     *            the task logger
+     */
+    public ReindexPipeline( final int nReaderThreads, final int nSenderThreads, final int nQueueCapacity, final int nBatchSize, final int nRangeSize,
+            final IndexStatus status, final LoggingTask logger )
+    {
+        _nReaderThreads = Math.max( 1, nReaderThreads );
+        _nSenderThreads = Math.max( 1, nSenderThreads );
+        _nBatchSize = nBatchSize;
+        _nRangeSize = Math.max( nBatchSize, nRangeSize );
+        _queue = new ArrayBlockingQueue<>( Math.max( 1, nQueueCapacity ) );
+        _status = status;
+        _logger = logger;
+    }
+
+    /**
+     * Runs the pipeline over the identities whose id is in ]nStartIdentityId, nMaxIdentityId], and waits for its completion.
+     *
+     * @param nStartIdentityId
+     *            the identity id after which the identities are read (0 for a full run)
+     * @param nMaxIdentityId
+     *            the highest identity id to read
+     * @param sender
+     *            sends a page of identities to the index
+     * @param checkpoint
+     *            called, in order, each time the committed ranges advance, with the identity id up to which every identity has been sent and the number of
+     *            identities sent since the start of this run
+     * @return <code>true</code> if every identity has been read and sent, <code>false</code> if a reader or a sender failed or the pipeline was
+     *         interrupted
+     */
+    public boolean run( final int nStartIdentityId, final int nMaxIdentityId, final Consumer<List<IdentityObject>> sender,
+            final BiConsumer<Integer, Integer> checkpoint )
+    {
+        _nStartIdentityId = nStartIdentityId;
+        _checkpoint = checkpoint;
+        final ExecutorService readers = Executors.newFixedThreadPool( _nReaderThreads, threadFactory( "identitystore-reindex-reader" ) );
+        final ExecutorService senders = Executors.newFixedThreadPool( _nSenderThreads, threadFactory( "identitystore-reindex-sender" ) );
+        _status.startPipeline( _nReaderThreads, _nSenderThreads, _queue.remainingCapacity( ) );
+        try
+        {
+            final List<Future<Void>> senderFutures = new ArrayList<>( );
+            for ( int i = 0; i < _nSenderThreads; i++ )
+            {
+                senderFutures.add( senders.submit( ( ) -> this.send( sender ) ) );
+            }
+            final List<Future<Void>> readerFutures = new ArrayList<>( );
+            for ( int i = 0; i < _nReaderThreads; i++ )
+            {
+                readerFutures.add( readers.submit( ( ) -> this.read( nMaxIdentityId ) ) );
+            }
+
+            this.await( readerFutures );
+            for ( int i = 0; i < _nSenderThreads; i++ )
+            {
+                _queue.put( END_OF_STREAM );
+            }
+            this.await( senderFutures );
+        }
+        catch( final InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            _logger.error( "Reindex pipeline interrupted" );
+            _bFailed.set( true );
+        }
+        finally
+        {
+            readers.shutdownNow( );
+            senders.shutdownNow( );
+            _queue.clear( );
+            _status.setQueueDepth( 0 );
+        }
+        return !_bFailed.get( );
+    }
+
+    private Void read( final int nMaxIdentityId ) throws InterruptedException
+    {
+        while ( !_bFailed.get( ) )
+        {
+            final Range range = new Range( _nNextRange.getAndIncrement( ) );
+            if ( range._nStart >= nMaxIdentityId )
+            {
+                return null;
+            }
+            final int nRangeEnd = (int) Math.min( range._nEnd, nMaxIdentityId );
+            int nLastIdentityId = (int) range._nStart;
+            Map<Integer, IdentityObject> page;
+            do
+            {
+                final long fetchStart = System.nanoTime( );
+                page = IdentityObjectHome.loadEligibleIdentitiesForIndex( nLastIdentityId, nRangeEnd, _nBatchSize );
+                _status.recordStage( IndexStatus.Stage.FETCH, System.nanoTime( ) - fetchStart );
+                for ( final Integer identityId : page.keySet( ) )
+                {
+                    nLastIdentityId = identityId;
+                }
+                if ( !page.isEmpty( ) )
+                {
+                    _status.incrementNbReadIdentities( page.size( ) );
+                    range._nPendingPages.incrementAndGet( );
+                    _queue.put( new Page( range, new ArrayList<>( page.values( ) ) ) );
+                    _status.setQueueDepth( _queue.size( ) );
+                }
+            }
+            while ( page.size( ) == _nBatchSize && !_bFailed.get( ) );
+
+            // release the hold of the reader: the range completes with its last sent page
+            if ( range._nPendingPages.decrementAndGet( ) == 0 && !_bFailed.get( ) )
+            {
+                this.commit( range );
+            }
+        }
+        return null;
+    }
+
+    private Void send( final Consumer<List<IdentityObject>> sender ) throws InterruptedException
+    {
+        while ( true )
+        {
+            final Page page = _queue.take( );
+            _status.setQueueDepth( _queue.size( ) );
+            if ( page == END_OF_STREAM )
+            {
+                return null;
+            }
+            if ( _bFailed.get( ) )
+            {
+                // the run is failed: keep draining the queue so that no reader stays blocked on it
+                continue;
+            }
+            try
+            {
+                sender.accept( page._identities );
+                _status.incrementNbSentIdentities( page._identities.size( ) );
+                page._range._nNbIdentities.addAndGet( page._identities.size( ) );
+            }
+            catch( final RuntimeException e )
+            {
+                _logger.error( "ERROR: Could not send a batch of " + page._identities.size( ) + " identities : " + e.getMessage( ) );
+                // marked before the page is released, so that its range is never committed
+                page._range._bSendFailed.set( true );
+                _bFailed.set( true );
+            }
+            if ( page._range._nPendingPages.decrementAndGet( ) == 0 && !_bFailed.get( ) )
+            {
+                this.commit( page._range );
+            }
+        }
+    }
+
+    /**
+     * Marks a range as committed and reports the end of the contiguous committed ranges when it advances. A range with a page that could not be sent is
+     * never committed, so the ranges after it are not reported either.
+     */
+    private synchronized void commit( final Range range )
+    {
+        if ( range._bSendFailed.get( ) )
+        {
+            // the checkpoint must never move past identities that were not sent
+            return;
+        }
+        _completedRanges.add( range._nIndex );
+        _nNbCommittedIdentities += range._nNbIdentities.get( );
+        final int nCommittedBefore = _nNextRangeToCommit;
+        while ( _completedRanges.remove( _nNextRangeToCommit ) )
+        {
+            _nNextRangeToCommit++;
+        }
+        if ( _nNextRangeToCommit > nCommittedBefore && _checkpoint != null )
+        {
+            final long nCommittedEnd = (long) _nStartIdentityId + (long) _nNextRangeToCommit * _nRangeSize;
+            try
+            {
+                _checkpoint.accept( (int) Math.min( nCommittedEnd, Integer.MAX_VALUE ), _nNbCommittedIdentities );
+            }
+            catch( final RuntimeException e )
+            {
+                _logger.error( "ERROR: Could not save the reindex checkpoint : " + e.getMessage( ) );
+            }
+        }
+    }
+
+    private void await( final List<Future<Void>> futures ) throws InterruptedException
+    {
+        for ( final Future<Void> future : futures )
+        {
+            try
+            {
+                future.get( );
+            }
+            catch( final ExecutionException e )
+            {
+                _logger.error( "ERROR: Reindex pipeline stage failed : " + e.getCause( ).getMessage( ) );
+                _bFailed.set( true );
+            }
+        }
+    }
+
+    private static ThreadFactory threadFactory( final String strName )
+    {
+        final AtomicInteger nThreadNumber = new AtomicInteger( );
+        return runnable -> {
+            final Thread thread = new Thread( runnable, strName + "-" + nThreadNumber.incrementAndGet( ) );
+            thread.setDaemon( true );
+            return thread;
+        };
+    }
+
+    /**
+     * Identity ids ]start, end] claimed by a reader
+     */
+    private final class Range
+    {
+        private final int _nIndex;
+        private final long _nStart;
+        private final long _nEnd;
+        /** Pages not sent yet, plus one held by the reader while it reads the range */
+        private final AtomicInteger _nPendingPages = new AtomicInteger( 1 );
+        private final AtomicInteger _nNbIdentities = new AtomicInteger( );
+        /** True once a page of the range could not be sent */
+        private final AtomicBoolean _bSendFailed = new AtomicBoolean( );
+
+        private Range( final int nIndex )
+        {
+            _nIndex = nIndex;
+            _nStart = (long) _nStartIdentityId + (long) nIndex * _nRangeSize;
+            _nEnd = _nStart + _nRangeSize;
+        }
+    }
+
+    private static final class Page
+    {
+        private final Range _range;
+        private final List<IdentityObject> _identities;
+
+        private Page( final Range range, final List<IdentityObject> identities )
+        {
+            _range = range;
+            _identities = identities;
+        }
+    }
+}
@@ -33,6 +33,7 @@
  */
 package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model;
 
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.request.AbstractContainer;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.request.Bool;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.request.BoolContainer;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.request.Exists;
@@ -52,11 +53,23 @@ public class ComplexSearchRequest extends ASearchRequest
 {
     private final boolean connected;
 
+    /**
+     * If true, the approximated searches on names are term lookups on the phonetic keys computed at index time instead of fuzzy queries.
+     */
+    private final boolean phoneticKeys;
+
     public ComplexSearchRequest( final List<SearchAttribute> attributes, final boolean connected, final List<String> attributesFilter )
+    {
+        this( attributes, connected, attributesFilter, false );
+    }
+
+    public ComplexSearchRequest( final List<SearchAttribute> attributes, final boolean connected, final List<String> attributesFilter,
+            final boolean phoneticKeys )
     {
         super( attributesFilter );
         this.getSearchAttributes( ).addAll( attributes );
         this.connected = connected;
+        this.phoneticKeys = phoneticKeys;
     }
 
     @Override
@@ -148,16 +161,21 @@ public class ComplexSearchRequest extends ASearchRequest
                 switch( treatmentType )
                 {
                     case STRICT:
-                        boolContainer.getMust( ).add( body.createMatchPhrase( treatmentType, key, value, false ) );
+                        boolContainer.getMust( ).add( this.createNameEquality( treatmentType, key, value, body ) );
                         break;
                     case APPROXIMATED:
+                        if ( this.phoneticKeys )
+                        {
+                            boolContainer.getMust( ).add( body.createPhoneticTerm( treatmentType, key, value ) );
+                            break;
+                        }
                         final String multipleHyphenToOne = value.trim( ).replaceAll( "(-)\\1+", "$1" );
                         final String multipleSpacesToONe = multipleHyphenToOne.replaceAll( " +", " " );
                         final String trimmedHyphens = multipleSpacesToONe.replaceAll( " - ", "-" );
                         boolContainer.getMust( ).add( body.createMatch( treatmentType, trimmedHyphens, key ) );
                         break;
                     case DIFFERENT:
-                        boolContainer.getMustNot( ).add( body.createMatchPhrase( treatmentType, key, value, false ) );
+                        boolContainer.getMustNot( ).add( this.createNameEquality( treatmentType, key, value, body ) );
                         break;
                     case ABSENT:
                         boolContainer.getMustNot( ).add( body.createExists( treatmentType, key ) );
@@ -172,6 +190,11 @@ public class ComplexSearchRequest extends ASearchRequest
                         boolContainer.getMust( ).add( body.createMatchPhrase( treatmentType, key, value, true ) );
                         break;
                     case APPROXIMATED:
+                        if ( this.phoneticKeys )
+                        {
+                            boolContainer.getMust( ).add( body.createMultiTokenPhoneticBoolQuery( treatmentType, key, value ) );
+                            break;
+                        }
                         final BoolContainer multiTokenApproximatedBoolQuery = body.createMultiTokenApproximatedBoolQuery( treatmentType, key, value.split( " " ) );
                         boolContainer.getMust( ).add(multiTokenApproximatedBoolQuery);
                         break;
@@ -189,13 +212,14 @@ public class ComplexSearchRequest extends ASearchRequest
                 switch( treatmentType )
                 {
                     case STRICT:
-                        boolContainer.getMust( ).add( body.createMatchPhrase( treatmentType, key, value, false ) );
+                        boolContainer.getMust( ).add( this.createNameEquality( treatmentType, key, value, body ) );
                         break;
                     case APPROXIMATED:
-                        boolContainer.getMust( ).add( body.createMatch( treatmentType, value, key ) );
+                        boolContainer.getMust( ).add( this.phoneticKeys ? body.createPhoneticTerm( treatmentType, key, value )
+                                : body.createMatch( treatmentType, value, key ) );
                         break;
                     case DIFFERENT:
-                        boolContainer.getMustNot( ).add( body.createMatchPhrase( treatmentType, key, value, false ) );
+                        boolContainer.getMustNot( ).add( this.createNameEquality( treatmentType, key, value, body ) );
                         break;
                     case ABSENT:
                         boolContainer.getMustNot( ).add( body.createExists( treatmentType, key ) );
@@ -222,6 +246,14 @@ public class ComplexSearchRequest extends ASearchRequest
         }
     }
 
+    /**
+     * With the keys computed at index time, the equality of a last name is a term lookup on its normalized value instead of a phrase match.
+     */
+    private AbstractContainer createNameEquality( final AttributeTreatmentType treatmentType, final String key, final String value, final InnerSearchRequest body )
+    {
+        return this.phoneticKeys ? body.createNormalizedTerm( treatmentType, key, value ) : body.createMatchPhrase( treatmentType, key, value, false );
+    }
+
     private boolean isSpecialAttributeKey ( final String key )
     {
         return StringUtils.equalsAny( key, Constants.PARAM_FAMILY_NAME, Constants.PARAM_FIRST_NAME, Constants.PARAM_PREFERRED_USERNAME );
@@ -231,4 +263,9 @@ public class ComplexSearchRequest extends ASearchRequest
     {
         return connected;
     }
+
+    public boolean isPhoneticKeys( )
+    {
+        return phoneticKeys;
+    }
 }
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model;
+
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.request.Bool;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.request.BoolContainer;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.request.Exists;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.request.ExistsContainer;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.request.InnerSearchRequest;
+import fr.paris.lutece.plugins.identitystore.utils.Maps;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.AttributeTreatmentType;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.search.SearchAttribute;
+import org.apache.commons.collections4.CollectionUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * An Elastic search bool request that compiles every combination of a duplicate rule into a single query.<br>
+ * A duplicate rule used to be expanded into one {@link ComplexSearchRequest} per combination of <i>nbEqualAttributes</i> strict attributes, eligible
+ * special treatment n-uple and <i>nbMissingAttributes</i> absent attributes, all sent through a _msearch. This request is instead built as:
+ *
+ * <pre>
+ * bool.should (minimum_should_match = 1), one named branch per special treatment n-uple (or a single branch when there is none)
+ *   bool.must
+ *     - the n-uple clauses
+ *     - bool.should (minimum_should_match = nbEqualAttributes) : one named STRICT clause per attribute that is not in the n-uple
+ *     - bool.should (minimum_should_match = nbMissingAttributes) : one named ABSENT clause per attribute that is not in the n-uple
+ *     - bool.should (minimum_should_match = nbEqualAttributes + nbMissingAttributes) : the STRICT or ABSENT clause of each of those attributes
+ * </pre>
+ *
+ * The last group guarantees that the strict and absent attributes can be picked disjointly, so the matched documents are exactly the union of the
+ * documents matched by every combination. The metadata of the combinations matched by a hit are rebuilt from its <i>matched_queries</i>.
+ */
+public class DuplicateRuleSearchRequest extends ASearchRequest
+{
+    private static final String NAME_SEPARATOR = ":";
+    private static final String BRANCH_NAME = "BRANCH";
+
+    private final List<List<SearchAttribute>> specialTreatmentAttributes = new ArrayList<>( );
+    private final int nbEqualAttributes;
+    private final int nbMissingAttributes;
+    private final boolean connected;
+    private final boolean phoneticKeys;
+
+    /**
+     * Metadata of each named query of the last built body, branches first.
+     */
+    private final Map<String, Map<String, String>> namedQueriesMetadata = new HashMap<>( );
+
+    /**
+     * Named clauses of each branch of the last built body.
+     */
+    private final Map<String, List<String>> branchesClauses = new LinkedHashMap<>( );
+
+    public DuplicateRuleSearchRequest( final List<SearchAttribute> attributes, final List<List<SearchAttribute>> specialTreatmentAttributes,
+            final Integer nbEqualAttributes, final Integer nbMissingAttributes, final boolean connected, final List<String> attributesFilter )
+    {
+        this( attributes, specialTreatmentAttributes, nbEqualAttributes, nbMissingAttributes, connected, attributesFilter, false );
+    }
+
+    /**
+     * @param phoneticKeys
+     *            if true, the approximated special treatments are term lookups on the phonetic keys computed at index time (see
+     *            {@link ComplexSearchRequest})
+     */
+    public DuplicateRuleSearchRequest( final List<SearchAttribute> attributes, final List<List<SearchAttribute>> specialTreatmentAttributes,
+            final Integer nbEqualAttributes, final Integer nbMissingAttributes, final boolean connected, final List<String> attributesFilter,
+            final boolean phoneticKeys )
+    {
+        super( attributesFilter );
+        this.getSearchAttributes( ).addAll( attributes );
+        if ( CollectionUtils.isNotEmpty( specialTreatmentAttributes ) )
+        {
+            this.specialTreatmentAttributes.addAll( specialTreatmentAttributes );
+        }
+        this.nbEqualAttributes = nbEqualAttributes != null ? nbEqualAttributes : 0;
+        this.nbMissingAttributes = nbMissingAttributes != null ? nbMissingAttributes : 0;
+        this.connected = connected;
+        this.phoneticKeys = phoneticKeys;
+    }
+
+    @Override
+    public InnerSearchRequest innerBody( )
+    {
+        this.namedQueriesMetadata.clear( );
+        this.branchesClauses.clear( );
+
+        final InnerSearchRequest body = new InnerSearchRequest( );
+        final Bool rule = body.getQuery( ).getBool( );
+
+        final List<List<SearchAttribute>> nuples = this.getNuples( );
+        for ( int index = 0; index < nuples.size( ); index++ )
+        {
+            final List<SearchAttribute> nuple = nuples.get( index );
+            final List<SearchAttribute> others = this.getOtherAttributes( nuple );
+            if ( this.isEligible( others ) )
+            {
+                rule.getShould( ).add( this.createBranch( BRANCH_NAME + NAME_SEPARATOR + index, nuple, others ) );
+            }
+        }
+        rule.setMinimumShouldMatch( 1 );
+
+        if ( this.connected )
+        {
+            final Exists connectionId = new Exists( );
+            connectionId.setField( "connectionId" );
+            rule.getMust( ).add( new ExistsContainer( connectionId ) );
+            final Exists login = new Exists( );
+            login.setField( "attributes.login.value" );
+            rule.getMust( ).add( new ExistsContainer( login ) );
+        }
+
+        return body;
+    }
+
+    /**
+     * Tells if at least one combination of the rule can be built.
+     *
+     * @return true if the request has at least one branch
+     */
+    public boolean hasBranches( )
+    {
+        return this.getNuples( ).stream( ).anyMatch( nuple -> this.isEligible( this.getOtherAttributes( nuple ) ) );
+    }
+
+    /**
+     * Rebuilds the metadata of the combinations matched by a hit, as they would have been computed by the equivalent {@link ComplexSearchRequest}
+     * list.
+     *
+     * @param matchedQueries
+     *            the matched queries of the hit
+     * @return the metadata of the matched combinations
+     */
+    public Map<String, String> getMetadata( final List<String> matchedQueries )
+    {
+        final Map<String, String> metadata = new HashMap<>( );
+        if ( CollectionUtils.isEmpty( matchedQueries ) )
+        {
+            return metadata;
+        }
+        for ( final Map.Entry<String, List<String>> branch : this.branchesClauses.entrySet( ) )
+        {
+            if ( matchedQueries.contains( branch.getKey( ) ) )
+            {
+                Maps.mergeStringMap( metadata, this.namedQueriesMetadata.get( branch.getKey( ) ) );
+                branch.getValue( ).stream( ).filter( matchedQueries::contains )
+                        .forEach( clause -> Maps.mergeStringMap( metadata, this.namedQueriesMetadata.get( clause ) ) );
+            }
+        }
+        return metadata;
+    }
+
+    private List<List<SearchAttribute>> getNuples( )
+    {
+        return this.specialTreatmentAttributes.isEmpty( ) ? Collections.singletonList( Collections.emptyList( ) ) : this.specialTreatmentAttributes;
+    }
+
+    /**
+     * The attributes that can be part of the strict and absent combinations of a n-uple branch.
+     */
+    private List<SearchAttribute> getOtherAttributes( final List<SearchAttribute> nuple )
+    {
+        return this.getSearchAttributes( ).stream( )
+                .filter( attribute -> nuple.stream( ).noneMatch( n -> Objects.equals( n.getKey( ), attribute.getKey( ) ) ) )
+                .collect( Collectors.toList( ) );
+    }
+
+    private boolean isEligible( final List<SearchAttribute> others )
+    {
+        return others.size( ) >= this.nbEqualAttributes + this.nbMissingAttributes;
+    }
+
+    private BoolContainer createBranch( final String branchName, final List<SearchAttribute> nuple, final List<SearchAttribute> others )
+    {
+        final Bool branch = new Bool( );
+        branch.setName( branchName );
+        final List<String> clauses = new ArrayList<>( );
+
+        if ( !nuple.isEmpty( ) )
+        {
+            final InnerSearchRequest nupleBody = new ComplexSearchRequest( nuple, false, Collections.emptyList( ), this.phoneticKeys ).innerBody( );
+            branch.getMust( ).add( new BoolContainer( nupleBody.getQuery( ).getBool( ) ) );
+            this.namedQueriesMetadata.put( branchName, nupleBody.getMetadata( ) );
+        }
+        else
+        {
+            this.namedQueriesMetadata.put( branchName, new HashMap<>( ) );
+        }
+
+        final Bool strict = new Bool( );
+        final Bool absent = new Bool( );
+        final Bool strictOrAbsent = new Bool( );
+        for ( final SearchAttribute attribute : others )
+        {
+            final BoolContainer strictClause = this.createClause( branchName, attribute, AttributeTreatmentType.STRICT, clauses );
+            strict.getShould( ).add( strictClause );
+            if ( this.nbMissingAttributes > 0 )
+            {
+                final BoolContainer absentClause = this.createClause( branchName, attribute, AttributeTreatmentType.ABSENT, clauses );
+                absent.getShould( ).add( absentClause );
+                strictOrAbsent.getShould( ).add( strictClause );
+                strictOrAbsent.getShould( ).add( absentClause );
+            }
+        }
+        if ( this.nbEqualAttributes > 0 )
+        {
+            strict.setMinimumShouldMatch( this.nbEqualAttributes );
+            branch.getMust( ).add( new BoolContainer( strict ) );
+        }
+        if ( this.nbMissingAttributes > 0 )
+        {
+            absent.setMinimumShouldMatch( this.nbMissingAttributes );
+            branch.getMust( ).add( new BoolContainer( absent ) );
+            strictOrAbsent.setMinimumShouldMatch( this.nbEqualAttributes + this.nbMissingAttributes );
+            branch.getMust( ).add( new BoolContainer( strictOrAbsent ) );
+        }
+
+        this.branchesClauses.put( branchName, clauses );
+        return new BoolContainer( branch );
+    }
+
+    private BoolContainer createClause( final String branchName, final SearchAttribute attribute, final AttributeTreatmentType treatmentType,
+            final List<String> clauses )
+    {
+        final String clauseName = String.join( NAME_SEPARATOR, branchName, treatmentType.name( ), attribute.getKey( ) );
+        final SearchAttribute clauseAttribute = new SearchAttribute( attribute.getKey( ), attribute.getValue( ), attribute.getOutputKeys( ), treatmentType );
+        final InnerSearchRequest clauseBody = new ComplexSearchRequest( Collections.singletonList( clauseAttribute ), false, Collections.emptyList( ),
+                this.phoneticKeys ).innerBody( );
+        final Bool clause = clauseBody.getQuery( ).getBool( );
+        clause.setName( clauseName );
+        this.namedQueriesMetadata.put( clauseName, clauseBody.getMetadata( ) );
+        clauses.add( clauseName );
+        return new BoolContainer( clause );
+    }
+
+    public boolean isConnected( )
+    {
+        return connected;
+    }
+}
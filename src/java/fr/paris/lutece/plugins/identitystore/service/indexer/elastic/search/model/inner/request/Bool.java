@@ -54,6 +54,9 @@ public class Bool
     @JsonProperty( "minimum_should_match" )
     protected Integer minimumShouldMatch;
 
+    @JsonProperty( "_name" )
+    protected String name;
+
     public List<AbstractContainer> getMust( )
     {
         return must;
@@ -94,4 +97,13 @@ public class Bool
         this.minimumShouldMatch = minimumShouldMatch;
     }
 
+    public String getName( )
+    {
+        return name;
+    }
+
+    public void setName( String name )
+    {
+        this.name = name;
+    }
 }
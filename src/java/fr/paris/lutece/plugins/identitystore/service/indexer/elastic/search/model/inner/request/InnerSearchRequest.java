@@ -36,8 +36,10 @@ package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.mod
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.PhoneticEncoder;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.AttributeTreatmentType;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.search.SearchAttribute;
+import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.ArrayList;
@@ -63,6 +65,15 @@ public class InnerSearchRequest
     @JsonProperty( "_source" )
     protected List<String> sourceFilters = new ArrayList<>( );
 
+    @JsonProperty( "sort" )
+    protected List<Map<String, String>> sort = new ArrayList<>( );
+
+    @JsonProperty( "search_after" )
+    protected List<Object> searchAfter = new ArrayList<>( );
+
+    @JsonProperty( "pit" )
+    protected PointInTime pointInTime;
+
     public InnerSearchRequest( )
     {
         final Query query = new Query( );
@@ -124,6 +135,36 @@ public class InnerSearchRequest
         this.sourceFilters = sourceFilters;
     }
 
+    public List<Map<String, String>> getSort( )
+    {
+        return sort;
+    }
+
+    public void setSort( List<Map<String, String>> sort )
+    {
+        this.sort = sort;
+    }
+
+    public List<Object> getSearchAfter( )
+    {
+        return searchAfter;
+    }
+
+    public void setSearchAfter( List<Object> searchAfter )
+    {
+        this.searchAfter = searchAfter;
+    }
+
+    public PointInTime getPointInTime( )
+    {
+        return pointInTime;
+    }
+
+    public void setPointInTime( PointInTime pointInTime )
+    {
+        this.pointInTime = pointInTime;
+    }
+
     /**
      * Create a match container
      * @param treatmentType the attribute treatment type
@@ -270,6 +311,76 @@ public class InnerSearchRequest
         return shouldContainer;
     }
 
+    /**
+     * Create a term query on the accent-folded value of the attribute, normalized when the document was indexed as the name analyzer does
+     * @param treatmentType the attribute treatment type
+     * @param attributeKey the attribute key
+     * @param value the value to be searched, normalized by Elasticsearch
+     * @return a {@link TermContainer}
+     */
+    public TermContainer createNormalizedTerm( final AttributeTreatmentType treatmentType, final String attributeKey, final String value )
+    {
+        this.addMetadata( treatmentType.name( ), Collections.singletonList( attributeKey ) );
+        return this.createTerm( "attributes." + attributeKey + ".value.normalized", value );
+    }
+
+    /**
+     * Create a term query on the phonetic key of the attribute, computed when the document was indexed
+     * @param treatmentType the attribute treatment type
+     * @param attributeKey the attribute key
+     * @param value the value to be searched
+     * @return a {@link TermContainer}
+     */
+    public TermContainer createPhoneticTerm( final AttributeTreatmentType treatmentType, final String attributeKey, final String value )
+    {
+        this.addMetadata( treatmentType.name( ), Collections.singletonList( attributeKey ) );
+        return this.createTerm( "attributes." + attributeKey + ".phoneticValue", PhoneticEncoder.encode( value ) );
+    }
+
+    /**
+     * Creates the approximated search on multi token fields (as first name) from the phonetic keys computed when the document was indexed, following
+     * the given rules:
+     * <ul>
+     *     <li>Every searched value sounds like one of the tokens of the targeted field</li>
+     *     <li>Or the whole targeted field sounds like one of the searched values</li>
+     * </ul>
+     *
+     * @param treatmentType the attribute treatment type
+     * @param attributeKey the attribute key
+     * @param value the value to be searched
+     * @return a {@link BoolContainer}
+     */
+    public BoolContainer createMultiTokenPhoneticBoolQuery( final AttributeTreatmentType treatmentType, final String attributeKey, final String value )
+    {
+        this.addMetadata( treatmentType.name( ), Collections.singletonList( attributeKey ) );
+
+        final List<String> codes = ObjectUtils.defaultIfNull( PhoneticEncoder.encodeTokens( value ), Collections.singletonList( null ) );
+        final BoolContainer shouldContainer = new BoolContainer( new Bool( ) );
+        final BoolContainer allTokens = new BoolContainer( new Bool( ) );
+        shouldContainer.getBool( ).getShould( ).add( allTokens );
+        for ( final String code : codes )
+        {
+            allTokens.getBool( ).getMust( ).add( this.createTerm( "attributes." + attributeKey + ".phoneticTokens", code ) );
+        }
+        if ( codes.size( ) > 1 )
+        {
+            for ( final String code : codes )
+            {
+                shouldContainer.getBool( ).getShould( ).add( this.createTerm( "attributes." + attributeKey + ".phoneticValue", code ) );
+            }
+        }
+        return shouldContainer;
+    }
+
+    private TermContainer createTerm( final String field, final String code )
+    {
+        final Term term = new Term( );
+        term.setName( field );
+        /* A value without any letter has no phonetic key, and must not match anything */
+        term.setValue( StringUtils.defaultString( code ) );
+        return new TermContainer( term );
+    }
+
     /**
      * Create an exists query
      * @param attributeTreatment the attribute treatment
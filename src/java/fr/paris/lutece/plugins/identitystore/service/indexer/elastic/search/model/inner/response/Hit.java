@@ -37,6 +37,8 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.IdentityObject;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 @JsonInclude( JsonInclude.Include.NON_NULL )
@@ -50,6 +52,10 @@ public class Hit
     protected Integer score;
     @JsonProperty( "_source" )
     protected IdentityObject source;
+    @JsonProperty( "matched_queries" )
+    protected List<String> matchedQueries = new ArrayList<>( );
+    @JsonProperty( "sort" )
+    protected List<Object> sort;
 
     public String getIndex( )
     {
@@ -91,6 +97,26 @@ public class Hit
         this.source = source;
     }
 
+    public List<String> getMatchedQueries( )
+    {
+        return matchedQueries;
+    }
+
+    public void setMatchedQueries( List<String> matchedQueries )
+    {
+        this.matchedQueries = matchedQueries;
+    }
+
+    public List<Object> getSort( )
+    {
+        return sort;
+    }
+
+    public void setSort( List<Object> sort )
+    {
+        this.sort = sort;
+    }
+
     @Override
     public boolean equals( Object o )
     {
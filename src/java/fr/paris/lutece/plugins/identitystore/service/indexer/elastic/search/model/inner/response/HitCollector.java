@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the hits streamed out of one or several search responses, deduplicated by customer id, until a limit is reached.<br>
+ * Once the limit is reached, the remaining hits are skipped by the reader without being mapped.
+ */
+public class HitCollector
+{
+    private final Map<String, Hit> _hits = new LinkedHashMap<>( );
+    private final int _nLimit;
+    private Hit _lastHit;
+
+    /**
+     * Constructor
+     *
+     * @param nLimit
+     *            the maximum number of distinct customer ids to collect
+     */
+    public HitCollector( final int nLimit )
+    {
+        _nLimit = nLimit;
+    }
+
+    /**
+     * Collects a hit, unless its customer id has already been collected
+     *
+     * @param hit
+     *            the hit
+     */
+    public void collect( final Hit hit )
+    {
+        _lastHit = hit;
+        if ( !isFull( ) && hit.getSource( ) != null )
+        {
+            _hits.putIfAbsent( hit.getSource( ).getCustomerId( ), hit );
+        }
+    }
+
+    /**
+     * @return true if the limit of distinct customer ids is reached
+     */
+    public boolean isFull( )
+    {
+        return _hits.size( ) >= _nLimit;
+    }
+
+    /**
+     * @return the last hit read, used as search_after cursor
+     */
+    public Hit getLastHit( )
+    {
+        return _lastHit;
+    }
+
+    /**
+     * @return the collected hits, in reading order
+     */
+    public List<Hit> getHits( )
+    {
+        return new ArrayList<>( _hits.values( ) );
+    }
+}
@@ -56,6 +56,9 @@ public class Response
     @JsonProperty( "status" )
     protected Integer status;
 
+    @JsonProperty( "pit_id" )
+    protected String pointInTimeId;
+
     @JsonIgnore
     protected Map<String, String> metadata = new HashMap<>( );
 
@@ -109,6 +112,16 @@ public class Response
         this.status = status;
     }
 
+    public String getPointInTimeId( )
+    {
+        return pointInTimeId;
+    }
+
+    public void setPointInTimeId( String pointInTimeId )
+    {
+        this.pointInTimeId = pointInTimeId;
+    }
+
     public Map<String, String> getMetadata( )
     {
         return metadata;
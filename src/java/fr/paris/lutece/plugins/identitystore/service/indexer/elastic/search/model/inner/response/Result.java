@@ -33,6 +33,7 @@
  */
 package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -48,6 +49,8 @@ public class Result
     protected BigDecimal maxScore;
     @JsonProperty( "hits" )
     protected List<Hit> hits;
+    @JsonIgnore
+    protected int streamedHits;
 
     public Total getTotal( )
     {
@@ -78,4 +81,17 @@ public class Result
     {
         this.hits = hits;
     }
+
+    /**
+     * @return the number of hits of the page that were streamed to a {@link HitCollector} instead of being stored in the hits list
+     */
+    public int getStreamedHits( )
+    {
+        return streamedHits;
+    }
+
+    public void setStreamedHits( int streamedHits )
+    {
+        this.streamedHits = streamedHits;
+    }
 }
@@ -48,7 +48,8 @@ import java.util.List;
 public interface IIdentitySearcher
 {
     /**
-     * Performs a multi search in elastic search (_msearch) based on a list of attributes
+     * Performs a search in elastic search matching any combination of nbEqualAttributes equal attributes, special treatment n-uple and
+     * nbMissingAttributes missing attributes, compiled into a single bool query
      * 
      * @param attributes
      *            the list of requested attribute keys and values
@@ -59,7 +60,7 @@ public interface IIdentitySearcher
      * @param nbMissingAttributes
      *            the numer of attributes that must be not present amongst the requested attributes
      * @param max
-     *            the maximum of hits for each request
+     *            the maximum of hits
      * @param connected
      *            if true the hits must contain only connected identities
      * @param attributesFilter
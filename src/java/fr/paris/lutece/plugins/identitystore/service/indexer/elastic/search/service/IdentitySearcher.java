@@ -39,39 +39,40 @@ import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.mode
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.ComplexSearchRequest;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.ConnectionIdSearchRequest;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.CustomerIdSearchRequest;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.DuplicateRuleSearchRequest;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.request.InnerSearchRequest;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.request.MultiSearchAction;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.request.MultiSearchActionType;
-import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Hit;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.request.PointInTime;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.HitCollector;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Response;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Responses;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Result;
-import fr.paris.lutece.plugins.identitystore.utils.Combinations;
 import fr.paris.lutece.plugins.identitystore.utils.Maps;
-import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.AttributeTreatmentType;
-import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.IdentityDto;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.search.SearchAttribute;
 import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+import fr.paris.lutece.portal.service.util.AppLogService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
 import org.apache.commons.collections4.CollectionUtils;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class IdentitySearcher implements IIdentitySearcher
 {
 
-    public static final String IDENTITYSTORE_SEARCH_OFFSET = "identitystore.search.offset";
+    public static final String IDENTITYSTORE_SEARCH_PAGE_SIZE = "identitystore.search.page.size";
+    public static final String IDENTITYSTORE_SEARCH_PIT_KEEP_ALIVE = "identitystore.search.pit.keepAlive";
     private static final String INDEX = "identities-alias";
-    final private static int propertySize = AppPropertiesService.getPropertyInt( IDENTITYSTORE_SEARCH_OFFSET, 10 );
+    private static final String SORT_SCORE = "_score";
+    private static final String SORT_ORDER_DESC = "desc";
+    final private static int propertyPageSize = AppPropertiesService.getPropertyInt( IDENTITYSTORE_SEARCH_PAGE_SIZE, 1000 );
+    final private static String propertyKeepAlive = AppPropertiesService.getProperty( IDENTITYSTORE_SEARCH_PIT_KEEP_ALIVE, "1m" );
     private static final int PROPERTY_MAX_NB_IDENTITY_RETURNED = AppPropertiesService.getPropertyInt("identitystore.search.maxNbIdentityReturned", 0);
+    private static final boolean PROPERTY_DUPLICATES_PHONETIC_KEYS = AppPropertiesService.getPropertyBoolean( "identitystore.search.duplicates.phonetic.keys",
+            false );
     private final ElasticClient _elasticClient;
 
     public IdentitySearcher( String strServerUrl, String strLogin, String strPassword )
@@ -89,79 +90,20 @@ public class IdentitySearcher implements IIdentitySearcher
             final Integer nbEqualAttributes, final Integer nbMissingAttributes, final int max, final boolean connected, final List<String> attributesFilter )
             throws IdentityStoreException
     {
-        final List<ASearchRequest> requests = new ArrayList<>( );
-        /* Split attribute list into N combinations (list) of nbEqualAttributes */
-        final List<List<SearchAttribute>> combinationsOfEqualAttributes = Combinations.combinations( attributes, nbEqualAttributes );
-        for ( final List<SearchAttribute> currentCombinationOfEqualAttributes : combinationsOfEqualAttributes )
+        /* All the combinations of the rule are compiled into a single bool query, instead of one request per combination */
+        final DuplicateRuleSearchRequest request = new DuplicateRuleSearchRequest( attributes, specialTreatmentAttributes, nbEqualAttributes,
+                nbMissingAttributes, connected, attributesFilter, PROPERTY_DUPLICATES_PHONETIC_KEYS );
+        if ( !request.hasBranches( ) )
         {
-            /* if Attribute treatments are defined, generate a request for each */
-            if ( !CollectionUtils.isEmpty( specialTreatmentAttributes ) )
-            {
-                final List<List<SearchAttribute>> eligibleNuples = specialTreatmentAttributes
-                        .stream( ).filter(
-                                nuple -> nuple.stream( )
-                                        .noneMatch( nupleAttribute -> currentCombinationOfEqualAttributes.stream( )
-                                                .anyMatch( equal -> Objects.equals( equal.getKey( ), nupleAttribute.getKey( ) ) ) ) )
-                        .collect( Collectors.toList( ) );
-                for ( final List<SearchAttribute> eligibleNuple : eligibleNuples )
-                {
-                    final List<SearchAttribute> allAttributes = Stream.concat( currentCombinationOfEqualAttributes.stream( ), eligibleNuple.stream( ) )
-                            .collect( Collectors.toList( ) );
-                    requests.addAll( this.generateRequestsWithOrWithoutMissingAttributes( attributes, nbMissingAttributes, connected, allAttributes,
-                            attributesFilter ) );
-                }
-            }
-            else
-            {
-                requests.addAll( this.generateRequestsWithOrWithoutMissingAttributes( attributes, nbMissingAttributes, connected,
-                        currentCombinationOfEqualAttributes, attributesFilter ) );
-            }
-        }
-        return this.getResponse( requests, max );
-    }
-
-    /**
-     * Handle the possibility of having missing attributes.<br>
-     * If @param nbMissingAttributes is > 0, generate all combined requests, else, generate single request.
-     * 
-     * @param baseAttributes
-     *            the complete list of {@link SearchAttribute} defined in the client request
-     * @param nbMissingAttributes
-     *            can be >= 0
-     * @param connected
-     *            search for a connected {@link IdentityDto}
-     * @param workingAttributes
-     *            the current list of attributes considered for the requests
-     * @param filterAttributes
-     *            set selected attribute list to attributes provided in the request
-     * @return
-     */
-    private List<ASearchRequest> generateRequestsWithOrWithoutMissingAttributes( final List<SearchAttribute> baseAttributes, final Integer nbMissingAttributes,
-            final boolean connected, final List<SearchAttribute> workingAttributes, final List<String> attributesFilter )
-    {
-        final List<ASearchRequest> requests = new ArrayList<>( );
-        if ( nbMissingAttributes != null && nbMissingAttributes > 0 )
-        {
-            final List<SearchAttribute> missingAttributes = baseAttributes.stream( )
-                    .filter( attribute -> workingAttributes.stream( ).noneMatch( a -> Objects.equals( a.getKey( ), attribute.getKey( ) ) ) )
-                    .collect( Collectors.toList( ) );
-            final List<List<SearchAttribute>> combinationsOfMissingAttributes = Combinations.combinations( missingAttributes, nbMissingAttributes );
-            for ( final List<SearchAttribute> combinationOfMissingAttributes : combinationsOfMissingAttributes )
-            {
-                final List<SearchAttribute> missingSearchAttributes = combinationOfMissingAttributes.stream( )
-                        .map( attribute -> new SearchAttribute( attribute.getKey( ), attribute.getValue( ), attribute.getOutputKeys( ),
-                                AttributeTreatmentType.ABSENT ) )
-                        .collect( Collectors.toList( ) );
-                final List<SearchAttribute> complete = Stream.concat( missingSearchAttributes.stream( ), workingAttributes.stream( ) )
-                        .collect( Collectors.toList( ) );
-                requests.add( new ComplexSearchRequest( complete, connected, attributesFilter ) );
-            }
+            return emptyResponse( );
         }
-        else
+        final Response response = this.getResponse( request, max );
+        if ( response.getResult( ) != null && response.getResult( ).getHits( ) != null )
         {
-            requests.add( new ComplexSearchRequest( workingAttributes, connected, attributesFilter ) );
+            response.getResult( ).getHits( )
+                    .forEach( hit -> Maps.mergeStringMap( response.getMetadata( ), request.getMetadata( hit.getMatchedQueries( ) ) ) );
         }
-        return requests;
+        return response;
     }
 
     @Override
@@ -202,28 +144,16 @@ public class IdentitySearcher implements IIdentitySearcher
     {
         try
         {
+            final HitCollector collector = new HitCollector( ( max == 0 ) ? Integer.MAX_VALUE : max );
             final InnerSearchRequest initialRequest = request.body( );
-            final int size = ( max == 0 ) ? propertySize : Math.min( max, propertySize );
             initialRequest.setFrom( 0 );
-            initialRequest.setSize( size );
-            final Response innerResponse = this._elasticClient.search( INDEX, initialRequest );
-            int total = innerResponse.getResult( ).getTotal( ).getValue( );
-            int limit = max == 0 ? total : Math.min( max, total );
-            if ( size < limit )
+            initialRequest.setSize( ( max == 0 ) ? propertyPageSize : Math.min( propertyPageSize, max ) );
+            final Response innerResponse = this._elasticClient.search( INDEX, initialRequest, collector );
+            if ( innerResponse.getResult( ).getStreamedHits( ) >= initialRequest.getSize( ) && !collector.isFull( ) )
             {
-                int offset = initialRequest.getFrom( ) + size;
-                while ( offset < limit )
-                {
-                    initialRequest.setFrom( offset );
-                    final Response pagedResponse = this._elasticClient.search( INDEX, initialRequest );
-                    innerResponse.getResult( ).getHits( ).addAll( pagedResponse.getResult( ).getHits( ) );
-                    if ( pagedResponse.getResult( ).getMaxScore( ).compareTo( innerResponse.getResult( ).getMaxScore( ) ) > 0 )
-                    {
-                        innerResponse.getResult( ).setMaxScore( pagedResponse.getResult( ).getMaxScore( ) );
-                    }
-                    offset += size;
-                }
+                this.searchAfter( initialRequest, collector, innerResponse.getResult( ) );
             }
+            innerResponse.getResult( ).setHits( collector.getHits( ) );
             return innerResponse;
         }
         catch( ElasticClientException e )
@@ -238,52 +168,101 @@ public class IdentitySearcher implements IIdentitySearcher
         {
             if ( CollectionUtils.isNotEmpty( requests ) )
             {
-                final int size = ( max == 0 ) ? propertySize : Math.min( max, propertySize );
+                final HitCollector collector = new HitCollector( ( max == 0 ) ? Integer.MAX_VALUE : max );
+                final int size = ( max == 0 ) ? propertyPageSize : Math.min( propertyPageSize, max );
                 final List<MultiSearchAction> searchActions = requests.stream( ).map( aSearchRequest -> {
                     final InnerSearchRequest innerSearchRequest = aSearchRequest.body( );
                     innerSearchRequest.setFrom( 0 );
                     innerSearchRequest.setSize( size );
                     return new MultiSearchAction( innerSearchRequest, MultiSearchActionType.QUERY, INDEX );
                 } ).collect( Collectors.toList( ) );
-                final Responses innerResponses = this._elasticClient.multiSearch( INDEX, searchActions );
+                final Responses innerResponses = this._elasticClient.multiSearch( INDEX, searchActions, collector );
                 final Response globalResponse = new Response( );
                 globalResponse.setResult( new Result( ) );
-                globalResponse.getResult( ).setHits( new ArrayList<>( ) );
                 this.computeResponseMetadata( globalResponse, innerResponses, searchActions );
 
-                final Map<String, Hit> hits = innerResponses.getResponses( ).stream( ).flatMap( r -> r.getResult( ).getHits( ).stream( ) ).distinct( )
-                        .collect( Collectors.toMap( hit -> hit.getSource( ).getCustomerId( ), hit -> hit ) );
-                final Map<String, Hit> distinctHits = new HashMap<>( hits );
-
-                final int maxTotal = innerResponses.getResponses( ).stream( ).map( r -> r.getResult( ).getTotal( ).getValue( ) ).mapToInt( value -> value )
-                        .max( ).orElseThrow( ( ) -> new IdentityStoreException( "Cannot compute total of hits" ) );
-                final int limit = Math.min( max, maxTotal );
-                int offset = searchActions.get( 0 ).getQuery( ).getFrom( ) + size;
-                while ( offset < limit )
+                for ( int index = 0; index < searchActions.size( ); index++ )
                 {
-                    final int finalOffset = offset;
-                    searchActions.forEach( multiSearchAction -> multiSearchAction.getQuery( ).setFrom( finalOffset ) );
-                    final Responses pagedResponses = this._elasticClient.multiSearch( INDEX, searchActions );
-                    pagedResponses.getResponses( ).stream( ).flatMap( r -> r.getResult( ).getHits( ).stream( ) ).distinct( )
-                            .forEach( hit -> distinctHits.putIfAbsent( hit.getSource( ).getCustomerId( ), hit ) );
-                    final BigDecimal maxScore = pagedResponses.getResponses( ).stream( ).filter( r -> r.getResult( ).getMaxScore( ) != null )
-                            .map( r -> r.getResult( ).getMaxScore( ) ).max( Comparator.comparingDouble( BigDecimal::doubleValue ) )
-                            .orElseThrow( ( ) -> new IdentityStoreException( "Cannot compute max score" ) );
-                    globalResponse.getResult( ).setMaxScore( maxScore );
-                    this.computeResponseMetadata( globalResponse, pagedResponses, searchActions );
-                    offset += size;
+                    final Result result = innerResponses.getResponses( ).get( index ).getResult( );
+                    this.updateMaxScore( result, globalResponse.getResult( ) );
+                    /* Only the requests that filled their first page are paged, the other ones are done */
+                    if ( result != null && result.getStreamedHits( ) >= size && !collector.isFull( ) )
+                    {
+                        this.searchAfter( searchActions.get( index ).getQuery( ), collector, globalResponse.getResult( ) );
+                    }
                 }
-                globalResponse.getResult( ).getHits( ).addAll( distinctHits.values( ) );
+                globalResponse.getResult( ).setHits( collector.getHits( ) );
                 return globalResponse;
             }
         }
-        catch( final ElasticClientException | IdentityStoreException e )
+        catch( final ElasticClientException e )
         {
             throw new IdentityStoreException( e.getMessage( ), e );
         }
         return emptyResponse( );
     }
 
+    /**
+     * Pages through all the hits of a request with search_after on a point in time, until the collector is full.<br>
+     * The search restarts from the first hit, already collected customer ids are ignored.
+     *
+     * @param request
+     *            the request
+     * @param collector
+     *            the collector of the hits
+     * @param globalResult
+     *            the result holding the max score
+     * @throws ElasticClientException
+     *             in case of error
+     */
+    private void searchAfter( final InnerSearchRequest request, final HitCollector collector, final Result globalResult ) throws ElasticClientException
+    {
+        final PointInTime pointInTime = new PointInTime( this._elasticClient.openPointInTime( INDEX, propertyKeepAlive ), propertyKeepAlive );
+        try
+        {
+            /* the point in time adds an implicit _shard_doc tiebreaker to the sort */
+            request.setPointInTime( pointInTime );
+            request.setFrom( null );
+            request.setSize( propertyPageSize );
+            request.setSort( new ArrayList<>( Collections.singletonList( Collections.singletonMap( SORT_SCORE, SORT_ORDER_DESC ) ) ) );
+            request.getSearchAfter( ).clear( );
+            while ( !collector.isFull( ) )
+            {
+                final Response page = this._elasticClient.search( null, request, collector );
+                this.updateMaxScore( page.getResult( ), globalResult );
+                if ( page.getPointInTimeId( ) != null )
+                {
+                    pointInTime.setId( page.getPointInTimeId( ) );
+                }
+                if ( page.getResult( ).getStreamedHits( ) < propertyPageSize )
+                {
+                    break;
+                }
+                request.setSearchAfter( collector.getLastHit( ).getSort( ) );
+            }
+        }
+        finally
+        {
+            try
+            {
+                this._elasticClient.closePointInTime( pointInTime.getId( ) );
+            }
+            catch( final ElasticClientException e )
+            {
+                AppLogService.error( "Could not close point in time, it will expire after " + propertyKeepAlive, e );
+            }
+        }
+    }
+
+    private void updateMaxScore( final Result result, final Result globalResult )
+    {
+        if ( result != null && result.getMaxScore( ) != null
+                && ( globalResult.getMaxScore( ) == null || result.getMaxScore( ).compareTo( globalResult.getMaxScore( ) ) > 0 ) )
+        {
+            globalResult.setMaxScore( result.getMaxScore( ) );
+        }
+    }
+
     /**
      * Compute metada of global response to give information about what kind of requests had a match.
      * 
@@ -299,7 +278,7 @@ public class IdentitySearcher implements IIdentitySearcher
         for ( int index = 0; index < searchActions.size( ); index++ )
         {
             final Response response = innerResponses.getResponses( ).get( index );
-            if ( response.getResult( ) != null && !response.getResult( ).getHits( ).isEmpty( ) )
+            if ( response.getResult( ) != null && response.getResult( ).getStreamedHits( ) > 0 )
             {
                 Maps.mergeStringMap( globalResponse.getMetadata( ), searchActions.get( index ).getQuery( ).getMetadata( ) );
             }
@@ -38,9 +38,11 @@ import fr.paris.lutece.plugins.identitystore.business.identity.IdentityHome;
 import fr.paris.lutece.plugins.identitystore.service.contract.AttributeCertificationDefinitionService;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.AttributeObject;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.IdentityObject;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Hit;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Response;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.service.IIdentitySearcher;
 import fr.paris.lutece.plugins.identitystore.service.search.ISearchIdentityService;
+import fr.paris.lutece.plugins.identitystore.utils.Batch;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.DtoConverter;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.AttributeDto;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.ConsolidateDefinition;
@@ -52,12 +54,15 @@ import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.search.SearchAttribut
 import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class ElasticSearchIdentityService implements ISearchIdentityService
 {
+    private static final int MERGE_DATA_BATCH_SIZE = 1000;
     private final IIdentitySearcher _identitySearcher;
 
     /**
@@ -127,14 +132,34 @@ public class ElasticSearchIdentityService implements ISearchIdentityService
 
         if ( search != null )
         {
-            search.getResult( ).getHits( ).forEach( hit -> {
-                identities.add( this.toQualifiedIdentity( hit.getSource( ) ) );
+            final List<IdentityObject> identityObjects = search.getResult( ).getHits( ).stream( ).map( Hit::getSource ).collect( Collectors.toList( ) );
+
+            /* Resolve merge and consolidation data of the whole hit list with one query per batch of customer IDs */
+            final Set<String> customerIds = identityObjects.stream( ).map( IdentityObject::getCustomerId ).collect( Collectors.toSet( ) );
+            final List<Identity> mergeData = new ArrayList<>( );
+            for ( final List<String> customerIdBatch : Batch.ofSize( new ArrayList<>( customerIds ), MERGE_DATA_BATCH_SIZE ) )
+            {
+                mergeData.addAll( IdentityHome.findWithMergedIdentitiesByCustomerIds( customerIdBatch ) );
+            }
+            final Map<String, Identity> identityDetailsByCustomerId = mergeData.stream( )
+                    .filter( identity -> customerIds.contains( identity.getCustomerId( ) ) )
+                    .collect( Collectors.toMap( Identity::getCustomerId, identity -> identity, ( first, second ) -> first ) );
+            final Map<Integer, List<Identity>> mergedIdentitiesByMasterId = mergeData.stream( )
+                    .filter( identity -> identity.isMerged( ) && identity.getMasterIdentityId( ) != null )
+                    .collect( Collectors.groupingBy( Identity::getMasterIdentityId ) );
+
+            identityObjects.forEach( identityObject -> {
+                final Identity identityDetails = identityDetailsByCustomerId.get( identityObject.getCustomerId( ) );
+                final List<Identity> mergedIdentities = identityDetails != null
+                        ? mergedIdentitiesByMasterId.getOrDefault( identityDetails.getId( ), Collections.emptyList( ) )
+                        : Collections.emptyList( );
+                identities.add( this.toQualifiedIdentity( identityObject, identityDetails, mergedIdentities ) );
             } );
         }
         return identities;
     }
 
-    private IdentityDto toQualifiedIdentity( final IdentityObject identityObject )
+    private IdentityDto toQualifiedIdentity( final IdentityObject identityObject, final Identity identityDetails, final List<Identity> mergedIdentities )
     {
         final IdentityDto identity = new IdentityDto( );
         identity.setConnectionId( identityObject.getConnectionId( ) );
@@ -148,15 +173,13 @@ public class ElasticSearchIdentityService implements ISearchIdentityService
             identity.getExpiration().setDeleted(false);
             identity.getExpiration().setDeleteDate(null);
         }
-        Identity identityDetails = IdentityHome.findByCustomerId( identity.getCustomerId( ) );
         if( identityDetails != null && identityDetails.isMerged( ) ) {
             identity.setMerge( new MergeDefinition( ) );
             identity.getMerge().setMasterCustomerId( identityDetails.getMasterIdentityId().toString( ) );
             identity.getMerge().setMerged( true );
             identity.getMerge().setMergeDate( identityDetails.getMergeDate( ));
         }
-        List<Identity> mergedIdentities = IdentityHome.findMergedIdentities(identityDetails.getId());
-        if( mergedIdentities != null && !mergedIdentities.isEmpty() )
+        if( !mergedIdentities.isEmpty() )
         {
             identity.setConsolidate(new ConsolidateDefinition());
             List<IdentityDto> mergedIdentitiesDto = new ArrayList<>( );
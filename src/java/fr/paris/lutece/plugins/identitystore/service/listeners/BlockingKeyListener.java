@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.listeners;
+
+import fr.paris.lutece.plugins.identitystore.business.identity.Identity;
+import fr.paris.lutece.plugins.identitystore.business.identity.IdentityHome;
+import fr.paris.lutece.plugins.identitystore.service.IdentityChangeListener;
+import fr.paris.lutece.plugins.identitystore.service.duplicate.BlockingKeyService;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.RequestAuthor;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.history.IdentityChangeType;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.util.sql.TransactionManager;
+
+import java.util.Map;
+
+/**
+ * Keeps the blocking keys of the identities up to date between two rebuilds by the blocking keys daemon
+ */
+public class BlockingKeyListener implements IdentityChangeListener
+{
+    private static final String SERVICE_NAME = "Blocking keys IdentityChangeListener";
+
+    @Override
+    public String getName( )
+    {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void processIdentityChange( IdentityChangeType identityChangeType, Identity identity, String statusCode, String statusMessage, RequestAuthor author,
+            String clientCode, Map<String, String> metadata )
+    {
+        switch( identityChangeType )
+        {
+            case CREATE:
+            case UPDATE:
+            case CONSOLIDATED:
+                this.update( identity, false );
+                break;
+            case MERGE_CANCELLED:
+                // the given identity was loaded before the merge was cancelled in database, and is still flagged as merged
+                final Identity unmergedIdentity = IdentityHome.findByCustomerId( identity.getCustomerId( ) );
+                if ( unmergedIdentity != null )
+                {
+                    this.update( unmergedIdentity, false );
+                }
+                break;
+            case DELETE:
+            case MERGED:
+                this.update( identity, true );
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void update( final Identity identity, final boolean bRemove )
+    {
+        TransactionManager.beginTransaction( null );
+        try
+        {
+            if ( bRemove )
+            {
+                BlockingKeyService.instance( ).remove( identity );
+            }
+            else
+            {
+                BlockingKeyService.instance( ).refresh( identity );
+            }
+            TransactionManager.commitTransaction( null );
+        }
+        catch( final Exception e )
+        {
+            TransactionManager.rollBack( null );
+            AppLogService.error( "Could not update the blocking keys of identity " + identity.getCustomerId( ) + " : " + e.getMessage( ) );
+        }
+    }
+}
@@ -74,6 +74,7 @@ public class IdentityDuplicateValidator
     private static final String PROPERTY_DUPLICATES_IMPORT_RULES_STRICT = "identitystore.identity.duplicates.import.rules.strict";
     private static final String PROPERTY_DUPLICATES_CHECK_DATABASE_ACTIVATED = "identitystore.identity.duplicates.check.database";
     private static final String PROPERTY_DUPLICATES_RULES_STRICT = "identitystore.identity.duplicates.rules.strict";
+    private static final String PROPERTY_DUPLICATES_CHECK_STOP_FIRST_MATCH = "identitystore.identity.duplicates.check.stop.first.match";
 
     private static IdentityDuplicateValidator instance;
 
@@ -267,7 +268,8 @@ public class IdentityDuplicateValidator
     private void checkDuplicates(final IDuplicateService duplicateService, final Map<String, String> attributes, final List<DuplicateRule> rules, final String customerId )
             throws IdentityStoreException {
         final Map<String, QualifiedIdentitySearchResult> duplicates =
-                duplicateService.findDuplicates(attributes, customerId, rules, Collections.emptyList( ));
+                duplicateService.findDuplicates(attributes, customerId, rules, Collections.emptyList( ),
+                                                AppPropertiesService.getPropertyBoolean( PROPERTY_DUPLICATES_CHECK_STOP_FIRST_MATCH, false ));
         if ( duplicates.values().stream().anyMatch(r -> !r.getQualifiedIdentities().isEmpty()) )
         {
             final List<String> matchingRuleCodes =
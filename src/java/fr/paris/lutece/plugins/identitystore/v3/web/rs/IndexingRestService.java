@@ -33,7 +33,9 @@
  */
 package fr.paris.lutece.plugins.identitystore.v3.web.rs;
 
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.listener.IdentityIndexQueue;
 import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.task.FullIndexTask;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.task.IndexOutboxRelay;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.util.Constants;
 import fr.paris.lutece.portal.service.spring.SpringContextService;
 
@@ -51,8 +53,12 @@ public class IndexingRestService
 {
 
     public static final String INDEX_STATUS = "indexing/status";
+    public static final String INDEX_QUEUE_STATUS = "indexing/queue/status";
+    public static final String INDEX_OUTBOX_STATUS = "indexing/outbox/status";
 
     private FullIndexTask fullIndexTask;
+    private IdentityIndexQueue identityIndexQueue;
+    private IndexOutboxRelay indexOutboxRelay;
 
     /**
      * Get indexing process status
@@ -74,6 +80,40 @@ public class IndexingRestService
         }
     }
 
+    /**
+     * Get near real time indexing queue status (depth, flush latency, number of bulk calls)
+     * @return the status
+     */
+    @Path( INDEX_QUEUE_STATUS )
+    @GET
+    @Produces( MediaType.APPLICATION_JSON )
+    public Response getIndexQueueStatus( )
+    {
+        final IdentityIndexQueue queue = this.getIdentityIndexQueue( );
+        if ( queue == null )
+        {
+            return Response.status( Response.Status.INTERNAL_SERVER_ERROR ).entity( "{}" ).type( MediaType.APPLICATION_JSON ).build( );
+        }
+        return Response.status( Response.Status.OK ).entity( queue ).type( MediaType.APPLICATION_JSON ).build( );
+    }
+
+    /**
+     * Get index outbox relay status (lag, pending actions, dead letters)
+     * @return the status
+     */
+    @Path( INDEX_OUTBOX_STATUS )
+    @GET
+    @Produces( MediaType.APPLICATION_JSON )
+    public Response getIndexOutboxStatus( )
+    {
+        final IndexOutboxRelay relay = this.getIndexOutboxRelay( );
+        if ( relay == null )
+        {
+            return Response.status( Response.Status.INTERNAL_SERVER_ERROR ).entity( "{}" ).type( MediaType.APPLICATION_JSON ).build( );
+        }
+        return Response.status( Response.Status.OK ).entity( relay ).type( MediaType.APPLICATION_JSON ).build( );
+    }
+
     /**
      * Permet de récupérer le bean quand il est prêt dans le lifeCycle,
      * car il n'est pas possible de le fournir sous forme de param de constructeur,
@@ -88,4 +128,28 @@ public class IndexingRestService
         return fullIndexTask;
     }
 
+    /**
+     * @return la file d'indexation {@link IdentityIndexQueue}
+     */
+    public IdentityIndexQueue getIdentityIndexQueue( )
+    {
+        if ( identityIndexQueue == null )
+        {
+            identityIndexQueue = SpringContextService.getBean( "identitystore.indexQueue" );
+        }
+        return identityIndexQueue;
+    }
+
+    /**
+     * @return le relais de l'outbox d'indexation {@link IndexOutboxRelay}
+     */
+    public IndexOutboxRelay getIndexOutboxRelay( )
+    {
+        if ( indexOutboxRelay == null )
+        {
+            indexOutboxRelay = SpringContextService.getBean( "identitystore.indexOutboxRelay" );
+        }
+        return indexOutboxRelay;
+    }
+
 }
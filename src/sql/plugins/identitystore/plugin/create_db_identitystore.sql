@@ -44,6 +44,7 @@ CREATE INDEX identitystore_identity_connection_id ON identitystore_identity (con
 CREATE INDEX identitystore_identity_customer_id ON identitystore_identity (customer_id);
 CREATE INDEX identitystore_identity_master_id ON identitystore_identity (id_master_identity);
 CREATE INDEX identitystore_identity_expiration_date ON identitystore_identity (expiration_date);
+CREATE INDEX identitystore_identity_last_update ON identitystore_identity (last_update_date, id_identity);
 
 --
 -- Structure for table identitystore_attribute
@@ -285,8 +286,49 @@ CREATE TABLE identitystore_index_action
     customer_id     varchar(50) NOT NULL,
     action_type     varchar(50) NOT NULL,
     date_index      timestamp(3)   NOT NULL,
+    nb_attempts     int            NOT NULL DEFAULT 0,
+    lease_owner     varchar(255)   NULL,
+    lease_expiration timestamp(3)  NULL,
     PRIMARY KEY (id_index_action)
 );
+CREATE INDEX identitystore_index_action_customer_id ON identitystore_index_action (customer_id, id_index_action);
+
+--
+-- Structure for table identitystore_index_checkpoint
+--
+DROP TABLE IF EXISTS identitystore_index_checkpoint;
+CREATE TABLE identitystore_index_checkpoint
+(
+    id_index_checkpoint   int AUTO_INCREMENT,
+    index_name            varchar(255) NOT NULL,
+    old_index_name        varchar(255) NULL,
+    last_identity_id      int          NOT NULL DEFAULT 0,
+    nb_indexed_identities int          NOT NULL DEFAULT 0,
+    date_start            timestamp(3) NOT NULL,
+    date_update           timestamp(3) NOT NULL,
+    lease_owner           varchar(255) NULL,
+    lease_expiration      timestamp(3) NULL,
+    PRIMARY KEY (id_index_checkpoint)
+);
+
+--
+-- Structure for table identitystore_index_range
+--
+DROP TABLE IF EXISTS identitystore_index_range;
+CREATE TABLE identitystore_index_range
+(
+    id_index_range        int AUTO_INCREMENT,
+    id_index_checkpoint   int          NOT NULL,
+    range_start           int          NOT NULL,
+    range_end             int          NOT NULL,
+    status                varchar(16)  NOT NULL,
+    lease_owner           varchar(255) NULL,
+    lease_expiration      timestamp(3) NULL,
+    nb_attempts           int          NOT NULL DEFAULT 0,
+    nb_indexed_identities int          NOT NULL DEFAULT 0,
+    PRIMARY KEY (id_index_range)
+);
+CREATE INDEX identitystore_index_range_checkpoint ON identitystore_index_range (id_index_checkpoint, status);
 
 
 
@@ -401,6 +443,19 @@ CREATE TABLE identitystore_quality_suspicious_identity_excluded
     author_name        VARCHAR(255) NOT NULL
 );
 
+--
+-- Structure for table identitystore_identity_blocking_key
+--
+DROP TABLE IF EXISTS identitystore_identity_blocking_key;
+CREATE TABLE identitystore_identity_blocking_key
+(
+    id_identity int          NOT NULL,
+    key_type    varchar(50)  NOT NULL,
+    key_value   varchar(255) NOT NULL,
+    PRIMARY KEY (id_identity, key_type)
+);
+CREATE INDEX identitystore_identity_blocking_key_value ON identitystore_identity_blocking_key (key_type, key_value, id_identity);
+
 --
 -- Structure for table identitystore_ref_attribute_values
 --
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.business.duplicates.blocking;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class BlockingKeyTypeTest extends LuteceTestCase
+{
+    public void testInitial( )
+    {
+        assertEquals( "01/01/2002|D", BlockingKeyType.BIRTHDATE_FAMILY_NAME.compute( this.values( " 01/01/2002 ", "Dupont", null ) ) );
+        assertEquals( "01/01/2002|E", BlockingKeyType.BIRTHDATE_FIRST_NAME.compute( this.values( "01/01/2002", null, "Élodie" ) ) );
+        assertEquals( "01/01/2002|O", BlockingKeyType.BIRTHDATE_FIRST_NAME.compute( this.values( "01/01/2002", null, "Œdipe" ) ) );
+        assertEquals( "01/01/2002|A", BlockingKeyType.BIRTHDATE_FIRST_NAME.compute( this.values( "01/01/2002", null, "æla" ) ) );
+        assertEquals( "01/01/2002|A", BlockingKeyType.BIRTHDATE_FAMILY_NAME.compute( this.values( "01/01/2002", "  'Arc", null ) ) );
+    }
+
+    public void testSkeleton( )
+    {
+        assertEquals( "DPNT|J", BlockingKeyType.FAMILY_NAME_FIRST_NAME.compute( this.values( null, "Dupont", "Jean" ) ) );
+        // repeated letters and vowels
+        assertEquals( "DPNT|J", BlockingKeyType.FAMILY_NAME_FIRST_NAME.compute( this.values( null, "Duppont", "Jean" ) ) );
+        // accents
+        assertEquals( "LFVR|J", BlockingKeyType.FAMILY_NAME_FIRST_NAME.compute( this.values( null, "Lefèvre", "Jean" ) ) );
+        assertEquals( "LFVR|J", BlockingKeyType.FAMILY_NAME_FIRST_NAME.compute( this.values( null, "LEFEVRE", "jean" ) ) );
+        // ligatures
+        assertEquals( "BF|J", BlockingKeyType.FAMILY_NAME_FIRST_NAME.compute( this.values( null, "Bœuf", "Jean" ) ) );
+        assertEquals( "BF|J", BlockingKeyType.FAMILY_NAME_FIRST_NAME.compute( this.values( null, "Boeuf", "Jean" ) ) );
+        assertEquals( "CSR|J", BlockingKeyType.FAMILY_NAME_FIRST_NAME.compute( this.values( null, "Cæsar", "Jean" ) ) );
+        // particles, blanks and apostrophes
+        assertEquals( "DLFNTN|J", BlockingKeyType.FAMILY_NAME_FIRST_NAME.compute( this.values( null, "de La Fontaine", "Jean" ) ) );
+        assertEquals( "DLFNTN|J", BlockingKeyType.FAMILY_NAME_FIRST_NAME.compute( this.values( null, "Delafontaine", "Jean" ) ) );
+        assertEquals( "DRC|J", BlockingKeyType.FAMILY_NAME_FIRST_NAME.compute( this.values( null, "D'Arc", "Jean" ) ) );
+    }
+
+    public void testMissingAttribute( )
+    {
+        assertNull( BlockingKeyType.BIRTHDATE_FAMILY_NAME.compute( this.values( "01/01/2002", null, "Jean" ) ) );
+        assertNull( BlockingKeyType.BIRTHDATE_FAMILY_NAME.compute( this.values( " ", "Dupont", "Jean" ) ) );
+        // a value without any letter has no initial nor skeleton
+        assertNull( BlockingKeyType.FAMILY_NAME_FIRST_NAME.compute( this.values( null, "Dupont", "--" ) ) );
+        assertNull( BlockingKeyType.FAMILY_NAME_FIRST_NAME.compute( this.values( null, "1234", "Jean" ) ) );
+    }
+
+    private Map<String, String> values( final String birthdate, final String familyName, final String firstName )
+    {
+        final Map<String, String> values = new HashMap<>( );
+        values.put( "birthdate", birthdate );
+        values.put( "family_name", familyName );
+        values.put( "first_name", firstName );
+        return values;
+    }
+}
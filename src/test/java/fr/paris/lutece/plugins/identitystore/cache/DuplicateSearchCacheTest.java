@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.cache;
+
+import fr.paris.lutece.plugins.identitystore.business.attribute.AttributeKey;
+import fr.paris.lutece.plugins.identitystore.business.rules.duplicate.DuplicateRule;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.test.LuteceTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DuplicateSearchCacheTest extends LuteceTestCase
+{
+    private static final long REFRESH_INTERVAL_MILLIS = AppPropertiesService.getPropertyInt( "identitystore.duplicate.cache.refresh.interval", 1000 );
+
+    private DuplicateSearchCache _cache;
+    private DuplicateRule _rule;
+    private Map<String, String> _values;
+
+    @Override
+    protected void setUp( ) throws Exception
+    {
+        super.setUp( );
+        _cache = SpringContextService.getBean( "identitystore.duplicateSearchCache" );
+        _cache.refresh( );
+        _rule = rule( "RG_TEST", "family_name", "birthdate" );
+        _values = new HashMap<>( );
+        _values.put( "family_name", "Dupont" );
+        _values.put( "birthdate", "01/01/1970" );
+        _values.put( "email", "dupont@example.com" );
+        // results are not cached within the refresh interval after a write
+        Thread.sleep( REFRESH_INTERVAL_MILLIS + 100 );
+    }
+
+    public void testPutAndGet( )
+    {
+        _cache.put( _rule, _values, Arrays.asList( "cuid-1", "cuid-2" ), _cache.snapshot( ) );
+
+        assertEquals( Arrays.asList( "cuid-1", "cuid-2" ), _cache.get( _rule, _values ) );
+        // attributes not checked by the rule, and surrounding blanks, don't change the key
+        final Map<String, String> otherValues = new HashMap<>( _values );
+        otherValues.put( "email", "other@example.com" );
+        otherValues.put( "family_name", " Dupont " );
+        assertEquals( Arrays.asList( "cuid-1", "cuid-2" ), _cache.get( _rule, otherValues ) );
+        otherValues.put( "birthdate", "02/01/1970" );
+        assertNull( _cache.get( _rule, otherValues ) );
+        assertNull( _cache.get( rule( "RG_OTHER", "family_name", "birthdate" ), _values ) );
+    }
+
+    public void testAnyWriteInvalidates( )
+    {
+        _cache.put( _rule, _values, Collections.singletonList( "cuid-1" ), _cache.snapshot( ) );
+
+        // the written identity may be a fuzzy or phonetic match, whatever its values
+        _cache.onIndexWrite( );
+
+        assertNull( _cache.get( _rule, _values ) );
+    }
+
+    public void testWriteDuringSearchIsNotCached( )
+    {
+        final DuplicateSearchCache.Snapshot snapshot = _cache.snapshot( );
+        _cache.onIndexWrite( );
+        _cache.put( _rule, _values, Collections.singletonList( "cuid-1" ), snapshot );
+
+        assertNull( _cache.get( _rule, _values ) );
+    }
+
+    public void testWriteBeforeRefreshIsNotCached( ) throws InterruptedException
+    {
+        _cache.onIndexWrite( );
+        // the write may not be visible yet to a search started now
+        _cache.put( _rule, _values, Collections.singletonList( "cuid-1" ), _cache.snapshot( ) );
+        assertNull( _cache.get( _rule, _values ) );
+
+        Thread.sleep( REFRESH_INTERVAL_MILLIS + 100 );
+        _cache.put( _rule, _values, Collections.singletonList( "cuid-1" ), _cache.snapshot( ) );
+        assertEquals( Collections.singletonList( "cuid-1" ), _cache.get( _rule, _values ) );
+    }
+
+    public void testRulesChangeInvalidates( )
+    {
+        final DuplicateSearchCache.Snapshot snapshot = _cache.snapshot( );
+        _cache.put( _rule, _values, Collections.singletonList( "cuid-1" ), snapshot );
+
+        _cache.refresh( );
+        assertNull( _cache.get( _rule, _values ) );
+
+        // a search started before the change is not cached either
+        _cache.put( _rule, _values, Collections.singletonList( "cuid-1" ), snapshot );
+        assertNull( _cache.get( _rule, _values ) );
+    }
+
+    private static DuplicateRule rule( final String strCode, final String... keyNames )
+    {
+        final DuplicateRule rule = new DuplicateRule( );
+        rule.setCode( strCode );
+        final List<AttributeKey> keys = new ArrayList<>( );
+        for ( final String keyName : keyNames )
+        {
+            final AttributeKey key = new AttributeKey( );
+            key.setKeyName( keyName );
+            keys.add( key );
+        }
+        rule.setCheckedAttributes( keys );
+        return rule;
+    }
+}
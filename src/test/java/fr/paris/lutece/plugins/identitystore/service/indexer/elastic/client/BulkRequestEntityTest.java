@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkAction;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.internal.BulkActionType;
+import fr.paris.lutece.test.LuteceTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+public class BulkRequestEntityTest extends LuteceTestCase
+{
+    private static final ObjectMapper _mapper = new ObjectMapper( );
+
+    public void testNdjsonFraming( ) throws IOException
+    {
+        final BulkRequestEntity entity = new BulkRequestEntity( "identities", actions( ), _mapper.writer( ), false );
+
+        assertEquals( "application/x-ndjson", entity.getContentType( ) );
+        assertNull( entity.getContentEncoding( ) );
+        assertEquals( expected( ), write( entity ) );
+    }
+
+    public void testGzip( ) throws IOException
+    {
+        final BulkRequestEntity entity = new BulkRequestEntity( "identities", actions( ), _mapper.writer( ), true );
+
+        assertEquals( "gzip", entity.getContentEncoding( ) );
+        final byte [ ] body = writeBytes( entity );
+        try ( final GZIPInputStream in = new GZIPInputStream( new ByteArrayInputStream( body ) ) )
+        {
+            assertEquals( expected( ), new String( read( in ), StandardCharsets.UTF_8 ) );
+        }
+    }
+
+    public void testRepeatable( ) throws IOException
+    {
+        final BulkRequestEntity entity = new BulkRequestEntity( "identities", actions( ), _mapper.writer( ), true );
+
+        assertTrue( entity.isRepeatable( ) );
+        assertFalse( entity.isStreaming( ) );
+        assertEquals( -1, entity.getContentLength( ) );
+        // a retried request writes the same body again
+        final byte [ ] first = writeBytes( entity );
+        assertTrue( Arrays.equals( first, writeBytes( entity ) ) );
+        assertTrue( Arrays.equals( first, read( entity.getContent( ) ) ) );
+    }
+
+    public void testEmpty( ) throws IOException
+    {
+        final BulkRequestEntity entity = new BulkRequestEntity( "identities", Collections.emptyList( ), _mapper.writer( ), false );
+
+        assertEquals( "", write( entity ) );
+    }
+
+    private static List<BulkAction> actions( )
+    {
+        final BulkAction index = new BulkAction( "cuid-1", Collections.singletonMap( "customerId", "cuid-1" ), BulkActionType.INDEX );
+        index.setVersion( 42L );
+        final BulkAction create = new BulkAction( "cuid-2", "{\"customerId\":\"cuid-2\"}", BulkActionType.CREATE );
+        final BulkAction delete = new BulkAction( "cuid-3", null, BulkActionType.DELETE );
+        return Arrays.asList( index, create, delete );
+    }
+
+    private static String expected( )
+    {
+        return "{\"index\":{\"_index\":\"identities\",\"_id\":\"cuid-1\",\"version\":42,\"version_type\":\"external\"}}\n"
+                + "{\"customerId\":\"cuid-1\"}\n" + "{\"create\":{\"_index\":\"identities\",\"_id\":\"cuid-2\"}}\n" + "{\"customerId\":\"cuid-2\"}\n"
+                + "{\"delete\":{\"_index\":\"identities\",\"_id\":\"cuid-3\"}}\n";
+    }
+
+    private static String write( final BulkRequestEntity entity ) throws IOException
+    {
+        return new String( writeBytes( entity ), StandardCharsets.UTF_8 );
+    }
+
+    private static byte [ ] writeBytes( final BulkRequestEntity entity ) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        entity.writeTo( out );
+        return out.toByteArray( );
+    }
+
+    private static byte [ ] read( final InputStream in ) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        final byte [ ] buffer = new byte [ 1024];
+        int nRead;
+        while ( ( nRead = in.read( buffer ) ) != -1 )
+        {
+            out.write( buffer, 0, nRead );
+        }
+        return out.toByteArray( );
+    }
+}
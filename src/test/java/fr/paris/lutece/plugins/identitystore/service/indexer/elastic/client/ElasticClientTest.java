@@ -42,6 +42,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.stream.Collectors;
 
 public class ElasticClientTest extends AbstractIdentityStoreTestCase
@@ -118,4 +119,43 @@ public class ElasticClientTest extends AbstractIdentityStoreTestCase
         assertTrue( "Alias " + IDENTITIES_ALIAS + " devrait exister", aliasExists );
 
     }
+
+    public void testVersionedWrites( ) throws ElasticClientException
+    {
+        final String index = "versioned-index";
+        this.elasticClient.create( index, "cuid", Collections.singletonMap( "customerId", "v10" ), 10L );
+
+        // an older write is rejected with a conflict, the indexed document is kept
+        this.assertConflict( ( ) -> this.elasticClient.update( index, "cuid", Collections.singletonMap( "customerId", "v5" ), 5L ) );
+        this.assertConflict( ( ) -> this.elasticClient.create( index, "cuid", Collections.singletonMap( "customerId", "v10" ), 10L ) );
+        assertTrue( this.elasticClient.get( index, "cuid" ).contains( "v10" ) );
+
+        this.elasticClient.update( index, "cuid", Collections.singletonMap( "customerId", "v20" ), 20L );
+        assertTrue( this.elasticClient.get( index, "cuid" ).contains( "v20" ) );
+
+        // deletes are versioned the same way
+        this.assertConflict( ( ) -> this.elasticClient.deleteDocument( index, "cuid", 15L ) );
+        this.elasticClient.deleteDocument( index, "cuid", 21L );
+        // the delete is kept as a tombstone: a write older than the delete arriving later is rejected too
+        this.assertConflict( ( ) -> this.elasticClient.update( index, "cuid", Collections.singletonMap( "customerId", "v20" ), 20L ) );
+    }
+
+    private void assertConflict( final Write write )
+    {
+        try
+        {
+            write.execute( );
+            fail( "The write should be rejected with a conflict" );
+        }
+        catch( final ElasticClientException e )
+        {
+            assertTrue( e.getMessage( ), ElasticClient.isConflict( e ) );
+        }
+    }
+
+    @FunctionalInterface
+    private interface Write
+    {
+        void execute( ) throws ElasticClientException;
+    }
 }
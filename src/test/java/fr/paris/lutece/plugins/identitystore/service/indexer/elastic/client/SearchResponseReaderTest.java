@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.client;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Hit;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.HitCollector;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Response;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Responses;
+import fr.paris.lutece.test.LuteceTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class SearchResponseReaderTest extends LuteceTestCase
+{
+    private static final ObjectMapper _mapper = new ObjectMapper( ).disable( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES );
+
+    public void testReadSearch( ) throws IOException
+    {
+        final String json = "{\"took\":5,\"timed_out\":false,\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+                + "\"hits\":{\"total\":{\"value\":3,\"relation\":\"eq\"},\"max_score\":2.5,\"hits\":[" + hit( "1", "cuid-1", 2 ) + ","
+                + hit( "2", "cuid-2", 1 ) + "," + hit( "3", "cuid-1", 1 ) + "]},\"pit_id\":\"pit\",\"unknown\":{\"a\":[1,2]}}";
+        final HitCollector collector = new HitCollector( 10 );
+
+        final Response response = SearchResponseReader.readSearch( _mapper, stream( json ), collector );
+
+        assertEquals( "5", response.getTook( ) );
+        assertEquals( "pit", response.getPointInTimeId( ) );
+        assertEquals( Integer.valueOf( 3 ), response.getResult( ).getTotal( ).getValue( ) );
+        assertEquals( 2.5, response.getResult( ).getMaxScore( ).doubleValue( ) );
+        // the hits are streamed into the collector, not kept in the response
+        assertTrue( response.getResult( ).getHits( ).isEmpty( ) );
+        assertEquals( 3, response.getResult( ).getStreamedHits( ) );
+        // deduplicated by customer id, in reading order
+        assertEquals( "1,2", ids( collector.getHits( ) ) );
+        assertEquals( "3", collector.getLastHit( ).getId( ) );
+    }
+
+    public void testReadSearchSkipsHitsOnceFull( ) throws IOException
+    {
+        // the second hit can't be mapped: reading it would fail
+        final String json = "{\"hits\":{\"max_score\":null,\"hits\":[" + hit( "1", "cuid-1", 1 ) + ","
+                + "{\"_id\":\"2\",\"_score\":\"not a score\",\"_source\":{\"customerId\":\"cuid-2\"}}]},\"took\":3}";
+        final HitCollector collector = new HitCollector( 1 );
+
+        final Response response = SearchResponseReader.readSearch( _mapper, stream( json ), collector );
+
+        assertTrue( collector.isFull( ) );
+        assertEquals( "1", ids( collector.getHits( ) ) );
+        assertEquals( "1", collector.getLastHit( ).getId( ) );
+        assertEquals( 2, response.getResult( ).getStreamedHits( ) );
+        assertNull( response.getResult( ).getMaxScore( ) );
+        // the fields after the skipped hits are still read
+        assertEquals( "3", response.getTook( ) );
+    }
+
+    public void testReadMultiSearch( ) throws IOException
+    {
+        final String json = "{\"took\":7,\"responses\":[{\"status\":200,\"hits\":{\"hits\":[" + hit( "1", "cuid-1", 1 ) + ","
+                + hit( "2", "cuid-2", 1 ) + "]}},{\"status\":200,\"hits\":{\"hits\":[" + hit( "3", "cuid-2", 1 ) + ","
+                + hit( "4", "cuid-3", 1 ) + "," + hit( "5", "cuid-4", 1 ) + "]}}]}";
+        final HitCollector collector = new HitCollector( 3 );
+
+        final Responses responses = SearchResponseReader.readMultiSearch( _mapper, stream( json ), collector );
+
+        assertEquals( "7", responses.getTook( ) );
+        assertEquals( 2, responses.getResponses( ).size( ) );
+        assertEquals( Integer.valueOf( 200 ), responses.getResponses( ).get( 1 ).getStatus( ) );
+        assertEquals( 3, responses.getResponses( ).get( 1 ).getResult( ).getStreamedHits( ) );
+        // the hits of all the responses share the collector and its limit
+        assertEquals( "1,2,4", ids( collector.getHits( ) ) );
+    }
+
+    public void testReadUnexpectedContent( )
+    {
+        try
+        {
+            SearchResponseReader.readSearch( _mapper, stream( "[]" ), new HitCollector( 1 ) );
+            fail( "An array is not a search response" );
+        }
+        catch( final IOException e )
+        {
+            // expected
+        }
+    }
+
+    public void testCollector( )
+    {
+        final HitCollector collector = new HitCollector( 2 );
+        final Hit withoutSource = new Hit( );
+        withoutSource.setId( "0" );
+        collector.collect( withoutSource );
+        assertTrue( collector.getHits( ).isEmpty( ) );
+        assertSame( withoutSource, collector.getLastHit( ) );
+        assertFalse( collector.isFull( ) );
+    }
+
+    private static String hit( final String strId, final String strCustomerId, final int nScore )
+    {
+        return "{\"_index\":\"identities\",\"_id\":\"" + strId + "\",\"_score\":" + nScore + ",\"_source\":{\"customerId\":\"" + strCustomerId
+                + "\"},\"sort\":[" + nScore + ",\"" + strId + "\"]}";
+    }
+
+    private static InputStream stream( final String json )
+    {
+        return new ByteArrayInputStream( json.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    private static String ids( final List<Hit> hits )
+    {
+        return hits.stream( ).map( Hit::getId ).collect( Collectors.joining( "," ) );
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+import java.util.Arrays;
+
+public class PhoneticEncoderTest extends LuteceTestCase
+{
+    public void testEncode( )
+    {
+        assertEquals( "D153", PhoneticEncoder.encode( "Dupont" ) );
+        assertEquals( "D153", PhoneticEncoder.encode( "Dupond" ) );
+        assertEquals( "D52", PhoneticEncoder.encode( "Dominique" ) );
+        assertEquals( "D52", PhoneticEncoder.encode( "Dominik" ) );
+        // accents
+        assertEquals( "L96", PhoneticEncoder.encode( "Lefèvre" ) );
+        assertEquals( "L96", PhoneticEncoder.encode( "LEFEVRE" ) );
+        // ligatures
+        assertEquals( "B9", PhoneticEncoder.encode( "Bœuf" ) );
+        assertEquals( "B9", PhoneticEncoder.encode( "Boeuf" ) );
+        assertEquals( "C86", PhoneticEncoder.encode( "Cæsar" ) );
+        // the separators are ignored by the code of the whole value
+        assertEquals( "J516", PhoneticEncoder.encode( "Jean-Pierre" ) );
+        assertEquals( "J516", PhoneticEncoder.encode( "Jean Pierre" ) );
+    }
+
+    public void testEncodeWithoutLetter( )
+    {
+        assertNull( PhoneticEncoder.encode( null ) );
+        assertNull( PhoneticEncoder.encode( "  " ) );
+        assertNull( PhoneticEncoder.encode( "1234" ) );
+        assertNull( PhoneticEncoder.encodeTokens( "12 - 34" ) );
+    }
+
+    public void testEncodeTokens( )
+    {
+        assertEquals( Arrays.asList( "J5", "P6" ), PhoneticEncoder.encodeTokens( "Jean-Pierre" ) );
+        assertEquals( Arrays.asList( "J5", "P6" ), PhoneticEncoder.encodeTokens( "Jean Pierre" ) );
+        assertEquals( Arrays.asList( "J5", "P6" ), PhoneticEncoder.encodeTokens( " Jean,Pierre " ) );
+        assertEquals( Arrays.asList( "D", "A62" ), PhoneticEncoder.encodeTokens( "D'Arc" ) );
+        // distinct codes
+        assertEquals( Arrays.asList( "M6", "A5" ), PhoneticEncoder.encodeTokens( "Marie-Anne Marie" ) );
+    }
+
+    public void testOnlyNamesAreEncoded( )
+    {
+        final AttributeObject name = new AttributeObject( );
+        name.setValue( "Dupont" );
+        assertNull( name.getPhoneticValue( ) );
+        // whatever the order of the setters
+        name.setKey( "family_name" );
+        assertEquals( "D153", name.getPhoneticValue( ) );
+        assertEquals( Arrays.asList( "D153" ), name.getPhoneticTokens( ) );
+
+        final AttributeObject email = new AttributeObject( );
+        email.setKey( "email" );
+        email.setValue( "dupont@example.com" );
+        assertNull( email.getPhoneticValue( ) );
+        assertNull( email.getPhoneticTokens( ) );
+    }
+}
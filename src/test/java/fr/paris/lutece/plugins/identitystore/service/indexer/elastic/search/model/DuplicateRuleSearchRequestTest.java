@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model;
+
+import fr.paris.lutece.plugins.identitystore.AbstractIdentityStoreTestCase;
+import fr.paris.lutece.plugins.identitystore.IdentityStoreTestContext;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.client.ElasticClient;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.client.ElasticClientException;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.AttributeObject;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.index.model.IdentityObject;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.request.InnerSearchRequest;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Hit;
+import fr.paris.lutece.plugins.identitystore.service.indexer.elastic.search.model.inner.response.Response;
+import fr.paris.lutece.plugins.identitystore.utils.Combinations;
+import fr.paris.lutece.plugins.identitystore.utils.Maps;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.AttributeTreatmentType;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.search.SearchAttribute;
+import org.testcontainers.elasticsearch.ElasticsearchContainer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Checks that a {@link DuplicateRuleSearchRequest} matches the same identities, with the same metadata, as the list of {@link ComplexSearchRequest}
+ * built for every combination of the rule.
+ */
+public class DuplicateRuleSearchRequestTest extends AbstractIdentityStoreTestCase
+{
+    private static final String IDENTITIES_INDEX = "identities-index";
+    protected ElasticsearchContainer elasticsearchContainer;
+    protected String esUrl;
+    protected ElasticClient elasticClient;
+
+    @Override
+    protected void setUp( ) throws Exception
+    {
+        super.setUp( );
+        this.startContainers( );
+        this.elasticClient = new ElasticClient( this.esUrl );
+        this.initIndex( );
+    }
+
+    @Override
+    protected void tearDown( ) throws Exception
+    {
+        super.tearDown( );
+        this.shutDownContainers( );
+    }
+
+    protected void startContainers( )
+    {
+        elasticsearchContainer = new ElasticsearchContainer(
+                "docker.elastic.co/elasticsearch/elasticsearch:".concat( IdentityStoreTestContext.ELASTICSEARCH_VERSION ) )
+                        .withEnv( "xpack.security.enabled", "false" ).withNetworkAliases( "localhost" ).withReuse( false );
+        elasticsearchContainer.start( );
+        this.esUrl = "http://" + elasticsearchContainer.getHttpHostAddress( );
+    }
+
+    protected void shutDownContainers( )
+    {
+        if ( elasticsearchContainer != null && elasticsearchContainer.isRunning( ) )
+        {
+            elasticsearchContainer.stop( );
+            elasticsearchContainer = null;
+        }
+    }
+
+    @Override
+    protected void preInitApplication( ) throws IOException
+    {
+
+    }
+
+    public void testRuleWithoutSpecialTreatment( ) throws Exception
+    {
+        final List<SearchAttribute> attributes = this.searchAttributes( "Dupont", "Dominique", "01/01/2002", "1", "75056" );
+        this.assertEquivalent( attributes, Collections.emptyList( ), 4, 0 );
+        this.assertEquivalent( attributes, Collections.emptyList( ), 3, 1 );
+        this.assertEquivalent( attributes, Collections.emptyList( ), 2, 2 );
+    }
+
+    public void testRuleWithSpecialTreatment( ) throws Exception
+    {
+        final List<SearchAttribute> attributes = this.searchAttributes( "Dupont", "Dominique", "01/01/2002", "1", "75056" );
+        final List<List<SearchAttribute>> specialTreatments = Arrays.asList(
+                Collections.singletonList( this.searchAttribute( "family_name", "Dupond", AttributeTreatmentType.APPROXIMATED ) ),
+                Collections.singletonList( this.searchAttribute( "first_name", "Dominique", AttributeTreatmentType.DIFFERENT ) ) );
+        this.assertEquivalent( attributes, specialTreatments, 3, 0 );
+        this.assertEquivalent( attributes, specialTreatments, 2, 1 );
+    }
+
+    public void testRuleWithPhoneticKeys( ) throws Exception
+    {
+        final List<SearchAttribute> attributes = this.searchAttributes( "Dupont", "Dominique", "01/01/2002", "1", "75056" );
+        final List<List<SearchAttribute>> specialTreatments = Arrays.asList(
+                Collections.singletonList( this.searchAttribute( "family_name", "Dupond", AttributeTreatmentType.APPROXIMATED ) ),
+                Collections.singletonList( this.searchAttribute( "first_name", "Dominik", AttributeTreatmentType.APPROXIMATED ) ) );
+        this.assertEquivalent( attributes, specialTreatments, 3, 0, true );
+        this.assertEquivalent( attributes, specialTreatments, 2, 1, true );
+    }
+
+    private void assertEquivalent( final List<SearchAttribute> attributes, final List<List<SearchAttribute>> specialTreatments,
+            final int nbEqualAttributes, final int nbMissingAttributes ) throws ElasticClientException
+    {
+        this.assertEquivalent( attributes, specialTreatments, nbEqualAttributes, nbMissingAttributes, false );
+    }
+
+    private void assertEquivalent( final List<SearchAttribute> attributes, final List<List<SearchAttribute>> specialTreatments,
+            final int nbEqualAttributes, final int nbMissingAttributes, final boolean phoneticKeys ) throws ElasticClientException
+    {
+        final Set<String> expectedCustomerIds = new HashSet<>( );
+        final Map<String, String> expectedMetadata = new HashMap<>( );
+        for ( final ComplexSearchRequest request : this.expand( attributes, specialTreatments, nbEqualAttributes, nbMissingAttributes, phoneticKeys ) )
+        {
+            final InnerSearchRequest body = request.body( );
+            final List<Hit> hits = this.search( body );
+            if ( !hits.isEmpty( ) )
+            {
+                hits.forEach( hit -> expectedCustomerIds.add( hit.getSource( ).getCustomerId( ) ) );
+                Maps.mergeStringMap( expectedMetadata, body.getMetadata( ) );
+            }
+        }
+
+        final DuplicateRuleSearchRequest compiled = new DuplicateRuleSearchRequest( attributes, specialTreatments, nbEqualAttributes, nbMissingAttributes,
+                false, Collections.emptyList( ), phoneticKeys );
+        final List<Hit> hits = this.search( compiled.body( ) );
+        final Set<String> customerIds = hits.stream( ).map( hit -> hit.getSource( ).getCustomerId( ) ).collect( Collectors.toSet( ) );
+        final Map<String, String> metadata = new HashMap<>( );
+        hits.forEach( hit -> Maps.mergeStringMap( metadata, compiled.getMetadata( hit.getMatchedQueries( ) ) ) );
+
+        final String rule = nbEqualAttributes + " equal / " + nbMissingAttributes + " missing";
+        assertEquals( "Identities differ for rule " + rule, expectedCustomerIds, customerIds );
+        assertEquals( "Metadata differ for rule " + rule, this.normalize( expectedMetadata ), this.normalize( metadata ) );
+    }
+
+    /**
+     * The former expansion of a duplicate rule : one request per combination.
+     */
+    private List<ComplexSearchRequest> expand( final List<SearchAttribute> attributes, final List<List<SearchAttribute>> specialTreatments,
+            final int nbEqualAttributes, final int nbMissingAttributes, final boolean phoneticKeys )
+    {
+        final List<List<SearchAttribute>> workingCombinations = new ArrayList<>( );
+        for ( final List<SearchAttribute> equalAttributes : Combinations.combinations( attributes, nbEqualAttributes ) )
+        {
+            if ( specialTreatments.isEmpty( ) )
+            {
+                workingCombinations.add( equalAttributes );
+            }
+            else
+            {
+                specialTreatments.stream( )
+                        .filter( nuple -> nuple.stream( )
+                                .noneMatch( n -> equalAttributes.stream( ).anyMatch( equal -> Objects.equals( equal.getKey( ), n.getKey( ) ) ) ) )
+                        .forEach( nuple -> workingCombinations.add( Stream.concat( equalAttributes.stream( ), nuple.stream( ) ).collect( Collectors.toList( ) ) ) );
+            }
+        }
+
+        final List<ComplexSearchRequest> requests = new ArrayList<>( );
+        for ( final List<SearchAttribute> working : workingCombinations )
+        {
+            if ( nbMissingAttributes == 0 )
+            {
+                requests.add( new ComplexSearchRequest( working, false, Collections.emptyList( ), phoneticKeys ) );
+                continue;
+            }
+            final List<SearchAttribute> missingAttributes = attributes.stream( )
+                    .filter( attribute -> working.stream( ).noneMatch( w -> Objects.equals( w.getKey( ), attribute.getKey( ) ) ) )
+                    .collect( Collectors.toList( ) );
+            for ( final List<SearchAttribute> missing : Combinations.combinations( missingAttributes, nbMissingAttributes ) )
+            {
+                final List<SearchAttribute> complete = missing.stream( )
+                        .map( attribute -> this.searchAttribute( attribute.getKey( ), attribute.getValue( ), AttributeTreatmentType.ABSENT ) )
+                        .collect( Collectors.toList( ) );
+                complete.addAll( working );
+                requests.add( new ComplexSearchRequest( complete, false, Collections.emptyList( ), phoneticKeys ) );
+            }
+        }
+        return requests;
+    }
+
+    private List<Hit> search( final InnerSearchRequest body ) throws ElasticClientException
+    {
+        body.setFrom( 0 );
+        body.setSize( 100 );
+        final Response response = this.elasticClient.search( IDENTITIES_INDEX, body );
+        return response.getResult( ) != null ? response.getResult( ).getHits( ) : Collections.emptyList( );
+    }
+
+    private Map<String, Set<String>> normalize( final Map<String, String> metadata )
+    {
+        return metadata.entrySet( ).stream( )
+                .collect( Collectors.toMap( Map.Entry::getKey, entry -> new HashSet<>( Arrays.asList( entry.getValue( ).split( "," ) ) ) ) );
+    }
+
+    private void initIndex( ) throws Exception
+    {
+        final InputStream inputStream = this.getClass( ).getClassLoader( )
+                .getResourceAsStream( "fr/paris/lutece/plugins/identitystore/service/indexer/elastic/index/model/internal/mappings.json" );
+        final String mappings = new BufferedReader( new InputStreamReader( inputStream, StandardCharsets.UTF_8 ) ).lines( )
+                .collect( Collectors.joining( "\n" ) );
+        this.elasticClient.createMappings( IDENTITIES_INDEX, mappings );
+
+        final List<IdentityObject> identities = Arrays.asList( this.identity( "1", "Dupont", "Dominique", "01/01/2002", "1", "75056" ),
+                this.identity( "2", "Dupont", "Dominique", "01/01/2002", "1", null ), this.identity( "3", "Dupont", "Dominique", "01/01/2002", null, null ),
+                this.identity( "4", "Dupond", "Dominique", "01/01/2002", "1", "75056" ), this.identity( "5", "Dupont", "Pierre", "01/01/2002", "1", "75056" ),
+                this.identity( "6", "Dupond", "Pierre", "01/01/2002", "1", null ), this.identity( "7", "Martin", "Dominique", "02/02/1990", "2", "75056" ),
+                this.identity( "8", "Dupont", null, null, null, null ) );
+        for ( final IdentityObject identity : identities )
+        {
+            this.elasticClient.create( IDENTITIES_INDEX, identity.getCustomerId( ), identity );
+        }
+
+        // wait for the documents to be searchable
+        for ( int retry = 0; retry < 30 && this.search( new InnerSearchRequest( ) ).size( ) < identities.size( ); retry++ )
+        {
+            Thread.sleep( 500 );
+        }
+    }
+
+    private IdentityObject identity( final String customerId, final String familyName, final String firstName, final String birthdate,
+            final String gender, final String birthplaceCode )
+    {
+        final IdentityObject identity = new IdentityObject( );
+        identity.setCustomerId( customerId );
+        this.putAttribute( identity, "family_name", familyName );
+        this.putAttribute( identity, "first_name", firstName );
+        this.putAttribute( identity, "birthdate", birthdate );
+        this.putAttribute( identity, "gender", gender );
+        this.putAttribute( identity, "birthplace_code", birthplaceCode );
+        return identity;
+    }
+
+    private void putAttribute( final IdentityObject identity, final String key, final String value )
+    {
+        if ( value != null )
+        {
+            final AttributeObject attribute = new AttributeObject( );
+            attribute.setKey( key );
+            attribute.setValue( value );
+            identity.getAttributes( ).put( key, attribute );
+        }
+    }
+
+    private List<SearchAttribute> searchAttributes( final String familyName, final String firstName, final String birthdate, final String gender,
+            final String birthplaceCode )
+    {
+        return Arrays.asList( this.searchAttribute( "family_name", familyName, AttributeTreatmentType.STRICT ),
+                this.searchAttribute( "first_name", firstName, AttributeTreatmentType.STRICT ),
+                this.searchAttribute( "birthdate", birthdate, AttributeTreatmentType.STRICT ),
+                this.searchAttribute( "gender", gender, AttributeTreatmentType.STRICT ),
+                this.searchAttribute( "birthplace_code", birthplaceCode, AttributeTreatmentType.STRICT ) );
+    }
+
+    private SearchAttribute searchAttribute( final String key, final String value, final AttributeTreatmentType treatmentType )
+    {
+        return new SearchAttribute( key, value, Collections.singletonList( key ), treatmentType );
+    }
+}